@@ -0,0 +1,218 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.bench;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rmi.ConnectionMode;
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.io.WireFormat;
+
+/**
+ * The benchmark measuring how the latency of a call grows with the size of its
+ * argument and return value, for arguments with a compact binary encoding
+ * ({@code byte[]} and {@code String}) and for arguments that fall back to Java
+ * serialization (a list of integers), over pooled connections.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArgumentSizeBenchmark {
+
+	/**
+	 * The remote interface echoing its arguments.
+	 */
+	public interface EchoService {
+
+		/**
+		 * Returns the given bytes.
+		 *
+		 * @param bytes
+		 *            the bytes
+		 * @return the same bytes
+		 * @throws RMIException
+		 *             if the call cannot be completed
+		 */
+		public byte[] echoBytes(byte[] bytes) throws RMIException;
+
+		/**
+		 * Returns the given string.
+		 *
+		 * @param string
+		 *            the string
+		 * @return the same string
+		 * @throws RMIException
+		 *             if the call cannot be completed
+		 */
+		public String echoString(String string) throws RMIException;
+
+		/**
+		 * Returns the given list.
+		 *
+		 * @param list
+		 *            the list
+		 * @return the same list
+		 * @throws RMIException
+		 *             if the call cannot be completed
+		 */
+		public ArrayList<Integer> echoList(ArrayList<Integer> list) throws RMIException;
+	}
+
+	/**
+	 * The service implementation returning its arguments unchanged.
+	 */
+	private static class EchoServer implements EchoService {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public byte[] echoBytes(byte[] bytes) {
+			return bytes;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String echoString(String string) {
+			return string;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public ArrayList<Integer> echoList(ArrayList<Integer> list) {
+			return list;
+		}
+	}
+
+	/**
+	 * The size of the argument: bytes of the array, characters of the string
+	 * and elements of the list.
+	 */
+	@Param({ "0", "64", "1024", "16384", "262144" })
+	public int size;
+	/**
+	 * The encoding of the messages on the connections.
+	 */
+	@Param({ "BINARY", "SERIALIZATION" })
+	public WireFormat wireFormat;
+
+	/**
+	 * The skeleton serving the calls.
+	 */
+	private Skeleton<EchoService> skeleton;
+	/**
+	 * The stub calling the skeleton.
+	 */
+	private EchoService stub;
+	/**
+	 * The byte array argument.
+	 */
+	private byte[] bytes;
+	/**
+	 * The string argument.
+	 */
+	private String string;
+	/**
+	 * The list argument.
+	 */
+	private ArrayList<Integer> list;
+
+	/**
+	 * Starts the skeleton and prepares the arguments.
+	 *
+	 * @throws RMIException
+	 *             if the skeleton cannot be started
+	 */
+	@Setup(Level.Trial)
+	public void start() throws RMIException {
+		Random random = new Random(size);
+		bytes = new byte[size];
+		random.nextBytes(bytes);
+		StringBuilder builder = new StringBuilder(size);
+		list = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			builder.append((char) ('a' + random.nextInt(26)));
+			list.add(random.nextInt());
+		}
+		string = builder.toString();
+
+		Stub.setConnectionMode(ConnectionMode.POOLED);
+		Stub.setWireFormat(wireFormat);
+		skeleton = new Skeleton<EchoService>(EchoService.class, new EchoServer());
+		skeleton.start();
+		stub = Stub.create(EchoService.class, skeleton);
+	}
+
+	/**
+	 * Stops the skeleton and closes the pooled connections.
+	 */
+	@TearDown(Level.Trial)
+	public void stop() {
+		skeleton.stop();
+		Stub.getConnectionPool().clear();
+	}
+
+	/**
+	 * Echoes the byte array.
+	 *
+	 * @return the echoed array
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	public byte[] bytes() throws RMIException {
+		return stub.echoBytes(bytes);
+	}
+
+	/**
+	 * Echoes the string.
+	 *
+	 * @return the echoed string
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	public String string() throws RMIException {
+		return stub.echoString(string);
+	}
+
+	/**
+	 * Echoes the list.
+	 *
+	 * @return the echoed list
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	public ArrayList<Integer> list() throws RMIException {
+		return stub.echoList(list);
+	}
+
+}
@@ -0,0 +1,142 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rmi.ConnectionMode;
+import rmi.RMIException;
+import rmi.ServerEngine;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+
+/**
+ * The benchmark measuring the call throughput of one skeleton as the number of
+ * threads calling it through a shared stub grows, for every stub connection
+ * mode and skeleton server engine. Other thread counts can be measured by
+ * running {@link #ping()} with the <code>-t</code> option of JMH.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrencyBenchmark {
+
+	/**
+	 * The way the stub connects to the skeleton.
+	 */
+	@Param({ "PER_CALL", "POOLED", "MULTIPLEXED" })
+	public ConnectionMode connectionMode;
+	/**
+	 * The way the skeleton serves its connections.
+	 */
+	@Param({ "BLOCKING", "NIO" })
+	public ServerEngine serverEngine;
+
+	/**
+	 * The skeleton serving the calls.
+	 */
+	private Skeleton<IPingServer> skeleton;
+	/**
+	 * The stub shared by the calling threads.
+	 */
+	private IPingServer stub;
+
+	/**
+	 * Starts the skeleton and creates the shared stub.
+	 *
+	 * @throws RMIException
+	 *             if the skeleton cannot be started
+	 */
+	@Setup(Level.Trial)
+	public void start() throws RMIException {
+		Stub.setConnectionMode(connectionMode);
+		Stub.getConnectionPool().setMaxIdlePerAddress(64);
+		skeleton = new Skeleton<IPingServer>(IPingServer.class, new PingServer());
+		skeleton.setServerEngine(serverEngine);
+		skeleton.start();
+		stub = Stub.create(IPingServer.class, skeleton);
+	}
+
+	/**
+	 * Stops the skeleton and closes the pooled connections.
+	 */
+	@TearDown(Level.Trial)
+	public void stop() {
+		skeleton.stop();
+		Stub.getConnectionPool().clear();
+	}
+
+	/**
+	 * Calls the skeleton from as many threads as JMH is told to run.
+	 *
+	 * @return the response of the call
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	public String ping() throws RMIException {
+		return stub.ping(1);
+	}
+
+	/**
+	 * Calls the skeleton from 4 threads.
+	 *
+	 * @return the response of the call
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	@Threads(4)
+	public String ping4() throws RMIException {
+		return stub.ping(1);
+	}
+
+	/**
+	 * Calls the skeleton from 16 threads.
+	 *
+	 * @return the response of the call
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	@Threads(16)
+	public String ping16() throws RMIException {
+		return stub.ping(1);
+	}
+
+	/**
+	 * Calls the skeleton from 64 threads.
+	 *
+	 * @return the response of the call
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	@Threads(64)
+	public String ping64() throws RMIException {
+		return stub.ping(1);
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rmi.RMIException;
+import rmi.ServerEngine;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+
+/**
+ * The benchmark measuring the cost of the skeleton life cycle: starting and
+ * stopping an idle skeleton, and starting one, serving a first call and
+ * stopping it again, for both server engines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LifecycleBenchmark {
+
+	/**
+	 * The way the skeleton serves its connections.
+	 */
+	@Param({ "BLOCKING", "NIO" })
+	public ServerEngine serverEngine;
+
+	/**
+	 * The server object of the skeletons.
+	 */
+	private final PingServer server = new PingServer();
+
+	/**
+	 * Starts and stops a skeleton.
+	 *
+	 * @throws RMIException
+	 *             if the skeleton cannot be started
+	 */
+	@Benchmark
+	public void startStop() throws RMIException {
+		Skeleton<IPingServer> skeleton = newSkeleton();
+		skeleton.start();
+		skeleton.stop();
+	}
+
+	/**
+	 * Starts a skeleton, makes the first call to it through a new stub and
+	 * stops it.
+	 *
+	 * @return the response of the call
+	 * @throws RMIException
+	 *             if the skeleton cannot be started or the call fails
+	 */
+	@Benchmark
+	public String startCallStop() throws RMIException {
+		Skeleton<IPingServer> skeleton = newSkeleton();
+		skeleton.start();
+		try {
+			return Stub.create(IPingServer.class, skeleton).ping(1);
+		} finally {
+			skeleton.stop();
+		}
+	}
+
+	/**
+	 * Creates a skeleton on a system-assigned port with the engine under
+	 * measurement.
+	 *
+	 * @return the skeleton
+	 */
+	private Skeleton<IPingServer> newSkeleton() {
+		Skeleton<IPingServer> skeleton = new Skeleton<IPingServer>(IPingServer.class, server);
+		skeleton.setServerEngine(serverEngine);
+		return skeleton;
+	}
+
+}
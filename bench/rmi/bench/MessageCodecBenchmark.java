@@ -0,0 +1,276 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rmi.io.BinaryCodec;
+import rmi.io.FrameReader;
+import rmi.io.FrameWriter;
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+
+/**
+ * The benchmark measuring the encoding and decoding of the messages of a
+ * {@link rmi.server.IPingServer#ping(int)} call, without any I/O, in the binary
+ * frame encoding of {@link BinaryCodec} and in plain Java serialization as
+ * written by {@link rmi.io.SerializationCodec}. A request is measured both in
+ * its compact form, identifying the method by number, and with the method
+ * named in full.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageCodecBenchmark {
+
+	/**
+	 * The compact request of a ping call.
+	 */
+	private RMIRequest compactRequest;
+	/**
+	 * The request of a ping call naming the method in full.
+	 */
+	private RMIRequest namedRequest;
+	/**
+	 * The response to a ping call.
+	 */
+	private RMIResponse response;
+	/**
+	 * The buffer into which binary frames are encoded, reused as the codec
+	 * reuses its own.
+	 */
+	private final FrameWriter writer = new FrameWriter();
+	/**
+	 * The binary encoding of the compact request, without the frame length.
+	 */
+	private byte[] compactRequestFrame;
+	/**
+	 * The binary encoding of the response, without the frame length.
+	 */
+	private byte[] responseFrame;
+	/**
+	 * The serialized form of the named request.
+	 */
+	private byte[] serializedRequest;
+	/**
+	 * The serialized form of the response.
+	 */
+	private byte[] serializedResponse;
+
+	/**
+	 * Builds the messages and their encoded forms.
+	 *
+	 * @throws IOException
+	 *             if a message cannot be encoded
+	 */
+	@Setup
+	public void prepare() throws IOException {
+		compactRequest = new RMIRequest(1, "rmi.server.IPingServer", 0x1234ABCD, 0, "ping", new Object[] { 42 },
+				new String[] { "int" });
+		namedRequest = new RMIRequest(1, "rmi.server.IPingServer", "ping", new Object[] { 42 },
+				new String[] { "int" });
+		response = new RMIResponse(1, "Pong 42");
+
+		compactRequestFrame = encode(compactRequest);
+		writer.reset();
+		BinaryCodec.encodeResponse(response, writer);
+		responseFrame = Arrays.copyOf(writer.buffer(), writer.length());
+		serializedRequest = serialize(namedRequest);
+		serializedResponse = serialize(response);
+	}
+
+	/**
+	 * Encodes the compact request in the binary encoding.
+	 *
+	 * @return the encoded length
+	 * @throws IOException
+	 *             if the request cannot be encoded
+	 */
+	@Benchmark
+	public int binaryEncodeCompactRequest() throws IOException {
+		writer.reset();
+		BinaryCodec.encodeRequest(compactRequest, writer);
+		return writer.length();
+	}
+
+	/**
+	 * Encodes the named request in the binary encoding.
+	 *
+	 * @return the encoded length
+	 * @throws IOException
+	 *             if the request cannot be encoded
+	 */
+	@Benchmark
+	public int binaryEncodeNamedRequest() throws IOException {
+		writer.reset();
+		BinaryCodec.encodeRequest(namedRequest, writer);
+		return writer.length();
+	}
+
+	/**
+	 * Decodes the compact request from the binary encoding.
+	 *
+	 * @return the decoded request
+	 * @throws IOException
+	 *             if the request cannot be decoded
+	 * @throws ClassNotFoundException
+	 *             never, as the request carries no serialized values
+	 */
+	@Benchmark
+	public RMIRequest binaryDecodeCompactRequest() throws IOException, ClassNotFoundException {
+		return BinaryCodec.decodeRequest(new FrameReader(compactRequestFrame, 0, compactRequestFrame.length));
+	}
+
+	/**
+	 * Encodes the response in the binary encoding.
+	 *
+	 * @return the encoded length
+	 * @throws IOException
+	 *             if the response cannot be encoded
+	 */
+	@Benchmark
+	public int binaryEncodeResponse() throws IOException {
+		writer.reset();
+		BinaryCodec.encodeResponse(response, writer);
+		return writer.length();
+	}
+
+	/**
+	 * Decodes the response from the binary encoding.
+	 *
+	 * @return the decoded response
+	 * @throws IOException
+	 *             if the response cannot be decoded
+	 * @throws ClassNotFoundException
+	 *             never, as the response carries no serialized values
+	 */
+	@Benchmark
+	public RMIResponse binaryDecodeResponse() throws IOException, ClassNotFoundException {
+		return BinaryCodec.decodeResponse(new FrameReader(responseFrame, 0, responseFrame.length));
+	}
+
+	/**
+	 * Serializes the named request.
+	 *
+	 * @return the serialized form
+	 * @throws IOException
+	 *             if the request cannot be serialized
+	 */
+	@Benchmark
+	public byte[] serializeRequest() throws IOException {
+		return serialize(namedRequest);
+	}
+
+	/**
+	 * Deserializes the named request.
+	 *
+	 * @return the deserialized request
+	 * @throws IOException
+	 *             if the request cannot be deserialized
+	 * @throws ClassNotFoundException
+	 *             if a class of the request cannot be loaded
+	 */
+	@Benchmark
+	public Object deserializeRequest() throws IOException, ClassNotFoundException {
+		return deserialize(serializedRequest);
+	}
+
+	/**
+	 * Serializes the response.
+	 *
+	 * @return the serialized form
+	 * @throws IOException
+	 *             if the response cannot be serialized
+	 */
+	@Benchmark
+	public byte[] serializeResponse() throws IOException {
+		return serialize(response);
+	}
+
+	/**
+	 * Deserializes the response.
+	 *
+	 * @return the deserialized response
+	 * @throws IOException
+	 *             if the response cannot be deserialized
+	 * @throws ClassNotFoundException
+	 *             if a class of the response cannot be loaded
+	 */
+	@Benchmark
+	public Object deserializeResponse() throws IOException, ClassNotFoundException {
+		return deserialize(serializedResponse);
+	}
+
+	/**
+	 * Encodes a request in the binary encoding into a new array.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the payload of its frame
+	 * @throws IOException
+	 *             if the request cannot be encoded
+	 */
+	private byte[] encode(RMIRequest request) throws IOException {
+		writer.reset();
+		BinaryCodec.encodeRequest(request, writer);
+		return Arrays.copyOf(writer.buffer(), writer.length());
+	}
+
+	/**
+	 * Serializes a message on a fresh object stream, including the stream
+	 * header.
+	 *
+	 * @param message
+	 *            the message
+	 * @return the serialized form
+	 * @throws IOException
+	 *             if the message cannot be serialized
+	 */
+	private static byte[] serialize(Object message) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(message);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserializes a message from its serialized form.
+	 *
+	 * @param serialized
+	 *            the serialized form
+	 * @return the message
+	 * @throws IOException
+	 *             if the message cannot be deserialized
+	 * @throws ClassNotFoundException
+	 *             if a class of the message cannot be loaded
+	 */
+	private static Object deserialize(byte[] serialized) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			return in.readObject();
+		}
+	}
+
+}
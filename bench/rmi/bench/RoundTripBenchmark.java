@@ -0,0 +1,124 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rmi.ConnectionMode;
+import rmi.RMIException;
+import rmi.ServerEngine;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.io.WireFormat;
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+
+/**
+ * The benchmark measuring the latency of a single {@link IPingServer#ping(int)}
+ * call from one caller, for every combination of stub connection mode, wire
+ * format and skeleton server engine, both through a long-lived stub and through
+ * a stub created for the call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+	/**
+	 * The way the stubs connect to the skeleton.
+	 */
+	@Param({ "PER_CALL", "POOLED", "MULTIPLEXED" })
+	public ConnectionMode connectionMode;
+	/**
+	 * The encoding of the messages on the connections.
+	 */
+	@Param({ "BINARY", "SERIALIZATION" })
+	public WireFormat wireFormat;
+	/**
+	 * The way the skeleton serves its connections.
+	 */
+	@Param({ "BLOCKING", "NIO" })
+	public ServerEngine serverEngine;
+
+	/**
+	 * The skeleton serving the calls.
+	 */
+	private Skeleton<IPingServer> skeleton;
+	/**
+	 * The stub shared by the calls.
+	 */
+	private IPingServer stub;
+	/**
+	 * The identifier passed to the next call.
+	 */
+	private int nextId;
+
+	/**
+	 * Starts the skeleton and creates the shared stub.
+	 *
+	 * @throws RMIException
+	 *             if the skeleton cannot be started
+	 */
+	@Setup(Level.Trial)
+	public void start() throws RMIException {
+		Stub.setConnectionMode(connectionMode);
+		Stub.setWireFormat(wireFormat);
+		skeleton = new Skeleton<IPingServer>(IPingServer.class, new PingServer());
+		skeleton.setServerEngine(serverEngine);
+		skeleton.start();
+		stub = Stub.create(IPingServer.class, skeleton);
+	}
+
+	/**
+	 * Stops the skeleton and closes the pooled connections.
+	 */
+	@TearDown(Level.Trial)
+	public void stop() {
+		skeleton.stop();
+		Stub.getConnectionPool().clear();
+	}
+
+	/**
+	 * Calls the skeleton through the shared stub.
+	 *
+	 * @return the response of the call
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	public String ping() throws RMIException {
+		return stub.ping(nextId++);
+	}
+
+	/**
+	 * Creates a stub and calls the skeleton through it.
+	 *
+	 * @return the response of the call
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	public String createAndPing() throws RMIException {
+		return Stub.create(IPingServer.class, skeleton).ping(nextId++);
+	}
+
+}
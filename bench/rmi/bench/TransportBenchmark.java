@@ -0,0 +1,178 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.bench;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rmi.ConnectionMode;
+import rmi.RMIException;
+import rmi.ServerEngine;
+import rmi.SharedMemoryAddress;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.Transport;
+import rmi.WaitStrategy;
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+
+/**
+ * The benchmark comparing a skeleton on the same host reached over loopback
+ * TCP with one reached through a Unix domain socket and one reached through
+ * shared memory, for every stub connection mode, with calls carrying no
+ * payload and calls echoing a payload of the given size. The TCP and Unix
+ * domain skeletons are served by the {@link ServerEngine#NIO} engine, the
+ * only one a Unix domain skeleton can use; the shared-memory skeleton and its
+ * stubs wait with the given {@link WaitStrategy}, which the other transports
+ * ignore.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+
+	/**
+	 * The transport carrying the connections.
+	 */
+	@Param({ "TCP", "UNIX_DOMAIN", "SHARED_MEMORY" })
+	public Transport transport;
+	/**
+	 * The way shared-memory stubs and skeletons wait on their rings.
+	 */
+	@Param({ "PARK", "BUSY_SPIN" })
+	public WaitStrategy waitStrategy;
+	/**
+	 * The way the stubs connect to the skeleton.
+	 */
+	@Param({ "PER_CALL", "POOLED", "MULTIPLEXED" })
+	public ConnectionMode connectionMode;
+	/**
+	 * The size in bytes of the echoed payload.
+	 */
+	@Param({ "1024", "262144" })
+	public int payloadSize;
+
+	/**
+	 * The directory holding the socket file of a Unix domain or shared-memory
+	 * skeleton; {@code null} for a TCP skeleton.
+	 */
+	private Path directory;
+	/**
+	 * The skeleton serving the calls.
+	 */
+	private Skeleton<IPingServer> skeleton;
+	/**
+	 * The stub shared by the calls.
+	 */
+	private IPingServer stub;
+	/**
+	 * The payload echoed by the calls.
+	 */
+	private byte[] payload;
+	/**
+	 * The identifier passed to the next call.
+	 */
+	private int nextId;
+
+	/**
+	 * Starts the skeleton on the chosen transport and creates the shared stub.
+	 *
+	 * @throws RMIException
+	 *             if the skeleton cannot be started
+	 * @throws IOException
+	 *             if the socket directory cannot be created
+	 */
+	@Setup(Level.Trial)
+	public void start() throws RMIException, IOException {
+		Stub.setConnectionMode(connectionMode);
+		Stub.setWaitStrategy(waitStrategy);
+		if (transport == Transport.SHARED_MEMORY) {
+			// The ring files are created next to the socket, so they are kept
+			// in memory where the system has a memory-backed directory.
+			Path shm = Path.of("/dev/shm");
+			directory = Files.isDirectory(shm) ? Files.createTempDirectory(shm, "rmi-bench")
+					: Files.createTempDirectory("rmi-bench");
+			skeleton = new Skeleton<IPingServer>(IPingServer.class, new PingServer(),
+					SharedMemoryAddress.of(directory.resolve("ping.sock")));
+			skeleton.setWaitStrategy(waitStrategy);
+			skeleton.start();
+			stub = Stub.create(IPingServer.class, skeleton);
+		} else if (transport == Transport.UNIX_DOMAIN) {
+			directory = Files.createTempDirectory("rmi-bench");
+			skeleton = new Skeleton<IPingServer>(IPingServer.class, new PingServer(),
+					UnixDomainSocketAddress.of(directory.resolve("ping.sock")));
+			skeleton.start();
+			stub = Stub.create(IPingServer.class, skeleton);
+		} else {
+			skeleton = new Skeleton<IPingServer>(IPingServer.class, new PingServer());
+			skeleton.setServerEngine(ServerEngine.NIO);
+			skeleton.start();
+			stub = Stub.create(IPingServer.class, skeleton, "127.0.0.1");
+		}
+		payload = new byte[payloadSize];
+	}
+
+	/**
+	 * Stops the skeleton, closes the pooled connections and removes the
+	 * socket directory.
+	 *
+	 * @throws IOException
+	 *             if the socket directory cannot be removed
+	 */
+	@TearDown(Level.Trial)
+	public void stop() throws IOException {
+		skeleton.stop();
+		Stub.getConnectionPool().clear();
+		if (directory != null) {
+			Files.deleteIfExists(directory.resolve("ping.sock"));
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	/**
+	 * Calls the skeleton with no payload.
+	 *
+	 * @return the response of the call
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	public String ping() throws RMIException {
+		return stub.ping(nextId++);
+	}
+
+	/**
+	 * Sends the payload to the skeleton and receives it back.
+	 *
+	 * @return the echoed payload
+	 * @throws RMIException
+	 *             if the call fails
+	 */
+	@Benchmark
+	public byte[] echo() throws RMIException {
+		return stub.echo(payload);
+	}
+
+}
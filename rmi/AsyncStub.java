@@ -0,0 +1,246 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+import rmi.io.RMIResponse;
+
+/**
+ * An asynchronous view of a stub, obtained from {@link Stub#async(Object)}.
+ *
+ * <p>
+ * A remote method is called through the view by naming it in a lambda over
+ * the remote interface, such as <code>async.call(s -&gt; s.ping(42))</code>.
+ * The lambda is run once against a recording object to capture the method and
+ * its arguments; the request is then written to the multiplexed connection to
+ * the skeleton and the caller gets back a {@link CompletableFuture} at once.
+ * The future is completed by the reader thread of the connection with the
+ * return value, or exceptionally with the exception thrown by the remote
+ * method or with an {@link RMIException} if the call could not be made. A
+ * single caller thread can therefore keep any number of calls in flight.
+ *
+ * <p>
+ * Dependent actions attached to the futures without an executor run on the
+ * reader thread of the connection and delay every other response on it; slow
+ * actions should be attached with one of the <code>Async</code> variants of
+ * the {@link CompletableFuture} methods.
+ *
+ * @param <T>
+ *            the remote interface of the stub.
+ */
+public final class AsyncStub<T> {
+
+	/**
+	 * A call of a remote method returning a value, made on the recording
+	 * object passed to it.
+	 *
+	 * @param <T>
+	 *            the remote interface
+	 * @param <R>
+	 *            the return type of the remote method
+	 */
+	@FunctionalInterface
+	public interface RemoteCall<T, R> {
+
+		/**
+		 * Calls exactly one remote method on the given object and returns its
+		 * result unchanged.
+		 *
+		 * @param stub
+		 *            the recording object
+		 * @return the result of the remote method
+		 * @throws Exception
+		 *             never thrown by the recording object; declared so that
+		 *             remote methods can be called without a try block
+		 */
+		R call(T stub) throws Exception;
+	}
+
+	/**
+	 * A call of a remote method returning nothing, made on the recording
+	 * object passed to it.
+	 *
+	 * @param <T>
+	 *            the remote interface
+	 */
+	@FunctionalInterface
+	public interface RemoteRunnable<T> {
+
+		/**
+		 * Calls exactly one remote method on the given object.
+		 *
+		 * @param stub
+		 *            the recording object
+		 * @throws Exception
+		 *             never thrown by the recording object; declared so that
+		 *             remote methods can be called without a try block
+		 */
+		void run(T stub) throws Exception;
+	}
+
+	/**
+	 * The remote interface of the stub.
+	 */
+	private final Class<T> remoteInterface;
+	/**
+	 * The network address of the remote skeleton.
+	 */
+	private final SocketAddress address;
+	/**
+	 * The recorder capturing the calls named by lambdas.
+	 */
+	private final CallRecorder<T> recorder;
+
+	/**
+	 * The constructor for the view of a stub with the given interface and
+	 * skeleton address.
+	 *
+	 * @param remoteInterface
+	 *            the remote interface of the stub
+	 * @param address
+	 *            the network address of the remote skeleton
+	 */
+	AsyncStub(Class<T> remoteInterface, SocketAddress address) {
+		this.remoteInterface = remoteInterface;
+		this.address = address;
+		this.recorder = new CallRecorder<T>(remoteInterface);
+	}
+
+	/**
+	 * Calls a remote method returning a value without waiting for its result.
+	 *
+	 * @param call
+	 *            the lambda calling exactly one remote method on its argument
+	 *            and returning the result unchanged
+	 * @param <R>
+	 *            the return type of the remote method
+	 * @return the future completed with the result of the remote method
+	 * @throws NullPointerException
+	 *             If <code>call</code> is <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             If the lambda does not call exactly one remote method or
+	 *             does anything else with the recording object.
+	 */
+	public <R> CompletableFuture<R> call(RemoteCall<? super T, R> call) {
+		CallRecorder.Invocation invocation = recorder.capture(call);
+		return send(invocation.method, invocation.args);
+	}
+
+	/**
+	 * Calls a remote method returning nothing without waiting for it to
+	 * complete.
+	 *
+	 * @param call
+	 *            the lambda calling exactly one remote method on its argument
+	 * @return the future completed once the remote method has returned
+	 * @throws NullPointerException
+	 *             If <code>call</code> is <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             If the lambda does not call exactly one remote method or
+	 *             does anything else with the recording object.
+	 */
+	public CompletableFuture<Void> run(RemoteRunnable<? super T> call) {
+		if (call == null) {
+			throw new NullPointerException("Call should be non-null.");
+		}
+
+		return this.<Void>call(stub -> {
+			call.run(stub);
+			return null;
+		});
+	}
+
+	/**
+	 * Returns the remote interface of the stub.
+	 *
+	 * @return the remote interface
+	 */
+	public Class<T> getRemoteInterface() {
+		return remoteInterface;
+	}
+
+	/**
+	 * Returns the network address of the remote skeleton.
+	 *
+	 * @return the skeleton address
+	 */
+	public SocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * Writes the request for a call to the multiplexed connection to the
+	 * skeleton, repeating it with the method named in full if the skeleton
+	 * cannot resolve the compact form.
+	 *
+	 * @param method
+	 *            the remote method
+	 * @param args
+	 *            the arguments of the call
+	 * @param <R>
+	 *            the return type of the remote method
+	 * @return the future completed with the result of the call
+	 */
+	private <R> CompletableFuture<R> send(Method method, Object[] args) {
+		CompletableFuture<R> result = new CompletableFuture<>();
+		MultiplexedConnection connection;
+		try {
+			connection = MultiplexedConnection.get(address);
+		} catch (RMIException e) {
+			result.completeExceptionally(e);
+			return result;
+		}
+
+		connection.callAsync(Stub.newRequest(method, args)).whenComplete((response, failure) -> {
+			if (failure == null && response.isUnresolved()) {
+				// The skeleton could not resolve the method from its
+				// identifier alone, so the call is repeated with the method
+				// named in full.
+				connection.callAsync(Stub.newNamedRequest(method, args))
+						.whenComplete((named, namedFailure) -> complete(result, named, namedFailure, method, address));
+			} else {
+				complete(result, response, failure, method, address);
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Completes the future of a call from its response.
+	 *
+	 * @param result
+	 *            the future of the call
+	 * @param response
+	 *            the response; {@code null} if the exchange failed
+	 * @param failure
+	 *            the reason the exchange failed; {@code null} if it succeeded
+	 * @param method
+	 *            the remote method
+	 * @param address
+	 *            the network address of the remote skeleton, from which the
+	 *            further chunks of a stream are fetched
+	 * @param <R>
+	 *            the return type of the remote method
+	 */
+	@SuppressWarnings("unchecked")
+	static <R> void complete(CompletableFuture<R> result, RMIResponse response, Throwable failure, Method method,
+			SocketAddress address) {
+		if (failure != null) {
+			result.completeExceptionally(failure);
+		} else if (response.getException() != null) {
+			result.completeExceptionally(response.getException());
+		} else if (response.isChunk()) {
+			result.complete((R) RemoteStream.open(method.getReturnType(), response,
+					request -> Stub.send(address, request)));
+		} else {
+			result.complete((R) response.getReturnValue());
+		}
+	}
+
+}
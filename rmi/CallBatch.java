@@ -0,0 +1,290 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+
+/**
+ * A batch of remote method calls to one skeleton, obtained from
+ * {@link Stub#batch(Object)}, that are sent together in a single round trip.
+ *
+ * <p>
+ * Calls are added by naming them in a lambda over the remote interface, such
+ * as <code>batch.call(s -&gt; s.ping(i))</code>, which returns a
+ * {@link CompletableFuture} for the result of the call. Nothing is sent until
+ * {@link #execute()} is called: the collected calls then travel to the skeleton
+ * as one batch request, and the skeleton answers them all with one batch
+ * response. Each future is completed, before <code>execute</code> returns,
+ * with the return value of its call or exceptionally with the exception its
+ * remote method threw, so that the failure of one call does not affect the
+ * others.
+ *
+ * <p>
+ * The skeleton executes the calls of a batch one at a time, in the order they
+ * were added. A batch marked {@link #setIndependent(boolean) independent} has
+ * its calls executed concurrently instead, in any order.
+ *
+ * <p>
+ * A batch is meant to be filled and executed by a single thread. Once
+ * executed it is empty again and may be reused.
+ *
+ * @param <T>
+ *            the remote interface of the stub.
+ */
+public final class CallBatch<T> {
+
+	/**
+	 * A call added to the batch and not yet sent.
+	 */
+	private static final class PendingCall {
+
+		/**
+		 * The remote method called.
+		 */
+		private final Method method;
+		/**
+		 * The arguments of the call; {@code null} if the method takes none.
+		 */
+		private final Object[] args;
+		/**
+		 * The future completed with the result of the call.
+		 */
+		private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+		/**
+		 * The constructor for a call captured by the recorder.
+		 *
+		 * @param invocation
+		 *            the captured call
+		 */
+		PendingCall(CallRecorder.Invocation invocation) {
+			this.method = invocation.method;
+			this.args = invocation.args;
+		}
+	}
+
+	/**
+	 * The remote interface of the stub.
+	 */
+	private final Class<T> remoteInterface;
+	/**
+	 * The network address of the remote skeleton.
+	 */
+	private final SocketAddress address;
+	/**
+	 * The recorder capturing the calls named by lambdas.
+	 */
+	private final CallRecorder<T> recorder;
+	/**
+	 * The calls added since the batch was last executed, in order.
+	 */
+	private final List<PendingCall> pending = new ArrayList<>();
+	/**
+	 * The boolean status of whether the calls may be executed concurrently.
+	 */
+	private boolean independent;
+
+	/**
+	 * The constructor for an empty batch of calls to the skeleton with the
+	 * given interface and address.
+	 *
+	 * @param remoteInterface
+	 *            the remote interface of the stub
+	 * @param address
+	 *            the network address of the remote skeleton
+	 */
+	CallBatch(Class<T> remoteInterface, SocketAddress address) {
+		this.remoteInterface = remoteInterface;
+		this.address = address;
+		this.recorder = new CallRecorder<T>(remoteInterface);
+	}
+
+	/**
+	 * Adds a call of a remote method returning a value to the batch.
+	 *
+	 * @param call
+	 *            the lambda calling exactly one remote method on its argument
+	 *            and returning the result unchanged
+	 * @param <R>
+	 *            the return type of the remote method
+	 * @return the future completed with the result of the remote method once
+	 *         the batch has been executed
+	 * @throws NullPointerException
+	 *             If <code>call</code> is <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             If the lambda does not call exactly one remote method or
+	 *             does anything else with the recording object.
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> CompletableFuture<R> call(AsyncStub.RemoteCall<? super T, R> call) {
+		PendingCall added = new PendingCall(recorder.capture(call));
+		pending.add(added);
+		return (CompletableFuture<R>) added.result;
+	}
+
+	/**
+	 * Adds a call of a remote method returning nothing to the batch.
+	 *
+	 * @param call
+	 *            the lambda calling exactly one remote method on its argument
+	 * @return the future completed once the remote method has returned
+	 * @throws NullPointerException
+	 *             If <code>call</code> is <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             If the lambda does not call exactly one remote method or
+	 *             does anything else with the recording object.
+	 */
+	public CompletableFuture<Void> run(AsyncStub.RemoteRunnable<? super T> call) {
+		if (call == null) {
+			throw new NullPointerException("Call should be non-null.");
+		}
+
+		return this.<Void>call(stub -> {
+			call.run(stub);
+			return null;
+		});
+	}
+
+	/**
+	 * Sends every call added since the batch was last executed to the skeleton
+	 * in a single request, waits for the response and completes the futures of
+	 * the calls. Does nothing if no call has been added.
+	 *
+	 * @throws RMIException
+	 *             If the batch cannot be sent or answered; the futures of its
+	 *             calls are then completed exceptionally with the same
+	 *             exception.
+	 */
+	public void execute() throws RMIException {
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		PendingCall[] calls = pending.toArray(new PendingCall[0]);
+		pending.clear();
+
+		RMIResponse[] results;
+		try {
+			RMIRequest[] requests = new RMIRequest[calls.length];
+			for (int i = 0; i < calls.length; i++) {
+				requests[i] = Stub.newRequest(calls[i].method, calls[i].args);
+			}
+			results = send(requests);
+
+			// The calls the skeleton could not resolve from their identifiers
+			// alone are repeated, together, with their methods named in full.
+			List<Integer> unresolved = new ArrayList<>();
+			for (int i = 0; i < calls.length; i++) {
+				if (results[i].isUnresolved()) {
+					unresolved.add(i);
+				}
+			}
+			if (!unresolved.isEmpty()) {
+				RMIRequest[] named = new RMIRequest[unresolved.size()];
+				for (int i = 0; i < named.length; i++) {
+					PendingCall call = calls[unresolved.get(i)];
+					named[i] = Stub.newNamedRequest(call.method, call.args);
+				}
+				RMIResponse[] namedResults = send(named);
+				for (int i = 0; i < named.length; i++) {
+					results[unresolved.get(i)] = namedResults[i];
+				}
+			}
+		} catch (RMIException e) {
+			for (PendingCall call : calls) {
+				call.result.completeExceptionally(e);
+			}
+			throw e;
+		}
+
+		for (int i = 0; i < calls.length; i++) {
+			AsyncStub.complete(calls[i].result, results[i], null, calls[i].method, address);
+		}
+	}
+
+	/**
+	 * Returns the number of calls added since the batch was last executed.
+	 *
+	 * @return the number of pending calls
+	 */
+	public int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Returns whether the calls of the batch may be executed concurrently.
+	 *
+	 * @return {@code true} if the calls are independent of one another
+	 */
+	public boolean isIndependent() {
+		return independent;
+	}
+
+	/**
+	 * Sets whether the calls of the batch are independent of one another, so
+	 * that the skeleton may execute them concurrently and in any order. By
+	 * default they are executed one at a time, in the order they were added.
+	 *
+	 * @param independent
+	 *            whether the calls may be executed concurrently
+	 */
+	public void setIndependent(boolean independent) {
+		this.independent = independent;
+	}
+
+	/**
+	 * Returns the remote interface of the stub.
+	 *
+	 * @return the remote interface
+	 */
+	public Class<T> getRemoteInterface() {
+		return remoteInterface;
+	}
+
+	/**
+	 * Returns the network address of the remote skeleton.
+	 *
+	 * @return the skeleton address
+	 */
+	public SocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * Sends the requests of the calls to the skeleton as one batch request.
+	 *
+	 * @param requests
+	 *            the requests of the calls
+	 * @return the responses to the calls, in order
+	 * @throws RMIException
+	 *             If the batch cannot be sent, or the skeleton answers it
+	 *             with anything but a response to every call.
+	 */
+	private RMIResponse[] send(RMIRequest[] requests) throws RMIException {
+		RMIResponse response = Stub.send(address, RMIRequest.batch(Stub.newCallId(), requests, independent));
+		if (!response.isBatch()) {
+			Exception exception = response.getException();
+			if (exception instanceof RMIException) {
+				throw (RMIException) exception;
+			}
+			throw new RMIException("Skeleton did not answer the batch.", exception);
+		}
+
+		RMIResponse[] results = response.getResults();
+		if (results.length != requests.length) {
+			throw new RMIException("Skeleton answered " + results.length + " of " + requests.length + " calls.");
+		}
+
+		return results;
+	}
+
+}
@@ -0,0 +1,377 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+import rmi.log.Log;
+import rmi.log.Logger;
+import rmi.metrics.SkeletonMetrics;
+
+/**
+ * The dispatcher resolving the method named by a request and executing it on
+ * the server object of a {@link Skeleton}. It holds no per-connection state,
+ * so the server engines share it between connections and threads.
+ *
+ * <p>
+ * The calls of a batch request are executed one at a time, in order, unless
+ * the batch is marked independent. The calls of an independent batch are
+ * shared out between the dispatching thread and up to
+ * {@link ExecutorPolicy#getMaxPipelinedCalls()} minus one further workers.
+ * The dispatching thread takes every call no worker has started yet, so the
+ * batch completes even when no worker is free.
+ *
+ * <p>
+ * Every call resolved to a remote method is timed and recorded in the
+ * skeleton's {@link SkeletonMetrics}. The calls of a batch are recorded one by
+ * one, their wait counted from when the batch was read; decoding and encoding
+ * the batch are not attributed to any of them.
+ *
+ * <p>
+ * A remote method returning a stream is answered with the first chunk of the
+ * stream, which is kept in the skeleton's {@link StreamTable}; the stream
+ * requests asking for further chunks are answered from there and recorded in
+ * no method's metrics.
+ *
+ * @param <T>
+ *            the generic remote interface of the skeleton.
+ */
+class CallDispatcher<T> {
+
+	/**
+	 * The logger of the class.
+	 */
+	private static final Logger log = Log.getLogger(CallDispatcher.class);
+
+	/**
+	 * The skeleton object on which the remote method call is executed.
+	 */
+	private final Skeleton<T> container;
+	/**
+	 * The object on which remote method calls are executed.
+	 */
+	private final T serverObject;
+	/**
+	 * The remote interface class object of the skeleton.
+	 */
+	private final Class<T> serverClass;
+	/**
+	 * The dispatch table of the remote interface, through which requested
+	 * methods are resolved.
+	 */
+	private final DispatchTable dispatchTable;
+	/**
+	 * The invokers of the remote methods bound to the server object.
+	 */
+	private final Map<Method, Invoker> invokers;
+	/**
+	 * The worker pool on which the calls of independent batches are executed
+	 * concurrently; {@code null} if they are executed in order.
+	 */
+	private final WorkerPool pool;
+	/**
+	 * The call metrics of the skeleton.
+	 */
+	private final SkeletonMetrics metrics;
+	/**
+	 * The streams of the skeleton stubs have not finished reading.
+	 */
+	private final StreamTable streams;
+
+	/**
+	 * The constructor to create a new {@link CallDispatcher} for the skeleton's
+	 * current invokers.
+	 *
+	 * @param container
+	 *            The skeleton object
+	 * @param serverObject
+	 *            The generic server object
+	 * @param serverClass
+	 *            The class object of server
+	 */
+	CallDispatcher(Skeleton<T> container, T serverObject, Class<T> serverClass) {
+		this(container, serverObject, serverClass, null);
+	}
+
+	/**
+	 * The constructor to create a new {@link CallDispatcher} for the skeleton's
+	 * current invokers, executing the calls of independent batches on the
+	 * given worker pool.
+	 *
+	 * @param container
+	 *            The skeleton object
+	 * @param serverObject
+	 *            The generic server object
+	 * @param serverClass
+	 *            The class object of server
+	 * @param pool
+	 *            The worker pool of the listener; {@code null} to execute
+	 *            every batch in order
+	 */
+	CallDispatcher(Skeleton<T> container, T serverObject, Class<T> serverClass, WorkerPool pool) {
+		this.container = container;
+		this.serverObject = serverObject;
+		this.serverClass = serverClass;
+		this.dispatchTable = container.getDispatchTable();
+		this.invokers = container.getInvokers();
+		this.pool = pool;
+		this.metrics = container.getMetrics();
+		this.streams = container.getStreams();
+	}
+
+	/**
+	 * The method executes the remote method call described by the request on
+	 * the server object and builds the response tagged with the request's
+	 * call identifier. A batch request is answered with a batch response.
+	 * 
+	 * @param request
+	 *            the remote method call request
+	 * @param timer
+	 *            the timer of the call, which the caller finishes once the
+	 *            response has been handed to the connection
+	 * @return the response carrying the return value or the exception
+	 */
+	RMIResponse dispatch(RMIRequest request, CallTimer timer) {
+		if (request.isBatch()) {
+			return dispatchBatch(request, timer);
+		}
+
+		return dispatchCall(request, timer);
+	}
+
+	/**
+	 * Executes the calls of a batch request and collects their responses.
+	 * 
+	 * @param batch
+	 *            the batch request
+	 * @param timer
+	 *            the timer of the batch
+	 * @return the batch response, holding a response for every call
+	 */
+	private RMIResponse dispatchBatch(RMIRequest batch, CallTimer timer) {
+		RMIRequest[] calls = batch.getCalls();
+		RMIResponse[] results = new RMIResponse[calls.length];
+
+		int helpers = 0;
+		if (batch.isIndependent() && pool != null) {
+			helpers = Math.min(calls.length, pool.getPolicy().getMaxPipelinedCalls()) - 1;
+		}
+		if (helpers <= 0) {
+			for (int i = 0; i < calls.length; i++) {
+				results[i] = dispatchTimed(calls[i], timer);
+			}
+			return RMIResponse.batch(batch.getCallId(), results);
+		}
+
+		AtomicInteger nextCall = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(calls.length);
+		Runnable worker = () -> {
+			int i;
+			while ((i = nextCall.getAndIncrement()) < calls.length) {
+				try {
+					results[i] = dispatchTimed(calls[i], timer);
+				} catch (RuntimeException e) {
+					results[i] = new RMIResponse(calls[i].getCallId(), new RMIException(e));
+				} finally {
+					done.countDown();
+				}
+			}
+		};
+		for (int i = 0; i < helpers && !pool.isSaturated(); i++) {
+			try {
+				pool.execute(worker);
+			} catch (RejectedExecutionException e) {
+				break;
+			}
+		}
+		worker.run();
+
+		// Every call left has been taken by a worker that is executing it.
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		return RMIResponse.batch(batch.getCallId(), results);
+	}
+
+	/**
+	 * Executes one call of a batch under a timer of its own.
+	 * 
+	 * @param request
+	 *            the remote method call request
+	 * @param batchTimer
+	 *            the timer of the batch
+	 * @return the response carrying the return value or the exception
+	 */
+	private RMIResponse dispatchTimed(RMIRequest request, CallTimer batchTimer) {
+		CallTimer timer = new CallTimer(batchTimer.getReadAt(), -1);
+		try {
+			return dispatchCall(request, timer);
+		} catch (RuntimeException e) {
+			timer.failed();
+			throw e;
+		} finally {
+			timer.finished(-1);
+		}
+	}
+
+	/**
+	 * Executes a single remote method call on the server object.
+	 * 
+	 * @param request
+	 *            the remote method call request
+	 * @param timer
+	 *            the timer of the call
+	 * @return the response carrying the return value or the exception
+	 */
+	private RMIResponse dispatchCall(RMIRequest request, CallTimer timer) {
+		if (request.isBatch()) {
+			RMIException exception = new RMIException("Batches of calls cannot be nested.");
+			container.service_error(exception);
+			return new RMIResponse(request.getCallId(), exception);
+		}
+		if (request.isStreamRequest()) {
+			return streams.pull(request);
+		}
+
+		long callId = request.getCallId();
+		String className = request.getClassName();
+		String methodName = request.getMethodName();
+		Object[] arguments = request.getArguments();
+		String[] argumentTypes = request.getArgumentTypes();
+
+		Method matchingMethod;
+		if (className == null) {
+			// A compact request names neither the interface nor the method;
+			// the stub retries in full if they cannot be found by identifier.
+			long fingerprint = request.getInterfaceFingerprint();
+			DispatchTable requestedTable = dispatchTable.getAncestorTable(fingerprint);
+			matchingMethod = (requestedTable == null) ? null
+					: requestedTable.getMethod(fingerprint, request.getMethodId());
+			if (matchingMethod == null) {
+				return RMIResponse.unresolved(callId);
+			}
+		} else {
+			DispatchTable requestedTable = dispatchTable.getAncestorTable(className);
+			if (requestedTable == null) {
+				warnFailure("Failed to find a matching class", request, null);
+				RMIException exception = new RMIException(new ClassNotFoundException("No such remote class."));
+				container.service_error(exception);
+				return new RMIResponse(callId, exception);
+			}
+
+			matchingMethod = requestedTable.getMethod(request.getInterfaceFingerprint(), request.getMethodId());
+			if (matchingMethod == null) {
+				matchingMethod = dispatchTable.getMethod(methodName, argumentTypes);
+			}
+		}
+
+		RMIResponse response;
+		if (matchingMethod != null) {
+			timer.started(metrics.forMethod(matchingMethod));
+			long invokedAt = System.nanoTime();
+			try {
+				Invoker invoker = invokers.get(matchingMethod);
+				if (invoker == null) {
+					invoker = new ReflectiveInvoker(matchingMethod, serverObject);
+				}
+				Object returnValue = invoker.invoke(arguments);
+				timer.invoked(System.nanoTime() - invokedAt, false);
+				if (returnValue != null && StreamTable.isStreamed(matchingMethod.getReturnType())) {
+					response = streams.open(callId, returnValue);
+				} else {
+					response = new RMIResponse(callId, returnValue);
+				}
+			} catch (InvocationTargetException e) {
+				timer.invoked(System.nanoTime() - invokedAt, true);
+				response = new RMIResponse(callId, (Exception) e.getTargetException());
+			} catch (IllegalArgumentException | IllegalAccessException e) {
+				timer.invoked(System.nanoTime() - invokedAt, true);
+				warnFailure("Failed to invoke the designated method", request, e);
+				RMIException exception = new RMIException(e);
+				container.service_error(exception);
+				response = new RMIResponse(callId, exception);
+			}
+		} else {
+			warnFailure("Failed to find a matching method", request, null);
+			RMIException exception = new RMIException(new NoSuchMethodException("No such remote method."));
+			container.service_error(exception);
+			response = new RMIResponse(callId, exception);
+		}
+
+		return response;
+	}
+
+	/**
+	 * Logs a call that could not be executed, naming the skeleton and the
+	 * call. The message is only built if warnings are logged.
+	 *
+	 * @param failure
+	 *            what failed
+	 * @param request
+	 *            the request of the call
+	 * @param cause
+	 *            the cause of the failure; {@code null} if there is none
+	 */
+	private void warnFailure(String failure, RMIRequest request, Throwable cause) {
+		log.warn(() -> failure + ": " + "ServerClass: " + serverClass.getName() + ", " + container.describeAddress()
+				+ ", " + describeCall(request), cause);
+	}
+
+	/**
+	 * Describes the call made by a request for the log. A compact request
+	 * names neither the interface nor the method, so they are taken from the
+	 * method it resolves to, or the fingerprint and method identifier are
+	 * given if it resolves to none.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the description of the call
+	 */
+	String describeCall(RMIRequest request) {
+		if (request.isBatch()) {
+			return "Batch: " + request.getCalls().length + " calls";
+		}
+		if (request.isStreamRequest()) {
+			return "Stream: " + request.getStreamId();
+		}
+
+		String className = request.getClassName();
+		String methodName = request.getMethodName();
+		String arguments = Arrays.toString(request.getArguments());
+		if (className == null) {
+			long fingerprint = request.getInterfaceFingerprint();
+			DispatchTable requestedTable = dispatchTable.getAncestorTable(fingerprint);
+			Method method = (requestedTable == null) ? null
+					: requestedTable.getMethod(fingerprint, request.getMethodId());
+			if (method == null) {
+				return "Fingerprint: " + Long.toHexString(fingerprint) + ", " + "MethodId: " + request.getMethodId()
+						+ ", " + "Arguments: " + arguments;
+			}
+			className = method.getDeclaringClass().getName();
+			methodName = method.getName();
+		}
+
+		return "ClientClass: " + className + ", " + "Method: " + methodName + ", " + "Arguments: " + arguments;
+	}
+
+}
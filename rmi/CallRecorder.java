@@ -0,0 +1,158 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * The recording object through which the views of a stub capture the remote
+ * method named by a lambda, such as <code>s -&gt; s.ping(42)</code>.
+ *
+ * <p>
+ * The lambda is run once against a proxy implementing the remote interface.
+ * The proxy captures the call made on it in the running thread and returns the
+ * default value of the method's return type, so that the lambda can return the
+ * result unchanged.
+ *
+ * @param <T>
+ *            the remote interface recorded.
+ */
+final class CallRecorder<T> implements InvocationHandler {
+
+	/**
+	 * A remote method call captured by the recording object.
+	 */
+	static final class Invocation {
+
+		/**
+		 * The remote method called.
+		 */
+		final Method method;
+		/**
+		 * The arguments of the call; {@code null} if the method takes none.
+		 */
+		final Object[] args;
+
+		/**
+		 * The constructor for a captured call.
+		 *
+		 * @param method
+		 *            the remote method called
+		 * @param args
+		 *            the arguments of the call
+		 */
+		Invocation(Method method, Object[] args) {
+			this.method = method;
+			this.args = args;
+		}
+	}
+
+	/**
+	 * The call captured in the current thread; {@code null} if none has been
+	 * captured since the last one was taken.
+	 */
+	private final ThreadLocal<Invocation> recorded = new ThreadLocal<>();
+	/**
+	 * The recording object passed to the lambdas naming the calls.
+	 */
+	private final T recording;
+
+	/**
+	 * The constructor for a recorder of calls on the given remote interface.
+	 *
+	 * @param remoteInterface
+	 *            the remote interface
+	 */
+	CallRecorder(Class<T> remoteInterface) {
+		this.recording = remoteInterface.cast(Proxy.newProxyInstance(remoteInterface.getClassLoader(),
+				new Class<?>[] { remoteInterface }, this));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) {
+		if (!RemotePattern.isRemoteMethod(method)) {
+			throw new IllegalArgumentException("Only remote methods can be recorded: " + method.getName());
+		}
+		if (recorded.get() != null) {
+			throw new IllegalArgumentException("A recorded call must call exactly one remote method.");
+		}
+
+		recorded.set(new Invocation(method, args));
+		return defaultValue(method.getReturnType());
+	}
+
+	/**
+	 * Runs the lambda against the recording object and returns the call it
+	 * made.
+	 *
+	 * @param call
+	 *            the lambda calling exactly one remote method on its argument
+	 * @return the captured call
+	 * @throws NullPointerException
+	 *             If <code>call</code> is <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             If the lambda does not call exactly one remote method or
+	 *             does anything else with the recording object.
+	 */
+	Invocation capture(AsyncStub.RemoteCall<? super T, ?> call) {
+		if (call == null) {
+			throw new NullPointerException("Call should be non-null.");
+		}
+
+		try {
+			call.call(recording);
+		} catch (IllegalArgumentException e) {
+			recorded.remove();
+			throw e;
+		} catch (Exception e) {
+			recorded.remove();
+			throw new IllegalArgumentException("A recorded call must only call a remote method.", e);
+		}
+
+		Invocation invocation = recorded.get();
+		recorded.remove();
+		if (invocation == null) {
+			throw new IllegalArgumentException("A recorded call must call exactly one remote method.");
+		}
+
+		return invocation;
+	}
+
+	/**
+	 * Returns the value a method of the given return type returns when it is
+	 * called on the recording object.
+	 *
+	 * @param type
+	 *            the return type
+	 * @return {@code null}, or the zero value of a primitive type
+	 */
+	private static Object defaultValue(Class<?> type) {
+		if (!type.isPrimitive() || type == void.class) {
+			return null;
+		} else if (type == boolean.class) {
+			return false;
+		} else if (type == char.class) {
+			return '\0';
+		} else if (type == byte.class) {
+			return (byte) 0;
+		} else if (type == short.class) {
+			return (short) 0;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		} else if (type == float.class) {
+			return 0f;
+		} else {
+			return 0d;
+		}
+	}
+
+}
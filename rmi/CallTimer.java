@@ -0,0 +1,134 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import rmi.metrics.MethodMetrics;
+
+/**
+ * The timing of one call through the phases a skeleton serves it in. The
+ * server engine creates the timer once the request has been read and
+ * finishes it once the response has been handed to the connection; the
+ * {@link CallDispatcher} marks in between which method the call resolved to
+ * and how long it took to execute. The times are recorded in that method's
+ * {@link MethodMetrics} when the timer is finished; a call that resolves to
+ * no method is not recorded.
+ */
+class CallTimer {
+
+	/**
+	 * The time the request was read, in {@link System#nanoTime()}
+	 * nanoseconds.
+	 */
+	private final long readAt;
+	/**
+	 * The time the request took to decode; negative if unknown.
+	 */
+	private final long deserializeTime;
+	/**
+	 * The metrics of the method the call resolved to; {@code null} until it
+	 * has resolved.
+	 */
+	private MethodMetrics metrics;
+	/**
+	 * The time the call waited for a worker.
+	 */
+	private long queueWaitTime = -1;
+	/**
+	 * The time the method took to execute; negative until it has executed.
+	 */
+	private long invokeTime = -1;
+	/**
+	 * The boolean status of whether the call has failed.
+	 */
+	private boolean failed;
+
+	/**
+	 * Creates the timer of a call whose request has just been read.
+	 *
+	 * @param deserializeTime
+	 *            the time the request took to decode in nanoseconds; negative
+	 *            if unknown
+	 */
+	CallTimer(long deserializeTime) {
+		this(System.nanoTime(), deserializeTime);
+	}
+
+	/**
+	 * Creates the timer of a call whose request was read at the given time.
+	 *
+	 * @param readAt
+	 *            the time the request was read, in {@link System#nanoTime()}
+	 *            nanoseconds
+	 * @param deserializeTime
+	 *            the time the request took to decode in nanoseconds; negative
+	 *            if unknown
+	 */
+	CallTimer(long readAt, long deserializeTime) {
+		this.readAt = readAt;
+		this.deserializeTime = deserializeTime;
+	}
+
+	/**
+	 * Returns the time the request was read.
+	 *
+	 * @return the time in {@link System#nanoTime()} nanoseconds
+	 */
+	long getReadAt() {
+		return readAt;
+	}
+
+	/**
+	 * Marks the call as resolved to a method and about to execute, ending its
+	 * wait for a worker.
+	 *
+	 * @param methodMetrics
+	 *            the metrics of the method; {@code null} if the method is not
+	 *            measured
+	 */
+	void started(MethodMetrics methodMetrics) {
+		queueWaitTime = System.nanoTime() - readAt;
+		metrics = methodMetrics;
+		if (metrics != null) {
+			metrics.callStarted();
+		}
+	}
+
+	/**
+	 * Records that the method has executed.
+	 *
+	 * @param time
+	 *            the time it took in nanoseconds
+	 * @param threw
+	 *            whether it threw an exception
+	 */
+	void invoked(long time, boolean threw) {
+		invokeTime = time;
+		failed |= threw;
+	}
+
+	/**
+	 * Marks the call as failed, for example because its response could not
+	 * be written.
+	 */
+	void failed() {
+		failed = true;
+	}
+
+	/**
+	 * Records the call in the metrics of its method once its response has
+	 * been handed to the connection, or has failed to be.
+	 *
+	 * @param serializeTime
+	 *            the time the response took to encode and hand on in
+	 *            nanoseconds; negative if unknown
+	 */
+	void finished(long serializeTime) {
+		if (metrics != null) {
+			metrics.callFinished(queueWaitTime, deserializeTime, invokeTime, serializeTime, failed);
+			metrics = null;
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import rmi.metrics.ClientMethodMetrics;
+
+/**
+ * The timing of one call through the phases a stub makes it in. The stub
+ * creates the timer when the call starts and finishes it once the call has
+ * returned or failed; the connection used marks in between how long opening
+ * the connection, writing the request, waiting for the response and decoding
+ * it took. A call that is sent again, for example by name after an
+ * unresolved response, adds the times of both attempts. The times are
+ * recorded in the method's {@link ClientMethodMetrics} when the timer is
+ * finished.
+ */
+class ClientCallTimer {
+
+	/**
+	 * The metrics of the method called.
+	 */
+	private final ClientMethodMetrics metrics;
+	/**
+	 * The time the call started, in {@link System#nanoTime()} nanoseconds.
+	 */
+	private final long startedAt = System.nanoTime();
+	/**
+	 * The time opening a connection took; negative if none was opened.
+	 */
+	private long connectTime = -1;
+	/**
+	 * The time writing the request took; negative until it has been written.
+	 */
+	private long writeTime = -1;
+	/**
+	 * The time until the response arrived; negative until it has arrived.
+	 */
+	private long serverWaitTime = -1;
+	/**
+	 * The time decoding the response took; negative if unknown.
+	 */
+	private long readTime = -1;
+
+	/**
+	 * Creates the timer of a call that is just starting.
+	 *
+	 * @param metrics
+	 *            the metrics of the method called
+	 */
+	ClientCallTimer(ClientMethodMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Records that a connection has been opened for the call.
+	 *
+	 * @param time
+	 *            the time it took in nanoseconds
+	 */
+	void connected(long time) {
+		connectTime = add(connectTime, time);
+	}
+
+	/**
+	 * Records that the request has been written.
+	 *
+	 * @param time
+	 *            the time it took in nanoseconds
+	 */
+	void written(long time) {
+		writeTime = add(writeTime, time);
+	}
+
+	/**
+	 * Records that the response has been read.
+	 *
+	 * @param time
+	 *            the time from writing the request until the response was
+	 *            read in nanoseconds
+	 * @param decodeTime
+	 *            the part of that time spent decoding the response; negative
+	 *            if unknown, in which case the decoding counts as waiting
+	 */
+	void received(long time, long decodeTime) {
+		if (decodeTime >= 0 && decodeTime <= time) {
+			serverWaitTime = add(serverWaitTime, time - decodeTime);
+			readTime = add(readTime, decodeTime);
+		} else {
+			serverWaitTime = add(serverWaitTime, time);
+		}
+	}
+
+	/**
+	 * Records the call in the metrics of its method.
+	 *
+	 * @param transportError
+	 *            whether the call failed to reach the skeleton or to get its
+	 *            response
+	 * @param remoteError
+	 *            whether the call was answered with an exception thrown on
+	 *            the server
+	 */
+	void finished(boolean transportError, boolean remoteError) {
+		metrics.callFinished(connectTime, writeTime, serverWaitTime, readTime, System.nanoTime() - startedAt,
+				transportError, remoteError);
+	}
+
+	/**
+	 * Adds a time to the time of a phase.
+	 *
+	 * @param phaseTime
+	 *            the time of the phase so far; negative if not yet timed
+	 * @param time
+	 *            the time to add
+	 * @return the new time of the phase
+	 */
+	private static long add(long phaseTime, long time) {
+		return (phaseTime < 0) ? time : phaseTime + time;
+	}
+
+}
@@ -0,0 +1,260 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+import rmi.io.Codec;
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+
+/**
+ * The writer through which concurrent threads share the codec of a single
+ * connection, coalescing their messages into fewer writes to the socket.
+ *
+ * <p>
+ * Each message is encoded into the codec's buffer under the write lock. The
+ * thread that wrote it then flushes the buffer only if no other thread is
+ * waiting to write; otherwise it leaves the flush to the next writer, so that
+ * the last of a group of concurrent writers flushes the messages of the whole
+ * group in one write. No writer ever waits for a timer: a message written
+ * while no other is on its way is flushed at once, so coalescing saves writes
+ * under concurrency without adding latency when there is none. To bound the
+ * delay of the first message of a group, the buffer is also flushed once
+ * {@link #maxCoalescedMessages} messages are waiting in it. A writer whose
+ * own message fails still flushes the messages left for it, unless another
+ * writer is waiting to.
+ *
+ * <p>
+ * Since a message may be flushed by a later writer, a writer that needs to
+ * know when its message actually left for the socket passes a listener,
+ * which is told the time of the flush by whichever thread performs it.
+ */
+final class CoalescingWriter {
+
+	/**
+	 * The number of messages waiting in the buffer at which it is flushed even
+	 * though further writers are waiting.
+	 */
+	static final int maxCoalescedMessages = 64;
+
+	/**
+	 * The codec of the connection.
+	 */
+	private final Codec codec;
+	/**
+	 * The lock serializing writes of messages from concurrent threads.
+	 */
+	private final ReentrantLock writeLock = new ReentrantLock();
+	/**
+	 * The number of threads that are about to write a message but do not hold
+	 * the write lock yet.
+	 */
+	private final AtomicInteger waitingWriters = new AtomicInteger();
+	/**
+	 * The number of messages written to the buffer and not yet flushed.
+	 */
+	private int unflushed;
+	/**
+	 * The listeners of the messages written to the buffer and not yet
+	 * flushed.
+	 */
+	private final List<LongConsumer> flushListeners = new ArrayList<>();
+	/**
+	 * The number of messages written.
+	 */
+	private long messages;
+	/**
+	 * The number of times the buffer has been flushed.
+	 */
+	private long flushes;
+
+	/**
+	 * The constructor for a writer sharing the given codec.
+	 *
+	 * @param codec
+	 *            the codec of the connection
+	 */
+	CoalescingWriter(Codec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Writes a request, flushing it together with the messages of any writers
+	 * waiting behind it.
+	 *
+	 * @param request
+	 *            the request
+	 * @throws IOException
+	 *             if the request cannot be encoded or written
+	 */
+	void writeRequest(RMIRequest request) throws IOException {
+		writeRequest(request, null);
+	}
+
+	/**
+	 * Writes a request, flushing it together with the messages of any writers
+	 * waiting behind it, and tells the given listener when it has been
+	 * flushed.
+	 *
+	 * @param request
+	 *            the request
+	 * @param flushed
+	 *            the listener told the {@link System#nanoTime()} time at which
+	 *            the request was flushed, possibly on another writer's thread;
+	 *            {@code null} if none
+	 * @throws IOException
+	 *             if the request cannot be encoded or written
+	 */
+	void writeRequest(RMIRequest request, LongConsumer flushed) throws IOException {
+		waitingWriters.incrementAndGet();
+		writeLock.lock();
+		try {
+			waitingWriters.decrementAndGet();
+			try {
+				codec.writeRequest(request, false);
+			} catch (IOException | RuntimeException e) {
+				flushLeftOver(e);
+				throw e;
+			}
+			if (flushed != null) {
+				flushListeners.add(flushed);
+			}
+			written();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes a response, flushing it together with the messages of any
+	 * writers waiting behind it.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             if the response cannot be encoded or written
+	 */
+	void writeResponse(RMIResponse response) throws IOException {
+		waitingWriters.incrementAndGet();
+		writeLock.lock();
+		try {
+			waitingWriters.decrementAndGet();
+			try {
+				codec.writeResponse(response, false);
+			} catch (IOException | RuntimeException e) {
+				flushLeftOver(e);
+				throw e;
+			}
+			written();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of messages written.
+	 *
+	 * @return messages written
+	 */
+	long getMessageCount() {
+		writeLock.lock();
+		try {
+			return messages;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of times the buffered messages have been flushed to
+	 * the connection.
+	 *
+	 * @return flushes
+	 */
+	long getFlushCount() {
+		writeLock.lock();
+		try {
+			return flushes;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Accounts for a message just written to the buffer, and flushes the
+	 * buffer unless another writer is waiting to add to it, telling the
+	 * listeners of the flushed messages. Called with the write lock held.
+	 *
+	 * @throws IOException
+	 *             if the buffer cannot be flushed
+	 */
+	private void written() throws IOException {
+		messages++;
+		if (++unflushed < maxCoalescedMessages && waitingWriters.get() > 0) {
+			return;
+		}
+
+		flush();
+	}
+
+	/**
+	 * Flushes the messages earlier writers left in the buffer for this one to
+	 * flush, after its own message has failed, unless another writer is
+	 * waiting to flush them. Otherwise they would stay in the buffer until the
+	 * next message is written, which may never come. Called with the write
+	 * lock held.
+	 *
+	 * @param failure
+	 *            the exception the message of this writer failed with
+	 * @throws IOException
+	 *             if the buffer cannot be flushed, with the failure of the
+	 *             message suppressed
+	 */
+	private void flushLeftOver(Exception failure) throws IOException {
+		if (unflushed == 0 || waitingWriters.get() > 0) {
+			return;
+		}
+
+		try {
+			flush();
+		} catch (IOException e) {
+			e.addSuppressed(failure);
+			throw e;
+		}
+	}
+
+	/**
+	 * Flushes the buffer and tells the listeners of the flushed messages.
+	 * Called with the write lock held.
+	 *
+	 * @throws IOException
+	 *             if the buffer cannot be flushed
+	 */
+	private void flush() throws IOException {
+		unflushed = 0;
+		flushes++;
+		try {
+			codec.flush();
+		} catch (IOException e) {
+			flushListeners.clear();
+			throw e;
+		}
+
+		if (!flushListeners.isEmpty()) {
+			long now = System.nanoTime();
+			for (LongConsumer listener : flushListeners) {
+				listener.accept(now);
+			}
+			flushListeners.clear();
+		}
+	}
+
+}
@@ -0,0 +1,31 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+/**
+ * The ways in which a stub may use network connections to reach its skeleton.
+ */
+public enum ConnectionMode {
+
+	/**
+	 * A new connection is opened for every remote method call and closed once
+	 * the response has been read.
+	 */
+	PER_CALL,
+	/**
+	 * Connections are borrowed from a bounded pool of idle connections kept
+	 * per remote address, used by one call at a time and returned to the pool
+	 * once the response has been read.
+	 */
+	POOLED,
+	/**
+	 * A single long-lived connection is kept per remote address and shared by
+	 * all concurrent callers. Requests are tagged with call identifiers so that
+	 * responses can be matched to their callers. The skeleton executes the
+	 * calls pipelined on one connection concurrently, up to the pipelined call
+	 * bound of its {@link ExecutorPolicy}, and answers each as it completes.
+	 */
+	MULTIPLEXED
+}
@@ -0,0 +1,748 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import rmi.io.Codec;
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+import rmi.log.Log;
+import rmi.log.Logger;
+
+/**
+ * A bounded pool of idle connections to skeletons, keyed by skeleton address.
+ *
+ * <p>
+ * Each pooled connection keeps its object streams, so a call that borrows a
+ * connection from the pool pays neither the TCP handshake nor the stream
+ * header exchange. A connection is used by one call at a time and returned to
+ * the pool once the response has been read. At most
+ * {@link #getMaxIdlePerAddress()} idle connections are kept per address;
+ * connections returned beyond that bound are closed. Connections that stay
+ * idle for longer than {@link #getIdleTimeout()} milliseconds are evicted, and
+ * every connection is checked for having been closed by the skeleton before
+ * it is handed out.
+ *
+ * <p>
+ * The pool also bounds the number of connections it has open in total, idle
+ * or carrying a call, to {@link #getMaxConnections()}. A call that needs a new
+ * connection while the bound is reached first closes the least recently used
+ * idle connection to any address; if every connection is carrying a call, it
+ * waits for one to be returned or closed, and fails with an
+ * {@link RMIException} if none is within {@link #getAcquireTimeout()}
+ * milliseconds.
+ */
+public class ConnectionPool {
+
+	/**
+	 * The logger of the class.
+	 */
+	private static final Logger log = Log.getLogger(ConnectionPool.class);
+
+	/**
+	 * The default maximum number of idle connections kept per address.
+	 */
+	public static final int defaultMaxIdlePerAddress = 16;
+	/**
+	 * The default time in milliseconds after which an idle connection is
+	 * evicted.
+	 */
+	public static final long defaultIdleTimeout = 30000;
+	/**
+	 * The default maximum number of connections open at once.
+	 */
+	public static final int defaultMaxConnections = 256;
+	/**
+	 * The default time in milliseconds a call waits for a connection while
+	 * the pool has as many open as it may.
+	 */
+	public static final long defaultAcquireTimeout = 10000;
+
+	/**
+	 * A connection kept in the pool, together with the codec of its messages.
+	 */
+	static class PooledConnection {
+
+		/**
+		 * The channel connected to the skeleton.
+		 */
+		private final SocketChannel channel;
+		/**
+		 * The codec of the messages on the connection.
+		 */
+		private final Codec codec;
+		/**
+		 * The time in milliseconds at which the connection was last returned
+		 * to the pool.
+		 */
+		private volatile long lastUsed;
+
+		/**
+		 * The constructor opens a connection to the given skeleton address.
+		 *
+		 * @param address
+		 *            the address of the remote skeleton
+		 * @throws IOException
+		 *             if the connection or its streams cannot be set up
+		 */
+		PooledConnection(SocketAddress address) throws IOException {
+			Transport transport = Transport.of(address);
+			channel = transport.connect(address);
+			try {
+				codec = Stub.getWireFormat().openClient(transport.openInput(channel), transport.openOutput(channel));
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Writes the request and reads its response.
+		 *
+		 * @param request
+		 *            the request to be sent
+		 * @return the response read from the skeleton
+		 * @throws IOException
+		 *             if the exchange fails; the connection must then be
+		 *             discarded
+		 * @param timer
+		 *            the timer of the call; {@code null} if the call is not
+		 *            timed
+		 * @throws ClassNotFoundException
+		 *             if the class of the response cannot be loaded
+		 */
+		RMIResponse call(RMIRequest request, ClientCallTimer timer) throws IOException, ClassNotFoundException {
+			if (timer == null) {
+				codec.writeRequest(request);
+				return codec.readResponse();
+			}
+
+			long start = System.nanoTime();
+			codec.writeRequest(request);
+			long written = System.nanoTime();
+			timer.written(written - start);
+			RMIResponse response = codec.readResponse();
+			timer.received(System.nanoTime() - written, codec.getLastDecodeTime());
+			return response;
+		}
+
+		/**
+		 * Checks that the skeleton has not closed the connection while it was
+		 * idle. An idle connection must have nothing to read; end of stream
+		 * or unexpected data both mean the connection cannot be reused.
+		 *
+		 * @return {@code true} if the connection can carry another call;
+		 *         {@code false} otherwise.
+		 */
+		boolean isHealthy() {
+			if (!channel.isOpen()) {
+				return false;
+			}
+
+			try {
+				channel.configureBlocking(false);
+				int read = channel.read(ByteBuffer.allocate(1));
+				channel.configureBlocking(true);
+				return read == 0;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Closes the connection.
+		 */
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.warn("Failed to close pooled connection.");
+			}
+		}
+	}
+
+	/**
+	 * The idle connections, most recently used first, keyed by address.
+	 */
+	private final ConcurrentHashMap<SocketAddress, Deque<PooledConnection>> idleConnections = new ConcurrentHashMap<>();
+	/**
+	 * The number of idle connections, keyed by address.
+	 */
+	private final ConcurrentHashMap<SocketAddress, AtomicInteger> idleCounts = new ConcurrentHashMap<>();
+	/**
+	 * The number of borrows served from an idle connection.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+	/**
+	 * The number of borrows that had to open a new connection.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+	/**
+	 * The number of connections closed for being idle too long, unhealthy or
+	 * beyond the pool bound.
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+	/**
+	 * The lock guarding the number of open connections.
+	 */
+	private final ReentrantLock openLock = new ReentrantLock();
+	/**
+	 * The condition signalled when a connection is returned to the pool or
+	 * closed, on which calls wait for a connection while the pool has as many
+	 * open as it may.
+	 */
+	private final Condition connectionFreed = openLock.newCondition();
+	/**
+	 * The number of calls waiting on {@link #connectionFreed}, so that
+	 * returning a connection signals only when someone is waiting.
+	 */
+	private final AtomicInteger waitingCalls = new AtomicInteger();
+	/**
+	 * The number of connections open, idle or carrying a call. Guarded by
+	 * {@link #openLock}.
+	 */
+	private int openConnections;
+	/**
+	 * The maximum number of idle connections kept per address.
+	 */
+	private volatile int maxIdlePerAddress = defaultMaxIdlePerAddress;
+	/**
+	 * The maximum number of connections open at once.
+	 */
+	private volatile int maxConnections = defaultMaxConnections;
+	/**
+	 * The time in milliseconds a call waits for a connection while the pool
+	 * has as many open as it may.
+	 */
+	private volatile long acquireTimeout = defaultAcquireTimeout;
+	/**
+	 * The time in milliseconds after which an idle connection is evicted.
+	 */
+	private volatile long idleTimeout = defaultIdleTimeout;
+	/**
+	 * The daemon thread periodically evicting expired idle connections;
+	 * started with the first connection returned to the pool.
+	 */
+	private volatile ScheduledExecutorService evictor;
+	/**
+	 * The periodic eviction scheduled on the evictor thread, rescheduled when
+	 * the idle timeout changes. Guarded by the pool's monitor.
+	 */
+	private ScheduledFuture<?> eviction;
+
+	/**
+	 * Returns the maximum number of idle connections kept per address.
+	 *
+	 * @return maximum idle connections per address
+	 */
+	public int getMaxIdlePerAddress() {
+		return maxIdlePerAddress;
+	}
+
+	/**
+	 * Sets the maximum number of idle connections kept per address. A bound
+	 * of zero disables pooling; every connection is closed after its call.
+	 *
+	 * @param maxIdlePerAddress
+	 *            maximum idle connections per address
+	 * @throws IllegalArgumentException
+	 *             if the bound is negative
+	 */
+	public void setMaxIdlePerAddress(int maxIdlePerAddress) {
+		if (maxIdlePerAddress < 0) {
+			throw new IllegalArgumentException("Pool bound should be non-negative.");
+		}
+
+		this.maxIdlePerAddress = maxIdlePerAddress;
+	}
+
+	/**
+	 * Returns the time in milliseconds after which an idle connection is
+	 * evicted.
+	 *
+	 * @return idle timeout in milliseconds
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which an idle connection is evicted.
+	 * A running evictor is rescheduled to check at the period the new timeout
+	 * calls for.
+	 *
+	 * @param idleTimeout
+	 *            idle timeout in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the timeout is not positive
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		if (idleTimeout <= 0) {
+			throw new IllegalArgumentException("Idle timeout should be positive.");
+		}
+
+		this.idleTimeout = idleTimeout;
+		if (evictor != null) {
+			scheduleEviction();
+		}
+	}
+
+	/**
+	 * Returns the maximum number of connections the pool has open at once.
+	 *
+	 * @return maximum open connections
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Sets the maximum number of connections the pool has open at once, idle
+	 * or carrying a call. Lowering the bound closes no connection that is
+	 * already open; it takes effect as connections are closed.
+	 *
+	 * @param maxConnections
+	 *            maximum open connections
+	 * @throws IllegalArgumentException
+	 *             if the bound is not positive
+	 */
+	public void setMaxConnections(int maxConnections) {
+		if (maxConnections <= 0) {
+			throw new IllegalArgumentException("Connection bound should be positive.");
+		}
+
+		this.maxConnections = maxConnections;
+		signalFreed();
+	}
+
+	/**
+	 * Returns the time in milliseconds a call waits for a connection while
+	 * the pool has as many open as it may.
+	 *
+	 * @return acquire timeout in milliseconds
+	 */
+	public long getAcquireTimeout() {
+		return acquireTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds a call waits for a connection while the
+	 * pool has as many open as it may, before failing.
+	 *
+	 * @param acquireTimeout
+	 *            acquire timeout in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the timeout is not positive
+	 */
+	public void setAcquireTimeout(long acquireTimeout) {
+		if (acquireTimeout <= 0) {
+			throw new IllegalArgumentException("Acquire timeout should be positive.");
+		}
+
+		this.acquireTimeout = acquireTimeout;
+	}
+
+	/**
+	 * Returns the number of connections the pool has open, idle or carrying a
+	 * call.
+	 *
+	 * @return open connections
+	 */
+	public int getOpenCount() {
+		openLock.lock();
+		try {
+			return openConnections;
+		} finally {
+			openLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of calls that borrowed an idle connection.
+	 *
+	 * @return pool hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of calls that had to open a new connection.
+	 *
+	 * @return pool misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of idle connections the pool has closed.
+	 *
+	 * @return evicted connections
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of idle connections currently kept for the address.
+	 *
+	 * @param address
+	 *            the skeleton address
+	 * @return idle connections to the address
+	 */
+	public int getIdleCount(SocketAddress address) {
+		AtomicInteger count = idleCounts.get(address);
+		return (count == null) ? 0 : count.get();
+	}
+
+	/**
+	 * Makes a remote call on a connection borrowed from the pool, returning
+	 * the connection afterwards. A connection on which the exchange fails is
+	 * closed rather than returned.
+	 *
+	 * @param address
+	 *            the skeleton address
+	 * @param request
+	 *            the request to be sent
+	 * @return the response read from the skeleton
+	 * @throws RMIException
+	 *             if no connection can be opened or the exchange fails
+	 */
+	public RMIResponse call(SocketAddress address, RMIRequest request) throws RMIException {
+		return call(address, request, null);
+	}
+
+	/**
+	 * Makes a remote call on a connection borrowed from the pool, timing its
+	 * phases.
+	 *
+	 * @param address
+	 *            the skeleton address
+	 * @param request
+	 *            the request to be sent
+	 * @param timer
+	 *            the timer of the call; {@code null} if the call is not timed
+	 * @return the response read from the skeleton
+	 * @throws RMIException
+	 *             if no connection can be opened or the exchange fails
+	 */
+	RMIResponse call(SocketAddress address, RMIRequest request, ClientCallTimer timer) throws RMIException {
+		PooledConnection connection = borrow(address, timer);
+		RMIResponse response;
+		try {
+			response = connection.call(request, timer);
+		} catch (ClassNotFoundException | IOException | ClassCastException e) {
+			log.warn("Failed to exchange request on pooled connection.");
+			discard(connection);
+			throw new RMIException(e);
+		}
+
+		release(address, connection);
+		return response;
+	}
+
+	/**
+	 * Closes every idle connection that has been idle longer than the idle
+	 * timeout.
+	 */
+	public void evictExpired() {
+		long now = System.currentTimeMillis();
+		for (SocketAddress address : idleConnections.keySet()) {
+			Deque<PooledConnection> idle = idleConnections.get(address);
+			Iterator<PooledConnection> connections = idle.descendingIterator();
+			while (connections.hasNext()) {
+				PooledConnection connection = connections.next();
+				if (now - connection.lastUsed > idleTimeout && idle.removeFirstOccurrence(connection)) {
+					idleCounts.get(address).decrementAndGet();
+					evict(connection);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes every idle connection in the pool.
+	 */
+	public void clear() {
+		for (SocketAddress address : idleConnections.keySet()) {
+			Deque<PooledConnection> idle = idleConnections.get(address);
+			PooledConnection connection;
+			while ((connection = idle.pollFirst()) != null) {
+				idleCounts.get(address).decrementAndGet();
+				evict(connection);
+			}
+		}
+	}
+
+	/**
+	 * Hands out the most recently used healthy idle connection to the
+	 * address, or a new connection if there is none, waiting for the pool to
+	 * have room for it if it already has as many open as it may.
+	 *
+	 * @param address
+	 *            the skeleton address
+	 * @param timer
+	 *            the timer of the call the connection is borrowed for, which
+	 *            records opening a new connection; {@code null} if the call
+	 *            is not timed
+	 * @return the borrowed connection
+	 * @throws RMIException
+	 *             if a new connection cannot be opened, or the pool has no
+	 *             room for it within the acquire timeout
+	 */
+	private PooledConnection borrow(SocketAddress address, ClientCallTimer timer) throws RMIException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
+		while (true) {
+			PooledConnection connection = pollIdle(address);
+			if (connection != null) {
+				hits.incrementAndGet();
+				return connection;
+			}
+			if (reserve(deadline)) {
+				break;
+			}
+		}
+
+		misses.incrementAndGet();
+		try {
+			if (timer == null) {
+				return new PooledConnection(address);
+			}
+
+			long start = System.nanoTime();
+			PooledConnection connection = new PooledConnection(address);
+			timer.connected(System.nanoTime() - start);
+			return connection;
+		} catch (IOException e) {
+			closed();
+			log.warn("Failed to connect to server skeleton.");
+			throw new RMIException(e);
+		}
+	}
+
+	/**
+	 * Takes the most recently used healthy idle connection to the address out
+	 * of the pool, evicting the expired and unhealthy ones on the way.
+	 *
+	 * @param address
+	 *            the skeleton address
+	 * @return the connection; {@code null} if there is none
+	 */
+	private PooledConnection pollIdle(SocketAddress address) {
+		Deque<PooledConnection> idle = idleConnections.get(address);
+		if (idle == null) {
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+		PooledConnection connection;
+		while ((connection = idle.pollFirst()) != null) {
+			idleCounts.get(address).decrementAndGet();
+			if (now - connection.lastUsed <= idleTimeout && connection.isHealthy()) {
+				return connection;
+			}
+			evict(connection);
+		}
+		return null;
+	}
+
+	/**
+	 * Reserves room in the pool for a new connection. If the pool already has
+	 * as many open as it may, the least recently used idle connection to any
+	 * address is closed to make room; if there is none, the call waits until
+	 * a connection is returned or closed.
+	 *
+	 * @param deadline
+	 *            the {@link System#nanoTime()} time by which the call stops
+	 *            waiting
+	 * @return {@code true} if room has been reserved; {@code false} if the
+	 *         call should look for an idle connection again first
+	 * @throws RMIException
+	 *             if the deadline passes, or the call is interrupted while
+	 *             waiting
+	 */
+	private boolean reserve(long deadline) throws RMIException {
+		openLock.lock();
+		try {
+			if (openConnections < maxConnections) {
+				openConnections++;
+				return true;
+			}
+
+			// Registered before looking for idle connections, so that one
+			// returned after the search signals this call.
+			waitingCalls.incrementAndGet();
+			try {
+				if (evictLeastRecentlyUsed()) {
+					return false;
+				}
+
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					throw new RMIException("No pooled connection became available within " + acquireTimeout
+							+ " ms.");
+				}
+				connectionFreed.awaitNanos(remaining);
+				return false;
+			} finally {
+				waitingCalls.decrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RMIException(e);
+		} finally {
+			openLock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the idle connection that has been idle longest, whatever its
+	 * address.
+	 *
+	 * @return {@code true} if an idle connection has been closed, or was
+	 *         borrowed before it could be; {@code false} if there is none
+	 */
+	private boolean evictLeastRecentlyUsed() {
+		SocketAddress oldestAddress = null;
+		PooledConnection oldest = null;
+		for (SocketAddress address : idleConnections.keySet()) {
+			PooledConnection connection = idleConnections.get(address).peekLast();
+			if (connection != null && (oldest == null || connection.lastUsed < oldest.lastUsed)) {
+				oldestAddress = address;
+				oldest = connection;
+			}
+		}
+
+		if (oldest == null || !idleConnections.get(oldestAddress).removeLastOccurrence(oldest)) {
+			// Borrowed in the meantime: the caller looks again.
+			return oldest != null;
+		}
+		idleCounts.get(oldestAddress).decrementAndGet();
+		evict(oldest);
+		return true;
+	}
+
+	/**
+	 * Returns a connection to the pool, or closes it if the pool already holds
+	 * as many idle connections to the address as it may.
+	 *
+	 * @param address
+	 *            the skeleton address
+	 * @param connection
+	 *            the connection being returned
+	 */
+	private void release(SocketAddress address, PooledConnection connection) {
+		AtomicInteger count = idleCounts.computeIfAbsent(address, a -> new AtomicInteger());
+		if (count.incrementAndGet() > maxIdlePerAddress) {
+			count.decrementAndGet();
+			evict(connection);
+			return;
+		}
+
+		connection.lastUsed = System.currentTimeMillis();
+		idleConnections.computeIfAbsent(address, a -> new ConcurrentLinkedDeque<>()).offerFirst(connection);
+		if (waitingCalls.get() > 0) {
+			signalFreed();
+		}
+		if (evictor == null) {
+			startEvictor();
+		}
+	}
+
+	/**
+	 * Closes a connection leaving the pool.
+	 *
+	 * @param connection
+	 *            the connection to close
+	 */
+	private void evict(PooledConnection connection) {
+		evictions.incrementAndGet();
+		discard(connection);
+	}
+
+	/**
+	 * Closes a connection and gives up its room in the pool.
+	 *
+	 * @param connection
+	 *            the connection to close
+	 */
+	private void discard(PooledConnection connection) {
+		connection.close();
+		closed();
+	}
+
+	/**
+	 * Accounts for a connection of the pool having been closed, or having
+	 * failed to open, and wakes the calls waiting for room.
+	 */
+	private void closed() {
+		openLock.lock();
+		try {
+			openConnections--;
+			connectionFreed.signalAll();
+		} finally {
+			openLock.unlock();
+		}
+	}
+
+	/**
+	 * Wakes the calls waiting for room in the pool to look again.
+	 */
+	private void signalFreed() {
+		openLock.lock();
+		try {
+			connectionFreed.signalAll();
+		} finally {
+			openLock.unlock();
+		}
+	}
+
+	/**
+	 * Starts the evictor thread if it is not running yet.
+	 */
+	private synchronized void startEvictor() {
+		if (evictor != null) {
+			return;
+		}
+
+		evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "rmi-connection-pool-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduleEviction();
+	}
+
+	/**
+	 * Schedules the periodic eviction on the evictor thread at half the idle
+	 * timeout, replacing the eviction scheduled for an earlier timeout.
+	 */
+	private synchronized void scheduleEviction() {
+		if (eviction != null) {
+			eviction.cancel(false);
+		}
+
+		long period = Math.max(1, idleTimeout / 2);
+		eviction = evictor.scheduleWithFixedDelay(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+	}
+
+}
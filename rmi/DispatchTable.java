@@ -0,0 +1,305 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The immutable table of the methods that can be called remotely through a
+ * remote interface.
+ *
+ * <p>
+ * Every method callable through the interface, whether declared by it or
+ * inherited from a superinterface, is given a method identifier: its index in
+ * the table when the methods are sorted by signature. Stubs and skeletons built
+ * from the same interface therefore agree on the identifiers without
+ * exchanging them. The fingerprint of the table, the first 64 bits of the
+ * SHA-256 digest of the interface name and the sorted signatures with their
+ * return types, lets a skeleton detect a stub built from a different version
+ * of the interface; such calls are resolved by method name and argument types
+ * instead. A method identifier is only trusted together with the fingerprint,
+ * so the digest is wide enough that two versions of an interface cannot
+ * plausibly share it and have a call run the wrong method.
+ */
+public final class DispatchTable {
+
+	/**
+	 * The methods of the interface, indexed by method identifier.
+	 */
+	private final Method[] methods;
+	/**
+	 * The method identifiers, keyed by every method object that resolves to
+	 * them, including methods shadowed by a subinterface.
+	 */
+	private final Map<Method, Integer> methodIds;
+	/**
+	 * The methods of the interface, keyed by signature.
+	 */
+	private final Map<String, Method> methodsBySignature;
+	/**
+	 * The tables of this interface and all its superinterfaces, keyed by
+	 * interface name.
+	 */
+	private final Map<String, DispatchTable> ancestorTables;
+	/**
+	 * The tables of this interface and all its superinterfaces, keyed by
+	 * fingerprint. A fingerprint shared by two different tables maps to
+	 * {@code null}, so that neither is chosen by fingerprint alone.
+	 */
+	private final Map<Long, DispatchTable> ancestorTablesByFingerprint;
+	/**
+	 * The fingerprint of the interface name and the sorted method signatures.
+	 */
+	private final long fingerprint;
+
+	/**
+	 * The constructor builds the table for the given interface. Tables are
+	 * built once per interface, by {@link InterfaceMetadata}.
+	 *
+	 * @param remoteInterface
+	 *            the interface class object
+	 */
+	DispatchTable(Class<?> remoteInterface) {
+		LinkedHashMap<String, Method> found = new LinkedHashMap<>();
+		HashMap<Method, String> signatures = new HashMap<>();
+		collectMethods(remoteInterface, found, signatures);
+
+		List<String> sortedSignatures = new ArrayList<>(found.keySet());
+		Collections.sort(sortedSignatures);
+
+		methods = new Method[sortedSignatures.size()];
+		HashMap<String, Integer> idsBySignature = new HashMap<>();
+		MessageDigest digest = newDigest();
+		digest.update(remoteInterface.getName().getBytes(StandardCharsets.UTF_8));
+		for (int id = 0; id < methods.length; id++) {
+			String signature = sortedSignatures.get(id);
+			methods[id] = found.get(signature);
+			idsBySignature.put(signature, id);
+			String descriptor = ';' + signature + methods[id].getReturnType().getName();
+			digest.update(descriptor.getBytes(StandardCharsets.UTF_8));
+		}
+		long hash = 0;
+		byte[] bytes = digest.digest();
+		for (int i = 0; i < Long.BYTES; i++) {
+			hash = (hash << 8) | (bytes[i] & 0xff);
+		}
+
+		HashMap<Method, Integer> ids = new HashMap<>();
+		for (Map.Entry<Method, String> entry : signatures.entrySet()) {
+			ids.put(entry.getKey(), idsBySignature.get(entry.getValue()));
+		}
+
+		HashMap<String, DispatchTable> ancestors = new HashMap<>();
+		ancestors.put(remoteInterface.getName(), this);
+		for (Class<?> iface : remoteInterface.getInterfaces()) {
+			ancestors.putAll(forInterface(iface).ancestorTables);
+		}
+
+		HashMap<Long, DispatchTable> ancestorsByFingerprint = new HashMap<>();
+		for (DispatchTable table : ancestors.values()) {
+			long tableFingerprint = (table == this) ? hash : table.fingerprint;
+			if (ancestorsByFingerprint.containsKey(tableFingerprint)) {
+				ancestorsByFingerprint.put(tableFingerprint, null);
+			} else {
+				ancestorsByFingerprint.put(tableFingerprint, table);
+			}
+		}
+
+		this.methodIds = Collections.unmodifiableMap(ids);
+		this.methodsBySignature = Collections.unmodifiableMap(found);
+		this.ancestorTables = Collections.unmodifiableMap(ancestors);
+		this.ancestorTablesByFingerprint = Collections.unmodifiableMap(ancestorsByFingerprint);
+		this.fingerprint = hash;
+	}
+
+	/**
+	 * Returns the table for the given remote interface, building it on first
+	 * use.
+	 *
+	 * @param remoteInterface
+	 *            the interface class object
+	 * @return the dispatch table; {@code null} if the class is not an
+	 *         interface
+	 */
+	public static DispatchTable forInterface(Class<?> remoteInterface) {
+		return InterfaceMetadata.of(remoteInterface).getDispatchTable();
+	}
+
+	/**
+	 * Returns the signature under which a method is entered in the table.
+	 *
+	 * @param methodName
+	 *            the method name
+	 * @param argumentTypes
+	 *            the argument type names of the method
+	 * @return the method signature
+	 */
+	public static String signature(String methodName, String[] argumentTypes) {
+		StringBuilder builder = new StringBuilder(methodName).append('(');
+		for (int i = 0; i < argumentTypes.length; i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(argumentTypes[i]);
+		}
+
+		return builder.append(')').toString();
+	}
+
+	/**
+	 * Returns a new SHA-256 digest for computing a fingerprint.
+	 *
+	 * @return the digest
+	 */
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to implement SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Adds the methods of an interface and, recursively, of its
+	 * superinterfaces to the given maps. A method declared closer to the
+	 * given interface shadows a superinterface method of the same signature.
+	 *
+	 * @param clazz
+	 *            the interface class object
+	 * @param found
+	 *            the methods found so far, keyed by signature
+	 * @param signatures
+	 *            the signatures of every method seen, including shadowed ones
+	 */
+	private static void collectMethods(Class<?> clazz, Map<String, Method> found, Map<Method, String> signatures) {
+		for (Method method : clazz.getDeclaredMethods()) {
+			if (Modifier.isStatic(method.getModifiers()) || Modifier.isPrivate(method.getModifiers())) {
+				continue;
+			}
+
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			String[] argumentTypes = new String[parameterTypes.length];
+			for (int i = 0; i < parameterTypes.length; i++) {
+				argumentTypes[i] = parameterTypes[i].getName();
+			}
+
+			String signature = signature(method.getName(), argumentTypes);
+			found.putIfAbsent(signature, method);
+			signatures.put(method, signature);
+		}
+
+		for (Class<?> iface : clazz.getInterfaces()) {
+			collectMethods(iface, found, signatures);
+		}
+	}
+
+	/**
+	 * Returns the fingerprint of the interface name and the sorted method
+	 * signatures.
+	 *
+	 * @return the fingerprint
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the identifier of the given method.
+	 *
+	 * @param method
+	 *            a method of the interface or of one of its superinterfaces
+	 * @return the method identifier; {@code -1} if the method is not in the
+	 *         table
+	 */
+	public int getMethodId(Method method) {
+		Integer id = methodIds.get(method);
+		return (id == null) ? -1 : id;
+	}
+
+	/**
+	 * Returns the method with the given identifier, provided the caller's
+	 * table has the same fingerprint as this one.
+	 *
+	 * @param fingerprint
+	 *            the fingerprint of the caller's table
+	 * @param methodId
+	 *            the method identifier
+	 * @return the method; {@code null} if the fingerprints differ or the
+	 *         identifier is out of range
+	 */
+	public Method getMethod(long fingerprint, int methodId) {
+		if (fingerprint != this.fingerprint || methodId < 0 || methodId >= methods.length) {
+			return null;
+		}
+
+		return methods[methodId];
+	}
+
+	/**
+	 * Returns the method with the given name and argument types.
+	 *
+	 * @param methodName
+	 *            the method name
+	 * @param argumentTypes
+	 *            the argument type names
+	 * @return the method; {@code null} if there is no such method
+	 */
+	public Method getMethod(String methodName, String[] argumentTypes) {
+		return methodsBySignature.get(signature(methodName, argumentTypes));
+	}
+
+	/**
+	 * Returns the methods of this table and of the tables of all
+	 * superinterfaces.
+	 *
+	 * @return the methods
+	 */
+	public List<Method> getAllMethods() {
+		ArrayList<Method> allMethods = new ArrayList<>();
+		for (DispatchTable table : ancestorTables.values()) {
+			allMethods.addAll(Arrays.asList(table.methods));
+		}
+
+		return allMethods;
+	}
+
+	/**
+	 * Returns the table of this interface or of one of its superinterfaces.
+	 *
+	 * @param interfaceName
+	 *            the name of the interface
+	 * @return the dispatch table; {@code null} if the named interface is
+	 *         neither this interface nor one of its superinterfaces
+	 */
+	public DispatchTable getAncestorTable(String interfaceName) {
+		return ancestorTables.get(interfaceName);
+	}
+
+	/**
+	 * Returns the table of this interface or of one of its superinterfaces
+	 * with the given fingerprint.
+	 *
+	 * @param fingerprint
+	 *            the fingerprint of the table
+	 * @return the dispatch table; {@code null} if no table, or more than one,
+	 *         has the fingerprint
+	 */
+	public DispatchTable getAncestorTable(long fingerprint) {
+		return ancestorTablesByFingerprint.get(fingerprint);
+	}
+
+}
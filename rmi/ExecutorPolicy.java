@@ -0,0 +1,283 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+/**
+ * The immutable bounds of the worker pool in which a {@link Skeleton} serves
+ * its client connections.
+ *
+ * <p>
+ * Each accepted connection is served by one worker thread for as long as it
+ * stays open. Worker threads are started on demand up to the maximum; the core
+ * threads are kept when idle, the others stop after the keep-alive time. Once
+ * every worker is busy, new connections wait in a queue of bounded capacity.
+ * A connection arriving when the queue is also full is rejected: its first
+ * request is answered with an {@link RMIException} reporting that the server
+ * is busy, and the connection is closed.
+ *
+ * <p>
+ * A connection whose stub writes requests without waiting for the previous
+ * responses has up to {@link #getMaxPipelinedCalls()} of its calls executed at
+ * once on further workers; their responses are written as the calls complete,
+ * tagged with their call identifiers. A bound of one executes the calls of a
+ * connection one at a time, in order.
+ *
+ * <p>
+ * A policy created by {@link #virtualThreads(int)} serves every connection on
+ * a virtual thread of its own, which suits remote methods that spend most of
+ * their time blocked on I/O. Virtual threads need JDK 21 or later; starting a
+ * skeleton with such a policy on an older runtime fails.
+ */
+public final class ExecutorPolicy {
+
+	/**
+	 * The default number of worker threads kept when idle.
+	 */
+	public static final int defaultCoreThreads = 8;
+	/**
+	 * The default maximum number of worker threads.
+	 */
+	public static final int defaultMaxThreads = 256;
+	/**
+	 * The default number of connections that may wait for a worker.
+	 */
+	public static final int defaultQueueCapacity = 1024;
+	/**
+	 * The default time in milliseconds after which an idle non-core worker
+	 * thread stops.
+	 */
+	public static final long defaultKeepAlive = 60000;
+	/**
+	 * The default maximum number of connections served at once on virtual
+	 * threads.
+	 */
+	public static final int defaultMaxVirtualThreads = 10000;
+	/**
+	 * The default maximum number of calls of one connection executed at once.
+	 */
+	public static final int defaultMaxPipelinedCalls = 32;
+
+	/**
+	 * The number of worker threads kept when idle.
+	 */
+	private final int coreThreads;
+	/**
+	 * The maximum number of worker threads.
+	 */
+	private final int maxThreads;
+	/**
+	 * The number of connections that may wait for a worker.
+	 */
+	private final int queueCapacity;
+	/**
+	 * The time in milliseconds after which an idle non-core worker stops.
+	 */
+	private final long keepAlive;
+	/**
+	 * The boolean status of whether connections are served on virtual
+	 * threads.
+	 */
+	private final boolean virtualThreads;
+	/**
+	 * The maximum number of calls of one connection executed at once.
+	 */
+	private final int maxPipelinedCalls;
+
+	/**
+	 * The constructor to create an {@link ExecutorPolicy} with the default
+	 * bounds.
+	 */
+	public ExecutorPolicy() {
+		this(defaultCoreThreads, defaultMaxThreads, defaultQueueCapacity, defaultKeepAlive);
+	}
+
+	/**
+	 * The constructor to create an {@link ExecutorPolicy} with the given
+	 * bounds.
+	 * 
+	 * @param coreThreads
+	 *            the number of worker threads kept when idle
+	 * @param maxThreads
+	 *            the maximum number of worker threads
+	 * @param queueCapacity
+	 *            the number of connections that may wait for a worker; zero
+	 *            rejects connections as soon as every worker is busy
+	 * @param keepAlive
+	 *            the time in milliseconds after which an idle non-core worker
+	 *            stops
+	 * @throws IllegalArgumentException
+	 *             if a bound is negative, the maximum is not positive or is
+	 *             less than the core
+	 */
+	public ExecutorPolicy(int coreThreads, int maxThreads, int queueCapacity, long keepAlive) {
+		this(coreThreads, maxThreads, queueCapacity, keepAlive, false, defaultMaxPipelinedCalls);
+	}
+
+	/**
+	 * The constructor to create an {@link ExecutorPolicy} with the given
+	 * bounds and kind of worker thread.
+	 * 
+	 * @param coreThreads
+	 *            the number of worker threads kept when idle
+	 * @param maxThreads
+	 *            the maximum number of worker threads
+	 * @param queueCapacity
+	 *            the number of connections that may wait for a worker
+	 * @param keepAlive
+	 *            the time in milliseconds after which an idle non-core worker
+	 *            stops
+	 * @param virtualThreads
+	 *            whether workers are virtual threads
+	 * @param maxPipelinedCalls
+	 *            the maximum number of calls of one connection executed at
+	 *            once
+	 * @throws IllegalArgumentException
+	 *             if a bound is invalid
+	 */
+	private ExecutorPolicy(int coreThreads, int maxThreads, int queueCapacity, long keepAlive,
+			boolean virtualThreads, int maxPipelinedCalls) {
+		if (coreThreads < 0 || maxThreads <= 0 || maxThreads < coreThreads) {
+			throw new IllegalArgumentException("Invalid worker thread bounds: core " + coreThreads + ", max "
+					+ maxThreads + ".");
+		}
+		if (queueCapacity < 0) {
+			throw new IllegalArgumentException("Queue capacity cannot be negative.");
+		}
+		if (keepAlive < 0) {
+			throw new IllegalArgumentException("Keep-alive time cannot be negative.");
+		}
+		if (maxPipelinedCalls <= 0) {
+			throw new IllegalArgumentException("Pipelined call bound should be positive.");
+		}
+
+		this.coreThreads = coreThreads;
+		this.maxThreads = maxThreads;
+		this.queueCapacity = queueCapacity;
+		this.keepAlive = keepAlive;
+		this.virtualThreads = virtualThreads;
+		this.maxPipelinedCalls = maxPipelinedCalls;
+	}
+
+	/**
+	 * Returns a policy serving every connection on a virtual thread of its
+	 * own, with at most {@link #defaultMaxVirtualThreads} connections served at
+	 * once.
+	 * 
+	 * @return the policy
+	 */
+	public static ExecutorPolicy virtualThreads() {
+		return virtualThreads(defaultMaxVirtualThreads);
+	}
+
+	/**
+	 * Returns a policy serving every connection on a virtual thread of its
+	 * own. Virtual threads are not pooled, so connections never wait in a
+	 * queue; a connection arriving when the given number are already being
+	 * served is rejected.
+	 * 
+	 * @param maxConnections
+	 *            the maximum number of connections served at once
+	 * @return the policy
+	 * @throws IllegalArgumentException
+	 *             if <code>maxConnections</code> is not positive
+	 */
+	public static ExecutorPolicy virtualThreads(int maxConnections) {
+		return new ExecutorPolicy(0, maxConnections, 0, 0, true, defaultMaxPipelinedCalls);
+	}
+
+	/**
+	 * Returns a policy with the same worker bounds as this one and the given
+	 * bound on the calls of one connection executed at once.
+	 * 
+	 * @param maxPipelinedCalls
+	 *            the maximum number of calls of one connection executed at
+	 *            once; one executes them in order
+	 * @return the policy
+	 * @throws IllegalArgumentException
+	 *             if <code>maxPipelinedCalls</code> is not positive
+	 */
+	public ExecutorPolicy withMaxPipelinedCalls(int maxPipelinedCalls) {
+		return new ExecutorPolicy(coreThreads, maxThreads, queueCapacity, keepAlive, virtualThreads,
+				maxPipelinedCalls);
+	}
+
+	/**
+	 * Returns whether this runtime can create virtual threads.
+	 * 
+	 * @return {@code true} on JDK 21 or later
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return WorkerPool.virtualThreadFactory("rmi-probe") != null;
+	}
+
+	/**
+	 * Returns the number of worker threads kept when idle.
+	 * 
+	 * @return core thread count
+	 */
+	public int getCoreThreads() {
+		return coreThreads;
+	}
+
+	/**
+	 * Returns the maximum number of worker threads.
+	 * 
+	 * @return maximum thread count
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Returns the number of connections that may wait for a worker.
+	 * 
+	 * @return queue capacity
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Returns the time in milliseconds after which an idle non-core worker
+	 * stops.
+	 * 
+	 * @return keep-alive time in milliseconds
+	 */
+	public long getKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Returns whether connections are served on virtual threads.
+	 * 
+	 * @return {@code true} if workers are virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Returns the maximum number of calls of one connection executed at once.
+	 * 
+	 * @return pipelined call bound
+	 */
+	public int getMaxPipelinedCalls() {
+		return maxPipelinedCalls;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		if (virtualThreads) {
+			return "ExecutorPolicy[virtual, max=" + maxThreads + ", pipelined=" + maxPipelinedCalls + "]";
+		}
+
+		return "ExecutorPolicy[core=" + coreThreads + ", max=" + maxThreads + ", queue=" + queueCapacity
+				+ ", keepAlive=" + keepAlive + "ms, pipelined=" + maxPipelinedCalls + "]";
+	}
+
+}
@@ -0,0 +1,311 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What stubs and skeletons need to know about an interface, computed once
+ * per interface: whether it is a remote interface, its {@link DispatchTable},
+ * and for each method it declares whether the method is remote, its method
+ * identifier and its argument type names.
+ *
+ * <p>
+ * The metadata is kept in a {@link ClassValue}, so looking it up costs no
+ * more than reading a field of the class, and it is dropped together with the
+ * interface when its class loader is unloaded.
+ */
+final class InterfaceMetadata {
+
+	/**
+	 * The metadata of each class it has been asked for.
+	 */
+	private static final ClassValue<InterfaceMetadata> cache = new ClassValue<InterfaceMetadata>() {
+		@Override
+		protected InterfaceMetadata computeValue(Class<?> type) {
+			return new InterfaceMetadata(type);
+		}
+	};
+
+	/**
+	 * The boolean status of whether the class is a remote interface.
+	 */
+	private final boolean remoteInterface;
+	/**
+	 * The dispatch table of the interface; {@code null} for a class that is
+	 * not an interface.
+	 */
+	private final DispatchTable dispatchTable;
+	/**
+	 * The metadata of the methods the interface declares.
+	 */
+	private final Map<Method, MethodMetadata> methods;
+
+	/**
+	 * Computes the metadata of a class.
+	 *
+	 * @param c
+	 *            the class, normally an interface
+	 */
+	private InterfaceMetadata(Class<?> c) {
+		if (!c.isInterface()) {
+			// Classes are never remote interfaces, and their methods are not
+			// looked at any further.
+			this.remoteInterface = false;
+			this.dispatchTable = null;
+			this.methods = Collections.emptyMap();
+			return;
+		}
+
+		this.dispatchTable = new DispatchTable(c);
+
+		HashMap<Method, MethodMetadata> declared = new HashMap<>();
+		boolean allRemoteMethods = true;
+		boolean hasDeclaredMethods = false;
+		for (Method method : c.getDeclaredMethods()) {
+			MethodMetadata metadata = new MethodMetadata(method, dispatchTable.getFingerprint(),
+					dispatchTable.getMethodId(method));
+			declared.put(method, metadata);
+			hasDeclaredMethods = true;
+			allRemoteMethods &= metadata.isRemote();
+		}
+		this.methods = declared;
+
+		this.remoteInterface = isRemote(c, allRemoteMethods, hasDeclaredMethods);
+	}
+
+	/**
+	 * Decides whether an interface is a remote interface: either all the
+	 * methods it declares are remote, or, if it declares none or some are
+	 * not remote, it extends a remote interface.
+	 *
+	 * @param c
+	 *            the interface
+	 * @param allRemoteMethods
+	 *            whether all the methods it declares are remote
+	 * @param hasDeclaredMethods
+	 *            whether it declares any methods
+	 * @return {@code true} if the interface is a remote interface;
+	 *         {@code false} otherwise
+	 */
+	private static boolean isRemote(Class<?> c, boolean allRemoteMethods, boolean hasDeclaredMethods) {
+		if (allRemoteMethods && hasDeclaredMethods) {
+			return true;
+		}
+
+		// It might be an empty interface but it might have ancestor interfaces
+		// that are remote.
+		Class<?>[] implementedInterfaces = c.getInterfaces();
+		for (Class<?> iface : implementedInterfaces) {
+			if (of(iface).isRemoteInterface()) {
+				return true;
+			}
+		}
+
+		// An empty interface without ancestors counts as remote; one whose
+		// ancestors are all not remote does not.
+		return allRemoteMethods && implementedInterfaces.length == 0;
+	}
+
+	/**
+	 * Returns the metadata of the given class, computing it on first use.
+	 *
+	 * @param c
+	 *            the class, normally an interface
+	 * @return the metadata
+	 */
+	static InterfaceMetadata of(Class<?> c) {
+		return cache.get(c);
+	}
+
+	/**
+	 * Returns the metadata of the given method, looked up in the metadata of
+	 * the class declaring it.
+	 *
+	 * @param method
+	 *            the method
+	 * @return the metadata
+	 */
+	static MethodMetadata of(Method method) {
+		MethodMetadata metadata = of(method.getDeclaringClass()).methods.get(method);
+		if (metadata == null) {
+			// Only the methods of interfaces are cached; methods of classes
+			// are described afresh.
+			metadata = new MethodMetadata(method, 0, -1);
+		}
+
+		return metadata;
+	}
+
+	/**
+	 * Returns whether the class is a remote interface.
+	 *
+	 * @return {@code true} if the class is a remote interface; {@code false}
+	 *         otherwise
+	 */
+	boolean isRemoteInterface() {
+		return remoteInterface;
+	}
+
+	/**
+	 * Returns the dispatch table of the interface.
+	 *
+	 * @return the dispatch table; {@code null} if the class is not an
+	 *         interface
+	 */
+	DispatchTable getDispatchTable() {
+		return dispatchTable;
+	}
+
+	/**
+	 * What stubs and skeletons need to know about a method. For a method of
+	 * an interface this is also the immutable descriptor a stub builds its
+	 * requests from: every name and number a request carries is resolved
+	 * once, when the interface is first seen, so that a call allocates
+	 * nothing beyond the request itself.
+	 */
+	static final class MethodMetadata {
+
+		/**
+		 * The boolean status of whether the method is remote: declared as
+		 * throwing {@link RMIException}.
+		 */
+		private final boolean remote;
+		/**
+		 * The name of the interface declaring the method.
+		 */
+		private final String interfaceName;
+		/**
+		 * The name of the method.
+		 */
+		private final String methodName;
+		/**
+		 * The signature of the method, as entered in the dispatch table.
+		 */
+		private final String signature;
+		/**
+		 * The fingerprint of the dispatch table of the declaring interface;
+		 * {@code 0} if it has none.
+		 */
+		private final long fingerprint;
+		/**
+		 * The identifier of the method in the dispatch table of its declaring
+		 * interface; {@code -1} if it has none.
+		 */
+		private final int methodId;
+		/**
+		 * The names of the parameter types of the method.
+		 */
+		private final String[] argumentTypes;
+
+		/**
+		 * Computes the metadata of a method.
+		 *
+		 * @param method
+		 *            the method
+		 * @param fingerprint
+		 *            the fingerprint of the dispatch table of its declaring
+		 *            interface
+		 * @param methodId
+		 *            the identifier of the method in the dispatch table of
+		 *            its declaring interface
+		 */
+		private MethodMetadata(Method method, long fingerprint, int methodId) {
+			boolean throwsRMIException = false;
+			for (Class<?> exceptionClass : method.getExceptionTypes()) {
+				if (exceptionClass.equals(RMIException.class)) {
+					throwsRMIException = true;
+				}
+			}
+
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			String[] names = new String[parameterTypes.length];
+			for (int i = 0; i < parameterTypes.length; i++) {
+				names[i] = parameterTypes[i].getName();
+			}
+
+			this.remote = throwsRMIException;
+			this.interfaceName = method.getDeclaringClass().getName();
+			this.methodName = method.getName();
+			this.signature = DispatchTable.signature(methodName, names);
+			this.fingerprint = fingerprint;
+			this.methodId = methodId;
+			this.argumentTypes = names;
+		}
+
+		/**
+		 * Returns whether the method is remote.
+		 *
+		 * @return {@code true} if the method is declared as throwing
+		 *         {@link RMIException}; {@code false} otherwise
+		 */
+		boolean isRemote() {
+			return remote;
+		}
+
+		/**
+		 * Returns the name of the interface declaring the method.
+		 *
+		 * @return the interface name
+		 */
+		String getInterfaceName() {
+			return interfaceName;
+		}
+
+		/**
+		 * Returns the name of the method.
+		 *
+		 * @return the method name
+		 */
+		String getMethodName() {
+			return methodName;
+		}
+
+		/**
+		 * Returns the signature of the method, as entered in the dispatch
+		 * table.
+		 *
+		 * @return the method signature
+		 */
+		String getSignature() {
+			return signature;
+		}
+
+		/**
+		 * Returns the fingerprint of the dispatch table of the declaring
+		 * interface.
+		 *
+		 * @return the fingerprint; {@code 0} if the method has no table
+		 */
+		long getFingerprint() {
+			return fingerprint;
+		}
+
+		/**
+		 * Returns the identifier of the method in the dispatch table of its
+		 * declaring interface.
+		 *
+		 * @return the method identifier; {@code -1} if it has none
+		 */
+		int getMethodId() {
+			return methodId;
+		}
+
+		/**
+		 * Returns the names of the parameter types of the method. The array
+		 * is shared by every caller and must not be modified.
+		 *
+		 * @return the argument type names
+		 */
+		String[] getArgumentTypes() {
+			return argumentTypes;
+		}
+
+	}
+
+}
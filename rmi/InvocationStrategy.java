@@ -0,0 +1,25 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+/**
+ * The ways in which a skeleton can execute remote method calls on its server
+ * object.
+ */
+public enum InvocationStrategy {
+
+	/**
+	 * Each call goes through {@link java.lang.reflect.Method#invoke}, which
+	 * repeats the access checks and argument adaptation on every call.
+	 */
+	REFLECTION,
+	/**
+	 * Each remote method is bound once to the server object as a
+	 * {@link java.lang.invoke.MethodHandle}, adapted to take its arguments as an
+	 * array. Calls then need no access checks and can be inlined by the JIT
+	 * compiler.
+	 */
+	METHOD_HANDLE
+}
@@ -0,0 +1,65 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * A remote method bound to the server object it is to be called on.
+ *
+ * <p>
+ * Invokers are built once per method when a skeleton starts, so that the work
+ * of preparing a call is not repeated for every request.
+ */
+public interface Invoker {
+
+	/**
+	 * Calls the method on the server object.
+	 * 
+	 * @param arguments
+	 *            the arguments of the call
+	 * @return the return value of the method; {@code null} for {@code void}
+	 *         methods
+	 * @throws InvocationTargetException
+	 *             if the method throws an exception, which is carried as the
+	 *             target exception
+	 * @throws IllegalArgumentException
+	 *             if the arguments do not match the parameters of the method
+	 * @throws IllegalAccessException
+	 *             if the method cannot be accessed
+	 */
+	public Object invoke(Object[] arguments)
+			throws InvocationTargetException, IllegalArgumentException, IllegalAccessException;
+
+	/**
+	 * Builds an invoker for the given method and server object.
+	 * 
+	 * <p>
+	 * If the strategy is {@link InvocationStrategy#METHOD_HANDLE} but no method
+	 * handle can be obtained for the method, a reflective invoker is built
+	 * instead.
+	 * 
+	 * @param method
+	 *            the remote method
+	 * @param target
+	 *            the server object
+	 * @param strategy
+	 *            the invocation strategy
+	 * @return the invoker
+	 */
+	public static Invoker create(Method method, Object target, InvocationStrategy strategy) {
+		if (strategy == InvocationStrategy.METHOD_HANDLE) {
+			try {
+				return new MethodHandleInvoker(method, target);
+			} catch (IllegalAccessException e) {
+				// The method is not accessible through a lookup from this
+				// package; reflection reports the same failure on each call.
+			}
+		}
+
+		return new ReflectiveInvoker(method, target);
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+/**
+ * The server engine run by a started {@link Skeleton}: it accepts client
+ * connections and has their remote method calls executed.
+ *
+ * @param <T>
+ *            the generic remote interface of the skeleton.
+ */
+interface Listener<T> {
+
+	/**
+	 * Starts accepting connections.
+	 */
+	void start();
+
+	/**
+	 * Initiates termination. Unless it is called from a thread of the engine
+	 * itself, the method returns only once the engine has stopped accepting
+	 * connections and has shut down the connections it accepted.
+	 */
+	void terminate();
+
+	/**
+	 * The method is called by a {@link MethodInvocationTask} when it stops
+	 * serving its client connection.
+	 * 
+	 * @param task
+	 *            the task that has finished
+	 */
+	void taskFinished(MethodInvocationTask<T> task);
+
+	/**
+	 * Returns the thread pool executing the remote method calls.
+	 * 
+	 * @return worker pool
+	 */
+	WorkerPool getWorkerPool();
+
+	/**
+	 * Returns the number of pieces of work waiting for a worker thread.
+	 * 
+	 * @return queue depth
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Returns the number of worker threads busy.
+	 * 
+	 * @return active worker count
+	 */
+	int getActiveWorkers();
+
+	/**
+	 * Returns the number of pieces of work turned away because every worker
+	 * was busy and the queue was full.
+	 * 
+	 * @return rejected count
+	 */
+	long getRejectedConnections();
+
+}
@@ -9,8 +9,13 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import rmi.log.Log;
+import rmi.log.Logger;
 
 /**
  * The listener thread that hosts the server socket and accepts and services
@@ -20,7 +25,12 @@ import java.util.concurrent.Executors;
  * @param <T>
  *            the generic remote interface this listener thread represents.
  */
-public class ListenerThread<T> extends Thread {
+public class ListenerThread<T> extends Thread implements Listener<T> {
+
+	/**
+	 * The logger of the class.
+	 */
+	private static final Logger log = Log.getLogger(ListenerThread.class);
 
 	/**
 	 * The skeleton object that this listener thread instance represents.
@@ -42,7 +52,7 @@ public class ListenerThread<T> extends Thread {
 	 * The boolean status representing if the listener thread is
 	 * running/listening or not.
 	 */
-	private boolean isActive;
+	private volatile boolean isActive;
 	/**
 	 * The cause due to which the listener thread terminated. {@code null} if
 	 * termination was requested and not due to an exception.
@@ -50,9 +60,19 @@ public class ListenerThread<T> extends Thread {
 	private Throwable cause;
 	/**
 	 * The thread pool running the worker threads that service individual remote
-	 * method calls.
+	 * method calls, bounded by the skeleton's executor policy.
+	 */
+	private WorkerPool threadPool;
+	/**
+	 * The tasks currently serving client connections. They are told to stop
+	 * waiting for further requests when the listener terminates.
 	 */
-	private ExecutorService threadPool = Executors.newCachedThreadPool();
+	private final Set<MethodInvocationTask<T>> activeTasks = ConcurrentHashMap.newKeySet();
+	/**
+	 * The latch released once the listener has stopped accepting connections
+	 * and has shut down the connections it accepted.
+	 */
+	private final CountDownLatch acceptLoopExited = new CountDownLatch(1);
 
 	/**
 	 * The constructor for the listener thread.
@@ -71,7 +91,9 @@ public class ListenerThread<T> extends Thread {
 		this.serverObject = serverObject;
 		this.serverClass = serverClass;
 		this.listenerSocket = listenerSocket;
-		this.isActive = false;
+		this.threadPool = new WorkerPool(container.getExecutorPolicy(),
+				"rmi-worker-" + listenerSocket.getLocalPort());
+		this.isActive = true;
 		this.cause = null;
 	}
 
@@ -80,14 +102,14 @@ public class ListenerThread<T> extends Thread {
 	 */
 	public void run() {
 
-		isActive = true;
 		while (isActive) {
 			Socket clientConnection = null;
 			try {
 				clientConnection = listenerSocket.accept();
+				clientConnection.setTcpNoDelay(true);
 			} catch (SocketException e) {
 				if (!listenerSocket.isClosed()) {
-					System.err.println("Failed to accept client connection: " + "ServerClass: " + serverClass.getName()
+					log.warn(() -> "Failed to accept client connection: " + "ServerClass: " + serverClass.getName()
 							+ ", " + "IPAddress: "
 							+ ((InetSocketAddress) listenerSocket.getLocalSocketAddress()).getHostString() + ", "
 							+ "Port: " + ((InetSocketAddress) listenerSocket.getLocalSocketAddress()).getPort());
@@ -100,8 +122,9 @@ public class ListenerThread<T> extends Thread {
 				} else {
 					// Do nothing; it is an expected behaviour.
 				}
+				continue;
 			} catch (IOException e) {
-				System.err.println("Failed to accept client connection: " + "ServerClass: " + serverClass.getName()
+				log.warn(() -> "Failed to accept client connection: " + "ServerClass: " + serverClass.getName()
 						+ ", " + "IPAddress: "
 						+ ((InetSocketAddress) listenerSocket.getLocalSocketAddress()).getHostString() + ", " + "Port: "
 						+ ((InetSocketAddress) listenerSocket.getLocalSocketAddress()).getPort());
@@ -111,39 +134,121 @@ public class ListenerThread<T> extends Thread {
 					closeConnection();
 					break;
 				}
+				continue;
 			}
 
 			MethodInvocationTask<T> handler = new MethodInvocationTask<T>(container, serverObject, serverClass,
-					clientConnection);
-			threadPool.execute(handler);
+					clientConnection, this);
+			activeTasks.add(handler);
+			try {
+				threadPool.execute(handler);
+			} catch (RejectedExecutionException e) {
+				log.warn(() -> "Rejecting client connection, all workers are busy: " + "ServerClass: "
+						+ serverClass.getName() + ", " + "Port: " + listenerSocket.getLocalPort());
+				handler.reject(new RMIException("Server busy: all " + threadPool.getMaximumPoolSize()
+						+ " workers are serving connections and the queue is full."));
+			}
+		}
+
+		closeConnection();
+
+		for (MethodInvocationTask<T> task : activeTasks) {
+			task.shutdown();
 		}
 
-		System.out.println("Shutting down thread pool...");
+		log.info("Shutting down thread pool...");
 		threadPool.shutdown();
 		if (!threadPool.isTerminated()) {
-			System.err.println("Force terminating thread pool...");
+			log.info("Force terminating thread pool...");
 			threadPool.shutdownNow();
 		}
 
-		System.out.println("Thread pool terminated.");
+		log.info("Thread pool terminated.");
 
-		closeConnection();
 		container.confirmTermination(cause);
+
+		// The listener socket is released and the connections are shut down,
+		// so the thread waiting in terminate may now let stop return. The
+		// skeleton is told it has stopped only afterwards, since stop holds
+		// the skeleton's lock while it waits.
+		acceptLoopExited.countDown();
+		container.stopped(cause);
 	}
 
 	/**
-	 * The method to initiate termination of the listener thread.
+	 * The method to initiate termination of the listener thread. Unless it is
+	 * called from the listener thread itself, the method returns only once the
+	 * listener has stopped accepting connections and has shut down the
+	 * connections it accepted.
 	 */
+	@Override
 	public void terminate() {
-		if (this.isActive) {
-			this.isActive = false;
-			closeConnection();
-		} else {
-			closeConnection();
-			container.confirmTermination(null);
+		this.isActive = false;
+		closeConnection();
+
+		if (Thread.currentThread() != this) {
+			try {
+				acceptLoopExited.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 		}
 	}
 
+	/**
+	 * Returns the thread pool serving the connections and executing their
+	 * pipelined calls.
+	 * 
+	 * @return worker pool
+	 */
+	@Override
+	public WorkerPool getWorkerPool() {
+		return threadPool;
+	}
+
+	/**
+	 * Returns the number of accepted connections waiting for a worker thread.
+	 * 
+	 * @return queue depth
+	 */
+	@Override
+	public int getQueueDepth() {
+		return threadPool.getQueueDepth();
+	}
+
+	/**
+	 * Returns the number of worker threads serving connections.
+	 * 
+	 * @return active worker count
+	 */
+	@Override
+	public int getActiveWorkers() {
+		return threadPool.getActiveCount();
+	}
+
+	/**
+	 * Returns the number of connections rejected because every worker was busy
+	 * and the queue was full.
+	 * 
+	 * @return rejected connection count
+	 */
+	@Override
+	public long getRejectedConnections() {
+		return threadPool.getRejectedCount();
+	}
+
+	/**
+	 * The method is called by a {@link MethodInvocationTask} when it stops
+	 * serving its client connection.
+	 * 
+	 * @param task
+	 *            the task that has finished
+	 */
+	@Override
+	public void taskFinished(MethodInvocationTask<T> task) {
+		activeTasks.remove(task);
+	}
+
 	/**
 	 * The method to close the server socket to prevent it from accepting
 	 * anymore connections.
@@ -152,11 +257,10 @@ public class ListenerThread<T> extends Thread {
 		try {
 			listenerSocket.close();
 		} catch (IOException e) {
-			System.err.println("Failed to close listener socket. Ignoring the exception: " + "ServerClass: "
+			log.warn(() -> "Failed to close listener socket. Ignoring the exception: " + "ServerClass: "
 					+ serverClass.getName() + ", " + "IPAddress: "
 					+ ((InetSocketAddress) listenerSocket.getLocalSocketAddress()).getHostString() + ", " + "Port: "
-					+ ((InetSocketAddress) listenerSocket.getLocalSocketAddress()).getPort());
-			e.printStackTrace();
+					+ ((InetSocketAddress) listenerSocket.getLocalSocketAddress()).getPort(), e);
 		}
 	}
 
@@ -0,0 +1,184 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import rmi.io.BinaryCodec;
+import rmi.io.BufferPool;
+import rmi.io.FrameReader;
+import rmi.io.FrameWriter;
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+
+/**
+ * Calls made by a stub directly on a skeleton running in the same JVM, with
+ * the argument semantics of a {@link LocalCallMode}.
+ */
+final class LocalCall {
+
+	/**
+	 * The class is not instantiated.
+	 */
+	private LocalCall() {
+	}
+
+	/**
+	 * Passes the request to the skeleton, executes it on the calling thread
+	 * and passes the response back, copying each as the mode requires.
+	 *
+	 * @param skeleton
+	 *            the skeleton running in this JVM
+	 * @param request
+	 *            the request
+	 * @param mode
+	 *            the local call mode; not <code>DISABLED</code>
+	 * @return the response, as the stub would have read it
+	 * @throws RMIException
+	 *             if the skeleton is not running, or if the request or the
+	 *             response cannot be copied
+	 */
+	static RMIResponse call(Skeleton<?> skeleton, RMIRequest request, LocalCallMode mode) throws RMIException {
+		try {
+			RMIRequest passed = (mode == LocalCallMode.SHARE_IMMUTABLE && isImmutable(request)) ? request
+					: copy(request);
+			try {
+				RMIResponse response = skeleton.dispatchLocal(passed);
+				return (mode == LocalCallMode.SHARE_IMMUTABLE && isImmutable(response)) ? response
+						: copy(response);
+			} finally {
+				// The response may share the bytes of bulk arguments, so they
+				// are released only once it has been copied.
+				passed.release();
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			throw new RMIException(e);
+		}
+	}
+
+	/**
+	 * Copies a request by encoding and decoding it, with its bulk arguments in
+	 * a buffer leased from the shared pool, as a skeleton receives them.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the copy
+	 * @throws IOException
+	 *             if an argument cannot be serialized
+	 * @throws ClassNotFoundException
+	 *             if the class of an argument cannot be loaded
+	 */
+	private static RMIRequest copy(RMIRequest request) throws IOException, ClassNotFoundException {
+		FrameWriter writer = new FrameWriter();
+		BinaryCodec.encodeRequest(request, writer);
+		ByteBuffer bulk = null;
+		if (writer.hasSegments()) {
+			bulk = BufferPool.shared().acquire((int) writer.bulkLength());
+			writer.copySegments(bulk);
+			bulk.flip();
+		}
+		return BinaryCodec.decodeRequest(
+				new FrameReader(writer.buffer(), 0, writer.length(), bulk, BufferPool.shared()));
+	}
+
+	/**
+	 * Copies a response by encoding and decoding it, with its bulk return
+	 * value in a buffer of its own, as a stub receives it.
+	 *
+	 * @param response
+	 *            the response
+	 * @return the copy
+	 * @throws IOException
+	 *             if the return value or exception cannot be serialized
+	 * @throws ClassNotFoundException
+	 *             if the class of the return value or exception cannot be
+	 *             loaded
+	 */
+	private static RMIResponse copy(RMIResponse response) throws IOException, ClassNotFoundException {
+		FrameWriter writer = new FrameWriter();
+		BinaryCodec.encodeResponse(response, writer);
+		ByteBuffer bulk = null;
+		if (writer.hasSegments()) {
+			bulk = ByteBuffer.allocateDirect((int) writer.bulkLength());
+			writer.copySegments(bulk);
+			bulk.flip();
+		}
+		return BinaryCodec.decodeResponse(new FrameReader(writer.buffer(), 0, writer.length(), bulk, null));
+	}
+
+	/**
+	 * Returns whether every argument of a request is of an immutable type.
+	 *
+	 * @param request
+	 *            the request
+	 * @return <code>true</code> if the request may be passed by reference
+	 */
+	private static boolean isImmutable(RMIRequest request) {
+		if (request.isBatch()) {
+			return false;
+		}
+
+		Object[] arguments = request.getArguments();
+		if (arguments != null) {
+			for (Object argument : arguments) {
+				if (!isImmutable(argument)) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns whether a response carries a return value, or elements of a
+	 * stream, of immutable types and no exception.
+	 *
+	 * @param response
+	 *            the response
+	 * @return <code>true</code> if the response may be passed by reference
+	 */
+	private static boolean isImmutable(RMIResponse response) {
+		if (response.isUnresolved()) {
+			return true;
+		}
+		if (response.isChunk()) {
+			for (Object element : response.getElements()) {
+				if (!isImmutable(element)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		return !response.isBatch() && response.getException() == null && isImmutable(response.getReturnValue());
+	}
+
+	/**
+	 * Returns whether a value is of a type whose instances cannot change:
+	 * strings, boxed primitives, enum constants and the exact classes
+	 * <code>BigInteger</code> and <code>BigDecimal</code>. Subclasses of the
+	 * last two may be mutable and are not included.
+	 *
+	 * @param value
+	 *            the value; may be <code>null</code>
+	 * @return <code>true</code> if the value may be shared
+	 */
+	private static boolean isImmutable(Object value) {
+		if (value == null) {
+			return true;
+		}
+
+		Class<?> type = value.getClass();
+		return type == String.class || type == Integer.class || type == Long.class || type == Boolean.class
+				|| type == Double.class || type == Float.class || type == Short.class || type == Byte.class
+				|| type == Character.class || type == BigInteger.class || type == BigDecimal.class
+				|| value instanceof Enum;
+	}
+
+}
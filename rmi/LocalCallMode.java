@@ -0,0 +1,40 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+/**
+ * The ways in which a stub may call a skeleton running in the same JVM.
+ *
+ * <p>
+ * Only a stub created from the skeleton object itself, through
+ * {@link Stub#create(Class, Skeleton)}, knows that its skeleton is local. A
+ * local call is executed on the calling thread by the skeleton's dispatcher,
+ * with no connection, and is recorded in the skeleton's metrics like any
+ * other call. A call to a skeleton that is not running fails with an
+ * {@link RMIException}, and exceptions thrown by the server object reach the
+ * caller as they would over the network.
+ */
+public enum LocalCallMode {
+
+	/**
+	 * Calls to a local skeleton go through a connection like any other.
+	 */
+	DISABLED,
+	/**
+	 * Calls to a local skeleton are dispatched directly. The request and the
+	 * response are copied by encoding and decoding them with the binary
+	 * codec, so the server object and the caller never share an argument,
+	 * return value or exception, just as over the network.
+	 */
+	COPY,
+	/**
+	 * Calls to a local skeleton are dispatched directly. Values of immutable
+	 * types, such as strings, boxed primitives and enum constants, are
+	 * passed by reference; a request or response holding any other value is
+	 * copied as in <code>COPY</code>. A call whose values are all immutable
+	 * is neither encoded nor decoded.
+	 */
+	SHARE_IMMUTABLE
+}
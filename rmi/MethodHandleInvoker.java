@@ -0,0 +1,89 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The invoker calling the remote method through a method handle bound to the
+ * server object.
+ *
+ * <p>
+ * The handle is adapted once to the erased type {@code (Object[])Object}, so
+ * every call is a single {@code invokeExact} with no access check. The
+ * arguments are checked against the parameter types before the call, so that
+ * a mismatch is reported as an {@link IllegalArgumentException} just as
+ * {@link Method#invoke(Object, Object...)} would, rather than being mistaken
+ * for an exception thrown by the method itself.
+ */
+public class MethodHandleInvoker implements Invoker {
+
+	/**
+	 * The handle taking the arguments as an array and returning the boxed
+	 * return value.
+	 */
+	private final MethodHandle handle;
+	/**
+	 * The parameter types of the method, with primitive types replaced by
+	 * their wrapper classes.
+	 */
+	private final Class<?>[] argumentClasses;
+	/**
+	 * For each parameter, whether its type is primitive and the argument may
+	 * therefore not be {@code null}.
+	 */
+	private final boolean[] isPrimitive;
+
+	/**
+	 * The constructor to create a new {@link MethodHandleInvoker} instance.
+	 * 
+	 * @param method
+	 *            the remote method
+	 * @param target
+	 *            the server object
+	 * @throws IllegalAccessException
+	 *             if no method handle can be obtained for the method
+	 */
+	public MethodHandleInvoker(Method method, Object target) throws IllegalAccessException {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		this.handle = MethodHandles.lookup().unreflect(method).bindTo(target)
+				.asSpreader(Object[].class, parameterTypes.length)
+				.asType(MethodType.methodType(Object.class, Object[].class));
+		this.argumentClasses = new Class<?>[parameterTypes.length];
+		this.isPrimitive = new boolean[parameterTypes.length];
+		for (int i = 0; i < parameterTypes.length; i++) {
+			argumentClasses[i] = MethodType.methodType(parameterTypes[i]).wrap().returnType();
+			isPrimitive[i] = parameterTypes[i].isPrimitive();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object invoke(Object[] arguments)
+			throws InvocationTargetException, IllegalArgumentException, IllegalAccessException {
+		if (arguments.length != argumentClasses.length) {
+			throw new IllegalArgumentException("wrong number of arguments");
+		}
+		for (int i = 0; i < arguments.length; i++) {
+			Object argument = arguments[i];
+			if (argument == null ? isPrimitive[i] : !argumentClasses[i].isInstance(argument)) {
+				throw new IllegalArgumentException("argument type mismatch");
+			}
+		}
+
+		try {
+			return (Object) handle.invokeExact(arguments);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+}
@@ -4,25 +4,82 @@
 
 package rmi;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import rmi.io.Codec;
+import rmi.io.EncodingException;
 import rmi.io.RMIRequest;
 import rmi.io.RMIResponse;
+import rmi.io.WireFormat;
+import rmi.log.Log;
+import rmi.log.Logger;
 
 /**
  * The runnable object executed in the thread pool that services a client
- * connection to execute the remote method call on the {@link Skeleton} object.
+ * connection to execute the remote method calls on the {@link Skeleton} object.
+ * A connection may carry any number of calls; the task serves them until the
+ * client closes the connection or the skeleton is stopped.
+ *
+ * <p>
+ * The task's own thread only reads requests: as the NIO engine does, it hands
+ * every call to a further worker, so that up to
+ * {@link ExecutorPolicy#getMaxPipelinedCalls()} calls of a multiplexed or
+ * pipelining client execute at once from the very first ones on the
+ * connection while the task keeps reading. Responses are written as the
+ * calls complete, tagged with their call identifiers, and responses
+ * completing together are coalesced into shared writes. A call finding every
+ * worker busy is executed on the task's own thread instead. A task not
+ * tracked by a listener, or bound by its policy to one call at a time,
+ * executes its calls on its own thread, in order.
  *
  * @param <T>
  *            the generic remote interface this listener thread represents.
  */
 public class MethodInvocationTask<T> implements Runnable {
 
+	/**
+	 * The logger of the class.
+	 */
+	private static final Logger log = Log.getLogger(MethodInvocationTask.class);
+
+	/**
+	 * The time in milliseconds a rejected client is given to send its first
+	 * request.
+	 */
+	public static final int rejectTimeout = 1000;
+	/**
+	 * The number of threads answering rejected clients.
+	 */
+	static final int rejectThreads = 4;
+	/**
+	 * The number of rejected clients that may wait for a thread to answer
+	 * them. Clients rejected beyond it are disconnected without an answer.
+	 */
+	static final int maxPendingRejections = 64;
+
+	/**
+	 * The daemon threads answering rejected clients, so that clients slow to
+	 * send their first request do not hold up the thread that accepted them.
+	 * Its threads exit when idle, as clients are only rejected under
+	 * overload.
+	 */
+	private static final ThreadPoolExecutor rejecter = newRejecter();
+
 	/**
 	 * The skeleton object on which the remote method call is executed.
 	 */
@@ -36,11 +93,59 @@ public class MethodInvocationTask<T> implements Runnable {
 	 * {@link Runnable} task represents.
 	 */
 	private Class<T> serverClass;
+	/**
+	 * The dispatcher executing the requested calls on the server object.
+	 */
+	private CallDispatcher<T> dispatcher;
 	/**
 	 * The client connection that the task accepts remote method calls and
-	 * returns the response on.
+	 * returns the response on; {@code null} if the connection was handed over
+	 * as a channel.
 	 */
 	private Socket clientConnection;
+	/**
+	 * The client connection, when it was handed over as a channel by the
+	 * listener that accepted it; {@code null} otherwise.
+	 */
+	private SocketChannel clientChannel;
+	/**
+	 * The boolean status of whether the skeleton has asked the task to stop
+	 * serving its client connection.
+	 */
+	private volatile boolean isClosing;
+	/**
+	 * The number of remote method calls being executed, each counted from the
+	 * moment its request has been read until its response has been written.
+	 */
+	private final AtomicInteger activeCalls = new AtomicInteger();
+	/**
+	 * The codec of the messages on the client connection.
+	 */
+	private Codec codec;
+	/**
+	 * The writer serializing the responses of concurrent calls, coalescing
+	 * those completing together into shared writes.
+	 */
+	private CoalescingWriter writer;
+	/**
+	 * The permits bounding the number of calls of the connection executed at
+	 * once; {@code null} if the calls are executed on the task's own thread.
+	 */
+	private Semaphore callPermits;
+	/**
+	 * The maximum number of calls of the connection executed at once.
+	 */
+	private int maxPipelinedCalls;
+	/**
+	 * The listener that accepted the client connection; {@code null} if the
+	 * task is not tracked by a listener.
+	 */
+	private Listener<T> listener;
+	/**
+	 * The bytes already read from the client connection by the listener
+	 * before the task took it over; {@code null} if there are none.
+	 */
+	private byte[] preread;
 
 	/**
          * The constructor to create a new {@link MethodInvocationTask} instance.
@@ -59,49 +164,58 @@ public class MethodInvocationTask<T> implements Runnable {
 		this.serverObject = serverObject;
 		this.serverClass = serverClass;
 		this.clientConnection = clientConnection;
+		this.dispatcher = new CallDispatcher<T>(container, serverObject, serverClass);
 	}
 
 	/**
-	 * The method returns a member {@link Method} instance of the given remote
-	 * interface that matches with the given method signature provided in the
-	 * remote call requests.
-	 * 
-	 * @param clazz
-	 *            The remote interface class object that this
-	 *            {@link MethodInvocationTask} represents.
-	 * @param methodName
-	 *            The remote method name that has been requested in the remote
-	 *            call.
-	 * @param argumentTypes
-	 *            The expected argument types of the remote method to be called.
-	 * @return {@link Method} instance; {@code null} if not such method is
-	 *         found.
-	 */
-	private Method getMatchingMethod(Class clazz, String methodName, String[] argumentTypes) {
-		for (Method method : clazz.getDeclaredMethods()) {
-			Class[] paramTypes = method.getParameterTypes();
-			if (methodName.equals(method.getName()) && (argumentTypes.length == paramTypes.length)) {
-				boolean found = true;
-				for (int i = 0; i < argumentTypes.length; i++) {
-					if (!paramTypes[i].getName().equals(argumentTypes[i])) {
-						found = false;
-					}
-				}
-
-				if (found) {
-					return method;
-				}
-			}
-		}
-
-		for (Class iface : clazz.getInterfaces()) {
-			Method method = getMatchingMethod(iface, methodName, argumentTypes);
-			if (method != null) {
-				return method;
-			}
-		}
+	 * The constructor to create a new {@link MethodInvocationTask} instance
+	 * tracked by the listener thread that accepted its connection.
+	 *
+	 * @param container
+	 *            The skeleton object
+	 * @param serverObject
+	 *            The generic server object
+	 * @param serverClass
+	 *            The class object of server
+	 * @param clientConnection
+	 *            The client connection
+	 * @param listener
+	 *            The listener thread that accepted the connection
+	 */
+	public MethodInvocationTask(Skeleton<T> container, T serverObject, Class<T> serverClass, Socket clientConnection,
+			ListenerThread<T> listener) {
+		this(container, serverObject, serverClass, clientConnection);
+		this.listener = listener;
+		this.dispatcher = new CallDispatcher<T>(container, serverObject, serverClass, listener.getWorkerPool());
+		this.maxPipelinedCalls = listener.getWorkerPool().getPolicy().getMaxPipelinedCalls();
+	}
 
-		return null;
+	/**
+	 * The constructor to create a new {@link MethodInvocationTask} instance
+	 * taking over a connection from which the listener has already read the
+	 * first bytes.
+	 *
+	 * @param container
+	 *            The skeleton object
+	 * @param serverObject
+	 *            The generic server object
+	 * @param serverClass
+	 *            The class object of server
+	 * @param clientChannel
+	 *            The client connection, in blocking mode
+	 * @param listener
+	 *            The listener that accepted the connection
+	 * @param preread
+	 *            The bytes already read from the connection
+	 */
+	MethodInvocationTask(Skeleton<T> container, T serverObject, Class<T> serverClass, SocketChannel clientChannel,
+			Listener<T> listener, byte[] preread) {
+		this(container, serverObject, serverClass, (Socket) null);
+		this.clientChannel = clientChannel;
+		this.listener = listener;
+		this.dispatcher = new CallDispatcher<T>(container, serverObject, serverClass, listener.getWorkerPool());
+		this.maxPipelinedCalls = listener.getWorkerPool().getPolicy().getMaxPipelinedCalls();
+		this.preread = preread;
 	}
 
 	/**
@@ -109,155 +223,317 @@ public class MethodInvocationTask<T> implements Runnable {
 	 */
 	@Override
 	public void run() {
-		ObjectOutputStream outStream;
-		ObjectInputStream inStream;
+		if (clientConnection == null && clientChannel == null) {
+			container.service_error(new RMIException("Task has no client connection."));
+			closeConnection();
+			return; // Nothing can be done so simply exit.
+		}
 
 		try {
-			outStream = new ObjectOutputStream(clientConnection.getOutputStream());
-			outStream.flush();
+			codec = WireFormat.openServer(openInput(), openOutput());
+			writer = new CoalescingWriter(codec);
 		} catch (IOException e) {
-			System.err.println("Failed to get OutputStream from client connection: " + "ServerClass: "
-					+ serverClass.getName() + ", " + "IPAddress: " + container.getBindAddress().getAddress().toString()
-					+ ", " + "Port: " + container.getBindAddress().getPort());
+			log.warn(() -> "Failed to open client connection: " + "ServerClass: " + serverClass.getName() + ", "
+					+ container.describeAddress());
 
 			container.service_error(new RMIException(e));
 
 			closeConnection();
 			return; // Nothing can be done so simply exit.
-		} catch (NullPointerException e) {
-			container.service_error(new RMIException(e));
+		}
 
-			closeConnection();
-			return; // Nothing can be done so simply exit.
+		if (listener != null && maxPipelinedCalls > 1) {
+			callPermits = new Semaphore(maxPipelinedCalls);
 		}
-		try {
-			inStream = new ObjectInputStream(clientConnection.getInputStream());
-		} catch (IOException e) {
-			System.err.println("Failed to get IntputStream from client connection: " + "ServerClass: "
-					+ serverClass.getName() + ", " + "IPAddress: " + container.getBindAddress().getAddress().toString()
-					+ ", " + "Port: " + container.getBindAddress().getPort());
 
-			container.service_error(new RMIException(e));
+		long servedRequests = 0;
+		while (true) {
+			RMIRequest request;
+			try {
+				request = codec.readRequest();
+			} catch (EOFException | SocketException | ClosedChannelException e) {
+				if (servedRequests > 0 || isClosing) {
+					break; // The client or the skeleton has closed the connection.
+				}
+				log.warn(() -> "Failed to get read request from client connection: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress());
+				container.service_error(new RMIException(e));
+				break;
+			} catch (ClassNotFoundException | IOException e) {
+				log.warn(() -> "Failed to get read request from client connection: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress());
+				container.service_error(new RMIException(e));
+				break;
+			}
 
-			closeConnection();
-			return; // Nothing can be done so simply exit.
-		} catch (NullPointerException e) {
-			container.service_error(new RMIException(e));
+			CallTimer timer = new CallTimer(codec.getLastDecodeTime());
+			activeCalls.incrementAndGet();
+			if (isClosing) {
+				// A request can still be read after the input was shut down;
+				// the skeleton has stopped, so it is dropped unanswered.
+				activeCalls.decrementAndGet();
+				break;
+			}
 
-			closeConnection();
-			return; // Nothing can be done so simply exit.
+			servedRequests++;
+			if (callPermits != null) {
+				executeConcurrently(request, timer);
+			} else if (!serve(request, timer)) {
+				break;
+			}
 		}
 
-		RMIRequest request;
-		try {
-			request = (RMIRequest) inStream.readObject();
-		} catch (ClassNotFoundException | IOException e) {
-			System.err.println("Failed to get read request from client connection: " + "ServerClass: "
-					+ serverClass.getName() + ", " + "IPAddress: " + container.getBindAddress().getAddress().toString()
-					+ ", " + "Port: " + container.getBindAddress().getPort());
-			container.service_error(new RMIException(e));
-
-			closeConnection();
-			return; // Nothing can be done so simply exit.
+		if (callPermits != null) {
+			// The responses of the calls still executing are written before
+			// the connection is closed.
+			callPermits.acquireUninterruptibly(maxPipelinedCalls);
 		}
+		closeConnection();
+	}
 
-		RMIResponse response;
-		String className = request.getClassName();
-		String methodName = request.getMethodName();
-		Object[] arguments = request.getArguments();
-		String[] argumentTypes = request.getArgumentTypes();
-
-		if (isAncestorOrEqual(serverClass, className)) {
-
-			Method matchingMethod = getMatchingMethod(serverClass, methodName, argumentTypes);
-			if (matchingMethod != null) {
-				try {
-					Object returnValue = matchingMethod.invoke(serverObject, arguments);
-					response = new RMIResponse(returnValue);
-				} catch (InvocationTargetException e) {
-					response = new RMIResponse((Exception) e.getTargetException());
-				} catch (IllegalArgumentException | IllegalAccessException e) {
-					System.err.println(
-							"Failed to invoke the designated method: " + "ServerClass: " + serverClass.getName() + ", "
-									+ "IPAddress: " + container.getBindAddress().getAddress().toString() + ", "
-									+ "Port: " + container.getBindAddress().getPort() + ", " + "ClientClass: "
-									+ className + ", " + "Method: " + methodName + ", " + "Arguments: " + arguments);
-					RMIException exception = new RMIException(e);
-					container.service_error(exception);
-					response = new RMIResponse(exception);
+	/**
+	 * Hands a call to a further worker, waiting first while the connection
+	 * already has as many calls executing as it may. The call is executed on
+	 * the calling thread if every worker is busy, so that pipelined calls
+	 * cannot wait for workers held by the connections issuing them.
+	 * 
+	 * @param request
+	 *            the remote method call request
+	 * @param timer
+	 *            the timer of the call
+	 */
+	private void executeConcurrently(RMIRequest request, CallTimer timer) {
+		callPermits.acquireUninterruptibly();
+		Runnable call = () -> {
+			try {
+				if (!serve(request, timer)) {
+					closeSocket();
 				}
-			} else {
-				System.err.println("Failed to find a matching method: " + "ServerClass: " + serverClass.getName() + ", "
-						+ "IPAddress: " + container.getBindAddress().getAddress().toString() + ", " + "Port: "
-						+ container.getBindAddress().getPort() + ", " + "ClientClass: " + className + ", " + "Method: "
-						+ methodName + ", " + "Arguments: " + arguments);
-				RMIException exception = new RMIException(new NoSuchMethodException("No such remote method."));
-				container.service_error(exception);
-				response = new RMIResponse(exception);
+			} finally {
+				callPermits.release();
 			}
-		} else {
-			System.err.println("Failed to find a matching class: " + "ServerClass: " + serverClass.getName() + ", "
-					+ "IPAddress: " + container.getBindAddress().getAddress().toString() + ", " + "Port: "
-					+ container.getBindAddress().getPort() + ", " + "ClientClass: " + className + ", " + "Method: "
-					+ methodName + ", " + "Arguments: " + arguments);
-			RMIException exception = new RMIException(new ClassNotFoundException("No such remote class."));
-			container.service_error(exception);
-			response = new RMIResponse(exception);
+		};
+
+		WorkerPool pool = listener.getWorkerPool();
+		if (pool.isSaturated()) {
+			call.run();
+			return;
+		}
+		try {
+			pool.execute(call);
+		} catch (RejectedExecutionException e) {
+			call.run();
 		}
+	}
 
+	/**
+	 * Executes a call and writes its response, recording the call in the
+	 * metrics of its method, and releases the buffers holding its bulk
+	 * arguments. A response that cannot be encoded is replaced with an
+	 * {@link RMIException} telling the client so, as the connection still
+	 * carries the other calls of the client.
+	 * 
+	 * @param request
+	 *            the remote method call request
+	 * @param timer
+	 *            the timer of the call
+	 * @return {@code true} if the response has been written; {@code false} if
+	 *         the connection has failed
+	 */
+	private boolean serve(RMIRequest request, CallTimer timer) {
+		long serializeTime = -1;
 		try {
-			outStream.writeObject(response);
+			RMIResponse response = dispatcher.dispatch(request, timer);
+			long writeStart = System.nanoTime();
+			try {
+				writer.writeResponse(response);
+			} catch (EncodingException e) {
+				log.warn(() -> "Failed to encode response to client call: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress() + ", "
+						+ dispatcher.describeCall(request), e);
+				container.service_error(new RMIException(e));
+				writer.writeResponse(new RMIResponse(request.getCallId(),
+						new RMIException("Response could not be encoded: " + e.getMessage())));
+				timer.failed();
+			}
+			serializeTime = System.nanoTime() - writeStart;
+			return true;
 		} catch (IOException e) {
-			System.err.println("Failed to write response to client connection: " + "ServerClass: "
-					+ serverClass.getName() + ", " + "IPAddress: " + container.getBindAddress().getAddress().toString()
-					+ ", " + "Port: " + container.getBindAddress().getPort() + ", " + "ClientClass: " + className + ", "
-					+ "Method: " + methodName + ", " + "Arguments: " + arguments);
+			log.warn(() -> "Failed to write response to client connection: " + "ServerClass: "
+					+ serverClass.getName() + ", " + container.describeAddress() + ", "
+					+ dispatcher.describeCall(request));
 			container.service_error(new RMIException(e));
+			timer.failed();
+			return false;
+		} finally {
+			// Frames with bulk values are written out before the writer
+			// returns, so the leased buffers are free to be reused.
+			request.release();
+			timer.finished(serializeTime);
+			activeCalls.decrementAndGet();
+		}
+	}
+
+	/**
+	 * The method turns the client away instead of serving it: the first
+	 * request on the connection is answered with the given exception and the
+	 * connection is closed. The request is awaited and answered on one of
+	 * {@link #rejectThreads} threads shared by all skeletons, so the method
+	 * returns at once to the thread that accepted the connection. If
+	 * {@link #maxPendingRejections} rejected clients are already waiting for
+	 * an answer, the connection is closed at once instead.
+	 * 
+	 * @param reason
+	 *            the exception to answer the request with
+	 */
+	public void reject(RMIException reason) {
+		try {
+			rejecter.execute(() -> answerRejected(reason));
+		} catch (RejectedExecutionException e) {
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Answers the first request of a rejected client with the given exception
+	 * and closes the connection. The method waits at most
+	 * {@link #rejectTimeout} milliseconds for the request. A Unix domain
+	 * connection cannot time out a read, so it is closed without waiting for
+	 * the request.
+	 * 
+	 * @param reason
+	 *            the exception to answer the request with
+	 */
+	private void answerRejected(RMIException reason) {
+		try {
+			if (clientChannel == null) {
+				clientConnection.setSoTimeout(rejectTimeout);
+			} else if (container.getTransport() == Transport.TCP) {
+				clientChannel.socket().setSoTimeout(rejectTimeout);
+			} else {
+				closeConnection();
+				return;
+			}
+			Codec codec = WireFormat.openServer(openInput(), openOutput());
+			RMIRequest request = codec.readRequest();
+			codec.writeResponse(new RMIResponse(request.getCallId(), reason));
+		} catch (IOException | ClassNotFoundException e) {
+			// The client gets no answer; closing the connection tells it
+			// the call failed.
 		}
 
 		closeConnection();
 	}
 
 	/**
-	 * The methods checks if the expected {@code ancestorClass} represents the
-	 * interface either equal or inherited by the {@code currentClass} interface
-	 * class object.
+	 * Creates the executor answering rejected clients.
 	 * 
-	 * @param currentClass
-	 *            the class object whose ancestry needs to searched in.
-	 * @param ancestorClassName
-	 *            the class to be expected in the ancestry of the
-	 *            {@code currentClass}
-	 * @return {@code true} if the expected interface is in the given classes
-	 *         hierarchy; {@code false} otherwise.
-	 */
-	private boolean isAncestorOrEqual(Class currentClass, String ancestorClassName) {
-		if (currentClass.getName().equals(ancestorClassName)) {
-			return true;
-		} else {
-			for (Class iface : serverClass.getInterfaces()) {
-				if (isAncestorOrEqual(iface, ancestorClassName)) {
-					return true;
+	 * @return the executor
+	 */
+	private static ThreadPoolExecutor newRejecter() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(rejectThreads, rejectThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(maxPendingRejections), runnable -> {
+					Thread thread = new Thread(runnable, "rmi-rejecter");
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * The method stops the task from waiting for further requests on its
+	 * client connection. An idle connection is closed at once; a remote method
+	 * call already being executed completes and its response is still written
+	 * before the connection is closed.
+	 */
+	public void shutdown() {
+		isClosing = true;
+		try {
+			if (activeCalls.get() > 0) {
+				if (clientChannel != null) {
+					clientChannel.shutdownInput();
+				} else if (clientConnection != null) {
+					clientConnection.shutdownInput();
 				}
+			} else {
+				closeClient();
 			}
+		} catch (IOException e) {
+			// The connection is already closed; the task is exiting anyway.
+		}
+	}
+
+	/**
+	 * Returns the input stream of the client connection, starting with the
+	 * bytes the listener has already read from it.
+	 * 
+	 * @return the input stream
+	 * @throws IOException
+	 *             if the input stream cannot be obtained
+	 */
+	private InputStream openInput() throws IOException {
+		InputStream in = (clientChannel != null) ? container.getTransport().openInput(clientChannel)
+				: clientConnection.getInputStream();
+		if (preread != null) {
+			in = new SequenceInputStream(new ByteArrayInputStream(preread), in);
 		}
 
-		return false;
+		return in;
+	}
+
+	/**
+	 * Returns the output stream of the client connection.
+	 * 
+	 * @return the output stream
+	 * @throws IOException
+	 *             if the output stream cannot be obtained
+	 */
+	private OutputStream openOutput() throws IOException {
+		return (clientChannel != null) ? container.getTransport().openOutput(clientChannel)
+				: clientConnection.getOutputStream();
+	}
+
+	/**
+	 * Closes the client connection, whether a socket or a channel, if the
+	 * task has one.
+	 * 
+	 * @throws IOException
+	 *             if the connection cannot be closed
+	 */
+	private void closeClient() throws IOException {
+		if (clientChannel != null) {
+			clientChannel.close();
+		} else if (clientConnection != null) {
+			clientConnection.close();
+		}
+	}
+
+	/**
+	 * Closes the client connection after a pipelined call failed to write its
+	 * response, which makes the reading thread stop.
+	 */
+	private void closeSocket() {
+		try {
+			closeClient();
+		} catch (IOException e) {
+			// The connection has failed already.
+		}
 	}
 
 	/**
 	 * The method closes the client connection for the remote method call.
 	 */
 	private void closeConnection() {
+		if (listener != null) {
+			listener.taskFinished(this);
+		}
 		try {
-			clientConnection.close();
+			closeClient();
 		} catch (IOException e) {
-			System.err.println("Failed to close client connection: " + "ServerClass: " + serverClass.getName() + ", "
-					+ "IPAddress: " + container.getBindAddress().getAddress().toString() + ", " + "Port: "
-					+ container.getBindAddress().getPort());
+			log.warn(() -> "Failed to close client connection: " + "ServerClass: " + serverClass.getName() + ", "
+					+ container.describeAddress());
 
-			container.service_error(new RMIException(e));
-		} catch (NullPointerException e) {
 			container.service_error(new RMIException(e));
 		}
 	}
@@ -0,0 +1,406 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+import rmi.io.Codec;
+import rmi.io.EncodingException;
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+import rmi.log.Log;
+import rmi.log.Logger;
+
+/**
+ * A long-lived connection from stubs to a single skeleton address that carries
+ * many remote method calls.
+ *
+ * <p>
+ * Any number of threads may issue calls on the connection concurrently. Each
+ * request is tagged with a call identifier unique to the connection; a reader
+ * thread owned by the connection reads the responses and hands each one to the
+ * caller waiting on the matching call identifier. Requests written by
+ * concurrent callers are coalesced into shared writes to the socket by a
+ * {@link CoalescingWriter}. When the connection fails or
+ * the skeleton closes it, every pending call fails with an
+ * {@link RMIException} and the next call opens a fresh connection. A response
+ * to a call that was never made on the connection means the two ends no
+ * longer agree on the calls in flight, so it fails the connection in the
+ * same way rather than leaving the call it was meant for to wait forever.
+ * A request that cannot be encoded fails only its own call, unless the codec
+ * could not keep it off the connection.
+ */
+public class MultiplexedConnection implements Runnable {
+
+	/**
+	 * The logger of the class.
+	 */
+	private static final Logger log = Log.getLogger(MultiplexedConnection.class);
+
+	/**
+	 * The open connections, one per remote skeleton address.
+	 */
+	private static final ConcurrentHashMap<SocketAddress, MultiplexedConnection> connections = new ConcurrentHashMap<>();
+	/**
+	 * The lock held while a new connection is being opened, so that concurrent
+	 * first calls share a single connection.
+	 */
+	private static final ReentrantLock connectLock = new ReentrantLock();
+	/**
+	 * The placeholder left among the pending calls in place of a call whose
+	 * caller stopped waiting, so that its late response is dropped rather
+	 * than taken for a response to an unknown call.
+	 */
+	private static final CompletableFuture<RMIResponse> abandoned = new CompletableFuture<>();
+
+	/**
+	 * The number of abandoned calls whose late responses are still expected.
+	 * Beyond it the oldest is forgotten, so that calls whose responses never
+	 * arrive do not accumulate; a response still arriving for it then fails
+	 * the connection as a response to an unknown call.
+	 */
+	static final int maxAbandonedCalls = 1024;
+
+	/**
+	 * The address of the remote skeleton.
+	 */
+	private final SocketAddress address;
+	/**
+	 * The channel connected to the remote skeleton.
+	 */
+	private final SocketChannel channel;
+	/**
+	 * The codec of the messages on the connection. Requests are written
+	 * through the writer; responses are read by the reader thread only.
+	 */
+	private final Codec codec;
+	/**
+	 * The writer coalescing the requests of concurrent callers.
+	 */
+	private final CoalescingWriter writer;
+	/**
+	 * The calls that have been written but not yet answered, keyed by call
+	 * identifier. A call whose caller stopped waiting is kept as
+	 * {@link #abandoned} until its response arrives.
+	 */
+	private final ConcurrentHashMap<Long, CompletableFuture<RMIResponse>> pendingCalls = new ConcurrentHashMap<>();
+	/**
+	 * The identifiers of the most recently abandoned calls, oldest first;
+	 * guarded by itself.
+	 */
+	private final ArrayDeque<Long> abandonedCalls = new ArrayDeque<>();
+	/**
+	 * The boolean status of whether the connection can still carry calls.
+	 */
+	private volatile boolean isOpen;
+
+	/**
+	 * The constructor opens a connection to the given skeleton address and
+	 * starts its reader thread.
+	 *
+	 * @param address
+	 *            the address of the remote skeleton
+	 * @throws RMIException
+	 *             if the connection or its streams cannot be set up
+	 */
+	private MultiplexedConnection(SocketAddress address) throws RMIException {
+		this.address = address;
+		Transport transport = Transport.of(address);
+		try {
+			this.channel = transport.connect(address);
+		} catch (IOException e) {
+			log.warn("Failed to open multiplexed connection to server skeleton.");
+			throw new RMIException(e);
+		}
+		try {
+			codec = Stub.getWireFormat().openClient(transport.openInput(channel), transport.openOutput(channel));
+		} catch (IOException e) {
+			log.warn("Failed to open multiplexed connection to server skeleton.");
+			closeSocket();
+			throw new RMIException(e);
+		}
+		writer = new CoalescingWriter(codec);
+
+		isOpen = true;
+		Thread reader = new Thread(this, "rmi-connection-" + transport.name(address));
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Returns the open connection to the given skeleton address, opening one
+	 * if there is none.
+	 *
+	 * @param address
+	 *            the address of the remote skeleton
+	 * @return the connection
+	 * @throws RMIException
+	 *             if a new connection cannot be opened
+	 */
+	public static MultiplexedConnection get(SocketAddress address) throws RMIException {
+		return get(address, null);
+	}
+
+	/**
+	 * Returns the open connection to the given skeleton address, opening one
+	 * if there is none and timing the opening.
+	 *
+	 * @param address
+	 *            the address of the remote skeleton
+	 * @param timer
+	 *            the timer of the call the connection is needed for;
+	 *            {@code null} if the call is not timed
+	 * @return the connection
+	 * @throws RMIException
+	 *             if a new connection cannot be opened
+	 */
+	static MultiplexedConnection get(SocketAddress address, ClientCallTimer timer) throws RMIException {
+		MultiplexedConnection connection = connections.get(address);
+		if (connection != null && connection.isOpen) {
+			return connection;
+		}
+
+		connectLock.lock();
+		try {
+			connection = connections.get(address);
+			if (connection == null || !connection.isOpen) {
+				long start = System.nanoTime();
+				connection = new MultiplexedConnection(address);
+				connections.put(address, connection);
+				if (timer != null) {
+					timer.connected(System.nanoTime() - start);
+				}
+			}
+			return connection;
+		} finally {
+			connectLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the request and waits for the matching response.
+	 *
+	 * @param request
+	 *            the request, tagged with a call identifier not used by any
+	 *            other call pending on this connection
+	 * @return the response to the request
+	 * @throws RMIException
+	 *             if the request cannot be written or the connection fails
+	 *             before the response arrives
+	 */
+	public RMIResponse call(RMIRequest request) throws RMIException {
+		return call(request, null);
+	}
+
+	/**
+	 * Writes the request and waits for the matching response, timing the
+	 * phases of the call. The request counts as written once the writer has
+	 * flushed it to the socket, which may be done by a later caller whose
+	 * request is coalesced with it. The response is decoded by the reader
+	 * thread, so its decoding counts as part of the wait for it.
+	 *
+	 * @param request
+	 *            the request, tagged with a call identifier not used by any
+	 *            other call pending on this connection
+	 * @param timer
+	 *            the timer of the call; {@code null} if the call is not timed
+	 * @return the response to the request
+	 * @throws RMIException
+	 *             if the request cannot be written or the connection fails
+	 *             before the response arrives
+	 */
+	RMIResponse call(RMIRequest request, ClientCallTimer timer) throws RMIException {
+		long start = (timer == null) ? 0 : System.nanoTime();
+		AtomicLong flushedAt = (timer == null) ? null : new AtomicLong();
+		CompletableFuture<RMIResponse> future = callAsync(request, (flushedAt == null) ? null : flushedAt::set);
+		try {
+			RMIResponse response = future.get();
+			if (timer != null) {
+				long received = System.nanoTime();
+				// The response may overtake the flushing thread's timestamp.
+				long written = (flushedAt.get() == 0) ? received : flushedAt.get();
+				timer.written(written - start);
+				timer.received(received - written, -1);
+			}
+			return response;
+		} catch (InterruptedException e) {
+			abandon(request.getCallId(), future);
+			Thread.currentThread().interrupt();
+			throw new RMIException(e);
+		} catch (ExecutionException e) {
+			throw (RMIException) e.getCause();
+		}
+	}
+
+	/**
+	 * Marks a call as abandoned by its caller, unless its response or the
+	 * failure of the connection has already arrived. The call is replaced
+	 * with {@link #abandoned} in one step, so that the reader finds either
+	 * the call or the placeholder whenever the response arrives.
+	 *
+	 * @param callId
+	 *            the call identifier
+	 * @param future
+	 *            the future of the call
+	 */
+	private void abandon(long callId, CompletableFuture<RMIResponse> future) {
+		if (!pendingCalls.replace(callId, future, abandoned)) {
+			return;
+		}
+
+		Long forgotten = null;
+		synchronized (abandonedCalls) {
+			abandonedCalls.addLast(callId);
+			if (abandonedCalls.size() > maxAbandonedCalls) {
+				forgotten = abandonedCalls.pollFirst();
+			}
+		}
+		if (forgotten != null) {
+			pendingCalls.remove(forgotten, abandoned);
+		}
+	}
+
+	/**
+	 * Writes the request without waiting for its response. The returned future
+	 * is completed by the reader thread of the connection, so dependent
+	 * actions attached without an executor also run on that thread.
+	 *
+	 * @param request
+	 *            the request, tagged with a call identifier not used by any
+	 *            other call pending on this connection
+	 * @return the future completed with the response to the request, or
+	 *         completed exceptionally with an {@link RMIException} if the
+	 *         request cannot be written or the connection fails before the
+	 *         response arrives
+	 */
+	public CompletableFuture<RMIResponse> callAsync(RMIRequest request) {
+		return callAsync(request, null);
+	}
+
+	/**
+	 * Writes the request without waiting for its response, and tells the
+	 * given listener when it has been flushed to the socket.
+	 *
+	 * @param request
+	 *            the request, tagged with a call identifier not used by any
+	 *            other call pending on this connection
+	 * @param flushed
+	 *            the listener told the {@link System#nanoTime()} time at which
+	 *            the request was flushed; {@code null} if none
+	 * @return the future completed with the response to the request
+	 * @see #callAsync(RMIRequest)
+	 */
+	CompletableFuture<RMIResponse> callAsync(RMIRequest request, LongConsumer flushed) {
+		long callId = request.getCallId();
+		CompletableFuture<RMIResponse> future = new CompletableFuture<>();
+		pendingCalls.put(callId, future);
+		if (!isOpen) {
+			pendingCalls.remove(callId);
+			future.completeExceptionally(new RMIException("Connection to server skeleton is closed."));
+			return future;
+		}
+
+		try {
+			writer.writeRequest(request, flushed);
+		} catch (EncodingException e) {
+			// Nothing of the request reached the connection, which still
+			// carries the other calls.
+			if (pendingCalls.remove(callId) != null) {
+				future.completeExceptionally(new RMIException(e));
+			}
+		} catch (IOException | RuntimeException e) {
+			log.warn("Failed to write request to multiplexed connection.");
+			close(e);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Returns the writer coalescing the requests written to the connection.
+	 *
+	 * @return the writer
+	 */
+	CoalescingWriter getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Reads responses and hands each one to its waiting caller until the
+	 * connection closes. If the reader thread dies of an unexpected error,
+	 * the connection is closed first, so that no caller waits on it forever.
+	 */
+	@Override
+	public void run() {
+		try {
+			while (isOpen) {
+				RMIResponse response;
+				try {
+					response = codec.readResponse();
+				} catch (ClassNotFoundException | IOException e) {
+					close(e);
+					break;
+				}
+
+				long callId = response.getCallId();
+				CompletableFuture<RMIResponse> future = pendingCalls.remove(callId);
+				if (future == null) {
+					log.warn("Received response to unknown call " + callId + " on multiplexed connection.");
+					close(new StreamCorruptedException("Response to unknown call " + callId + "."));
+					break;
+				}
+				// The response to an abandoned call is dropped.
+				if (future != abandoned) {
+					future.complete(response);
+				}
+			}
+		} catch (RuntimeException | Error e) {
+			close(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the connection and fails every call still waiting on it with an
+	 * {@link RMIException}.
+	 *
+	 * @param cause
+	 *            the reason the connection is being closed
+	 */
+	private void close(Throwable cause) {
+		isOpen = false;
+		connections.remove(address, this);
+		closeSocket();
+
+		for (Long callId : pendingCalls.keySet()) {
+			CompletableFuture<RMIResponse> future = pendingCalls.remove(callId);
+			if (future != null && future != abandoned) {
+				future.completeExceptionally(new RMIException(cause));
+			}
+		}
+	}
+
+	/**
+	 * Closes the underlying socket.
+	 */
+	private void closeSocket() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.warn("Failed to close socket.");
+		}
+	}
+
+}
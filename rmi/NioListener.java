@@ -0,0 +1,1405 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import rmi.io.BinaryCodec;
+import rmi.io.BufferPool;
+import rmi.io.FrameReader;
+import rmi.io.FrameWriter;
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+import rmi.log.Log;
+import rmi.log.Logger;
+
+/**
+ * The server engine serving client connections with non-blocking I/O.
+ *
+ * <p>
+ * A few I/O threads, each with a selector of its own, share the accepted
+ * connections. An I/O thread reads whatever arrives on its connections, cuts
+ * it into binary frames and hands every complete request frame to the worker
+ * pool, where it is decoded, executed and answered. A connection thus holds a
+ * worker only while one of its calls is executing, and idle persistent
+ * connections hold no thread at all. The calls pipelined on one connection are
+ * executed concurrently, up to the executor policy's
+ * {@link ExecutorPolicy#getMaxPipelinedCalls() pipelined call bound}, and each
+ * response is written as soon as its call returns, tagged with the call
+ * identifier of its request; frames arriving beyond the bound are held until
+ * one of the connection's calls has been answered. Responses completing
+ * together on one connection are coalesced: a worker finding another about to
+ * send leaves its response to it, and the last one writes them all in a single
+ * gathering write.
+ *
+ * <p>
+ * The segments of a bulk frame are read from the connection straight into a
+ * direct buffer leased from the shared {@link BufferPool}, which the request
+ * holds until every response queued on the connection before its own has
+ * been written. Bulk values in responses are queued as buffers of their own
+ * rather than copied, with file regions mapped into memory.
+ *
+ * <p>
+ * A connection that opens with the Java object stream header speaks the
+ * serialization wire format, which cannot be cut into frames without being
+ * deserialized. It is taken off its selector and handed to a
+ * {@link MethodInvocationTask} on a worker thread of its own, as in the
+ * blocking engine.
+ *
+ * @param <T>
+ *            the generic remote interface this listener represents.
+ */
+class NioListener<T> implements Listener<T> {
+
+	/**
+	 * The logger of the class.
+	 */
+	private static final Logger log = Log.getLogger(NioListener.class);
+
+	/**
+	 * The number of I/O threads serving connections.
+	 */
+	static final int ioThreadCount = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+	/**
+	 * The number of request frames held for a connection at its pipelined call
+	 * bound beyond which the connection is no longer read from.
+	 */
+	static final int maxHeldFrames = 64;
+	/**
+	 * The initial size of the buffer into which a connection is read; it
+	 * grows as large frames arrive.
+	 */
+	private static final int initialBufferSize = 1024;
+	/**
+	 * The size beyond which the input buffer of a connection is dropped for a
+	 * new one of the initial size once it has been drained, so that idle
+	 * connections do not keep large buffers.
+	 */
+	private static final int maxRetainedBufferSize = 64 * 1024;
+
+	/**
+	 * The skeleton object that this listener represents.
+	 */
+	private final Skeleton<T> container;
+	/**
+	 * The server object on which remote method calls are executed.
+	 */
+	private final T serverObject;
+	/**
+	 * The remote interface class object represented by this listener.
+	 */
+	private final Class<T> serverClass;
+	/**
+	 * The server channel on which the listener accepts connections.
+	 */
+	private final ServerSocketChannel serverChannel;
+	/**
+	 * The dispatcher executing the requested calls on the server object.
+	 */
+	private final CallDispatcher<T> dispatcher;
+	/**
+	 * The thread pool executing the remote method calls, bounded by the
+	 * skeleton's executor policy.
+	 */
+	private final WorkerPool threadPool;
+	/**
+	 * The maximum number of calls of a single connection executing at once.
+	 */
+	private final int maxPipelinedCalls;
+	/**
+	 * The I/O threads. The first one also accepts connections and carries out
+	 * the termination of the listener.
+	 */
+	private final List<IoLoop> loops;
+	/**
+	 * The tasks serving the serialization connections handed to worker
+	 * threads. They are told to stop waiting for further requests when the
+	 * listener terminates.
+	 */
+	private final Set<MethodInvocationTask<T>> handedOffTasks = ConcurrentHashMap.newKeySet();
+	/**
+	 * The latch released once the listener has stopped accepting connections
+	 * and has shut down the connections it accepted.
+	 */
+	private final CountDownLatch acceptLoopExited = new CountDownLatch(1);
+	/**
+	 * The boolean status representing if the listener is accepting
+	 * connections or not.
+	 */
+	private volatile boolean isActive;
+	/**
+	 * The cause due to which the listener terminated. {@code null} if
+	 * termination was requested and not due to an exception.
+	 */
+	private volatile Throwable cause;
+	/**
+	 * The index of the I/O thread to be given the next accepted connection.
+	 * Used by the accepting thread only.
+	 */
+	private int nextLoop;
+	/**
+	 * The boolean status of whether the termination has been carried out.
+	 * Used by the accepting thread only.
+	 */
+	private boolean isTerminated;
+
+	/**
+	 * The constructor for the listener.
+	 *
+	 * @param container
+	 *            The skeleton object
+	 * @param serverClass
+	 *            The class object of server
+	 * @param serverObject
+	 *            The generic server object
+	 * @param serverChannel
+	 *            The bound server channel
+	 * @throws IOException
+	 *             if the selectors cannot be opened
+	 */
+	NioListener(Skeleton<T> container, Class<T> serverClass, T serverObject, ServerSocketChannel serverChannel)
+			throws IOException {
+		this.container = container;
+		this.serverObject = serverObject;
+		this.serverClass = serverClass;
+		this.serverChannel = serverChannel;
+
+		// Threads are named after the port of a TCP skeleton and the socket
+		// path of a Unix domain one.
+		SocketAddress local = serverChannel.getLocalAddress();
+		String port = (local instanceof InetSocketAddress) ? String.valueOf(((InetSocketAddress) local).getPort())
+				: container.getTransport().name(local);
+		this.loops = new ArrayList<>(ioThreadCount);
+		try {
+			for (int i = 0; i < ioThreadCount; i++) {
+				loops.add(new IoLoop("rmi-io-" + port + "-" + i));
+			}
+			serverChannel.configureBlocking(false);
+			serverChannel.register(loops.get(0).selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			for (IoLoop loop : loops) {
+				loop.selector.close();
+			}
+			throw e;
+		}
+
+		this.threadPool = new WorkerPool(container.getExecutorPolicy(), "rmi-worker-" + port);
+		this.maxPipelinedCalls = threadPool.getPolicy().getMaxPipelinedCalls();
+		this.dispatcher = new CallDispatcher<T>(container, serverObject, serverClass, threadPool);
+		this.isActive = true;
+		this.cause = null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void start() {
+		for (IoLoop loop : loops) {
+			loop.start();
+		}
+	}
+
+	/**
+	 * The method to initiate termination of the listener. Unless it is called
+	 * from one of the I/O threads, the method returns only once the listener
+	 * has stopped accepting connections and has shut down the connections it
+	 * accepted. Calls already executing complete, and their responses are
+	 * written before their connections are closed.
+	 */
+	@Override
+	public void terminate() {
+		isActive = false;
+		loops.get(0).execute(this::shutdown);
+
+		if (!isIoThread()) {
+			try {
+				acceptLoopExited.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Returns the thread pool executing the remote method calls.
+	 *
+	 * @return worker pool
+	 */
+	@Override
+	public WorkerPool getWorkerPool() {
+		return threadPool;
+	}
+
+	/**
+	 * Returns the number of request frames waiting for a worker thread.
+	 *
+	 * @return queue depth
+	 */
+	@Override
+	public int getQueueDepth() {
+		return threadPool.getQueueDepth();
+	}
+
+	/**
+	 * Returns the number of worker threads executing calls or serving handed
+	 * off connections.
+	 *
+	 * @return active worker count
+	 */
+	@Override
+	public int getActiveWorkers() {
+		return threadPool.getActiveCount();
+	}
+
+	/**
+	 * Returns the number of calls and handed off connections rejected because
+	 * every worker was busy and the queue was full.
+	 *
+	 * @return rejected count
+	 */
+	@Override
+	public long getRejectedConnections() {
+		return threadPool.getRejectedCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void taskFinished(MethodInvocationTask<T> task) {
+		handedOffTasks.remove(task);
+	}
+
+	/**
+	 * Accepts the pending connections and spreads them over the I/O threads.
+	 * Runs on the first I/O thread.
+	 */
+	private void accept() {
+		while (isActive) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+			} catch (IOException e) {
+				log.warn(() -> "Failed to accept client connection: " + "ServerClass: " + serverClass.getName()
+						+ ", " + container.describeAddress());
+				if (!container.listen_error(e)) {
+					cause = e;
+					isActive = false;
+					shutdown();
+				}
+				return;
+			}
+
+			if (channel == null) {
+				return;
+			}
+
+			try {
+				channel.configureBlocking(false);
+				container.getTransport().configure(channel);
+			} catch (IOException e) {
+				log.warn(() -> "Failed to configure client connection: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress());
+				container.service_error(new RMIException(e));
+				closeQuietly(channel);
+				continue;
+			}
+
+			IoLoop loop = loops.get(nextLoop);
+			nextLoop = (nextLoop + 1) % loops.size();
+			Connection connection = new Connection(channel, loop);
+			if (loop == loops.get(0)) {
+				connection.register();
+			} else {
+				loop.execute(connection::register);
+			}
+		}
+	}
+
+	/**
+	 * Carries out the termination of the listener: the server channel is
+	 * closed, every I/O thread stops reading from its connections, the handed
+	 * off tasks are shut down and the skeleton is told it has stopped. Runs on
+	 * the first I/O thread.
+	 */
+	private void shutdown() {
+		if (isTerminated) {
+			return;
+		}
+		isTerminated = true;
+
+		closeServerChannel();
+
+		CountDownLatch drained = new CountDownLatch(loops.size() - 1);
+		for (int i = 1; i < loops.size(); i++) {
+			IoLoop loop = loops.get(i);
+			loop.execute(() -> {
+				loop.drain();
+				drained.countDown();
+			});
+		}
+		loops.get(0).drain();
+		try {
+			drained.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		for (MethodInvocationTask<T> task : handedOffTasks) {
+			task.shutdown();
+		}
+
+		log.info("Shutting down thread pool...");
+		threadPool.shutdown();
+		log.info("Thread pool terminated.");
+
+		container.confirmTermination(cause);
+
+		// As in the blocking listener, the thread waiting in terminate may
+		// return before the skeleton is told it has stopped, since stop holds
+		// the skeleton's lock while it waits.
+		acceptLoopExited.countDown();
+		container.stopped(cause);
+	}
+
+	/**
+	 * Closes the server channel and releases its port before returning.
+	 * Runs on the first I/O thread.
+	 */
+	private void closeServerChannel() {
+		try {
+			serverChannel.close();
+			// The socket of a channel registered with a selector is released
+			// only once the selector has dropped its key.
+			loops.get(0).selector.selectNow();
+		} catch (IOException e) {
+			log.warn(() -> "Failed to close listener socket. Ignoring the exception: " + "ServerClass: "
+					+ serverClass.getName() + ", " + container.describeAddress(), e);
+		}
+	}
+
+	/**
+	 * Returns whether the calling thread is one of the I/O threads.
+	 *
+	 * @return {@code true} if it is; {@code false} otherwise
+	 */
+	private boolean isIoThread() {
+		for (IoLoop loop : loops) {
+			if (Thread.currentThread() == loop) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Closes a channel, ignoring any failure.
+	 *
+	 * @param channel
+	 *            the channel to close
+	 */
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// The connection is being dropped anyway.
+		}
+	}
+
+	/**
+	 * An I/O thread, serving the connections registered with its selector.
+	 */
+	private class IoLoop extends Thread {
+
+		/**
+		 * The selector watching the connections of this thread.
+		 */
+		private final Selector selector;
+		/**
+		 * The work posted to this thread by other threads, run after every
+		 * selection.
+		 */
+		private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		/**
+		 * The open connections registered with the selector.
+		 */
+		private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+		/**
+		 * The serialization connections taken off the selector during the
+		 * current selection, to be handed to worker threads once the selector
+		 * has dropped their keys. Used by this thread only.
+		 */
+		private final ArrayList<Connection> handOffs = new ArrayList<>();
+		/**
+		 * The boolean status of whether the listener has terminated and the
+		 * thread is only finishing the calls of its remaining connections.
+		 * Used by this thread only.
+		 */
+		private boolean isDraining;
+
+		/**
+		 * The constructor opens the selector of the thread.
+		 *
+		 * @param name
+		 *            the thread name
+		 * @throws IOException
+		 *             if the selector cannot be opened
+		 */
+		IoLoop(String name) throws IOException {
+			super(name);
+			this.selector = Selector.open();
+		}
+
+		/**
+		 * Posts work to be run on this thread.
+		 *
+		 * @param task
+		 *            the work to run
+		 */
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void run() {
+			while (!isDraining || !connections.isEmpty()) {
+				try {
+					selector.select();
+				} catch (IOException e) {
+					log.warn(() -> "Failed to select client connections: " + "ServerClass: "
+							+ serverClass.getName() + ", " + container.describeAddress());
+					container.service_error(new RMIException(e));
+					for (Connection connection : connections) {
+						connection.close();
+					}
+					break;
+				}
+
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (CancelledKeyException e) {
+						// The connection was closed by a worker meanwhile.
+					} catch (RuntimeException | Error e) {
+						failed(e);
+					}
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+
+					@SuppressWarnings("unchecked")
+					Connection connection = (Connection) key.attachment();
+					if (connection == null) {
+						accept();
+						continue;
+					}
+					try {
+						if (key.isWritable()) {
+							connection.flush();
+						}
+						if (key.isValid() && key.isReadable()) {
+							connection.read();
+						}
+					} catch (CancelledKeyException e) {
+						// The connection was closed by a worker meanwhile.
+						connection.close();
+					} catch (RuntimeException | Error e) {
+						// Only the connection being served is given up, so
+						// that the others of this thread are still served.
+						failed(e);
+						connection.close();
+					}
+				}
+
+				if (!handOffs.isEmpty()) {
+					handOff();
+				}
+			}
+
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.warn(() -> "Failed to close selector: " + getName());
+			}
+		}
+
+		/**
+		 * Reports an unexpected failure while serving a connection of this
+		 * thread, such as running out of memory for its buffers.
+		 *
+		 * @param e
+		 *            the failure
+		 */
+		private void failed(Throwable e) {
+			log.warn(() -> "Failed to serve client connection: " + "ServerClass: " + serverClass.getName() + ", "
+					+ container.describeAddress());
+			container.service_error(new RMIException(e));
+		}
+
+		/**
+		 * Stops reading from every connection of this thread. Idle connections
+		 * are closed at once; the others once their pending call has been
+		 * answered. The thread exits when it has no connections left.
+		 */
+		void drain() {
+			isDraining = true;
+			for (Connection connection : connections) {
+				connection.stop();
+			}
+		}
+
+		/**
+		 * Hands the serialization connections taken off the selector to
+		 * worker threads.
+		 */
+		private void handOff() {
+			try {
+				// Wait for the selector to drop the cancelled keys; a channel
+				// cannot be made blocking while still registered.
+				selector.selectNow();
+			} catch (IOException e) {
+				// The next selection fails too and is reported there.
+			}
+
+			for (Connection connection : handOffs) {
+				byte[] preread = Arrays.copyOfRange(connection.input.array(), connection.input.position(),
+						connection.input.limit());
+				try {
+					connection.channel.configureBlocking(true);
+				} catch (IOException e) {
+					log.warn(() -> "Failed to hand off client connection: " + "ServerClass: "
+							+ serverClass.getName() + ", " + container.describeAddress());
+					container.service_error(new RMIException(e));
+					closeQuietly(connection.channel);
+					continue;
+				}
+
+				MethodInvocationTask<T> handler = new MethodInvocationTask<T>(container, serverObject, serverClass,
+						connection.channel, NioListener.this, preread);
+				handedOffTasks.add(handler);
+				try {
+					threadPool.execute(handler);
+				} catch (RejectedExecutionException e) {
+					log.warn(() -> "Rejecting client connection, all workers are busy: " + "ServerClass: "
+							+ serverClass.getName() + ", " + container.describeAddress());
+					handler.reject(new RMIException("Server busy: all " + threadPool.getMaximumPoolSize()
+							+ " workers are busy and the queue is full."));
+				}
+			}
+			handOffs.clear();
+		}
+	}
+
+	/**
+	 * A request frame and the time it was read from its connection.
+	 */
+	private static class RequestFrame {
+
+		/**
+		 * The frame payload.
+		 */
+		final byte[] payload;
+		/**
+		 * The segments following the payload of a bulk frame, in a buffer
+		 * leased from the shared pool; {@code null} if the frame has none.
+		 */
+		final ByteBuffer bulk;
+		/**
+		 * The time the frame was read, in {@link System#nanoTime()}
+		 * nanoseconds.
+		 */
+		final long readAt;
+
+		/**
+		 * The constructor for a frame just read.
+		 *
+		 * @param payload
+		 *            the frame payload
+		 * @param bulk
+		 *            the segments of the frame, or {@code null}
+		 */
+		RequestFrame(byte[] payload, ByteBuffer bulk) {
+			this.payload = payload;
+			this.bulk = bulk;
+			this.readAt = System.nanoTime();
+		}
+	}
+
+	/**
+	 * A client connection served by an I/O thread.
+	 *
+	 * <p>
+	 * The input buffer and the handshake state are used by the I/O thread
+	 * only. The held frames, the output queue and the busy and closing states
+	 * are shared with the worker threads and guarded by the connection lock.
+	 */
+	private class Connection {
+
+		/**
+		 * The channel of the connection.
+		 */
+		private final SocketChannel channel;
+		/**
+		 * The I/O thread serving the connection.
+		 */
+		private final IoLoop loop;
+		/**
+		 * The lock guarding the state shared with the worker threads.
+		 */
+		private final ReentrantLock lock = new ReentrantLock();
+		/**
+		 * The request frames read while a call of the connection was
+		 * executing, in arrival order.
+		 */
+		private final ArrayDeque<RequestFrame> heldFrames = new ArrayDeque<>();
+		/**
+		 * The encoded responses not yet fully written, in order.
+		 */
+		private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+		/**
+		 * The answered requests holding leased buffers that responses still
+		 * in the output may share; they are released once the output has
+		 * been written.
+		 */
+		private final ArrayList<RMIRequest> leasedRequests = new ArrayList<>();
+		/**
+		 * The number of workers about to send a response but not holding the
+		 * lock yet.
+		 */
+		private final AtomicInteger waitingSenders = new AtomicInteger();
+		/**
+		 * The boolean status of whether the output is waiting for the
+		 * connection to take more bytes.
+		 */
+		private boolean isWritePending;
+		/**
+		 * The bytes read but not yet cut into frames, ready to be drained.
+		 */
+		private ByteBuffer input = ByteBuffer.allocate(initialBufferSize);
+		/**
+		 * The payload of the bulk frame whose segments are being read;
+		 * {@code null} if none is.
+		 */
+		private byte[] bulkPayload;
+		/**
+		 * The leased buffer into which the segments of the bulk frame are
+		 * being read, enlarged as they arrive.
+		 */
+		private ByteBuffer bulkInput;
+		/**
+		 * The total length of the segments of the bulk frame being read.
+		 */
+		private int bulkLength;
+		/**
+		 * The key of the connection with the selector of its I/O thread.
+		 */
+		private SelectionKey key;
+		/**
+		 * The boolean status of whether the client's handshake has been read.
+		 */
+		private boolean isHandshakeRead;
+		/**
+		 * The boolean status of whether a request frame has been read from the
+		 * connection.
+		 */
+		private boolean isUsed;
+		/**
+		 * The number of the connection's calls executing or waiting for a
+		 * worker.
+		 */
+		private int inFlight;
+		/**
+		 * The boolean status of whether reading has been paused because too
+		 * many frames are held.
+		 */
+		private boolean isPaused;
+		/**
+		 * The boolean status of whether the listener has terminated, so the
+		 * connection is to be closed once its pending calls are answered.
+		 */
+		private boolean isClosing;
+
+		/**
+		 * The constructor for a newly accepted connection.
+		 *
+		 * @param channel
+		 *            the channel of the connection, in non-blocking mode
+		 * @param loop
+		 *            the I/O thread to serve the connection
+		 */
+		Connection(SocketChannel channel, IoLoop loop) {
+			this.channel = channel;
+			this.loop = loop;
+			input.flip();
+		}
+
+		/**
+		 * Registers the connection with the selector of its I/O thread. Runs
+		 * on that thread.
+		 */
+		void register() {
+			try {
+				key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+				loop.connections.add(this);
+			} catch (ClosedChannelException e) {
+				closeQuietly(channel);
+				return;
+			}
+			if (loop.isDraining) {
+				stop();
+			}
+		}
+
+		/**
+		 * Reads what has arrived on the connection and submits the complete
+		 * request frames. Runs on the I/O thread.
+		 */
+		void read() {
+			if (bulkPayload != null) {
+				readSegments();
+				return;
+			}
+
+			if (!input.hasRemaining() && input.capacity() > maxRetainedBufferSize) {
+				input = ByteBuffer.allocate(initialBufferSize);
+			} else {
+				input.compact();
+				if (!input.hasRemaining()) {
+					grow();
+				}
+			}
+
+			int read;
+			try {
+				read = channel.read(input);
+			} catch (IOException e) {
+				input.flip();
+				closed(e);
+				return;
+			}
+			input.flip();
+			if (read < 0) {
+				closed(new EOFException());
+				return;
+			}
+
+			try {
+				if (!isHandshakeRead && !readHandshake()) {
+					return;
+				}
+				cutFrames();
+			} catch (IOException e) {
+				log.warn(() -> "Failed to get read request from client connection: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress());
+				container.service_error(new RMIException(e));
+				close();
+			}
+		}
+
+		/**
+		 * Reads the segments of a bulk frame straight into their leased
+		 * buffer, submitting the frame once they are complete. The buffer is
+		 * doubled up to the length of the segments whenever it fills, as
+		 * {@link #grow()} does for the input buffer. Runs on the I/O thread.
+		 */
+		private void readSegments() {
+			if (!bulkInput.hasRemaining()) {
+				bulkInput = BufferPool.shared().enlarge(bulkInput,
+						(int) Math.min(bulkLength, bulkInput.limit() * 2L));
+			}
+
+			int read;
+			try {
+				read = channel.read(bulkInput);
+			} catch (IOException e) {
+				closed(e);
+				return;
+			}
+			if (read < 0) {
+				closed(new EOFException("Connection closed in the middle of a frame."));
+				return;
+			}
+
+			if (bulkInput.position() == bulkLength) {
+				completeBulkFrame();
+			}
+		}
+
+		/**
+		 * Submits the bulk frame whose segments have all been read.
+		 */
+		private void completeBulkFrame() {
+			RequestFrame frame = new RequestFrame(bulkPayload, bulkInput.flip());
+			bulkPayload = null;
+			bulkInput = null;
+			receive(frame);
+		}
+
+		/**
+		 * Closes the connection once the client has closed or reset it. As in
+		 * the blocking engine, a connection closed before carrying any request
+		 * is reported as a service error.
+		 *
+		 * @param e
+		 *            the exception with which reading failed
+		 */
+		private void closed(IOException e) {
+			if (!isUsed && !isClosing) {
+				log.warn(() -> "Failed to get read request from client connection: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress());
+				container.service_error(new RMIException(e));
+			}
+			close();
+		}
+
+		/**
+		 * Tells the wire format from the first bytes of the connection. A
+		 * serialization connection is taken off the selector to be handed to
+		 * a worker thread; the handshake of a binary connection is checked and
+		 * answered.
+		 *
+		 * @return {@code true} if frames may now be read; {@code false} if
+		 *         more bytes are needed or the connection has been handed off
+		 * @throws IOException
+		 *             if the handshake is not that of the binary protocol
+		 */
+		private boolean readHandshake() throws IOException {
+			if (input.remaining() >= 2 && (input.get(input.position()) & 0xFF) == 0xAC
+					&& (input.get(input.position() + 1) & 0xFF) == 0xED) {
+				key.cancel();
+				loop.connections.remove(this);
+				loop.handOffs.add(this);
+				return false;
+			}
+
+			if (input.remaining() < 5) {
+				return false;
+			}
+
+			byte[] handshake = new byte[5];
+			input.get(handshake);
+			BinaryCodec.readHandshake(new ByteArrayInputStream(handshake));
+			isHandshakeRead = true;
+
+			FrameWriter writer = new FrameWriter();
+			BinaryCodec.writeHandshake(writer);
+			send(ByteBuffer.wrap(writer.buffer(), 0, writer.length()));
+			return true;
+		}
+
+		/**
+		 * Cuts the complete frames off the input buffer and submits them.
+		 *
+		 * @throws StreamCorruptedException
+		 *             if a frame length is invalid, or a bulk length is
+		 *             beyond {@link BinaryCodec#getMaxBulkLength()}
+		 */
+		private void cutFrames() throws StreamCorruptedException {
+			while (input.remaining() >= 4) {
+				int length = input.getInt(input.position());
+				int headerLength = 4;
+				int bulkLength = -1;
+				if ((length & FrameWriter.bulkFrame) != 0) {
+					if (input.remaining() < 8) {
+						return;
+					}
+					length &= ~FrameWriter.bulkFrame;
+					headerLength = 8;
+					bulkLength = input.getInt(input.position() + 4);
+					BinaryCodec.checkBulkLength(bulkLength);
+				}
+				if (length > BinaryCodec.maxFrameLength) {
+					throw new StreamCorruptedException("Invalid frame length " + length + ".");
+				}
+				if (input.remaining() - headerLength < length) {
+					return;
+				}
+
+				input.position(input.position() + headerLength);
+				byte[] frame = new byte[length];
+				input.get(frame);
+				if (bulkLength < 0) {
+					receive(new RequestFrame(frame, null));
+					continue;
+				}
+
+				// The segments already read are copied into the leased
+				// buffer; the rest are read into it directly. The buffer
+				// starts no larger than what has arrived, so a length the
+				// client never sends does not cause a large allocation.
+				int buffered = Math.min(input.remaining(), bulkLength);
+				bulkPayload = frame;
+				this.bulkLength = bulkLength;
+				bulkInput = BufferPool.shared()
+						.acquire(Math.min(bulkLength, Math.max(buffered, BufferPool.minBufferSize)));
+				bulkInput.put(input.slice(input.position(), buffered));
+				input.position(input.position() + buffered);
+				if (buffered < bulkLength) {
+					return;
+				}
+				completeBulkFrame();
+			}
+		}
+
+		/**
+		 * Enlarges the full input buffer, doubling it up to the size of the
+		 * frame being read, so that a bogus length does not cause a large
+		 * allocation before the data arrives.
+		 */
+		private void grow() {
+			int length = input.getInt(0);
+			long needed = ((length & FrameWriter.bulkFrame) != 0) ? 8L + (length & ~FrameWriter.bulkFrame)
+					: 4L + length;
+			int capacity = (int) Math.min(Math.max(needed, initialBufferSize), input.capacity() * 2L);
+			ByteBuffer larger = ByteBuffer.allocate(capacity);
+			input.flip();
+			larger.put(input);
+			input = larger;
+		}
+
+		/**
+		 * Submits a request frame, or holds it if a call of the connection is
+		 * already executing. Runs on the I/O thread.
+		 *
+		 * @param frame
+		 *            the request frame
+		 */
+		private void receive(RequestFrame frame) {
+			isUsed = true;
+			lock.lock();
+			try {
+				if (isClosing) {
+					return;
+				}
+				if (inFlight >= maxPipelinedCalls) {
+					heldFrames.add(frame);
+					if (heldFrames.size() >= maxHeldFrames && !isPaused) {
+						isPaused = true;
+						key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+					}
+					return;
+				}
+				inFlight++;
+			} finally {
+				lock.unlock();
+			}
+
+			submit(frame);
+		}
+
+		/**
+		 * Hands a request frame to the worker pool, answering it with a busy
+		 * error if every worker is busy and the queue is full.
+		 *
+		 * @param frame
+		 *            the request frame
+		 */
+		private void submit(RequestFrame frame) {
+			try {
+				threadPool.execute(() -> execute(frame));
+			} catch (RejectedExecutionException e) {
+				if (threadPool.isShutdown()) {
+					close();
+					return;
+				}
+				log.warn(() -> "Rejecting remote method call, all workers are busy: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress());
+				RMIRequest request = decode(frame);
+				if (request != null) {
+					respond(request, new RMIResponse(request.getCallId(), new RMIException("Server busy: all "
+							+ threadPool.getMaximumPoolSize() + " workers are busy and the queue is full.")), null);
+					request.release();
+					callFinished();
+				}
+			}
+		}
+
+		/**
+		 * Decodes, executes and answers a request frame, recording the call
+		 * in the metrics of its method. Runs on a worker thread.
+		 *
+		 * @param frame
+		 *            the request frame
+		 */
+		private void execute(RequestFrame frame) {
+			lock.lock();
+			try {
+				if (isClosing) {
+					// The skeleton has stopped since the frame was read, so
+					// it is dropped unanswered.
+					callFinished();
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			long decodeStart = System.nanoTime();
+			RMIRequest request = decode(frame);
+			if (request == null) {
+				return;
+			}
+			long decodeTime = System.nanoTime() - decodeStart;
+
+			// The call waits for a worker and to be dispatched, but not while
+			// it is being decoded.
+			CallTimer timer = new CallTimer(frame.readAt + decodeTime, decodeTime);
+			long serializeTime = -1;
+			boolean sent = false;
+			try {
+				RMIResponse response = dispatcher.dispatch(request, timer);
+				long encodeStart = System.nanoTime();
+				sent = respond(request, response, timer);
+				if (sent) {
+					serializeTime = System.nanoTime() - encodeStart;
+				} else {
+					timer.failed();
+				}
+			} finally {
+				timer.finished(serializeTime);
+			}
+			if (sent) {
+				releaseWhenWritten(request);
+				callFinished();
+			}
+		}
+
+		/**
+		 * Releases the leased buffers of an answered request at once if the
+		 * output has been written, or else once it has.
+		 *
+		 * @param request
+		 *            the request
+		 */
+		private void releaseWhenWritten(RMIRequest request) {
+			lock.lock();
+			try {
+				if (output.isEmpty()) {
+					request.release();
+				} else {
+					leasedRequests.add(request);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Decodes a request frame, closing the connection if it is corrupt.
+		 *
+		 * @param frame
+		 *            the request frame
+		 * @return the request; {@code null} if the frame cannot be decoded
+		 */
+		private RMIRequest decode(RequestFrame frame) {
+			try {
+				return BinaryCodec.decodeRequest(new FrameReader(frame.payload, 0, frame.payload.length, frame.bulk,
+						(frame.bulk != null) ? BufferPool.shared() : null));
+			} catch (ClassNotFoundException | IOException e) {
+				log.warn(() -> "Failed to get read request from client connection: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress());
+				container.service_error(new RMIException(e));
+				close();
+				return null;
+			}
+		}
+
+		/**
+		 * Encodes a response and sends it. A response that cannot be encoded
+		 * is replaced with an {@link RMIException} telling the client so:
+		 * nothing of it has been sent, so the connection still carries the
+		 * other calls of the client.
+		 *
+		 * @param request
+		 *            the request answered, named in the log if the response
+		 *            cannot be encoded
+		 * @param response
+		 *            the response
+		 * @param timer
+		 *            the timer of the call, marked failed if the response
+		 *            cannot be encoded; {@code null} if the call is not timed
+		 * @return {@code true} if the response has been sent or queued;
+		 *         {@code false} if the connection has been closed
+		 */
+		private boolean respond(RMIRequest request, RMIResponse response, CallTimer timer) {
+			ByteBuffer[] buffers;
+			try {
+				buffers = encode(response);
+			} catch (IOException | RuntimeException e) {
+				log.warn(() -> "Failed to encode response to client call: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress() + ", "
+						+ dispatcher.describeCall(request), e);
+				container.service_error(new RMIException(e));
+				if (timer != null) {
+					timer.failed();
+				}
+				try {
+					buffers = encode(new RMIResponse(response.getCallId(),
+							new RMIException("Response could not be encoded: " + e)));
+				} catch (IOException | RuntimeException f) {
+					close();
+					return false;
+				}
+			}
+
+			return send(buffers);
+		}
+
+		/**
+		 * Encodes a response into a frame.
+		 *
+		 * @param response
+		 *            the response
+		 * @return the bytes of the frame, in order
+		 * @throws IOException
+		 *             if the response cannot be encoded
+		 */
+		private ByteBuffer[] encode(RMIResponse response) throws IOException {
+			FrameWriter writer = new FrameWriter();
+			writer.beginFrame();
+			BinaryCodec.encodeResponse(response, writer);
+			writer.endFrame();
+			return writer.toBuffers();
+		}
+
+		/**
+		 * Queues the buffers and, unless another worker is about to send a
+		 * response of its own, writes as much of the output as the connection
+		 * takes at once, leaving the rest to the I/O thread.
+		 *
+		 * @param buffers
+		 *            the bytes to write, in order
+		 * @return {@code true} if the bytes have been written or queued;
+		 *         {@code false} if the connection has been closed
+		 */
+		private boolean send(ByteBuffer... buffers) {
+			IOException failure = null;
+			waitingSenders.incrementAndGet();
+			lock.lock();
+			try {
+				waitingSenders.decrementAndGet();
+				output.addAll(Arrays.asList(buffers));
+				if (isWritePending) {
+					return true;
+				}
+				if (output.size() < CoalescingWriter.maxCoalescedMessages && waitingSenders.get() > 0) {
+					// The next worker writes this response with its own.
+					return true;
+				}
+				if (!writeOutput()) {
+					isWritePending = true;
+					loop.execute(this::awaitWritable);
+				}
+				return true;
+			} catch (IOException e) {
+				failure = e;
+			} finally {
+				lock.unlock();
+			}
+
+			log.warn(() -> "Failed to write response to client connection: " + "ServerClass: "
+					+ serverClass.getName() + ", " + container.describeAddress());
+			container.service_error(new RMIException(failure));
+			close();
+			return false;
+		}
+
+		/**
+		 * Writes the queued output in gathering writes for as long as the
+		 * connection takes bytes, releasing the leased buffers of the requests
+		 * answered so far once it has all been written. Called with the lock
+		 * held.
+		 *
+		 * @return {@code true} if the whole output has been written;
+		 *         {@code false} if the connection cannot take more for now
+		 * @throws IOException
+		 *             if the connection has failed
+		 */
+		private boolean writeOutput() throws IOException {
+			while (!output.isEmpty()) {
+				long written = channel.write(output.toArray(new ByteBuffer[output.size()]));
+				while (!output.isEmpty() && !output.peek().hasRemaining()) {
+					output.poll();
+				}
+				if (written == 0 && !output.isEmpty()) {
+					return false;
+				}
+			}
+
+			for (RMIRequest request : leasedRequests) {
+				request.release();
+			}
+			leasedRequests.clear();
+			return true;
+		}
+
+		/**
+		 * Asks the selector to report when the connection can take more
+		 * bytes. Runs on the I/O thread.
+		 */
+		private void awaitWritable() {
+			if (key.isValid()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Writes the queued output. Runs on the I/O thread when the connection
+		 * can take more bytes.
+		 */
+		void flush() {
+			IOException failure = null;
+			lock.lock();
+			try {
+				if (!writeOutput()) {
+					return;
+				}
+				isWritePending = false;
+				if (key.isValid()) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				}
+				if (isClosing && inFlight == 0) {
+					close();
+				}
+				return;
+			} catch (IOException e) {
+				failure = e;
+			} finally {
+				lock.unlock();
+			}
+
+			log.warn(() -> "Failed to write response to client connection: " + "ServerClass: "
+					+ serverClass.getName() + ", " + container.describeAddress());
+			container.service_error(new RMIException(failure));
+			close();
+		}
+
+		/**
+		 * Moves on to the next held frame once a call has been answered, or
+		 * closes the connection if the listener has terminated meanwhile.
+		 */
+		private void callFinished() {
+			RequestFrame next;
+			boolean resume = false;
+			lock.lock();
+			try {
+				if (isClosing) {
+					inFlight--;
+					heldFrames.clear();
+					if (inFlight == 0 && output.isEmpty()) {
+						close();
+					}
+					return;
+				}
+
+				next = heldFrames.poll();
+				if (next == null) {
+					inFlight--;
+					return;
+				}
+				if (isPaused && heldFrames.size() < maxHeldFrames / 2) {
+					isPaused = false;
+					resume = true;
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			if (resume) {
+				loop.execute(this::resumeReading);
+			}
+			submit(next);
+		}
+
+		/**
+		 * Resumes reading from the connection once enough held frames have
+		 * been executed. Runs on the I/O thread.
+		 */
+		private void resumeReading() {
+			lock.lock();
+			try {
+				if (key.isValid() && !isClosing && !isPaused) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Stops reading from the connection because the listener has
+		 * terminated. The connection is closed at once if it is idle, or else
+		 * once its pending calls have been answered. Runs on the I/O thread.
+		 */
+		void stop() {
+			lock.lock();
+			try {
+				isClosing = true;
+				heldFrames.clear();
+				if (inFlight == 0 && output.isEmpty()) {
+					close();
+				} else if (key.isValid()) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Closes the connection and wakes up its I/O thread, which exits once
+		 * it has no connections left after the listener terminated.
+		 */
+		void close() {
+			loop.connections.remove(this);
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.warn(() -> "Failed to close client connection: " + "ServerClass: " + serverClass.getName()
+						+ ", " + container.describeAddress());
+				container.service_error(new RMIException(e));
+			}
+			loop.selector.wakeup();
+		}
+	}
+
+}
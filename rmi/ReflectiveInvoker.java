@@ -0,0 +1,47 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The invoker calling the remote method through
+ * {@link Method#invoke(Object, Object...)}.
+ */
+public class ReflectiveInvoker implements Invoker {
+
+	/**
+	 * The remote method.
+	 */
+	private final Method method;
+	/**
+	 * The server object the method is called on.
+	 */
+	private final Object target;
+
+	/**
+	 * The constructor to create a new {@link ReflectiveInvoker} instance.
+	 * 
+	 * @param method
+	 *            the remote method
+	 * @param target
+	 *            the server object
+	 */
+	public ReflectiveInvoker(Method method, Object target) {
+		this.method = method;
+		this.target = target;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object invoke(Object[] arguments)
+			throws InvocationTargetException, IllegalArgumentException, IllegalAccessException {
+		return method.invoke(target, arguments);
+	}
+
+}
@@ -14,7 +14,7 @@ public final class RemotePattern {
 
 	/**
 	 * The method to check is the given interface class object is or implements
-	 * a remote interface.
+	 * a remote interface. The answer is computed once per interface.
 	 * 
 	 * @param clazz
 	 *            the interface class object
@@ -22,47 +22,12 @@ public final class RemotePattern {
 	 *         {@code false} otherwise
 	 */
 	public static boolean isRemoteInterface(Class clazz) {
-
-		if (!clazz.isInterface()) {
-			return false;
-		}
-
-		boolean allRemoteMethods = true;
-		boolean hasDeclaredMethods = false;
-		for (Method method : clazz.getDeclaredMethods()) {
-			hasDeclaredMethods = true;
-			boolean isRemoteMethod = isRemoteMethod(method);
-			if (!isRemoteMethod) {
-				allRemoteMethods = false;
-				break;
-			}
-		}
-
-		// It might be an empty interface but it might have ancestor interfaces
-		// that are remote.
-		boolean hasAncestors = false;
-		if (!allRemoteMethods || !hasDeclaredMethods) {
-			Class[] implementedInterfaces = clazz.getInterfaces();
-			for (Class iface : implementedInterfaces) {
-				hasAncestors = true;
-				if (isRemoteInterface(iface)) {
-					return true;
-				}
-			}
-
-			// It has ancestors but none of them is a remote interface or else
-			// control wouldn't reach here. So, it is also not a remote
-			// interface.
-			if (hasAncestors) {
-				return false;
-			}
-		}
-
-		return allRemoteMethods;
+		return InterfaceMetadata.of(clazz).isRemoteInterface();
 	}
 
 	/**
-	 * Checks if the given method is a remote method.
+	 * Checks if the given method is a remote method. The answer is computed
+	 * once per method of an interface.
 	 * 
 	 * @param method
 	 *            method object
@@ -70,12 +35,6 @@ public final class RemotePattern {
 	 *         {@code false} otherwise.
 	 */
 	public static boolean isRemoteMethod(Method method) {
-		for (Class exceptionClass : method.getExceptionTypes()) {
-			if (exceptionClass.equals(RMIException.class)) {
-				return true;
-			}
-		}
-
-		return false;
+		return InterfaceMetadata.of(method).isRemote();
 	}
 }
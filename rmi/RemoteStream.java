@@ -0,0 +1,482 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+
+/**
+ * The stub side of a stream returned by a remote method, which fetches the
+ * elements from the skeleton chunk by chunk as they are consumed. See
+ * {@link StreamTable} for the skeleton side.
+ *
+ * <p>
+ * The stream starts with the chunk carried by the response to the call. Once
+ * its elements have been consumed, a stream request asks the skeleton for the
+ * next chunk, granting it the credit of {@link Stub#getStreamCredit()}
+ * elements, or, for a publisher, of the demand of its subscriber if that is
+ * smaller. Only one chunk is held at a time, so the elements are never all in
+ * memory at once on either side.
+ *
+ * <p>
+ * The stream is an {@code Iterator}, and is also returned as a {@code Stream}
+ * or a {@code Flow.Publisher} built over it. Closing it before its end tells
+ * the skeleton to close its source; a stream abandoned without being closed
+ * is closed by the skeleton once it has been left idle. Elements are fetched
+ * on the thread consuming them: the thread iterating, or for a publisher the
+ * thread requesting them of the subscription.
+ *
+ * <p>
+ * The consuming threads take turns under a lock held while a chunk is
+ * fetched. Closing the stream does not take it: the stream is marked closed
+ * and the skeleton told at once, so that cancelling a subscription does not
+ * wait for a fetch in flight, which then finds the stream closed and ends
+ * it.
+ */
+final class RemoteStream implements Iterator<Object>, AutoCloseable {
+
+	/**
+	 * The way stream requests reach the skeleton of the stub that made the
+	 * call.
+	 */
+	@FunctionalInterface
+	interface Exchange {
+
+		/**
+		 * Sends a request to the skeleton and returns its response.
+		 *
+		 * @param request
+		 *            the request
+		 * @return the response
+		 * @throws RMIException
+		 *             if the request cannot be sent or answered
+		 */
+		RMIResponse call(RMIRequest request) throws RMIException;
+	}
+
+	/**
+	 * The way stream requests reach the skeleton.
+	 */
+	private final Exchange exchange;
+	/**
+	 * The identifier of the stream at the skeleton.
+	 */
+	private final long streamId;
+	/**
+	 * The number of elements asked for with each stream request.
+	 */
+	private final int credit;
+	/**
+	 * The lock held while the stream is consumed, including while a chunk is
+	 * fetched.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	/**
+	 * The elements of the current chunk.
+	 */
+	private Object[] chunk;
+	/**
+	 * The index of the next element of the current chunk.
+	 */
+	private int index;
+	/**
+	 * The boolean status of whether the skeleton has no further chunks to
+	 * send, because the stream has ended, failed or been closed.
+	 */
+	private volatile boolean ended;
+	/**
+	 * The boolean status of whether the stream has been closed.
+	 */
+	private final AtomicBoolean closed = new AtomicBoolean();
+	/**
+	 * The boolean status of whether the publisher over the stream has been
+	 * subscribed to.
+	 */
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	/**
+	 * The constructor for a stream starting with the given chunk.
+	 *
+	 * @param first
+	 *            the chunk answering the call
+	 * @param exchange
+	 *            the way stream requests reach the skeleton
+	 * @param credit
+	 *            the number of elements to ask for with each stream request
+	 */
+	private RemoteStream(RMIResponse first, Exchange exchange, int credit) {
+		this.exchange = exchange;
+		this.streamId = first.getStreamId();
+		this.credit = credit;
+		accept(first);
+	}
+
+	/**
+	 * Returns the value a stub returns for a call answered with a chunk: an
+	 * {@code Iterator}, a {@code Stream} or a {@code Flow.Publisher},
+	 * whichever the remote method is declared to return.
+	 *
+	 * @param type
+	 *            the declared return type of the remote method
+	 * @param first
+	 *            the chunk answering the call
+	 * @param exchange
+	 *            the way stream requests reach the skeleton
+	 * @return the stream
+	 */
+	static Object open(Class<?> type, RMIResponse first, Exchange exchange) {
+		RemoteStream stream = new RemoteStream(first, exchange, Stub.getStreamCredit());
+		if (type == Stream.class) {
+			return stream.stream();
+		} else if (type == Flow.Publisher.class) {
+			return stream.publisher();
+		}
+
+		return stream;
+	}
+
+	/**
+	 * Returns whether the stream has a further element, fetching the next
+	 * chunk if the current one has been consumed.
+	 *
+	 * @return {@code true} if there is a further element
+	 * @throws UncheckedRMIException
+	 *             if the next chunk cannot be fetched
+	 * @throws RuntimeException
+	 *             if the source of the stream at the skeleton has thrown it
+	 */
+	@Override
+	public boolean hasNext() {
+		lock.lock();
+		try {
+			return hasNext(credit);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the next element of the stream.
+	 *
+	 * @return the element
+	 * @throws NoSuchElementException
+	 *             if the stream has ended
+	 * @throws UncheckedRMIException
+	 *             if the next chunk cannot be fetched
+	 * @throws RuntimeException
+	 *             if the source of the stream at the skeleton has thrown it
+	 */
+	@Override
+	public Object next() {
+		lock.lock();
+		try {
+			if (!hasNext(credit)) {
+				throw new NoSuchElementException();
+			}
+
+			Object element = chunk[index];
+			chunk[index++] = null;
+			return element;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the stream, telling the skeleton to close its source if the
+	 * stream has not ended. A failure to reach the skeleton is ignored, as
+	 * the skeleton closes streams left idle. A thread fetching a chunk is not
+	 * waited for; the stream has no further element once the chunk arrives.
+	 */
+	@Override
+	public void close() {
+		if (closed.getAndSet(true) || ended) {
+			return;
+		}
+
+		try {
+			exchange.call(RMIRequest.stream(Stub.newCallId(), streamId, 0));
+		} catch (RMIException e) {
+			// The skeleton closes the stream once it has been left idle.
+		}
+	}
+
+	/**
+	 * Returns whether the stream has a further element, fetching chunks of at
+	 * most the given number of elements until one arrives or the stream ends.
+	 * The caller holds the lock.
+	 *
+	 * @param credit
+	 *            the number of elements to ask for
+	 * @return {@code true} if there is a further element
+	 */
+	private boolean hasNext(int credit) {
+		while (true) {
+			if (closed.get()) {
+				ended = true;
+				chunk = new Object[0];
+				index = 0;
+				return false;
+			}
+			if (index < chunk.length) {
+				return true;
+			}
+			if (ended) {
+				return false;
+			}
+			fetch(credit);
+		}
+	}
+
+	/**
+	 * Asks the skeleton for the next chunk. A failure is not reported if the
+	 * stream has been closed meanwhile.
+	 *
+	 * @param credit
+	 *            the number of elements to ask for
+	 * @throws UncheckedRMIException
+	 *             if the chunk cannot be fetched
+	 * @throws RuntimeException
+	 *             if the source of the stream at the skeleton has thrown it
+	 */
+	private void fetch(int credit) {
+		RMIResponse response;
+		try {
+			response = exchange.call(RMIRequest.stream(Stub.newCallId(), streamId, credit));
+		} catch (RMIException e) {
+			ended = true;
+			if (closed.get()) {
+				return;
+			}
+			throw new UncheckedRMIException(e);
+		}
+		if (closed.get()) {
+			ended = true;
+			return;
+		}
+
+		Exception exception = response.getException();
+		if (exception != null) {
+			ended = true;
+			if (exception instanceof RuntimeException) {
+				throw (RuntimeException) exception;
+			}
+			throw new UncheckedRMIException(
+					(exception instanceof RMIException) ? (RMIException) exception : new RMIException(exception));
+		}
+		if (!response.isChunk() || response.getStreamId() != streamId) {
+			ended = true;
+			throw new UncheckedRMIException(new RMIException("Skeleton did not answer with a chunk of stream "
+					+ streamId + "."));
+		}
+
+		accept(response);
+	}
+
+	/**
+	 * Makes the given chunk the current one.
+	 *
+	 * @param response
+	 *            the chunk
+	 */
+	private void accept(RMIResponse response) {
+		chunk = response.getElements();
+		index = 0;
+		ended = response.isLastChunk();
+	}
+
+	/**
+	 * Returns a sequential {@code Stream} over the stream, which closes the
+	 * stream when it is closed.
+	 *
+	 * @return the {@code Stream}
+	 */
+	private Stream<Object> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+				.onClose(this::close);
+	}
+
+	/**
+	 * Returns a {@code Flow.Publisher} over the stream, which may be
+	 * subscribed to once.
+	 *
+	 * @return the publisher
+	 */
+	private Flow.Publisher<Object> publisher() {
+		return subscriber -> {
+			if (subscriber == null) {
+				throw new NullPointerException("Subscriber cannot be null.");
+			}
+
+			if (subscribed.getAndSet(true)) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					@Override
+					public void request(long n) {
+					}
+
+					@Override
+					public void cancel() {
+					}
+				});
+				subscriber.onError(new IllegalStateException("A remote stream can be subscribed to only once."));
+				return;
+			}
+
+			subscriber.onSubscribe(new Subscription(subscriber));
+		};
+	}
+
+	/**
+	 * The subscription of the subscriber to the publisher over the stream,
+	 * which passes it the elements on the thread requesting them.
+	 */
+	private final class Subscription implements Flow.Subscription {
+
+		/**
+		 * The subscriber.
+		 */
+		private final Flow.Subscriber<Object> subscriber;
+		/**
+		 * The number of elements requested and not yet passed on.
+		 */
+		private long demand;
+		/**
+		 * The boolean status of whether a thread is passing on elements.
+		 */
+		private boolean draining;
+		/**
+		 * The boolean status of whether the subscription has been cancelled
+		 * or has ended.
+		 */
+		private boolean done;
+
+		/**
+		 * The constructor for the subscription of the given subscriber.
+		 *
+		 * @param subscriber
+		 *            the subscriber
+		 */
+		Subscription(Flow.Subscriber<Object> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		/**
+		 * Adds to the demand of the subscriber and passes on elements until
+		 * it is met, unless a thread further up the stack already does.
+		 *
+		 * @param n
+		 *            the number of further elements requested
+		 */
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				cancel();
+				subscriber.onError(new IllegalArgumentException("Requested element count should be positive."));
+				return;
+			}
+
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+				demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+				if (draining) {
+					return;
+				}
+				draining = true;
+			}
+
+			drain();
+		}
+
+		/**
+		 * Cancels the subscription and closes the stream.
+		 */
+		@Override
+		public void cancel() {
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+				done = true;
+			}
+
+			close();
+		}
+
+		/**
+		 * Passes on elements while there is demand for them, then completes
+		 * or fails the subscriber once the stream has ended or failed.
+		 */
+		private void drain() {
+			while (true) {
+				long wanted;
+				synchronized (this) {
+					if (done || demand == 0) {
+						draining = false;
+						return;
+					}
+					wanted = demand;
+				}
+
+				Object element;
+				try {
+					boolean more;
+					lock.lock();
+					try {
+						more = hasNext((int) Math.min(wanted, credit));
+						element = more ? next() : null;
+					} finally {
+						lock.unlock();
+					}
+					if (!more) {
+						if (finish()) {
+							subscriber.onComplete();
+						}
+						return;
+					}
+				} catch (RuntimeException e) {
+					if (finish()) {
+						subscriber.onError(e);
+					}
+					return;
+				}
+
+				synchronized (this) {
+					if (done) {
+						return;
+					}
+					demand--;
+				}
+				subscriber.onNext(element);
+			}
+		}
+
+		/**
+		 * Ends the subscription, unless it has been cancelled.
+		 *
+		 * @return {@code true} if the subscriber is still to be told that the
+		 *         stream has ended
+		 */
+		private synchronized boolean finish() {
+			if (done) {
+				return false;
+			}
+			done = true;
+			return true;
+		}
+	}
+
+}
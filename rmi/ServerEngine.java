@@ -0,0 +1,25 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+/**
+ * The ways in which a skeleton may serve its client connections.
+ */
+public enum ServerEngine {
+
+	/**
+	 * Every connection is served by a worker thread of its own for as long as
+	 * it stays open, reading requests with blocking I/O.
+	 */
+	BLOCKING,
+	/**
+	 * Connections are watched by a few selector threads that read binary
+	 * frames without blocking and hand complete requests to the worker
+	 * threads, so idle connections hold no worker. A connection speaking the
+	 * serialization wire format is handed over to a worker thread of its own,
+	 * as in <code>BLOCKING</code>.
+	 */
+	NIO
+}
@@ -0,0 +1,91 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.net.SocketAddress;
+import java.nio.file.Path;
+
+/**
+ * The address of a skeleton reached through shared memory. It names the Unix
+ * domain socket on which the skeleton accepts connections; the ring files of
+ * the connections are created next to it, so the directory should be on a
+ * memory-backed file system such as <code>/dev/shm</code>. See
+ * {@link Transport#SHARED_MEMORY}.
+ */
+public final class SharedMemoryAddress extends SocketAddress {
+
+	/**
+	 * The serialization version of the class.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The path of the socket file, kept as a string since paths are not
+	 * serializable.
+	 */
+	private final String path;
+
+	/**
+	 * The constructor creates an address for the given socket path.
+	 *
+	 * @param path
+	 *            the path of the socket file
+	 */
+	private SharedMemoryAddress(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Returns the address of a skeleton accepting shared-memory connections
+	 * on the given socket path.
+	 *
+	 * @param path
+	 *            the path of the socket file
+	 * @return the address
+	 * @throws NullPointerException
+	 *             If <code>path</code> is <code>null</code>.
+	 */
+	public static SharedMemoryAddress of(Path path) {
+		if (path == null) {
+			throw new NullPointerException("Socket path cannot be null.");
+		}
+
+		return new SharedMemoryAddress(path.toString());
+	}
+
+	/**
+	 * Returns the path of the socket file.
+	 *
+	 * @return the socket path
+	 */
+	public Path getPath() {
+		return Path.of(path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(Object other) {
+		return (other instanceof SharedMemoryAddress) && path.equals(((SharedMemoryAddress) other).path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return path;
+	}
+
+}
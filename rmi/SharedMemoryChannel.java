@@ -0,0 +1,651 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AlreadyBoundException;
+import java.nio.channels.AlreadyConnectedException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A connection between a stub and a skeleton on the same host whose bytes
+ * travel through two {@link SharedRing rings} in a memory-mapped file, one per
+ * direction, instead of through a socket.
+ *
+ * <p>
+ * The connection is set up over a Unix domain socket: the stub creates and
+ * maps the ring file next to the skeleton's socket, sends its name, and
+ * deletes it once the skeleton has mapped it too. The socket is then kept
+ * open, carrying nothing, so that each side notices when the other goes away,
+ * even without closing the connection.
+ *
+ * <p>
+ * The channel can be read by one thread while another writes, like the other
+ * connections of a {@link Transport}. It cannot be registered with a
+ * selector.
+ */
+final class SharedMemoryChannel extends SocketChannel {
+
+	/**
+	 * The size of the ring file: the ring of the requests followed by the
+	 * ring of the responses.
+	 */
+	static final int fileSize = 2 * SharedRing.size;
+	/**
+	 * The byte the skeleton sends once it has mapped the ring file.
+	 */
+	private static final int accepted = 1;
+	/**
+	 * The longest ring file name a skeleton accepts.
+	 */
+	private static final int maxNameLength = 255;
+
+	/**
+	 * The Unix domain socket over which the connection was set up, in
+	 * non-blocking mode.
+	 */
+	private final SocketChannel rendezvous;
+	/**
+	 * The ring the peer writes into.
+	 */
+	private final SharedRing input;
+	/**
+	 * The ring written into for the peer.
+	 */
+	private final SharedRing output;
+	/**
+	 * The way threads wait on the rings.
+	 */
+	private final WaitStrategy waitStrategy;
+	/**
+	 * The address of the skeleton; {@code null} on the skeleton side.
+	 */
+	private final SharedMemoryAddress remoteAddress;
+	/**
+	 * The address of the skeleton on the skeleton side; {@code null} on the
+	 * stub side.
+	 */
+	private final SharedMemoryAddress localAddress;
+	/**
+	 * The buffer into which the rendezvous socket is read to check that the
+	 * peer is still connected; also the lock of the check.
+	 */
+	private final ByteBuffer probe = ByteBuffer.allocate(1);
+	/**
+	 * The boolean status of whether input has been shut down.
+	 */
+	private volatile boolean isInputShut;
+	/**
+	 * The boolean status of whether output has been shut down.
+	 */
+	private volatile boolean isOutputShut;
+
+	/**
+	 * The constructor creates a channel over an established connection.
+	 *
+	 * @param rendezvous
+	 *            the Unix domain socket the connection was set up over
+	 * @param mapping
+	 *            the mapped ring file
+	 * @param isStub
+	 *            whether this is the stub side of the connection
+	 * @param waitStrategy
+	 *            the way threads wait on the rings
+	 * @param address
+	 *            the address of the skeleton
+	 * @throws IOException
+	 *             if the rendezvous socket cannot be made non-blocking
+	 */
+	private SharedMemoryChannel(SocketChannel rendezvous, MappedByteBuffer mapping, boolean isStub,
+			WaitStrategy waitStrategy, SharedMemoryAddress address) throws IOException {
+		super(SelectorProvider.provider());
+		SharedRing requests = new SharedRing(mapping.slice(0, SharedRing.size));
+		SharedRing responses = new SharedRing(mapping.slice(SharedRing.size, SharedRing.size));
+		this.rendezvous = rendezvous;
+		this.input = isStub ? responses : requests;
+		this.output = isStub ? requests : responses;
+		this.waitStrategy = waitStrategy;
+		this.remoteAddress = isStub ? address : null;
+		this.localAddress = isStub ? null : address;
+		rendezvous.configureBlocking(false);
+	}
+
+	/**
+	 * Opens a connection to the skeleton at the given address.
+	 *
+	 * @param address
+	 *            the address of the skeleton
+	 * @param waitStrategy
+	 *            the way threads wait on the rings
+	 * @return the connected channel, in blocking mode
+	 * @throws IOException
+	 *             if the ring file cannot be created or the skeleton does not
+	 *             accept the connection
+	 */
+	static SharedMemoryChannel connect(SharedMemoryAddress address, WaitStrategy waitStrategy) throws IOException {
+		Path socket = address.getPath().toAbsolutePath();
+		Path file = Files.createTempFile(socket.getParent(), socket.getFileName() + "-", ".ring");
+		try {
+			// A new file is filled with zeros, so both rings start empty.
+			MappedByteBuffer mapping = map(file);
+			SocketChannel rendezvous = SocketChannel.open(StandardProtocolFamily.UNIX);
+			try {
+				rendezvous.connect(UnixDomainSocketAddress.of(socket));
+
+				byte[] name = file.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+				ByteBuffer request = ByteBuffer.allocate(2 + name.length).putShort((short) name.length).put(name);
+				request.flip();
+				while (request.hasRemaining()) {
+					rendezvous.write(request);
+				}
+
+				ByteBuffer reply = ByteBuffer.allocate(1);
+				if (rendezvous.read(reply) != 1 || reply.get(0) != accepted) {
+					throw new IOException("Skeleton refused the shared-memory connection: " + socket);
+				}
+
+				return new SharedMemoryChannel(rendezvous, mapping, true, waitStrategy, address);
+			} catch (IOException e) {
+				rendezvous.close();
+				throw e;
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Sets up the connection a stub has opened on the skeleton's socket.
+	 *
+	 * @param rendezvous
+	 *            the accepted socket, in blocking mode
+	 * @param address
+	 *            the address of the skeleton
+	 * @param waitStrategy
+	 *            the way threads wait on the rings
+	 * @return the connected channel, in blocking mode
+	 * @throws IOException
+	 *             if the stub names no valid ring file or the file cannot be
+	 *             mapped; the socket is then closed
+	 */
+	static SharedMemoryChannel accept(SocketChannel rendezvous, SharedMemoryAddress address,
+			WaitStrategy waitStrategy) throws IOException {
+		try {
+			ByteBuffer length = ByteBuffer.allocate(2);
+			readFully(rendezvous, length);
+			int nameLength = length.getShort(0);
+			if (nameLength <= 0 || nameLength > maxNameLength) {
+				throw new IOException("Invalid ring file name length: " + nameLength);
+			}
+
+			ByteBuffer name = ByteBuffer.allocate(nameLength);
+			readFully(rendezvous, name);
+
+			// Only files next to the socket are mapped.
+			Path directory = address.getPath().toAbsolutePath().getParent();
+			Path file = directory.resolve(new String(name.array(), StandardCharsets.UTF_8)).normalize();
+			if (!directory.equals(file.getParent()) || Files.size(file) != fileSize) {
+				throw new IOException("Invalid ring file: " + file);
+			}
+
+			MappedByteBuffer mapping = map(file);
+			Files.deleteIfExists(file);
+
+			ByteBuffer reply = ByteBuffer.allocate(1).put((byte) accepted);
+			reply.flip();
+			rendezvous.write(reply);
+
+			return new SharedMemoryChannel(rendezvous, mapping, false, waitStrategy, address);
+		} catch (IOException e) {
+			rendezvous.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps a ring file into memory. The mapping stays valid after the file is
+	 * closed and deleted, until it is garbage collected.
+	 *
+	 * @param file
+	 *            the ring file
+	 * @return the mapping
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 */
+	private static MappedByteBuffer map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+		}
+	}
+
+	/**
+	 * Reads from a blocking channel until the buffer is full.
+	 *
+	 * @param channel
+	 *            the channel
+	 * @param buffer
+	 *            the buffer
+	 * @throws IOException
+	 *             if the channel fails or ends first
+	 */
+	private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Connection closed during shared-memory handshake.");
+			}
+		}
+	}
+
+	/**
+	 * Returns an input stream reading the channel without the allocations of
+	 * {@link java.nio.channels.Channels#newInputStream}.
+	 *
+	 * @return the input stream
+	 */
+	InputStream getInputStream() {
+		return new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] one = new byte[1];
+				return (SharedMemoryChannel.this.read(one, 0, 1) < 0) ? -1 : (one[0] & 0xFF);
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return SharedMemoryChannel.this.read(b, off, len);
+			}
+
+			@Override
+			public int available() throws IOException {
+				ensureOpen();
+				return input.available();
+			}
+
+			@Override
+			public void close() throws IOException {
+				SharedMemoryChannel.this.close();
+			}
+		};
+	}
+
+	/**
+	 * Returns an output stream writing the channel.
+	 *
+	 * @return the output stream
+	 */
+	OutputStream getOutputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				int written = 0;
+				while (written < len) {
+					written += SharedMemoryChannel.this.write(b, off + written, len - written, true);
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				SharedMemoryChannel.this.close();
+			}
+		};
+	}
+
+	/**
+	 * Reads bytes the peer has written, waiting for some in blocking mode.
+	 *
+	 * @param b
+	 *            the array to read into
+	 * @param off
+	 *            the offset in the array
+	 * @param len
+	 *            the maximum number of bytes to read
+	 * @return the number of bytes read; zero if there are none in
+	 *         non-blocking mode; {@code -1} at the end of the stream
+	 * @throws IOException
+	 *             if the channel is closed
+	 */
+	private int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		for (int iteration = 0;; iteration++) {
+			ensureOpen();
+			if (isInputShut) {
+				return -1;
+			}
+
+			// The flag is read first, so that bytes written before the ring
+			// was closed are still read.
+			boolean closed = input.isClosed();
+			int n = input.read(b, off, len);
+			if (n > 0) {
+				return n;
+			}
+			if (closed) {
+				return -1;
+			}
+			if (!isBlocking()) {
+				return isPeerConnected() ? 0 : -1;
+			}
+			if (waitStrategy.idle(iteration) && !isPeerConnected()) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Writes bytes for the peer, waiting for room in blocking mode.
+	 *
+	 * @param b
+	 *            the array to write from
+	 * @param off
+	 *            the offset in the array
+	 * @param len
+	 *            the number of bytes to write
+	 * @param blocking
+	 *            whether to wait until at least one byte has been written
+	 * @return the number of bytes written
+	 * @throws IOException
+	 *             if the channel is closed, or the peer has gone away
+	 */
+	private int write(byte[] b, int off, int len, boolean blocking) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		for (int iteration = 0;; iteration++) {
+			ensureOpen();
+			if (isOutputShut) {
+				throw new ClosedChannelException();
+			}
+			if (output.isClosed()) {
+				throw new IOException("Connection closed by peer.");
+			}
+
+			int n = output.write(b, off, len);
+			if (n > 0 || !blocking) {
+				return n;
+			}
+			if (waitStrategy.idle(iteration) && !isPeerConnected()) {
+				throw new IOException("Connection reset by peer.");
+			}
+		}
+	}
+
+	/**
+	 * Checks that the peer has not closed the rendezvous socket, which it
+	 * does when it closes the connection or its process exits.
+	 *
+	 * @return {@code true} if the peer is still connected
+	 */
+	private boolean isPeerConnected() {
+		synchronized (probe) {
+			try {
+				probe.clear();
+				return rendezvous.read(probe) >= 0;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Throws if the channel has been closed.
+	 *
+	 * @throws ClosedChannelException
+	 *             if the channel has been closed
+	 */
+	private void ensureOpen() throws ClosedChannelException {
+		if (!isOpen()) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (dst.hasArray()) {
+			int n = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+			if (n > 0) {
+				dst.position(dst.position() + n);
+			}
+			return n;
+		}
+
+		byte[] bytes = new byte[Math.min(dst.remaining(), SharedRing.capacity)];
+		int n = read(bytes, 0, bytes.length);
+		if (n > 0) {
+			dst.put(bytes, 0, n);
+		}
+		return n;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+		for (int i = offset; i < offset + length; i++) {
+			if (dsts[i].hasRemaining()) {
+				return read(dsts[i]);
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		byte[] bytes;
+		int off;
+		if (src.hasArray()) {
+			bytes = src.array();
+			off = src.arrayOffset() + src.position();
+		} else {
+			bytes = new byte[src.remaining()];
+			src.duplicate().get(bytes);
+			off = 0;
+		}
+
+		int written = 0;
+		int len = src.remaining();
+		do {
+			int n = write(bytes, off + written, len - written, isBlocking());
+			if (n == 0) {
+				break;
+			}
+			written += n;
+		} while (written < len && isBlocking());
+
+		src.position(src.position() + written);
+		return written;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		long written = 0;
+		for (int i = offset; i < offset + length; i++) {
+			int remaining = srcs[i].remaining();
+			int n = write(srcs[i]);
+			written += n;
+			if (n < remaining) {
+				break;
+			}
+		}
+
+		return written;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SocketChannel shutdownInput() throws IOException {
+		ensureOpen();
+		isInputShut = true;
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SocketChannel shutdownOutput() throws IOException {
+		ensureOpen();
+		isOutputShut = true;
+		output.close();
+		return this;
+	}
+
+	/**
+	 * Closes both rings and the rendezvous socket, so that the peer sees the
+	 * end of the stream.
+	 *
+	 * @throws IOException
+	 *             if the rendezvous socket cannot be closed
+	 */
+	@Override
+	protected void implCloseSelectableChannel() throws IOException {
+		input.close();
+		output.close();
+		rendezvous.close();
+	}
+
+	/**
+	 * Does nothing: the blocking mode is kept by the superclass and read by
+	 * every operation.
+	 *
+	 * @param block
+	 *            whether the channel is to block
+	 */
+	@Override
+	protected void implConfigureBlocking(boolean block) {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SocketChannel bind(SocketAddress local) {
+		throw new AlreadyBoundException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean connect(SocketAddress remote) {
+		throw new AlreadyConnectedException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean finishConnect() {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isConnected() {
+		return isOpen();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isConnectionPending() {
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SocketAddress getRemoteAddress() throws IOException {
+		ensureOpen();
+		return remoteAddress;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SocketAddress getLocalAddress() throws IOException {
+		ensureOpen();
+		return localAddress;
+	}
+
+	/**
+	 * Not supported: the connection has no socket of its own.
+	 *
+	 * @return never
+	 */
+	@Override
+	public Socket socket() {
+		throw new UnsupportedOperationException("Shared-memory connections have no socket.");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public <V> SocketChannel setOption(SocketOption<V> name, V value) {
+		throw new UnsupportedOperationException("'" + name + "' not supported");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public <V> V getOption(SocketOption<V> name) {
+		throw new UnsupportedOperationException("'" + name + "' not supported");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<SocketOption<?>> supportedOptions() {
+		return Collections.emptySet();
+	}
+
+}
@@ -0,0 +1,274 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import rmi.log.Log;
+import rmi.log.Logger;
+
+/**
+ * The listener of a skeleton reached through shared memory. It accepts
+ * connections on the skeleton's Unix domain socket, sets up their ring files,
+ * and serves each in a {@link MethodInvocationTask} on a worker thread of its
+ * own, as the blocking engine does. The rings cannot be watched by a
+ * selector, so the worker waits on them with the skeleton's
+ * {@link WaitStrategy}. The name of the ring file is read on the listener
+ * thread, since stubs send it as soon as they have connected.
+ *
+ * @param <T>
+ *            the generic remote interface this listener represents.
+ */
+class SharedMemoryListener<T> extends Thread implements Listener<T> {
+
+	/**
+	 * The logger of the class.
+	 */
+	private static final Logger log = Log.getLogger(SharedMemoryListener.class);
+
+	/**
+	 * The skeleton object that this listener represents.
+	 */
+	private final Skeleton<T> container;
+	/**
+	 * The server object on which remote method calls are executed.
+	 */
+	private final T serverObject;
+	/**
+	 * The remote interface class object represented by this listener.
+	 */
+	private final Class<T> serverClass;
+	/**
+	 * The Unix domain socket on which the listener accepts connections.
+	 */
+	private final ServerSocketChannel serverChannel;
+	/**
+	 * The address of the skeleton.
+	 */
+	private final SharedMemoryAddress address;
+	/**
+	 * The way the workers wait on the rings of their connections.
+	 */
+	private final WaitStrategy waitStrategy;
+	/**
+	 * The thread pool serving the connections, bounded by the skeleton's
+	 * executor policy.
+	 */
+	private final WorkerPool threadPool;
+	/**
+	 * The tasks currently serving client connections. They are told to stop
+	 * waiting for further requests when the listener terminates.
+	 */
+	private final Set<MethodInvocationTask<T>> activeTasks = ConcurrentHashMap.newKeySet();
+	/**
+	 * The latch released once the listener has stopped accepting connections
+	 * and has shut down the connections it accepted.
+	 */
+	private final CountDownLatch acceptLoopExited = new CountDownLatch(1);
+	/**
+	 * The boolean status representing if the listener is accepting
+	 * connections or not.
+	 */
+	private volatile boolean isActive;
+	/**
+	 * The cause due to which the listener terminated. {@code null} if
+	 * termination was requested and not due to an exception.
+	 */
+	private Throwable cause;
+
+	/**
+	 * The constructor for the listener.
+	 *
+	 * @param container
+	 *            The skeleton object
+	 * @param serverClass
+	 *            The class object of server
+	 * @param serverObject
+	 *            The generic server object
+	 * @param serverChannel
+	 *            The bound Unix domain socket, in blocking mode
+	 * @param address
+	 *            The address of the skeleton
+	 * @param waitStrategy
+	 *            The way the workers wait on the rings
+	 */
+	SharedMemoryListener(Skeleton<T> container, Class<T> serverClass, T serverObject,
+			ServerSocketChannel serverChannel, SharedMemoryAddress address, WaitStrategy waitStrategy) {
+		super("rmi-shm-listener-" + Transport.SHARED_MEMORY.name(address));
+		this.container = container;
+		this.serverObject = serverObject;
+		this.serverClass = serverClass;
+		this.serverChannel = serverChannel;
+		this.address = address;
+		this.waitStrategy = waitStrategy;
+		this.threadPool = new WorkerPool(container.getExecutorPolicy(),
+				"rmi-worker-" + Transport.SHARED_MEMORY.name(address));
+		this.isActive = true;
+		this.cause = null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void run() {
+		while (isActive) {
+			SocketChannel rendezvous;
+			try {
+				rendezvous = serverChannel.accept();
+			} catch (ClosedChannelException e) {
+				// The socket is closed when the listener is terminated; closed
+				// otherwise, there is nothing left to accept on.
+				if (isActive) {
+					cause = e;
+					isActive = false;
+				}
+				continue;
+			} catch (IOException e) {
+				log.warn(() -> "Failed to accept client connection: " + "ServerClass: " + serverClass.getName()
+						+ ", " + container.describeAddress());
+				isActive = container.listen_error(e);
+				if (!isActive) {
+					cause = e;
+				}
+				continue;
+			}
+
+			SharedMemoryChannel channel;
+			try {
+				channel = SharedMemoryChannel.accept(rendezvous, address, waitStrategy);
+			} catch (IOException e) {
+				log.warn(() -> "Failed to set up shared-memory connection: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress());
+				container.service_error(new RMIException(e));
+				continue;
+			}
+
+			MethodInvocationTask<T> handler = new MethodInvocationTask<T>(container, serverObject, serverClass,
+					channel, this, null);
+			activeTasks.add(handler);
+			try {
+				threadPool.execute(handler);
+			} catch (RejectedExecutionException e) {
+				log.warn(() -> "Rejecting client connection, all workers are busy: " + "ServerClass: "
+						+ serverClass.getName() + ", " + container.describeAddress());
+				handler.reject(new RMIException("Server busy: all " + threadPool.getMaximumPoolSize()
+						+ " workers are serving connections and the queue is full."));
+			}
+		}
+
+		closeServerChannel();
+
+		for (MethodInvocationTask<T> task : activeTasks) {
+			task.shutdown();
+		}
+
+		log.info("Shutting down thread pool...");
+		threadPool.shutdown();
+		if (!threadPool.isTerminated()) {
+			log.info("Force terminating thread pool...");
+			threadPool.shutdownNow();
+		}
+
+		log.info("Thread pool terminated.");
+
+		container.confirmTermination(cause);
+
+		// As in the blocking listener, the thread waiting in terminate may
+		// return before the skeleton is told it has stopped, since stop holds
+		// the skeleton's lock while it waits.
+		acceptLoopExited.countDown();
+		container.stopped(cause);
+	}
+
+	/**
+	 * The method to initiate termination of the listener. Unless it is called
+	 * from the listener itself, the method returns only once the listener has
+	 * stopped accepting connections and has shut down the connections it
+	 * accepted.
+	 */
+	@Override
+	public void terminate() {
+		isActive = false;
+		closeServerChannel();
+
+		if (Thread.currentThread() != this) {
+			try {
+				acceptLoopExited.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void taskFinished(MethodInvocationTask<T> task) {
+		activeTasks.remove(task);
+	}
+
+	/**
+	 * Returns the thread pool serving the connections.
+	 *
+	 * @return worker pool
+	 */
+	@Override
+	public WorkerPool getWorkerPool() {
+		return threadPool;
+	}
+
+	/**
+	 * Returns the number of accepted connections waiting for a worker thread.
+	 *
+	 * @return queue depth
+	 */
+	@Override
+	public int getQueueDepth() {
+		return threadPool.getQueueDepth();
+	}
+
+	/**
+	 * Returns the number of worker threads serving connections.
+	 *
+	 * @return active worker count
+	 */
+	@Override
+	public int getActiveWorkers() {
+		return threadPool.getActiveCount();
+	}
+
+	/**
+	 * Returns the number of connections rejected because every worker was busy
+	 * and the queue was full.
+	 *
+	 * @return rejected connection count
+	 */
+	@Override
+	public long getRejectedConnections() {
+		return threadPool.getRejectedCount();
+	}
+
+	/**
+	 * Closes the Unix domain socket so that it accepts no more connections.
+	 */
+	private void closeServerChannel() {
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			log.warn(() -> "Failed to close listener socket. Ignoring the exception: " + "ServerClass: "
+					+ serverClass.getName() + ", " + container.describeAddress(), e);
+		}
+	}
+
+}
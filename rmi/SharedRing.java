@@ -0,0 +1,167 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A ring buffer in memory shared by two processes, carrying bytes in one
+ * direction from a single writer to a single reader.
+ *
+ * <p>
+ * The ring starts with a header holding the total number of bytes ever
+ * written, the total number of bytes ever read and a closed flag, each on a
+ * cache line of its own so that the writer and the reader do not contend for
+ * lines they do not share. The writer copies bytes into the free part of the
+ * ring and then publishes its new position with release semantics; the reader
+ * acquires that position before copying the bytes out, and publishes its own
+ * position the same way. Neither operation waits: waiting is left to the
+ * {@link SharedMemoryChannel} using the ring.
+ */
+final class SharedRing {
+
+	/**
+	 * The number of bytes the ring can hold; a power of two.
+	 */
+	static final int capacity = 64 * 1024;
+	/**
+	 * The size of the header preceding the bytes.
+	 */
+	static final int headerSize = 256;
+	/**
+	 * The size of the ring in the shared memory, header included.
+	 */
+	static final int size = headerSize + capacity;
+
+	/**
+	 * The offset of the number of bytes written.
+	 */
+	private static final int writeOffset = 0;
+	/**
+	 * The offset of the number of bytes read.
+	 */
+	private static final int readOffset = 64;
+	/**
+	 * The offset of the closed flag.
+	 */
+	private static final int closedOffset = 128;
+	/**
+	 * The accessor of the header fields, with the ordering guarantees the
+	 * plain buffer accessors lack.
+	 */
+	private static final VarHandle header = MethodHandles.byteBufferViewVarHandle(long[].class,
+			ByteOrder.nativeOrder());
+
+	/**
+	 * The shared memory of the ring, header included. Only absolute accessors
+	 * are used, so the reader and the writer may share it.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The constructor creates a ring over the given shared memory. Memory
+	 * filled with zeros is an empty, open ring.
+	 *
+	 * @param buffer
+	 *            the shared memory of the ring, of {@link #size} bytes and
+	 *            aligned to eight bytes
+	 */
+	SharedRing(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Returns the number of bytes written and not yet read.
+	 *
+	 * @return the number of bytes readable
+	 */
+	int available() {
+		return (int) ((long) header.getAcquire(buffer, writeOffset) - (long) header.getAcquire(buffer, readOffset));
+	}
+
+	/**
+	 * Copies as many of the readable bytes as fit into the given array. Must
+	 * only be called by the reader.
+	 *
+	 * @param b
+	 *            the array
+	 * @param off
+	 *            the offset in the array
+	 * @param len
+	 *            the maximum number of bytes to copy
+	 * @return the number of bytes copied; zero if the ring is empty
+	 */
+	int read(byte[] b, int off, int len) {
+		long read = (long) header.getOpaque(buffer, readOffset);
+		long written = (long) header.getAcquire(buffer, writeOffset);
+		int n = (int) Math.min(written - read, len);
+		if (n <= 0) {
+			return 0;
+		}
+
+		int index = (int) (read & (capacity - 1));
+		int first = Math.min(n, capacity - index);
+		buffer.get(headerSize + index, b, off, first);
+		if (first < n) {
+			buffer.get(headerSize, b, off + first, n - first);
+		}
+
+		header.setRelease(buffer, readOffset, read + n);
+		return n;
+	}
+
+	/**
+	 * Copies as many bytes of the given array as there is room for into the
+	 * ring. Must only be called by the writer.
+	 *
+	 * @param b
+	 *            the array
+	 * @param off
+	 *            the offset in the array
+	 * @param len
+	 *            the maximum number of bytes to copy
+	 * @return the number of bytes copied; zero if the ring is full
+	 */
+	int write(byte[] b, int off, int len) {
+		long written = (long) header.getOpaque(buffer, writeOffset);
+		long read = (long) header.getAcquire(buffer, readOffset);
+		int n = (int) Math.min(capacity - (written - read), len);
+		if (n <= 0) {
+			return 0;
+		}
+
+		int index = (int) (written & (capacity - 1));
+		int first = Math.min(n, capacity - index);
+		buffer.put(headerSize + index, b, off, first);
+		if (first < n) {
+			buffer.put(headerSize, b, off + first, n - first);
+		}
+
+		header.setRelease(buffer, writeOffset, written + n);
+		return n;
+	}
+
+	/**
+	 * Returns whether either side has closed the ring. Bytes written before
+	 * the ring was closed may still be read once this returns {@code true}.
+	 *
+	 * @return {@code true} if the ring is closed
+	 */
+	boolean isClosed() {
+		return (long) header.getAcquire(buffer, closedOffset) != 0;
+	}
+
+	/**
+	 * Closes the ring: the reader sees the end of the stream once it has read
+	 * the remaining bytes, and the writer may write no more.
+	 */
+	void close() {
+		header.setRelease(buffer, closedOffset, 1L);
+	}
+
+}
@@ -5,15 +5,34 @@
 package rmi;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+import rmi.log.Log;
+import rmi.log.Logger;
+import rmi.metrics.SkeletonMetrics;
 
 /**
  * RMI skeleton
  * 
  * <p>
  * A skeleton encapsulates a multithreaded TCP server. The server's clients are
- * intended to be RMI stubs created using the <code>Stub</code> class.
+ * intended to be RMI stubs created using the <code>Stub</code> class. A
+ * skeleton given a {@link UnixDomainSocketAddress} listens on a Unix domain
+ * socket instead, so that stubs on the same host reach it without going
+ * through the TCP stack, and one given a {@link SharedMemoryAddress}
+ * exchanges calls with them through shared memory; see {@link Transport}.
  * 
  * <p>
  * The skeleton class is parametrized by a type variable. This type variable
@@ -29,9 +48,26 @@ import java.net.ServerSocket;
  * The skeleton's response to these exceptions can be customized by deriving a
  * class from <code>Skeleton</code> and overriding <code>listen_error</code> or
  * <code>service_error</code>.
+ * 
+ * <p>
+ * A remote method declared to return an <code>Iterator</code>, a
+ * <code>Stream</code> or a <code>Flow.Publisher</code> may return a result
+ * too large to build in memory: it is sent to the stub in chunks, each taken
+ * from the result only once the stub has asked for it. See
+ * {@link Stub#setStreamCredit(int)}.
+ * 
+ * <p>
+ * The skeleton records the number, failures and latencies of the calls to
+ * each remote method in its {@link SkeletonMetrics}, which can be read through
+ * {@link #getMetrics()} and, while the skeleton is running, over JMX.
  */
 public class Skeleton<T> {
 
+	/**
+	 * The logger of the class.
+	 */
+	private static final Logger log = Log.getLogger(Skeleton.class);
+
 	/**
 	 * Max waiting connection queue length for server socket
 	 */
@@ -46,16 +82,61 @@ public class Skeleton<T> {
 	 * The remote interface class object represented by the skeleton.
 	 */
 	private Class<T> serverClass;
+	/**
+	 * The dispatch table of the remote interface, built once when the
+	 * skeleton is constructed.
+	 */
+	private DispatchTable dispatchTable;
+	/**
+	 * The call metrics of the remote methods, kept across restarts.
+	 */
+	private SkeletonMetrics metrics;
+	/**
+	 * The way remote method calls are executed on the server object.
+	 */
+	private InvocationStrategy invocationStrategy = InvocationStrategy.METHOD_HANDLE;
+	/**
+	 * The bounds of the worker pool serving client connections.
+	 */
+	private ExecutorPolicy executorPolicy = new ExecutorPolicy();
+	/**
+	 * The engine serving client connections.
+	 */
+	private ServerEngine serverEngine = ServerEngine.BLOCKING;
+	/**
+	 * The way workers wait for requests on shared-memory connections.
+	 */
+	private WaitStrategy waitStrategy = WaitStrategy.PARK;
+	/**
+	 * The invokers of the remote methods bound to the server object, keyed by
+	 * the methods of the dispatch table. Built when the skeleton is started.
+	 */
+	private Map<Method, Invoker> invokers;
 	/**
 	 * The socket address on which the listener socket binds to accept
-	 * connections.
+	 * connections: an {@link InetSocketAddress}, a
+	 * {@link UnixDomainSocketAddress} or a {@link SharedMemoryAddress}.
+	 */
+	private SocketAddress bindAddress;
+	/**
+	 * The transport of the bind address.
 	 */
-	private InetSocketAddress bindAddress;
+	private Transport transport;
 	/**
-	 * The listener thread that implements the socket listener that listens on
-	 * the given bind address and spawns handler threads.
+	 * The listener that listens on the given bind address and serves the
+	 * accepted connections with the chosen server engine.
 	 */
-	private ListenerThread<T> listener;
+	private volatile Listener<T> listener;
+	/**
+	 * The dispatcher executing the calls of stubs in the same JVM that call
+	 * the skeleton directly; {@code null} while the skeleton is not running.
+	 */
+	private volatile CallDispatcher<T> localDispatcher;
+	/**
+	 * The streams returned by remote methods that stubs have not finished
+	 * reading.
+	 */
+	private final StreamTable streams = new StreamTable();
 	/**
 	 * The listener socket on which skeleton accepts connections for remote
 	 * calls.
@@ -99,13 +180,17 @@ public class Skeleton<T> {
 			throw new NullPointerException("Server object cannot be null.");
 		}
 
-		if (!RemotePattern.isRemoteInterface(c)) {
+		InterfaceMetadata metadata = InterfaceMetadata.of(c);
+		if (!metadata.isRemoteInterface()) {
 			throw new Error("Not a remote interface: " + "ClassName: " + c.getName());
 		}
 
 		this.serverObject = server;
 		this.serverClass = c;
+		this.dispatchTable = metadata.getDispatchTable();
+		this.metrics = new SkeletonMetrics(dispatchTable.getAllMethods());
 		this.bindAddress = null;
+		this.transport = Transport.TCP;
 		this.listenerSocket = null;
 		this.listener = null;
 		this.isActive = false;
@@ -124,9 +209,14 @@ public class Skeleton<T> {
 	 *            An object implementing said interface. Requests for method
 	 *            calls are forwarded by the skeleton to this object.
 	 * @param address
-	 *            The address at which the skeleton is to run. If
-	 *            <code>null</code>, the address will be chosen by the system
-	 *            when <code>start</code> is called.
+	 *            The address at which the skeleton is to run: an
+	 *            <code>InetSocketAddress</code> for a TCP skeleton, or a
+	 *            <code>UnixDomainSocketAddress</code> for a skeleton reached
+	 *            through a Unix domain socket, or a
+	 *            <code>SharedMemoryAddress</code> for a skeleton reached
+	 *            through shared memory. If <code>null</code>, a TCP
+	 *            address will be chosen by the system when <code>start</code>
+	 *            is called.
 	 * @throws Error
 	 *             If <code>c</code> does not represent a remote interface - an
 	 *             interface whose methods are all marked as throwing
@@ -134,8 +224,10 @@ public class Skeleton<T> {
 	 * @throws NullPointerException
 	 *             If either of <code>c</code> or <code>server</code> is
 	 *             <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             If <code>address</code> is of any other type.
 	 */
-	public Skeleton(Class<T> c, T server, InetSocketAddress address) {
+	public Skeleton(Class<T> c, T server, SocketAddress address) {
 
 		if (c == null) {
 			throw new NullPointerException("Server object's class cannot be null.");
@@ -145,13 +237,17 @@ public class Skeleton<T> {
 			throw new NullPointerException("Server object cannot be null.");
 		}
 
-		if (!RemotePattern.isRemoteInterface(c)) {
+		InterfaceMetadata metadata = InterfaceMetadata.of(c);
+		if (!metadata.isRemoteInterface()) {
 			throw new Error("Not a remote interface: " + "ClassName: " + c.getName());
 		}
 
 		this.serverObject = server;
 		this.serverClass = c;
+		this.dispatchTable = metadata.getDispatchTable();
+		this.metrics = new SkeletonMetrics(dispatchTable.getAllMethods());
 		this.bindAddress = address;
+		this.transport = Transport.of(address);
 		this.listenerSocket = null;
 		this.listener = null;
 		this.isActive = false;
@@ -205,13 +301,14 @@ public class Skeleton<T> {
 	 * Called when an exception occurs at the top level in a service thread.
 	 * 
 	 * <p>
-	 * The default implementation does nothing.
+	 * The default implementation logs the exception as a warning.
 	 * 
 	 * @param exception
 	 *            The exception that occurred.
 	 */
 	protected void service_error(RMIException exception) {
-		exception.printStackTrace();
+		log.warn(() -> "Service error: " + "ServerClass: " + serverClass.getName() + ", " + describeAddress(),
+				exception);
 	}
 
 	/**
@@ -225,32 +322,61 @@ public class Skeleton<T> {
 	 * 
 	 * @throws RMIException
 	 *             When the listening socket cannot be created or bound, when
-	 *             the listening thread cannot be created, or when the server
-	 *             has already been started and has not since stopped.
+	 *             the listening thread cannot be created, when the executor
+	 *             policy asks for virtual threads the runtime cannot create,
+	 *             or when the server has already been started and has not
+	 *             since stopped.
 	 */
 	public synchronized void start() throws RMIException {
 
 		if (!isActive) {
+			if (executorPolicy.isVirtualThreads() && !ExecutorPolicy.isVirtualThreadSupported()) {
+				throw new RMIException("Failed to start Skeleton listener. Virtual threads need JDK 21 or later: "
+						+ "ServerClass: " + serverClass.getName());
+			}
 			try {
-				if (bindAddress != null) {
-					listenerSocket = new ServerSocket(bindAddress.getPort(), maxQueueLength, bindAddress.getAddress());
+				invokers = createInvokers();
+				if (transport == Transport.SHARED_MEMORY) {
+					ServerSocketChannel channel = transport.bind(bindAddress, maxQueueLength);
+					listener = new SharedMemoryListener<T>(this, serverClass, serverObject, channel,
+							(SharedMemoryAddress) bindAddress, waitStrategy);
+				} else if (serverEngine == ServerEngine.NIO || transport == Transport.UNIX_DOMAIN) {
+					// The blocking engine is built on java.net.ServerSocket,
+					// which cannot listen on a Unix domain socket.
+					ServerSocketChannel channel = transport.bind(bindAddress, maxQueueLength);
+					try {
+						if (bindAddress == null) {
+							bindAddress = channel.getLocalAddress();
+						}
+						listener = new NioListener<T>(this, serverClass, serverObject, channel);
+					} catch (IOException e) {
+						channel.close();
+						transport.release(bindAddress);
+						throw e;
+					}
 				} else {
-					listenerSocket = new ServerSocket(0, maxQueueLength);
-					bindAddress = (InetSocketAddress) listenerSocket.getLocalSocketAddress();
+					if (bindAddress != null) {
+						InetSocketAddress inetAddress = (InetSocketAddress) bindAddress;
+						listenerSocket = new ServerSocket(inetAddress.getPort(), maxQueueLength,
+								inetAddress.getAddress());
+					} else {
+						listenerSocket = new ServerSocket(0, maxQueueLength);
+						bindAddress = (InetSocketAddress) listenerSocket.getLocalSocketAddress();
+					}
+					listener = new ListenerThread<T>(this, serverClass, serverObject, listenerSocket);
 				}
-				listener = new ListenerThread<T>(this, serverClass, serverObject, listenerSocket);
 				listener.start();
 				isActive = true;
+				localDispatcher = new CallDispatcher<T>(this, serverObject, serverClass);
+				registerMetrics();
 			} catch (IOException e) {
-				System.err.println("Failed to bind Skeleton listener: " + "ServerClass: " + serverClass.getName() + ", "
-						+ "IPAddress: " + bindAddress.getAddress().toString() + ", " + "Port: "
-						+ bindAddress.getPort());
+				log.error(() -> "Failed to bind Skeleton listener: " + "ServerClass: " + serverClass.getName() + ", "
+						+ describeAddress(), e);
 				throw new RMIException(e);
 			}
 		} else {
 			throw new RMIException("Failed to start Skeleton listener. It is already active: " + "ServerClass: "
-					+ serverClass.getName() + ", " + "IPAddress: " + bindAddress.getAddress().toString() + ", "
-					+ "Port: " + bindAddress.getPort());
+					+ serverClass.getName() + ", " + describeAddress());
 		}
 	}
 
@@ -266,6 +392,7 @@ public class Skeleton<T> {
 	 */
 	public synchronized void stop() {
 		if (isActive) {
+			localDispatcher = null;
 			listener.terminate();
 		}
 	}
@@ -274,12 +401,278 @@ public class Skeleton<T> {
 	 * Returns the socket address on which the skeleton binds and listens for
 	 * connections of remote method calls.
 	 * 
-	 * @return socket address to bind on.
+	 * @return socket address to bind on; <code>null</code> if the skeleton
+	 *         listens on a Unix domain socket or is reached through
+	 *         shared memory.
 	 */
 	protected InetSocketAddress getBindAddress() {
+		return (bindAddress instanceof InetSocketAddress) ? (InetSocketAddress) bindAddress : null;
+	}
+
+	/**
+	 * Returns the socket address on which the skeleton binds and listens for
+	 * connections of remote method calls, whatever its transport.
+	 * 
+	 * @return socket address to bind on; <code>null</code> if it has not yet
+	 *         been chosen by the system.
+	 */
+	SocketAddress getSocketAddress() {
 		return bindAddress;
 	}
 
+	/**
+	 * Returns the transport carrying the connections of the skeleton, which
+	 * follows from the type of its address.
+	 * 
+	 * @return transport
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Describes the address of the skeleton for log messages.
+	 * 
+	 * @return the description
+	 */
+	String describeAddress() {
+		SocketAddress address = bindAddress;
+		return (address == null) ? "Address: unbound" : transport.describe(address);
+	}
+
+	/**
+	 * Returns the way remote method calls are executed on the server object.
+	 * 
+	 * @return invocation strategy
+	 */
+	public synchronized InvocationStrategy getInvocationStrategy() {
+		return invocationStrategy;
+	}
+
+	/**
+	 * Sets the way remote method calls are executed on the server object. The
+	 * strategy takes effect the next time the skeleton is started.
+	 * 
+	 * @param strategy
+	 *            invocation strategy
+	 * @throws NullPointerException
+	 *             If <code>strategy</code> is <code>null</code>.
+	 */
+	public synchronized void setInvocationStrategy(InvocationStrategy strategy) {
+		if (strategy == null) {
+			throw new NullPointerException("Invocation strategy cannot be null.");
+		}
+
+		this.invocationStrategy = strategy;
+	}
+
+	/**
+	 * Returns the bounds of the worker pool serving client connections.
+	 * 
+	 * @return executor policy
+	 */
+	public synchronized ExecutorPolicy getExecutorPolicy() {
+		return executorPolicy;
+	}
+
+	/**
+	 * Sets the bounds of the worker pool serving client connections. The
+	 * policy takes effect the next time the skeleton is started.
+	 * 
+	 * @param policy
+	 *            executor policy
+	 * @throws NullPointerException
+	 *             If <code>policy</code> is <code>null</code>.
+	 */
+	public synchronized void setExecutorPolicy(ExecutorPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("Executor policy cannot be null.");
+		}
+
+		this.executorPolicy = policy;
+	}
+
+	/**
+	 * Returns the engine serving client connections.
+	 * 
+	 * @return server engine
+	 */
+	public synchronized ServerEngine getServerEngine() {
+		return serverEngine;
+	}
+
+	/**
+	 * Sets the engine serving client connections. The engine takes effect the
+	 * next time the skeleton is started. A skeleton listening on a Unix domain
+	 * socket is always served by the {@link ServerEngine#NIO} engine, and one
+	 * reached through shared memory by a worker thread per connection.
+	 * 
+	 * @param engine
+	 *            server engine
+	 * @throws NullPointerException
+	 *             If <code>engine</code> is <code>null</code>.
+	 */
+	public synchronized void setServerEngine(ServerEngine engine) {
+		if (engine == null) {
+			throw new NullPointerException("Server engine cannot be null.");
+		}
+
+		this.serverEngine = engine;
+	}
+
+	/**
+	 * Returns the way workers wait for requests on shared-memory connections.
+	 * 
+	 * @return wait strategy
+	 */
+	public synchronized WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Sets the way workers wait for requests on shared-memory connections.
+	 * The strategy takes effect the next time the skeleton is started, and
+	 * only if it is reached through shared memory.
+	 * 
+	 * @param strategy
+	 *            wait strategy
+	 * @throws NullPointerException
+	 *             If <code>strategy</code> is <code>null</code>.
+	 */
+	public synchronized void setWaitStrategy(WaitStrategy strategy) {
+		if (strategy == null) {
+			throw new NullPointerException("Wait strategy cannot be null.");
+		}
+
+		this.waitStrategy = strategy;
+	}
+
+	/**
+	 * Returns the number of accepted connections waiting for a worker thread.
+	 * With the {@link ServerEngine#NIO} engine, it is the number of calls
+	 * waiting.
+	 * 
+	 * @return queue depth; zero if the skeleton is not running
+	 */
+	public int getQueueDepth() {
+		Listener<T> current = listener;
+		return (current == null) ? 0 : current.getQueueDepth();
+	}
+
+	/**
+	 * Returns the number of worker threads serving connections.
+	 * 
+	 * @return active worker count; zero if the skeleton is not running
+	 */
+	public int getActiveWorkers() {
+		Listener<T> current = listener;
+		return (current == null) ? 0 : current.getActiveWorkers();
+	}
+
+	/**
+	 * Returns the number of connections rejected since the skeleton was last
+	 * started because every worker was busy and the queue was full.
+	 * 
+	 * @return rejected connection count; zero if the skeleton is not running
+	 */
+	public long getRejectedConnections() {
+		Listener<T> current = listener;
+		return (current == null) ? 0 : current.getRejectedConnections();
+	}
+
+	/**
+	 * Returns the call metrics of the remote methods. The metrics are kept
+	 * when the skeleton is stopped and restarted.
+	 * 
+	 * @return call metrics
+	 */
+	public SkeletonMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Registers the call metrics with the platform MBean server under the
+	 * remote interface and port of the skeleton. A failure to register is
+	 * reported and otherwise ignored.
+	 */
+	private void registerMetrics() {
+		try {
+			String location = (transport == Transport.TCP) ? "port=" + ((InetSocketAddress) bindAddress).getPort()
+					: "path=" + ObjectName.quote(transport.name(bindAddress));
+			metrics.register("rmi:type=Skeleton,interface=" + serverClass.getName() + "," + location);
+		} catch (JMException e) {
+			log.warn(() -> "Failed to register Skeleton metrics: " + "ServerClass: " + serverClass.getName() + ", "
+					+ describeAddress(), e);
+		}
+	}
+
+	/**
+	 * Builds the invokers of all remote methods with the current invocation
+	 * strategy.
+	 * 
+	 * @return invokers keyed by method
+	 */
+	private Map<Method, Invoker> createInvokers() {
+		IdentityHashMap<Method, Invoker> created = new IdentityHashMap<>();
+		for (Method method : dispatchTable.getAllMethods()) {
+			created.put(method, Invoker.create(method, serverObject, invocationStrategy));
+		}
+
+		return created;
+	}
+
+	/**
+	 * Executes a call made directly by a stub in the same JVM, on the calling
+	 * thread. The call is recorded in the skeleton's metrics but takes no
+	 * worker, so it is not bounded by the executor policy.
+	 * 
+	 * @param request
+	 *            the request, already copied as the local call mode requires
+	 * @return the response, not yet copied
+	 * @throws RMIException
+	 *             if the skeleton is not running
+	 */
+	RMIResponse dispatchLocal(RMIRequest request) throws RMIException {
+		CallDispatcher<T> dispatcher = localDispatcher;
+		if (dispatcher == null) {
+			throw new RMIException("Skeleton is not running: " + "ServerClass: " + serverClass.getName() + ", "
+					+ describeAddress());
+		}
+
+		CallTimer timer = new CallTimer(-1);
+		RMIResponse response = dispatcher.dispatch(request, timer);
+		timer.finished(-1);
+		return response;
+	}
+
+	/**
+	 * Returns the invokers of the remote methods bound to the server object.
+	 * 
+	 * @return invokers keyed by method
+	 */
+	Map<Method, Invoker> getInvokers() {
+		return invokers;
+	}
+
+	/**
+	 * Returns the streams returned by remote methods that stubs have not
+	 * finished reading.
+	 * 
+	 * @return stream table
+	 */
+	StreamTable getStreams() {
+		return streams;
+	}
+
+	/**
+	 * Returns the dispatch table of the remote interface.
+	 * 
+	 * @return dispatch table
+	 */
+	DispatchTable getDispatchTable() {
+		return dispatchTable;
+	}
+
 	/**
 	 * The method is called by the listener thread when it terminates. It is
 	 * used to clean-up and update inner state, before stopped is called.
@@ -291,16 +684,23 @@ public class Skeleton<T> {
 	 */
 	protected void confirmTermination(Throwable cause) {
 		if (cause == null) {
-			System.out.println("The Skeleton has stopped: " + "ServerClass: " + serverClass.getName() + ", "
-					+ "IPAddress: " + bindAddress.getAddress().toString() + ", " + "Port: " + bindAddress.getPort());
+			log.info(() -> "The Skeleton has stopped: " + "ServerClass: " + serverClass.getName() + ", "
+					+ describeAddress());
 		} else {
-			System.err.println("The Skeleton has stopped due to an exception: " + "ServerClass: "
-					+ serverClass.getName() + ", " + "IPAddress: " + bindAddress.getAddress().toString() + ", "
-					+ "Port: " + bindAddress.getPort());
+			log.error(() -> "The Skeleton has stopped due to an exception: " + "ServerClass: "
+					+ serverClass.getName() + ", " + describeAddress(), cause);
+		}
+		try {
+			transport.release(bindAddress);
+		} catch (IOException e) {
+			log.warn(() -> "Failed to release Skeleton address: " + "ServerClass: " + serverClass.getName() + ", "
+					+ describeAddress(), e);
 		}
+		metrics.unregister();
+		streams.closeAll();
 		isActive = false;
+		localDispatcher = null;
 		listenerSocket = null;
 		listener = null;
-		stopped(cause);
 	}
 }
@@ -0,0 +1,686 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+
+/**
+ * The streams returned by the remote methods of a {@link Skeleton} that
+ * stubs have not finished reading.
+ *
+ * <p>
+ * A remote method declared to return an {@link Iterator}, a {@link Stream} or
+ * a {@link Flow.Publisher} has its result sent as a sequence of chunks rather
+ * than as one value. The response to the call carries the first chunk, of at
+ * most {@link #initialCredit} elements, and the identifier of the stream; the
+ * stub then asks for further chunks with stream requests, each granting the
+ * credit of a number of elements. Elements are taken from the source only as
+ * credit is granted, so a stub reading slowly holds back the server instead of
+ * having the whole result built in memory: an iterator is advanced no further
+ * than the credit, and a publisher is requested no more elements than it.
+ *
+ * <p>
+ * Streams are identified by random 64-bit numbers rather than by a counter,
+ * so that a client cannot read or close the streams of others by guessing
+ * their identifiers. Stream requests of a stub may arrive on any connection,
+ * as calls in per-call mode each open their own.
+ *
+ * <p>
+ * A stream is closed when its last chunk has been sent, when its source
+ * fails, when the stub closes it, or when the skeleton stops. A daemon thread
+ * closes the streams left without requests for {@link #getIdleTimeout()}
+ * milliseconds, so that stubs abandoning streams do not hold their sources
+ * forever.
+ */
+class StreamTable {
+
+	/**
+	 * The number of elements sent with the response to the call, before the
+	 * stub has granted any credit.
+	 */
+	static final int initialCredit = 64;
+	/**
+	 * The largest number of elements sent in one chunk, whatever the credit.
+	 */
+	static final int maxCredit = 4096;
+	/**
+	 * The default time in milliseconds after which a stream without requests
+	 * is closed.
+	 */
+	static final long defaultIdleTimeout = 60 * 1000;
+	/**
+	 * The time in milliseconds a stream request waits for a publisher to emit
+	 * an element before it is answered with an empty chunk.
+	 */
+	static final long pollTimeout = 1000;
+
+	/**
+	 * The source of stream identifiers.
+	 */
+	private static final SecureRandom streamIds = new SecureRandom();
+
+	/**
+	 * The open streams, keyed by identifier.
+	 */
+	private final Map<Long, Cursor> cursors = new ConcurrentHashMap<>();
+	/**
+	 * The time in milliseconds after which a stream without requests is
+	 * closed.
+	 */
+	private volatile long idleTimeout = defaultIdleTimeout;
+	/**
+	 * The daemon thread periodically closing idle streams; {@code null} while
+	 * no stream has been opened since the table was last closed.
+	 */
+	private ScheduledExecutorService sweeper;
+	/**
+	 * The periodic sweep scheduled on the sweeper thread, rescheduled when the
+	 * idle timeout changes.
+	 */
+	private ScheduledFuture<?> sweep;
+
+	/**
+	 * Returns the time in milliseconds after which a stream without requests
+	 * is closed.
+	 *
+	 * @return idle timeout
+	 */
+	long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which a stream without requests is
+	 * closed. A running sweeper is rescheduled to check at the period the new
+	 * timeout calls for.
+	 *
+	 * @param idleTimeout
+	 *            idle timeout
+	 * @throws IllegalArgumentException
+	 *             if the timeout is not positive
+	 */
+	synchronized void setIdleTimeout(long idleTimeout) {
+		if (idleTimeout <= 0) {
+			throw new IllegalArgumentException("Idle timeout should be positive.");
+		}
+		this.idleTimeout = idleTimeout;
+		if (sweeper != null) {
+			scheduleSweep();
+		}
+	}
+
+	/**
+	 * Returns whether the results of remote methods declared to return the
+	 * given type are sent as streams.
+	 *
+	 * @param type
+	 *            the declared return type
+	 * @return {@code true} if the type is {@code Iterator}, {@code Stream} or
+	 *         {@code Flow.Publisher}
+	 */
+	static boolean isStreamed(Class<?> type) {
+		return type == Iterator.class || type == Stream.class || type == Flow.Publisher.class;
+	}
+
+	/**
+	 * Opens a stream over the result of a call and answers the call with its
+	 * first chunk. A stream whose first chunk is its last is not kept.
+	 *
+	 * @param callId
+	 *            the call identifier of the request
+	 * @param source
+	 *            the {@code Iterator}, {@code Stream} or {@code Flow.Publisher}
+	 *            returned by the remote method
+	 * @return the first chunk, or the exception thrown by the source
+	 */
+	RMIResponse open(long callId, Object source) {
+		startSweeper();
+
+		Cursor cursor;
+		if (source instanceof Flow.Publisher) {
+			cursor = new PublisherCursor((Flow.Publisher<?>) source);
+		} else if (source instanceof Stream) {
+			Stream<?> stream = (Stream<?>) source;
+			cursor = new IteratorCursor(stream.iterator(), stream);
+		} else {
+			Iterator<?> iterator = (Iterator<?>) source;
+			cursor = new IteratorCursor(iterator,
+					(iterator instanceof AutoCloseable) ? (AutoCloseable) iterator : null);
+		}
+
+		do {
+			cursor.id = streamIds.nextLong();
+		} while (cursor.id == 0 || cursors.putIfAbsent(cursor.id, cursor) != null);
+		return next(cursor, callId, initialCredit);
+	}
+
+	/**
+	 * Answers a stream request with the next chunk of its stream, or closes
+	 * the stream if the request grants no credit.
+	 *
+	 * @param request
+	 *            the stream request
+	 * @return the chunk, or an exception if the stream is not open or its
+	 *         source has failed
+	 */
+	RMIResponse pull(RMIRequest request) {
+		long callId = request.getCallId();
+		Cursor cursor = cursors.get(request.getStreamId());
+		if (cursor == null) {
+			return new RMIResponse(callId, new RMIException("No such stream: " + request.getStreamId()
+					+ ". It has ended, or was closed when the skeleton stopped or the stream was left idle."));
+		}
+
+		if (request.getCredit() <= 0) {
+			close(cursor);
+			return RMIResponse.chunk(callId, cursor.id, new Object[0], true);
+		}
+
+		return next(cursor, callId, Math.min(request.getCredit(), maxCredit));
+	}
+
+	/**
+	 * Closes every open stream and stops the sweeper. Stream requests for
+	 * them are answered with an exception.
+	 */
+	void closeAll() {
+		synchronized (this) {
+			if (sweeper != null) {
+				sweeper.shutdownNow();
+				sweeper = null;
+				sweep = null;
+			}
+		}
+		for (Cursor cursor : cursors.values()) {
+			close(cursor);
+		}
+	}
+
+	/**
+	 * Returns the number of open streams.
+	 *
+	 * @return the number of streams stubs have not finished reading
+	 */
+	int size() {
+		return cursors.size();
+	}
+
+	/**
+	 * Takes the next chunk of a stream, closing the stream once the chunk is
+	 * its last or its source has failed.
+	 *
+	 * @param cursor
+	 *            the stream
+	 * @param callId
+	 *            the call identifier of the request
+	 * @param credit
+	 *            the largest number of elements to take
+	 * @return the chunk, or the exception thrown by the source
+	 */
+	private RMIResponse next(Cursor cursor, long callId, int credit) {
+		// A stub reads its stream from one thread, but requests can still
+		// meet at the skeleton once one has timed out at the stub. The lock
+		// is not a monitor, so that a virtual thread waiting in take for a
+		// publisher does not pin its carrier.
+		cursor.lock.lock();
+		try {
+			if (cursor.closed) {
+				return new RMIResponse(callId, new RMIException("Stream " + cursor.id + " is closed."));
+			}
+
+			try {
+				Object[] elements = cursor.take(credit);
+				boolean last = cursor.isExhausted();
+				if (last) {
+					close(cursor);
+				}
+				cursor.lastUsed = System.nanoTime();
+				return RMIResponse.chunk(callId, cursor.id, elements, last);
+			} catch (Exception e) {
+				if (e instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+				close(cursor);
+				return new RMIResponse(callId, e);
+			}
+		} finally {
+			cursor.lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the streams left without requests for longer than
+	 * {@link #getIdleTimeout()}. Runs on the sweeper thread.
+	 */
+	private void closeIdle() {
+		long now = System.nanoTime();
+		List<Cursor> idle = new ArrayList<>();
+		for (Cursor cursor : cursors.values()) {
+			// A stream being read is not idle, however long the read takes.
+			if (now - cursor.lastUsed > TimeUnit.MILLISECONDS.toNanos(idleTimeout) && !cursor.lock.isLocked()) {
+				idle.add(cursor);
+			}
+		}
+		for (Cursor cursor : idle) {
+			close(cursor);
+		}
+	}
+
+	/**
+	 * Removes a stream from the table and closes its source, once.
+	 *
+	 * @param cursor
+	 *            the stream
+	 */
+	private void close(Cursor cursor) {
+		if (cursors.remove(cursor.id, cursor)) {
+			cursor.closed = true;
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Starts the sweeper thread if it is not running yet.
+	 */
+	private synchronized void startSweeper() {
+		if (sweeper != null) {
+			return;
+		}
+
+		sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "rmi-stream-sweeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduleSweep();
+	}
+
+	/**
+	 * Schedules the periodic sweep on the sweeper thread at half the idle
+	 * timeout, replacing the sweep scheduled for an earlier timeout.
+	 */
+	private synchronized void scheduleSweep() {
+		if (sweep != null) {
+			sweep.cancel(false);
+		}
+
+		long period = Math.max(1, idleTimeout / 2);
+		sweep = sweeper.scheduleWithFixedDelay(this::closeIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * The position of a stub in one stream.
+	 */
+	private abstract static class Cursor {
+
+		/**
+		 * The lock serializing the requests for the stream.
+		 */
+		final ReentrantLock lock = new ReentrantLock();
+		/**
+		 * The identifier of the stream.
+		 */
+		long id;
+		/**
+		 * The time the stream was last read, from {@link System#nanoTime()}.
+		 */
+		volatile long lastUsed = System.nanoTime();
+		/**
+		 * The boolean status of whether the stream has been closed.
+		 */
+		volatile boolean closed;
+
+		/**
+		 * Takes the next elements of the stream.
+		 *
+		 * @param credit
+		 *            the largest number of elements to take
+		 * @return the elements, possibly none if the source has none ready
+		 * @throws Exception
+		 *             if the source fails
+		 */
+		abstract Object[] take(int credit) throws Exception;
+
+		/**
+		 * Returns whether the source has no further elements.
+		 *
+		 * @return {@code true} if the stream has ended
+		 */
+		abstract boolean isExhausted();
+
+		/**
+		 * Releases the source of the stream. Failures are ignored, as the
+		 * stub no longer reads it.
+		 */
+		abstract void close();
+	}
+
+	/**
+	 * A stream over an iterator, from an {@code Iterator} or a {@code Stream}
+	 * returned by a remote method.
+	 */
+	private static final class IteratorCursor extends Cursor {
+
+		/**
+		 * The iterator supplying the elements.
+		 */
+		private final Iterator<?> iterator;
+		/**
+		 * The resource closed with the stream; {@code null} if there is none.
+		 */
+		private final AutoCloseable resource;
+		/**
+		 * The boolean status of whether the iterator has no further elements.
+		 */
+		private boolean exhausted;
+		/**
+		 * The exception the iterator threw after the elements last taken,
+		 * to be reported once they have been sent; {@code null} if it has
+		 * not failed.
+		 */
+		private RuntimeException failure;
+
+		/**
+		 * The constructor for a stream over the given iterator.
+		 *
+		 * @param iterator
+		 *            the iterator
+		 * @param resource
+		 *            the resource to close with the stream, or {@code null}
+		 */
+		IteratorCursor(Iterator<?> iterator, AutoCloseable resource) {
+			this.iterator = iterator;
+			this.resource = resource;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		Object[] take(int credit) {
+			if (failure != null) {
+				throw failure;
+			}
+
+			List<Object> elements = new ArrayList<>(Math.min(credit, initialCredit));
+			try {
+				while (elements.size() < credit && iterator.hasNext()) {
+					elements.add(iterator.next());
+				}
+				// The end is found before the chunk is sent, so that the stub
+				// need not ask again only to learn that there is nothing left.
+				exhausted = !iterator.hasNext();
+			} catch (RuntimeException e) {
+				if (elements.isEmpty()) {
+					throw e;
+				}
+				failure = e;
+			}
+
+			return elements.toArray();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		boolean isExhausted() {
+			return exhausted;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		void close() {
+			if (resource != null) {
+				try {
+					resource.close();
+				} catch (Exception e) {
+					// The stream is no longer read.
+				}
+			}
+		}
+	}
+
+	/**
+	 * A stream subscribed to a publisher, requesting of it no more elements
+	 * than the stub has granted credit for.
+	 */
+	private static final class PublisherCursor extends Cursor implements Flow.Subscriber<Object> {
+
+		/**
+		 * The lock guarding the state shared with the publisher. It is
+		 * separate from the lock serializing requests, so that the publisher
+		 * emitting from its own threads never waits for a request, and it is
+		 * not a monitor, so that waiting on it does not pin virtual threads.
+		 */
+		private final ReentrantLock state = new ReentrantLock();
+		/**
+		 * The condition signalled when the publisher subscribes, emits,
+		 * completes or fails.
+		 */
+		private final Condition signalled = state.newCondition();
+		/**
+		 * The elements received and not yet sent.
+		 */
+		private final ArrayDeque<Object> received = new ArrayDeque<>();
+		/**
+		 * The subscription to the publisher; {@code null} until the publisher
+		 * has called {@link #onSubscribe}.
+		 */
+		private Flow.Subscription subscription;
+		/**
+		 * The number of elements requested of the publisher and not yet
+		 * received.
+		 */
+		private long outstanding;
+		/**
+		 * The boolean status of whether the publisher has completed or
+		 * failed.
+		 */
+		private boolean completed;
+		/**
+		 * The failure the publisher signalled; {@code null} if it has not
+		 * failed.
+		 */
+		private Throwable failure;
+
+		/**
+		 * The constructor for a stream subscribed to the given publisher.
+		 *
+		 * @param publisher
+		 *            the publisher
+		 */
+		PublisherCursor(Flow.Publisher<?> publisher) {
+			publisher.subscribe(this);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			state.lock();
+			try {
+				if (this.subscription == null && !closed) {
+					this.subscription = subscription;
+					signalled.signalAll();
+					return;
+				}
+			} finally {
+				state.unlock();
+			}
+			subscription.cancel();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void onNext(Object item) {
+			state.lock();
+			try {
+				received.add(item);
+				outstanding = Math.max(outstanding - 1, 0);
+				signalled.signalAll();
+			} finally {
+				state.unlock();
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void onError(Throwable throwable) {
+			state.lock();
+			try {
+				failure = throwable;
+				completed = true;
+				signalled.signalAll();
+			} finally {
+				state.unlock();
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void onComplete() {
+			state.lock();
+			try {
+				completed = true;
+				signalled.signalAll();
+			} finally {
+				state.unlock();
+			}
+		}
+
+		/**
+		 * Requests elements of the publisher up to the credit and waits at
+		 * most {@link #pollTimeout} milliseconds for the first of them.
+		 *
+		 * @param credit
+		 *            the largest number of elements to take
+		 * @return the elements received, possibly none
+		 * @throws Exception
+		 *             if the publisher has failed and every element it
+		 *             emitted before has been sent
+		 */
+		@Override
+		Object[] take(int credit) throws Exception {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pollTimeout);
+			Flow.Subscription requestFrom;
+			long more;
+			state.lock();
+			try {
+				while (subscription == null && !completed && await(deadline)) {
+					// Waiting for the publisher to subscribe the cursor.
+				}
+				requestFrom = subscription;
+				more = credit - received.size() - outstanding;
+				if (requestFrom != null && more > 0) {
+					outstanding += more;
+				}
+			} finally {
+				state.unlock();
+			}
+			// The publisher may emit elements from within the request, so it
+			// is not made holding the lock guarding them.
+			if (requestFrom != null && more > 0) {
+				requestFrom.request(more);
+			}
+
+			state.lock();
+			try {
+				while (received.isEmpty() && !completed && await(deadline)) {
+					// Waiting for the publisher to emit.
+				}
+				if (received.isEmpty() && failure != null) {
+					throw (failure instanceof Exception) ? (Exception) failure : new RMIException(failure);
+				}
+
+				Object[] elements = new Object[Math.min(credit, received.size())];
+				for (int i = 0; i < elements.length; i++) {
+					elements[i] = received.poll();
+				}
+				return elements;
+			} finally {
+				state.unlock();
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		boolean isExhausted() {
+			state.lock();
+			try {
+				return completed && failure == null && received.isEmpty();
+			} finally {
+				state.unlock();
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		void close() {
+			Flow.Subscription cancelled;
+			state.lock();
+			try {
+				cancelled = subscription;
+				received.clear();
+			} finally {
+				state.unlock();
+			}
+			if (cancelled != null) {
+				cancelled.cancel();
+			}
+		}
+
+		/**
+		 * Waits for the publisher to signal the cursor until the deadline
+		 * passes. The caller holds the state lock, which is released while
+		 * waiting.
+		 *
+		 * @param deadline
+		 *            the deadline, from {@link System#nanoTime()}
+		 * @return {@code true} if the deadline has not passed
+		 * @throws InterruptedException
+		 *             if the thread is interrupted while waiting
+		 */
+		private boolean await(long deadline) throws InterruptedException {
+			long left = deadline - System.nanoTime();
+			if (left <= 0) {
+				return false;
+			}
+			signalled.awaitNanos(left);
+			return true;
+		}
+	}
+
+}
@@ -6,17 +6,27 @@ package rmi;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.util.ArrayList;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
 
+import rmi.InterfaceMetadata.MethodMetadata;
+import rmi.io.Codec;
 import rmi.io.RMIRequest;
 import rmi.io.RMIResponse;
+import rmi.io.WireFormat;
+import rmi.log.Log;
+import rmi.log.Logger;
+import rmi.metrics.ClientMetrics;
 
 /**
  * RMI stub factory.
@@ -33,6 +43,47 @@ import rmi.io.RMIResponse;
  * connect to the same skeleton. Stubs are serializable.
  */
 public abstract class Stub {
+
+	/**
+	 * The logger of the class.
+	 */
+	private static final Logger log = Log.getLogger(Stub.class);
+	/**
+	 * The way stubs in this JVM connect to their skeletons. The mode applies to
+	 * all stubs, including those received over the network.
+	 */
+	private static volatile ConnectionMode connectionMode = ConnectionMode.PER_CALL;
+	/**
+	 * The pool of idle connections used by stubs in <code>POOLED</code> mode.
+	 */
+	private static final ConnectionPool connectionPool = new ConnectionPool();
+	/**
+	 * The encoding of the messages on connections opened by stubs in this JVM.
+	 */
+	private static volatile WireFormat wireFormat = WireFormat.BINARY;
+	/**
+	 * The source of call identifiers for requests from stubs in this JVM.
+	 */
+	private static final AtomicLong nextCallId = new AtomicLong();
+	/**
+	 * The boolean status of whether stubs created in this JVM record the
+	 * metrics of their calls.
+	 */
+	private static volatile boolean metricsEnabled;
+	/**
+	 * The way stubs in this JVM call skeletons running in the same JVM.
+	 */
+	private static volatile LocalCallMode localCallMode = LocalCallMode.DISABLED;
+	/**
+	 * The way stubs wait for responses on shared-memory connections.
+	 */
+	private static volatile WaitStrategy waitStrategy = WaitStrategy.PARK;
+	/**
+	 * The number of elements stubs ask for with each chunk of a stream
+	 * returned by a remote method.
+	 */
+	private static volatile int streamCredit = 256;
+
 	/**
 	 * RMI StubInvocationHandler
 	 *
@@ -50,22 +101,97 @@ public abstract class Stub {
 
 		private static final long serialVersionUID = -9213645686207656988L;
 
-		private InetSocketAddress serverSocketAddress;
+		private SocketAddress serverSocketAddress;
 		private Class<?> c;
+		/**
+		 * The canonical form of the skeleton address, which identifies the
+		 * stub in {@code equals} and {@code hashCode}. The address as given
+		 * is kept for connecting and for the string representation.
+		 */
+		private transient SocketAddress identity;
+		/**
+		 * The boolean status of whether the stub records the metrics of its
+		 * calls. Stubs received over the network do not.
+		 */
+		private transient boolean recordsMetrics;
+		/**
+		 * The skeleton the stub was created from, when it runs in the same
+		 * JVM; {@code null} for stubs created from an address or received
+		 * over the network.
+		 */
+		private transient Skeleton<?> localSkeleton;
+		/**
+		 * The hash code of the stub, boxed once so that returning it through
+		 * the proxy does not allocate.
+		 */
+		private transient Integer hash;
+		/**
+		 * The string representation of the stub.
+		 */
+		private transient String description;
 
 		/**
 		 * Creates a new StubInvocationHandler constructed with the specified
-		 * InetSocketAddress and the class.
+		 * socket address and the class.
 		 *
 		 * @param c
 		 *            A <code>Class</code> object representing the interface
 		 *            implemented by the remote object.
 		 * @param address
 		 *            The network address of the remote skeleton.
+		 * @param recordsMetrics
+		 *            Whether the stub records the metrics of its calls.
+		 * @param localSkeleton
+		 *            The skeleton the stub was created from, or
+		 *            <code>null</code>.
 		 */
-		public StubInvocationHandler(InetSocketAddress address, Class<?> c) {
+		public StubInvocationHandler(SocketAddress address, Class<?> c, boolean recordsMetrics,
+				Skeleton<?> localSkeleton) {
 			this.serverSocketAddress = address;
 			this.c = c;
+			this.recordsMetrics = recordsMetrics;
+			this.localSkeleton = localSkeleton;
+			identify();
+		}
+
+		/**
+		 * Restores the identity of a stub received over the network.
+		 *
+		 * @param in
+		 *            The stream the stub is read from.
+		 * @throws IOException
+		 *             If the stub cannot be read.
+		 * @throws ClassNotFoundException
+		 *             If the class of a field cannot be loaded.
+		 */
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+			in.defaultReadObject();
+			identify();
+		}
+
+		/**
+		 * Computes the hash code and the string representation of the stub
+		 * once, so that neither allocates nor resolves host names when used.
+		 * The hash code is computed from the canonical address, so that stubs
+		 * for the same skeleton given by host name and by IP address hash
+		 * alike. The host is named by the string it was given as, or by its
+		 * IP address, never by a reverse lookup. A Unix domain or
+		 * shared-memory skeleton is named by its socket path.
+		 */
+		private void identify() {
+			identity = canonical(serverSocketAddress);
+			hash = 31 * identity.hashCode() + c.getName().hashCode();
+			if (serverSocketAddress instanceof InetSocketAddress) {
+				InetSocketAddress inet = (InetSocketAddress) serverSocketAddress;
+				description = "PORT : " + inet.getPort() + " HOSTNAME : " + inet.getHostString() + " INTERFACE-NAME : "
+						+ c.getName();
+			} else if (serverSocketAddress instanceof SharedMemoryAddress) {
+				description = "SHARED-MEMORY-PATH : " + ((SharedMemoryAddress) serverSocketAddress).getPath()
+						+ " INTERFACE-NAME : " + c.getName();
+			} else {
+				description = "PATH : " + ((UnixDomainSocketAddress) serverSocketAddress).getPath()
+						+ " INTERFACE-NAME : " + c.getName();
+			}
 		}
 
 		/**
@@ -91,6 +217,21 @@ public abstract class Stub {
 		 */
 		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 
+			if (method.getDeclaringClass() == Object.class) {
+				// The identity of the stub is answered here, without going
+				// through reflection.
+				switch (method.getName()) {
+				case "hashCode":
+					return hash;
+				case "equals":
+					return equals(args[0]) ? Boolean.TRUE : Boolean.FALSE;
+				case "toString":
+					return description;
+				default:
+					break;
+				}
+			}
+
 			try {
 				if (RemotePattern.isRemoteMethod(method)) {
 					return remoteInvoke(proxy, method, args);
@@ -125,61 +266,39 @@ public abstract class Stub {
 		 */
 		@SuppressWarnings("rawtypes")
 		private Object remoteInvoke(Object proxy, Method method, Object[] args) throws Throwable {
-			Socket socket = null;
-			ObjectOutputStream out;
-			ObjectInputStream in;
-			RMIRequest request;
 			RMIResponse response;
+			ClientCallTimer timer = recordsMetrics ? new ClientCallTimer(ClientMetrics.forMethod(method)) : null;
 
-			try {
-				socket = new Socket();
-				socket.connect(serverSocketAddress);
-			} catch (IOException e) {
-				System.err.println("Failed to connect to server skeleton.");
-				closeConnection(socket);
-				throw (Throwable) (new RMIException(e));
-			}
-
-			try {
-				out = new ObjectOutputStream(socket.getOutputStream());
-				out.flush();
-			} catch (IOException e) {
-				closeConnection(socket);
-				System.err.println("Failed to connect to get OutputStream from socket.");
-				throw (Throwable) (new RMIException(e));
-			}
-			try {
-				in = new ObjectInputStream(socket.getInputStream());
-			} catch (IOException e) {
-				closeConnection(socket);
-				System.err.println("Failed to connect to get InputStream from socket.");
-				throw (Throwable) (new RMIException(e));
-			}
-
-			String[] argumentTypes = getArgumentTypes(method);
 			// System.err.println("Calling Remote Method: " +
 			// method.getDeclaringClass().getName() + "." + method.getName()
-			// + "(" + args + " : " + argumentTypes.toString() + ")");
-			request = new RMIRequest(method.getDeclaringClass().getName(), method.getName(), args, argumentTypes);
+			// + "(" + args + ")");
 			try {
-				out.writeObject(request);
-			} catch (IOException e) {
-				closeConnection(socket);
-				System.err.println("Failed to write request to socket.");
-				throw (Throwable) (new RMIException(e));
+				response = call(newRequest(method, args), timer);
+				if (response.isUnresolved()) {
+					// The skeleton could not resolve the method from its
+					// identifier alone, so the call is repeated with the
+					// method named in full.
+					log.debug(() -> "Skeleton at " + serverSocketAddress + " did not resolve "
+							+ InterfaceMetadata.of(method).getSignature() + " by identifier; calling it by name");
+					response = call(newNamedRequest(method, args), timer);
+				}
+			} catch (RMIException e) {
+				if (timer != null) {
+					timer.finished(true, false);
+				}
+				throw e;
 			}
 
-			try {
-				response = (RMIResponse) in.readObject();
-			} catch (ClassNotFoundException | IOException e) {
-				closeConnection(socket);
-				System.err.println("Failed to read response from socket.");
-				throw (Throwable) (new RMIException(e));
+			if (timer != null) {
+				timer.finished(false, response.getException() != null);
 			}
 
-			closeConnection(socket);
-
 			if (response.getException() == null) {
+				if (response.isChunk()) {
+					// The further chunks of the stream are fetched the way
+					// the call was made.
+					return RemoteStream.open(method.getReturnType(), response, request -> call(request, null));
+				}
 				return response.getReturnValue();
 			} else {
 				// System.out.println("Remote method execution threw an
@@ -189,15 +308,50 @@ public abstract class Stub {
 
 		}
 
+		/**
+		 * Sends a request to the skeleton and returns its response, calling
+		 * the skeleton directly if it runs in this JVM and local calls are
+		 * enabled.
+		 *
+		 * @param request
+		 *            The request to be sent
+		 * @param timer
+		 *            The timer of the call; <code>null</code> if the call is
+		 *            not timed
+		 * @return The response of the skeleton
+		 * @throws RMIException
+		 *             If the call cannot be made
+		 */
+		private RMIResponse call(RMIRequest request, ClientCallTimer timer) throws RMIException {
+			Skeleton<?> local = localSkeleton;
+			LocalCallMode mode = localCallMode;
+			if (local == null || mode == LocalCallMode.DISABLED) {
+				return send(serverSocketAddress, request, timer);
+			}
+
+			if (timer == null) {
+				return LocalCall.call(local, request, mode);
+			}
+
+			// A local call has no connection to open, write or read; all of
+			// it is counted as waiting for the server.
+			long start = System.nanoTime();
+			RMIResponse response = LocalCall.call(local, request, mode);
+			timer.received(System.nanoTime() - start, -1);
+			return response;
+		}
+
 		/**
 		 * <p>
-		 * This function returns the hash code value of the proxy
+		 * This function returns the hash code value of the proxy, computed
+		 * from the skeleton address and the interface when the stub was
+		 * created.
 		 *
 		 * @return The hashCode value as an integer
 		 *
 		 */
 		public int hashCode() {
-			return toString().hashCode();
+			return hash;
 		}
 
 		/**
@@ -220,15 +374,24 @@ public abstract class Stub {
 			}
 
 			InvocationHandler sih = Proxy.getInvocationHandler(proxy);
+			if (sih == this) {
+				return true;
+			}
+
 			if (!(sih instanceof StubInvocationHandler)) {
 				return false;
 			}
 
-			if (!serverSocketAddress.equals(((StubInvocationHandler) sih).serverSocketAddress)) {
+			StubInvocationHandler other = (StubInvocationHandler) sih;
+			if (hash.intValue() != other.hash.intValue()) {
 				return false;
 			}
 
-			if (this.c.getName() != ((StubInvocationHandler) sih).c.getName()) {
+			if (!identity.equals(other.identity)) {
+				return false;
+			}
+
+			if (!c.getName().equals(other.c.getName())) {
 				return false;
 			}
 
@@ -244,10 +407,7 @@ public abstract class Stub {
 		 *
 		 */
 		public String toString() {
-			System.err.println("PORT : " + serverSocketAddress.getPort() + " HOSTNAME : "
-					+ serverSocketAddress.getHostName() + " INTERFACE-NAME : " + c.getName());
-			return "PORT : " + serverSocketAddress.getPort() + " HOSTNAME : " + serverSocketAddress.getHostName()
-					+ " INTERFACE-NAME : " + c.getName();
+			return description;
 		}
 
 		/**
@@ -276,46 +436,482 @@ public abstract class Stub {
 
 			return method.invoke(sih, args);
 		}
+	}
 
-		/**
-		 * <p>
-		 * This function accepts the socket and closes the connection associated
-		 * with the socket
-		 *
-		 * @param socket
-		 *            The socket used for communication between the skeleton and
-		 *            the stub
-		 *
-		 */
-		private void closeConnection(Socket socket) {
-			try {
-				socket.close();
-			} catch (IOException e) {
-				System.err.println("Failed to close socket.");
-			}
+	/**
+	 * Returns an asynchronous view of the given stub, through which remote
+	 * methods are called without waiting for their results.
+	 *
+	 * <p>
+	 * Calls made through the view always travel over the multiplexed
+	 * connection to the stub's skeleton, whatever the connection mode, so that
+	 * any number of them can be in flight at once.
+	 *
+	 * @param stub
+	 *            A stub created by one of the <code>create</code> methods.
+	 * @param <T>
+	 *            Generic class typeparameter
+	 * @return The asynchronous view of the stub.
+	 * @throws NullPointerException
+	 *             If <code>stub</code> is <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             If <code>stub</code> is not a stub.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> AsyncStub<T> async(T stub) {
+		StubInvocationHandler handler = getHandler(stub);
+		return new AsyncStub<T>((Class<T>) handler.c, handler.serverSocketAddress);
+	}
+
+	/**
+	 * Returns a new, empty batch of calls to the given stub's skeleton.
+	 *
+	 * <p>
+	 * Calls added to the batch are collected rather than made, and are sent
+	 * to the skeleton together in a single request when the batch is
+	 * executed. Like any other call, the batch travels over a connection
+	 * chosen by the current connection mode.
+	 *
+	 * @param stub
+	 *            A stub created by one of the <code>create</code> methods.
+	 * @param <T>
+	 *            Generic class typeparameter
+	 * @return The empty batch.
+	 * @throws NullPointerException
+	 *             If <code>stub</code> is <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             If <code>stub</code> is not a stub.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> CallBatch<T> batch(T stub) {
+		StubInvocationHandler handler = getHandler(stub);
+		return new CallBatch<T>((Class<T>) handler.c, handler.serverSocketAddress);
+	}
+
+	/**
+	 * Returns the invocation handler of a stub.
+	 *
+	 * @param stub
+	 *            The stub.
+	 * @return The invocation handler.
+	 * @throws NullPointerException
+	 *             If <code>stub</code> is <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             If <code>stub</code> is not a stub.
+	 */
+	private static StubInvocationHandler getHandler(Object stub) {
+		if (stub == null) {
+			throw new NullPointerException("Stub should be non-null.");
 		}
 
-		/**
-		 * <p>
-		 * This function takes a method object and returns the array of strings
-		 * where each string is the type of an argument of the method
-		 *
-		 * @param method
-		 *            The method object
-		 *
-		 * @return Array of strings of argument types of method
-		 *
-		 */
-		private String[] getArgumentTypes(Method method) {
-			ArrayList<String> list = new ArrayList<>();
-			for (Class clazz : method.getParameterTypes()) {
-				list.add(clazz.getName());
+		if (!Proxy.isProxyClass(stub.getClass())
+				|| !(Proxy.getInvocationHandler(stub) instanceof StubInvocationHandler)) {
+			throw new IllegalArgumentException("Object is not a stub.");
+		}
+
+		return (StubInvocationHandler) Proxy.getInvocationHandler(stub);
+	}
+
+	/**
+	 * Returns a fresh call identifier for a request from this JVM.
+	 *
+	 * @return The call identifier.
+	 */
+	static long newCallId() {
+		return nextCallId.incrementAndGet();
+	}
+
+	/**
+	 * Builds a compact request for a call of the given remote method, which
+	 * identifies the method by its number in the dispatch table of its
+	 * declaring interface.
+	 *
+	 * @param method
+	 *            The remote method.
+	 * @param args
+	 *            The arguments of the call, or <code>null</code> if the method
+	 *            takes none.
+	 * @return The request, with a fresh call identifier.
+	 */
+	static RMIRequest newRequest(Method method, Object[] args) {
+		MethodMetadata call = InterfaceMetadata.of(method);
+		return new RMIRequest(nextCallId.incrementAndGet(), call.getInterfaceName(), call.getFingerprint(),
+				call.getMethodId(), call.getMethodName(), args, call.getArgumentTypes());
+	}
+
+	/**
+	 * Builds a request for a call of the given remote method that names the
+	 * method in full, for skeletons that cannot resolve the compact form.
+	 *
+	 * @param method
+	 *            The remote method.
+	 * @param args
+	 *            The arguments of the call, or <code>null</code> if the method
+	 *            takes none.
+	 * @return The request, with a fresh call identifier.
+	 */
+	static RMIRequest newNamedRequest(Method method, Object[] args) {
+		MethodMetadata call = InterfaceMetadata.of(method);
+		return new RMIRequest(nextCallId.incrementAndGet(), call.getInterfaceName(), call.getMethodName(), args,
+				call.getArgumentTypes());
+	}
+
+	/**
+	 * <p>
+	 * Sends the request to the remote skeleton over a connection chosen by
+	 * the current connection mode and waits for the response.
+	 *
+	 * @param address
+	 *            The network address of the remote skeleton
+	 * @param request
+	 *            The request to be sent
+	 * @return The response read from the skeleton
+	 * @throws RMIException
+	 *             If the connection fails at any point of the exchange
+	 *
+	 */
+	static RMIResponse send(SocketAddress address, RMIRequest request) throws RMIException {
+		return send(address, request, null);
+	}
+
+	/**
+	 * <p>
+	 * Sends the request to the remote skeleton over a connection chosen by
+	 * the current connection mode and waits for the response, timing the
+	 * phases of the call.
+	 *
+	 * @param address
+	 *            The network address of the remote skeleton
+	 * @param request
+	 *            The request to be sent
+	 * @param timer
+	 *            The timer of the call; <code>null</code> if the call is not
+	 *            timed
+	 * @return The response read from the skeleton
+	 * @throws RMIException
+	 *             If the connection fails at any point of the exchange
+	 *
+	 */
+	static RMIResponse send(SocketAddress address, RMIRequest request, ClientCallTimer timer)
+			throws RMIException {
+		ConnectionMode mode = connectionMode;
+		if (mode == ConnectionMode.MULTIPLEXED) {
+			return MultiplexedConnection.get(address, timer).call(request, timer);
+		} else if (mode == ConnectionMode.POOLED) {
+			return connectionPool.call(address, request, timer);
+		} else {
+			return exchange(address, request, timer);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Opens a new connection to the remote skeleton, writes the request,
+	 * reads the response and closes the connection.
+	 *
+	 * @param address
+	 *            The network address of the remote skeleton
+	 * @param request
+	 *            The request to be sent
+	 * @param timer
+	 *            The timer of the call; <code>null</code> if the call is not
+	 *            timed
+	 * @return The response read from the skeleton
+	 * @throws RMIException
+	 *             If the connection fails at any point of the exchange
+	 *
+	 */
+	private static RMIResponse exchange(SocketAddress address, RMIRequest request, ClientCallTimer timer)
+			throws RMIException {
+		Transport transport = Transport.of(address);
+		SocketChannel socket;
+		Codec codec;
+		RMIResponse response;
+		long start = (timer == null) ? 0 : System.nanoTime();
+
+		try {
+			socket = transport.connect(address);
+		} catch (IOException e) {
+			log.warn("Failed to connect to server skeleton.");
+			throw new RMIException(e);
+		}
+
+		try {
+			codec = wireFormat.openClient(transport.openInput(socket), transport.openOutput(socket));
+		} catch (IOException e) {
+			closeConnection(socket);
+			log.warn("Failed to open connection streams on socket.");
+			throw new RMIException(e);
+		}
+
+		if (timer != null) {
+			long connected = System.nanoTime();
+			timer.connected(connected - start);
+			start = connected;
+		}
+
+		try {
+			codec.writeRequest(request);
+		} catch (IOException e) {
+			closeConnection(socket);
+			log.warn("Failed to write request to socket.");
+			throw new RMIException(e);
+		}
+
+		if (timer != null) {
+			long written = System.nanoTime();
+			timer.written(written - start);
+			start = written;
+		}
+
+		try {
+			response = codec.readResponse();
+			if (timer != null) {
+				timer.received(System.nanoTime() - start, codec.getLastDecodeTime());
 			}
+		} catch (ClassNotFoundException | IOException e) {
+			closeConnection(socket);
+			log.warn("Failed to read response from socket.");
+			throw new RMIException(e);
+		}
 
-			String[] argumentTypes = new String[list.size()];
+		closeConnection(socket);
+
+		return response;
+	}
 
-			return (String[]) list.toArray(argumentTypes);
+	/**
+	 * <p>
+	 * This function accepts the socket and closes the connection associated
+	 * with the socket
+	 *
+	 * @param socket
+	 *            The channel used for communication between the skeleton and
+	 *            the stub
+	 *
+	 */
+	private static void closeConnection(SocketChannel socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			log.warn("Failed to close socket.");
+		}
+	}
+
+	/**
+	 * Returns the way stubs in this JVM connect to their skeletons.
+	 *
+	 * @return The connection mode.
+	 */
+	public static ConnectionMode getConnectionMode() {
+		return connectionMode;
+	}
+
+	/**
+	 * Sets the way stubs in this JVM connect to their skeletons.
+	 *
+	 * <p>
+	 * The default, <code>PER_CALL</code>, opens a connection for every call.
+	 * <code>POOLED</code> borrows an idle connection from the pool returned by
+	 * <code>getConnectionPool</code>, opening one only when none is idle.
+	 * <code>MULTIPLEXED</code> keeps one connection per skeleton address open
+	 * and shares it among all calls to that address. The new mode takes effect
+	 * for calls started after this method returns.
+	 *
+	 * @param mode
+	 *            The connection mode.
+	 * @throws NullPointerException
+	 *             If <code>mode</code> is <code>null</code>.
+	 */
+	public static void setConnectionMode(ConnectionMode mode) {
+		if (mode == null) {
+			throw new NullPointerException("Connection mode should be non-null.");
 		}
+
+		connectionMode = mode;
+	}
+
+	/**
+	 * Returns the encoding of the messages on connections opened by stubs in
+	 * this JVM.
+	 *
+	 * @return The wire format.
+	 */
+	public static WireFormat getWireFormat() {
+		return wireFormat;
+	}
+
+	/**
+	 * Sets the encoding of the messages on connections opened by stubs in this
+	 * JVM.
+	 *
+	 * <p>
+	 * The default, <code>BINARY</code>, writes compact length-prefixed frames
+	 * that identify the method by number. <code>SERIALIZATION</code> writes
+	 * every message as a Java-serialized object. Skeletons accept both on any
+	 * connection. The new format applies to connections opened after this
+	 * method returns; pooled and multiplexed connections already open keep
+	 * theirs.
+	 *
+	 * @param format
+	 *            The wire format.
+	 * @throws NullPointerException
+	 *             If <code>format</code> is <code>null</code>.
+	 */
+	public static void setWireFormat(WireFormat format) {
+		if (format == null) {
+			throw new NullPointerException("Wire format should be non-null.");
+		}
+
+		wireFormat = format;
+	}
+
+	/**
+	 * Returns whether stubs created in this JVM record the metrics of their
+	 * calls.
+	 *
+	 * @return <code>true</code> if new stubs record metrics;
+	 *         <code>false</code> otherwise.
+	 */
+	public static boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+
+	/**
+	 * Sets whether stubs created in this JVM record the metrics of their
+	 * calls.
+	 *
+	 * <p>
+	 * A stub created by <code>create</code> while metrics are enabled times
+	 * every remote call it makes through opening a connection, writing the
+	 * request, waiting for the response and reading it, and counts the calls
+	 * that fail in transport or throw on the server. The metrics are kept per
+	 * remote method and can be read through
+	 * {@link rmi.metrics.ClientMetrics}. Stubs keep the setting they were
+	 * created with; stubs received over the network, and the asynchronous
+	 * and batch views of a stub, do not record metrics. By default metrics
+	 * are not recorded.
+	 *
+	 * @param enabled
+	 *            Whether new stubs record metrics.
+	 */
+	public static void setMetricsEnabled(boolean enabled) {
+		metricsEnabled = enabled;
+	}
+
+	/**
+	 * Returns the way stubs in this JVM call skeletons running in the same
+	 * JVM.
+	 *
+	 * @return The local call mode.
+	 */
+	public static LocalCallMode getLocalCallMode() {
+		return localCallMode;
+	}
+
+	/**
+	 * Sets the way stubs in this JVM call skeletons running in the same JVM.
+	 *
+	 * <p>
+	 * Only stubs created by <code>create(Class, Skeleton)</code> know their
+	 * skeleton; a copy of such a stub received over the network does not,
+	 * and always calls through a connection. By default, <code>DISABLED</code>,
+	 * every call goes through a connection. The new mode takes effect for
+	 * calls started after this method returns.
+	 *
+	 * @param mode
+	 *            The local call mode.
+	 * @throws NullPointerException
+	 *             If <code>mode</code> is <code>null</code>.
+	 */
+	public static void setLocalCallMode(LocalCallMode mode) {
+		if (mode == null) {
+			throw new NullPointerException("Local call mode cannot be null.");
+		}
+
+		localCallMode = mode;
+	}
+
+	/**
+	 * Returns the way stubs in this JVM wait for responses on shared-memory
+	 * connections.
+	 *
+	 * @return The wait strategy.
+	 */
+	public static WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Sets the way stubs in this JVM wait for responses on shared-memory
+	 * connections. By default, <code>PARK</code>, a waiting stub spins only
+	 * briefly before it parks. The new strategy applies to connections opened
+	 * after this method returns; pooled and multiplexed connections already
+	 * open keep theirs.
+	 *
+	 * @param strategy
+	 *            The wait strategy.
+	 * @throws NullPointerException
+	 *             If <code>strategy</code> is <code>null</code>.
+	 */
+	public static void setWaitStrategy(WaitStrategy strategy) {
+		if (strategy == null) {
+			throw new NullPointerException("Wait strategy cannot be null.");
+		}
+
+		waitStrategy = strategy;
+	}
+
+	/**
+	 * Returns the number of elements stubs in this JVM ask for with each chunk
+	 * of a stream returned by a remote method.
+	 *
+	 * @return The stream credit.
+	 */
+	public static int getStreamCredit() {
+		return streamCredit;
+	}
+
+	/**
+	 * Sets the number of elements stubs in this JVM ask for with each chunk of
+	 * a stream returned by a remote method.
+	 *
+	 * <p>
+	 * A remote method declared to return an <code>Iterator</code>, a
+	 * <code>Stream</code> or a <code>Flow.Publisher</code> returns a stub-side
+	 * object of the same type, which fetches the elements from the skeleton a
+	 * chunk at a time as they are consumed. The skeleton sends up to 64
+	 * elements with the response to the call and then, for each request of
+	 * the stub, as many as the credit grants, but never more than 4096 at
+	 * once. It takes elements from the result of the remote method only as
+	 * credit is granted, so a larger credit costs fewer round trips and a
+	 * smaller one bounds the memory both sides hold. A subscriber to a
+	 * publisher is sent no more than it has requested. The default is 256
+	 * elements. The new credit applies to streams returned after this method
+	 * returns.
+	 *
+	 * @param credit
+	 *            The number of elements per chunk.
+	 * @throws IllegalArgumentException
+	 *             If <code>credit</code> is not positive.
+	 */
+	public static void setStreamCredit(int credit) {
+		if (credit <= 0) {
+			throw new IllegalArgumentException("Stream credit should be positive.");
+		}
+
+		streamCredit = credit;
+	}
+
+	/**
+	 * Returns the pool of idle connections used by stubs in this JVM when the
+	 * connection mode is <code>POOLED</code>. The pool's bounds and counters
+	 * can be adjusted and read through the returned object.
+	 *
+	 * @return The connection pool.
+	 */
+	public static ConnectionPool getConnectionPool() {
+		return connectionPool;
 	}
 
 	/**
@@ -329,7 +925,9 @@ public abstract class Stub {
 	 * <p>
 	 * This method should be used when the stub is created together with the
 	 * skeleton. The stub may then be transmitted over the network to enable
-	 * communication with the skeleton.
+	 * communication with the skeleton. While a {@link LocalCallMode} other
+	 * than <code>DISABLED</code> is set, the stub itself calls the skeleton
+	 * directly instead of through a connection.
 	 *
 	 * @param c
 	 *            A <code>Class</code> object representing the interface
@@ -359,12 +957,12 @@ public abstract class Stub {
 			throw new Error("c is not a remote interface.");
 		}
 
-		InetSocketAddress remoteAddress = skeleton.getBindAddress();
+		SocketAddress remoteAddress = skeleton.getSocketAddress();
 		if (remoteAddress == null) {
 			throw new IllegalStateException();
 		}
 
-		return doCreate(c, remoteAddress);
+		return doCreate(c, remoteAddress, skeleton);
 	}
 
 	/**
@@ -396,7 +994,8 @@ public abstract class Stub {
 	 *            Generic class typeparameter
 	 * @return The stub created.
 	 * @throws IllegalStateException
-	 *             If the skeleton has not been assigned a port.
+	 *             If the skeleton has not been assigned a port, or listens on
+	 *             a Unix domain socket.
 	 * @throws NullPointerException
 	 *             If any argument is <code>null</code>.
 	 * @throws Error
@@ -421,7 +1020,7 @@ public abstract class Stub {
 
 		InetSocketAddress remoteAddress = new InetSocketAddress(hostname, address.getPort());
 
-		return doCreate(c, remoteAddress);
+		return doCreate(c, remoteAddress, null);
 	}
 
 	/**
@@ -436,19 +1035,26 @@ public abstract class Stub {
 	 *            A <code>Class</code> object representing the interface
 	 *            implemented by the remote object.
 	 * @param address
-	 *            The network address of the remote skeleton.
+	 *            The network address of the remote skeleton: an
+	 *            <code>InetSocketAddress</code>, or a
+	 *            <code>UnixDomainSocketAddress</code> for a skeleton on the
+	 *            same host listening on a Unix domain socket, or a
+	 *            <code>SharedMemoryAddress</code> for a skeleton on the same
+	 *            host reached through shared memory.
 	 * @param <T>
 	 *            Generic class typeparameter
 	 * @return The stub created.
 	 * @throws NullPointerException
 	 *             If any argument is <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             If <code>address</code> is of any other type.
 	 * @throws Error
 	 *             If <code>c</code> does not represent a remote interface - an
 	 *             interface in which each method is marked as throwing
 	 *             <code>RMIException</code>, or if an object implementing this
 	 *             interface cannot be dynamically created.
 	 */
-	public static <T> T create(Class<T> c, InetSocketAddress address) {
+	public static <T> T create(Class<T> c, SocketAddress address) {
 		if (c == null || address == null) {
 			throw new NullPointerException("Paramater of create should be non-null.");
 		}
@@ -457,12 +1063,47 @@ public abstract class Stub {
 			throw new Error("c is not a remote interface.");
 		}
 
-		return doCreate(c, address);
+		// Addresses of a type no transport supports are rejected here rather
+		// than at the first call.
+		Transport.of(address);
+
+		return doCreate(c, address, null);
+	}
+
+	/**
+	 * Returns the canonical form of a skeleton address, by which stubs are
+	 * compared: a resolved address is reduced to its IP address and port, so
+	 * that the host name it was created with plays no part in equality. Unix
+	 * domain addresses are kept as given.
+	 *
+	 * @param address
+	 *            The network address of the remote skeleton.
+	 * @return The canonical address.
+	 */
+	private static SocketAddress canonical(SocketAddress address) {
+		if (!(address instanceof InetSocketAddress)) {
+			return address;
+		}
+
+		InetSocketAddress inet = (InetSocketAddress) address;
+		InetAddress ip = inet.getAddress();
+		if (ip == null || (ip instanceof Inet6Address && ((Inet6Address) ip).getScopeId() != 0)) {
+			// Unresolved and scoped addresses are kept as given: the scope of
+			// an IPv6 address is not part of its raw address.
+			return address;
+		}
+
+		try {
+			return new InetSocketAddress(InetAddress.getByAddress(ip.getAddress()), inet.getPort());
+		} catch (UnknownHostException e) {
+			// Raw addresses of a resolved address always have a valid length.
+			return address;
+		}
 	}
 
 	/**
 	 * <p>
-	 * Stub.create calls doCreate function with the class and InetSocketAddress
+	 * Stub.create calls doCreate function with the class and SocketAddress
 	 * The function creates a proxy instance with the StubInvocationHandler
 	 *
 	 * @param c
@@ -472,12 +1113,15 @@ public abstract class Stub {
 	 *            Generic class typeparameter
 	 * @param address
 	 *            The network address of the remote skeleton.
+	 * @param skeleton
+	 *            The skeleton the stub is created from, when it runs in this
+	 *            JVM; <code>null</code> otherwise.
 	 * @return The stub created.
 	 *
 	 */
 	@SuppressWarnings("unchecked")
-	private static <T> T doCreate(Class<T> c, InetSocketAddress address) {
-		InvocationHandler invocationHandler = new StubInvocationHandler(address, c);
+	private static <T> T doCreate(Class<T> c, SocketAddress address, Skeleton<T> skeleton) {
+		InvocationHandler invocationHandler = new StubInvocationHandler(address, c, metricsEnabled, skeleton);
 		T instance = (T) Proxy.newProxyInstance(c.getClassLoader(), new Class<?>[] { c, Serializable.class },
 				invocationHandler);
 		return instance;
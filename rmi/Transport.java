@@ -0,0 +1,465 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/**
+ * The kinds of sockets that carry the connections between stubs and
+ * skeletons. The transport of a skeleton follows from the type of the address
+ * it is given, and a stub uses the transport of the address it is created
+ * for.
+ *
+ * <p>
+ * Every connection is a blocking {@link SocketChannel}; a shared-memory
+ * connection is a channel of its own over the rings of its file. Its streams
+ * may be read and written at the same time by different threads, which the
+ * multiplexed connections and pipelined calls rely on.
+ */
+public enum Transport {
+
+	/**
+	 * Connections are TCP sockets, addressed by {@link InetSocketAddress}.
+	 */
+	TCP {
+		@Override
+		ServerSocketChannel bind(SocketAddress address, int backlog) throws IOException {
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			try {
+				channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+				channel.bind((address != null) ? address : new InetSocketAddress(0), backlog);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+
+			return channel;
+		}
+
+		@Override
+		SocketChannel connect(SocketAddress address) throws IOException {
+			SocketChannel channel = SocketChannel.open();
+			try {
+				channel.connect(address);
+				configure(channel);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+
+			return channel;
+		}
+
+		@Override
+		void configure(SocketChannel channel) throws IOException {
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		}
+
+		@Override
+		InputStream openInput(SocketChannel channel) throws IOException {
+			return channel.socket().getInputStream();
+		}
+
+		@Override
+		OutputStream openOutput(SocketChannel channel) {
+			return new ChannelOutputStream(channel);
+		}
+
+		@Override
+		void release(SocketAddress address) {
+			// The port is freed when the listening socket is closed.
+		}
+
+		@Override
+		String describe(SocketAddress address) {
+			InetSocketAddress inet = (InetSocketAddress) address;
+			return "IPAddress: " + ((inet.getAddress() != null) ? inet.getAddress().toString() : inet.getHostString())
+					+ ", " + "Port: " + inet.getPort();
+		}
+
+		@Override
+		String name(SocketAddress address) {
+			InetSocketAddress inet = (InetSocketAddress) address;
+			return inet.getHostString() + ":" + inet.getPort();
+		}
+	},
+	/**
+	 * Connections are Unix domain sockets, addressed by
+	 * {@link UnixDomainSocketAddress}. They reach only skeletons on the same
+	 * host, but skip the TCP stack. A skeleton listening on a Unix domain
+	 * socket is always served by the {@link ServerEngine#NIO} engine, and
+	 * deletes its socket file when it stops.
+	 */
+	UNIX_DOMAIN {
+		@Override
+		ServerSocketChannel bind(SocketAddress address, int backlog) throws IOException {
+			ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			try {
+				channel.bind(address, backlog);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+
+			return channel;
+		}
+
+		@Override
+		SocketChannel connect(SocketAddress address) throws IOException {
+			SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+			try {
+				channel.connect(address);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+
+			return channel;
+		}
+
+		@Override
+		void configure(SocketChannel channel) {
+			// Unix domain sockets have no Nagle delay to turn off.
+		}
+
+		@Override
+		InputStream openInput(SocketChannel channel) {
+			return new ChannelInputStream(channel);
+		}
+
+		@Override
+		OutputStream openOutput(SocketChannel channel) {
+			return new ChannelOutputStream(channel);
+		}
+
+		@Override
+		void release(SocketAddress address) throws IOException {
+			Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+		}
+
+		@Override
+		String describe(SocketAddress address) {
+			return "Path: " + ((UnixDomainSocketAddress) address).getPath();
+		}
+
+		@Override
+		String name(SocketAddress address) {
+			return ((UnixDomainSocketAddress) address).getPath().toString();
+		}
+	},
+	/**
+	 * Connections exchange their bytes through two ring buffers in a
+	 * memory-mapped file, one per direction, and are addressed by
+	 * {@link SharedMemoryAddress}. They are set up over a Unix domain socket,
+	 * which is then kept open only to notice the peer going away, so calls
+	 * make no system calls at all while both sides are busy. Waiting threads
+	 * spin or park as their {@link WaitStrategy} says. A skeleton listening
+	 * for shared-memory connections serves each with a worker thread of its
+	 * own, whatever its {@link ServerEngine}, and deletes its socket file when
+	 * it stops.
+	 */
+	SHARED_MEMORY {
+		@Override
+		ServerSocketChannel bind(SocketAddress address, int backlog) throws IOException {
+			return UNIX_DOMAIN.bind(UnixDomainSocketAddress.of(((SharedMemoryAddress) address).getPath()), backlog);
+		}
+
+		@Override
+		SocketChannel connect(SocketAddress address) throws IOException {
+			return SharedMemoryChannel.connect((SharedMemoryAddress) address, Stub.getWaitStrategy());
+		}
+
+		@Override
+		void configure(SocketChannel channel) {
+			// The rings have no options.
+		}
+
+		@Override
+		InputStream openInput(SocketChannel channel) {
+			return ((SharedMemoryChannel) channel).getInputStream();
+		}
+
+		@Override
+		OutputStream openOutput(SocketChannel channel) {
+			return ((SharedMemoryChannel) channel).getOutputStream();
+		}
+
+		@Override
+		void release(SocketAddress address) throws IOException {
+			Files.deleteIfExists(((SharedMemoryAddress) address).getPath());
+		}
+
+		@Override
+		String describe(SocketAddress address) {
+			return "SharedMemoryPath: " + ((SharedMemoryAddress) address).getPath();
+		}
+
+		@Override
+		String name(SocketAddress address) {
+			return ((SharedMemoryAddress) address).getPath().toString();
+		}
+	};
+
+	/**
+	 * Returns the transport of the given address.
+	 *
+	 * @param address
+	 *            the address of a skeleton; {@code null} for a TCP skeleton
+	 *            whose address is chosen by the system
+	 * @return the transport
+	 * @throws IllegalArgumentException
+	 *             if the address is of a type no transport supports
+	 */
+	public static Transport of(SocketAddress address) {
+		if (address == null || address instanceof InetSocketAddress) {
+			return TCP;
+		}
+
+		if (address instanceof UnixDomainSocketAddress) {
+			return UNIX_DOMAIN;
+		}
+
+		if (address instanceof SharedMemoryAddress) {
+			return SHARED_MEMORY;
+		}
+
+		throw new IllegalArgumentException("Unsupported socket address: " + address.getClass().getName());
+	}
+
+	/**
+	 * Opens a listening channel bound to the given address.
+	 *
+	 * @param address
+	 *            the address to bind to; {@code null} to let the system
+	 *            choose a TCP port
+	 * @param backlog
+	 *            the maximum number of pending connections
+	 * @return the bound channel, in blocking mode
+	 * @throws IOException
+	 *             if the channel cannot be opened or bound
+	 */
+	abstract ServerSocketChannel bind(SocketAddress address, int backlog) throws IOException;
+
+	/**
+	 * Opens a connection to the skeleton at the given address.
+	 *
+	 * @param address
+	 *            the address of the skeleton
+	 * @return the connected channel, in blocking mode
+	 * @throws IOException
+	 *             if the connection cannot be opened
+	 */
+	abstract SocketChannel connect(SocketAddress address) throws IOException;
+
+	/**
+	 * Sets the options of a connection accepted or opened on this transport.
+	 *
+	 * @param channel
+	 *            the connection
+	 * @throws IOException
+	 *             if an option cannot be set
+	 */
+	abstract void configure(SocketChannel channel) throws IOException;
+
+	/**
+	 * Returns an input stream reading from a connection in blocking mode.
+	 *
+	 * @param channel
+	 *            the connection
+	 * @return the input stream
+	 * @throws IOException
+	 *             if the stream cannot be obtained
+	 */
+	abstract InputStream openInput(SocketChannel channel) throws IOException;
+
+	/**
+	 * Returns an output stream writing to a connection in blocking mode.
+	 *
+	 * @param channel
+	 *            the connection
+	 * @return the output stream
+	 * @throws IOException
+	 *             if the stream cannot be obtained
+	 */
+	abstract OutputStream openOutput(SocketChannel channel) throws IOException;
+
+	/**
+	 * Frees the address once the skeleton listening on it has stopped.
+	 *
+	 * @param address
+	 *            the address the skeleton listened on
+	 * @throws IOException
+	 *             if the address cannot be freed
+	 */
+	abstract void release(SocketAddress address) throws IOException;
+
+	/**
+	 * Describes an address for log messages.
+	 *
+	 * @param address
+	 *            the address
+	 * @return the description
+	 */
+	abstract String describe(SocketAddress address);
+
+	/**
+	 * Returns a short name of an address, for thread names.
+	 *
+	 * @param address
+	 *            the address
+	 * @return the name
+	 */
+	abstract String name(SocketAddress address);
+
+	/**
+	 * An input stream reading a channel directly. Unlike the streams of
+	 * {@link java.nio.channels.Channels}, it takes no lock shared with writes,
+	 * so that one thread may wait for input while another writes.
+	 */
+	private static final class ChannelInputStream extends InputStream {
+
+		/**
+		 * The channel read from.
+		 */
+		private final SocketChannel channel;
+
+		/**
+		 * The constructor creates a stream reading the given channel.
+		 *
+		 * @param channel
+		 *            the channel, in blocking mode
+		 */
+		ChannelInputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return (read(one, 0, 1) < 0) ? -1 : (one[0] & 0xFF);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			return channel.read(ByteBuffer.wrap(b, off, len));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+	/**
+	 * An output stream writing a channel directly, taking no lock shared with
+	 * reads. It is also the channel itself, so that the binary codec can
+	 * write bulk values with gathering writes and transfer file regions to
+	 * the socket.
+	 */
+	private static final class ChannelOutputStream extends OutputStream implements GatheringByteChannel {
+
+		/**
+		 * The channel written to.
+		 */
+		private final SocketChannel channel;
+
+		/**
+		 * The constructor creates a stream writing the given channel.
+		 *
+		 * @param channel
+		 *            the channel, in blocking mode
+		 */
+		ChannelOutputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			return channel.write(src);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+			return channel.write(srcs, offset, length);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long write(ByteBuffer[] srcs) throws IOException {
+			return channel.write(srcs);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,39 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+/**
+ * Wraps an {@link RMIException} where it cannot be thrown as it is: from the
+ * methods of the {@code Iterator} or {@code Stream} a stub returns for a
+ * remote method returning a stream, when further elements cannot be fetched
+ * from the skeleton.
+ */
+public class UncheckedRMIException extends RuntimeException {
+
+	private static final long serialVersionUID = 4168023513062839770L;
+
+	/**
+	 * The constructor to wrap the given exception.
+	 *
+	 * @param cause
+	 *            the exception
+	 * @throws NullPointerException
+	 *             if the exception is {@code null}
+	 */
+	public UncheckedRMIException(RMIException cause) {
+		super(cause.getMessage(), cause);
+	}
+
+	/**
+	 * Returns the wrapped exception.
+	 *
+	 * @return the exception
+	 */
+	@Override
+	public synchronized RMIException getCause() {
+		return (RMIException) super.getCause();
+	}
+
+}
@@ -0,0 +1,98 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The ways in which a thread waits on a shared-memory connection, either for
+ * the peer to write into a ring that is empty or to read from a ring that is
+ * full. See {@link Transport#SHARED_MEMORY}. On a single processor, where the
+ * peer cannot run while a thread spins, both strategies yield the processor
+ * instead of spinning.
+ */
+public enum WaitStrategy {
+
+	/**
+	 * The thread spins without ever giving up its processor, so that it sees
+	 * the peer's bytes as soon as they are written. It gives the lowest
+	 * latency but keeps a processor busy for every waiting thread, including
+	 * the skeleton thread of every idle connection.
+	 */
+	BUSY_SPIN {
+		@Override
+		boolean idle(int iteration) {
+			spin();
+			return (iteration & peerCheckInterval) == peerCheckInterval;
+		}
+	},
+	/**
+	 * The thread spins for a few microseconds and then parks for increasing
+	 * periods of up to a millisecond, so that idle connections cost almost no
+	 * processor time while calls answered quickly are still seen without
+	 * parking.
+	 */
+	PARK {
+		@Override
+		boolean idle(int iteration) {
+			if (iteration < spinIterations) {
+				spin();
+				return (iteration & peerCheckInterval) == peerCheckInterval;
+			}
+
+			int doublings = Math.min(iteration - spinIterations, maxParkDoublings);
+			LockSupport.parkNanos(minParkNanos << doublings);
+			return true;
+		}
+	};
+
+	/**
+	 * The boolean status of whether the JVM has more than one processor. On a
+	 * single processor the peer cannot run while a thread spins.
+	 */
+	static final boolean isMultiprocessor = Runtime.getRuntime().availableProcessors() > 1;
+	/**
+	 * The number of iterations <code>PARK</code> spins before it parks.
+	 */
+	static final int spinIterations = 1024;
+	/**
+	 * The mask of the spinning iterations after which the waiting thread
+	 * checks that the peer is still connected.
+	 */
+	static final int peerCheckInterval = 1023;
+	/**
+	 * The time in nanoseconds <code>PARK</code> first parks for.
+	 */
+	static final long minParkNanos = 1000;
+	/**
+	 * The number of times the parking time doubles, up to about a
+	 * millisecond.
+	 */
+	static final int maxParkDoublings = 10;
+
+	/**
+	 * Waits once for the peer.
+	 *
+	 * @param iteration
+	 *            the number of times the thread has already waited for the
+	 *            same condition
+	 * @return {@code true} if the thread has waited long enough that it
+	 *         should check whether the peer is still connected
+	 */
+	abstract boolean idle(int iteration);
+
+	/**
+	 * Spins once, or yields the processor to the peer if there is no other
+	 * processor for the peer to run on.
+	 */
+	private static void spin() {
+		if (isMultiprocessor) {
+			Thread.onSpinWait();
+		} else {
+			Thread.yield();
+		}
+	}
+
+}
@@ -0,0 +1,245 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The thread pool in which a skeleton serves its client connections, bounded
+ * by an {@link ExecutorPolicy}.
+ *
+ * <p>
+ * A plain {@link ThreadPoolExecutor} starts threads beyond the core only once
+ * its queue is full, which would leave connections waiting while the pool is
+ * still allowed to grow. The queue of this pool therefore refuses tasks while
+ * fewer than the maximum number of threads run and no thread is idle, which
+ * makes the executor start a thread instead; tasks are queued only once the
+ * pool is at its maximum.
+ *
+ * <p>
+ * When the policy asks for virtual threads, the same pool runs with no core
+ * threads, no queue and no keep-alive, so that every connection is served on
+ * a fresh virtual thread while the maximum still bounds how many are served
+ * at once.
+ */
+class WorkerPool extends ThreadPoolExecutor {
+
+	/**
+	 * The bounds of the pool.
+	 */
+	private final ExecutorPolicy policy;
+	/**
+	 * The number of tasks submitted and not yet completed.
+	 */
+	private final AtomicInteger submittedTasks = new AtomicInteger();
+	/**
+	 * The number of tasks rejected because the pool and its queue were full.
+	 */
+	private final AtomicLong rejectedTasks = new AtomicLong();
+
+	/**
+	 * The queue that refuses tasks while the pool can still grow.
+	 */
+	private static class WorkQueue extends LinkedBlockingQueue<Runnable> {
+
+		private static final long serialVersionUID = 5470361725738162453L;
+
+		/**
+		 * The pool taking tasks from this queue.
+		 */
+		private transient WorkerPool pool;
+		/**
+		 * The boolean status of whether the queue holds no tasks at all.
+		 */
+		private final boolean isDisabled;
+
+		/**
+		 * The constructor to create an empty {@link WorkQueue}.
+		 * 
+		 * @param capacity
+		 *            the number of tasks the queue holds at most
+		 */
+		WorkQueue(int capacity) {
+			super(Math.max(1, capacity));
+			this.isDisabled = (capacity == 0);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean offer(Runnable task) {
+			int poolSize = pool.getPoolSize();
+			if (poolSize < pool.getMaximumPoolSize() && pool.submittedTasks.get() > poolSize) {
+				return false; // Makes the pool start another thread.
+			}
+
+			return enqueue(task);
+		}
+
+		/**
+		 * Adds the task to the queue if the queue is not at capacity. Tasks
+		 * are submitted by the listener and by workers alike, so the bound is
+		 * left to the queue itself, which checks it atomically.
+		 * 
+		 * @param task
+		 *            the task
+		 * @return {@code true} if the task was queued
+		 */
+		boolean enqueue(Runnable task) {
+			return !isDisabled && super.offer(task);
+		}
+	}
+
+	/**
+	 * The constructor to create a {@link WorkerPool} with the given bounds.
+	 * 
+	 * @param policy
+	 *            the bounds of the pool
+	 * @param name
+	 *            the prefix of the names of the worker threads
+	 */
+	WorkerPool(ExecutorPolicy policy, String name) {
+		super(policy.getCoreThreads(), policy.getMaxThreads(), policy.getKeepAlive(), TimeUnit.MILLISECONDS,
+				new WorkQueue(policy.getQueueCapacity()),
+				policy.isVirtualThreads() ? virtualThreadFactory(name) : new NamedThreadFactory(name));
+		((WorkQueue) getQueue()).pool = this;
+		this.policy = policy;
+	}
+
+	/**
+	 * Returns the bounds of the pool.
+	 * 
+	 * @return executor policy
+	 */
+	ExecutorPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Executes the task on a worker thread, queueing it if every worker is
+	 * busy.
+	 * 
+	 * @param task
+	 *            the task
+	 * @throws RejectedExecutionException
+	 *             if the pool is at its maximum and the queue is full, or the
+	 *             pool has been shut down
+	 */
+	@Override
+	public void execute(Runnable task) {
+		submittedTasks.incrementAndGet();
+		try {
+			super.execute(task);
+		} catch (RejectedExecutionException e) {
+			// A thread may have stopped between the queue refusing the task
+			// and the pool failing to grow; queue the task if there is room.
+			if (isShutdown() || !((WorkQueue) getQueue()).enqueue(task)) {
+				submittedTasks.decrementAndGet();
+				rejectedTasks.incrementAndGet();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void afterExecute(Runnable task, Throwable failure) {
+		submittedTasks.decrementAndGet();
+	}
+
+	/**
+	 * Returns a factory of virtual threads named after the given prefix. The
+	 * virtual thread API is looked up reflectively so that this class still
+	 * compiles and runs on runtimes without it.
+	 * 
+	 * @param name
+	 *            the prefix of the thread names
+	 * @return the thread factory; {@code null} if the runtime cannot create
+	 *         virtual threads
+	 */
+	static ThreadFactory virtualThreadFactory(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Before JDK 21 the API is missing or a disabled preview feature.
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether every worker the pool may start has a task, so that a
+	 * further task would wait in the queue.
+	 * 
+	 * @return {@code true} if the pool is saturated
+	 */
+	boolean isSaturated() {
+		return submittedTasks.get() >= getMaximumPoolSize();
+	}
+
+	/**
+	 * Returns the number of tasks waiting for a worker thread.
+	 * 
+	 * @return queue depth
+	 */
+	int getQueueDepth() {
+		return getQueue().size();
+	}
+
+	/**
+	 * Returns the number of tasks rejected because the pool and its queue were
+	 * full.
+	 * 
+	 * @return rejected task count
+	 */
+	long getRejectedCount() {
+		return rejectedTasks.get();
+	}
+
+	/**
+	 * The factory of worker threads named after their pool.
+	 */
+	private static class NamedThreadFactory implements ThreadFactory {
+
+		/**
+		 * The prefix of the thread names.
+		 */
+		private final String name;
+		/**
+		 * The number of threads created so far.
+		 */
+		private final AtomicInteger created = new AtomicInteger();
+
+		/**
+		 * The constructor to create a {@link NamedThreadFactory}.
+		 * 
+		 * @param name
+		 *            the prefix of the thread names
+		 */
+		NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Thread newThread(Runnable task) {
+			return new Thread(task, name + "-" + created.incrementAndGet());
+		}
+	}
+
+}
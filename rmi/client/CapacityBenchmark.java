@@ -0,0 +1,185 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.client;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rmi.ConnectionMode;
+import rmi.ConnectionPool;
+import rmi.ExecutorPolicy;
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+
+/**
+ * The driver measuring how many concurrent remote calls a skeleton sustains
+ * when its remote method blocks, as it would on downstream I/O, under
+ * different worker executor policies.
+ *
+ * <p>
+ * For every concurrency level, the given number of callers each hold a pooled
+ * connection to an in-process skeleton and call a method that sleeps for the
+ * given latency, for the given duration. Since every connection occupies a
+ * worker for as long as it is open, the achieved call rate shows how many
+ * calls each policy serves at once, and the peak number of platform threads,
+ * which includes one per caller, shows what serving them costs:
+ * <ul>
+ * <li><code>cached</code> - an unbounded pool, as skeletons used before
+ * executor policies existed;</li>
+ * <li><code>bounded</code> - the default {@link ExecutorPolicy} bounds without
+ * a queue, since queued connections would wait behind pooled connections that
+ * never close; callers turned away back off for one latency and retry;</li>
+ * <li><code>virtual</code> - a virtual thread per connection, on JDK 21 or
+ * later.</li>
+ * </ul>
+ *
+ * <p>
+ * Usage: <code>java rmi.client.CapacityBenchmark [concurrency,...]
+ * [latency-ms] [duration-ms]</code>
+ */
+public class CapacityBenchmark {
+
+	/**
+	 * The remote interface of the service whose method blocks.
+	 */
+	public interface SleepService {
+
+		/**
+		 * Blocks for the given time.
+		 * 
+		 * @param millis
+		 *            the time to block in milliseconds
+		 * @throws RMIException
+		 *             if the call cannot be completed
+		 */
+		public void sleep(int millis) throws RMIException;
+	}
+
+	/**
+	 * The service implementation blocking the calling worker thread.
+	 */
+	private static class SleepServer implements SleepService {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void sleep(int millis) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String[] levels = ((args.length > 0) ? args[0] : "100,1000,4000").split(",");
+		int latency = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+		long duration = (args.length > 2) ? Long.parseLong(args[2]) : 5000;
+
+		ArrayList<String> names = new ArrayList<>();
+		ArrayList<ExecutorPolicy> policies = new ArrayList<>();
+		names.add("cached");
+		policies.add(new ExecutorPolicy(0, Integer.MAX_VALUE, 0, 60000));
+		names.add("bounded");
+		policies.add(new ExecutorPolicy(ExecutorPolicy.defaultCoreThreads, ExecutorPolicy.defaultMaxThreads, 0,
+				ExecutorPolicy.defaultKeepAlive));
+		if (ExecutorPolicy.isVirtualThreadSupported()) {
+			names.add("virtual");
+			policies.add(ExecutorPolicy.virtualThreads());
+		} else {
+			System.out.println("Virtual threads are not supported by this runtime; skipping.");
+		}
+
+		Stub.setConnectionMode(ConnectionMode.POOLED);
+		System.out.println("latency " + latency + " ms, duration " + duration + " ms");
+		System.out.println(String.format("%-8s %12s %12s %12s %10s %14s", "policy", "concurrency", "calls/s",
+				"ideal/s", "failed", "peak threads"));
+
+		for (String level : levels) {
+			int concurrency = Integer.parseInt(level.trim());
+			Stub.getConnectionPool().setMaxIdlePerAddress(concurrency);
+			Stub.getConnectionPool().setMaxConnections(Math.max(concurrency, ConnectionPool.defaultMaxConnections));
+			for (int p = 0; p < policies.size(); p++) {
+				long[] result = run(policies.get(p), concurrency, latency, duration);
+				System.out.println(String.format("%-8s %12d %12.0f %12.0f %10d %14d", names.get(p), concurrency,
+						result[0] * 1000.0 / duration, concurrency * 1000.0 / latency, result[1], result[2]));
+			}
+		}
+	}
+
+	/**
+	 * Waits before a failed call is retried.
+	 * 
+	 * @param millis
+	 *            the time to wait in milliseconds
+	 */
+	private static void backOff(int millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs one measurement against a fresh skeleton.
+	 * 
+	 * @param policy
+	 *            the executor policy of the skeleton
+	 * @param concurrency
+	 *            the number of concurrent callers
+	 * @param latency
+	 *            the time each call blocks in milliseconds
+	 * @param duration
+	 *            the time to call for in milliseconds
+	 * @return the numbers of completed and failed calls, and the peak number
+	 *         of platform threads
+	 * @throws Exception
+	 *             if the skeleton cannot be started
+	 */
+	private static long[] run(ExecutorPolicy policy, int concurrency, int latency, long duration)
+			throws Exception {
+		Skeleton<SleepService> skeleton = new Skeleton<SleepService>(SleepService.class, new SleepServer());
+		skeleton.setExecutorPolicy(policy);
+		skeleton.start();
+		SleepService stub = Stub.create(SleepService.class, skeleton, "127.0.0.1");
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		threads.resetPeakThreadCount();
+		AtomicLong completed = new AtomicLong();
+		AtomicLong failed = new AtomicLong();
+		CountDownLatch done = new CountDownLatch(concurrency);
+		long deadline = System.currentTimeMillis() + duration;
+		for (int i = 0; i < concurrency; i++) {
+			Thread caller = new Thread(() -> {
+				while (System.currentTimeMillis() < deadline) {
+					try {
+						stub.sleep(latency);
+						completed.incrementAndGet();
+					} catch (RMIException e) {
+						failed.incrementAndGet();
+						backOff(latency);
+					}
+				}
+				done.countDown();
+			});
+			caller.setDaemon(true);
+			caller.start();
+		}
+
+		done.await();
+		skeleton.stop();
+		Stub.getConnectionPool().clear();
+
+		return new long[] { completed.get(), failed.get(), threads.getPeakThreadCount() };
+	}
+
+}
@@ -12,6 +12,10 @@ import rmi.server.IPingServer;
 
 /**
  * The driver class to ping the remote {@code PingServer} instance.
+ *
+ * <p>
+ * The four sequential pings check that the server answers; measuring how it
+ * performs under load is the job of {@link LoadGenerator}.
  */
 public class ClientDriver {
 
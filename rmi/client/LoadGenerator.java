@@ -0,0 +1,337 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.client;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import rmi.ConnectionMode;
+import rmi.ConnectionPool;
+import rmi.RMIException;
+import rmi.ServerEngine;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.io.WireFormat;
+import rmi.metrics.LatencyHistogram;
+import rmi.server.IPingServer;
+import rmi.server.PingServerFactory;
+
+/**
+ * The driver generating load on a {@code PingServer} skeleton and reporting
+ * the throughput it sustains and the distribution of its call latencies.
+ *
+ * <p>
+ * The given number of callers share one stub. Without a target rate, each
+ * caller makes its next call as soon as the previous one returns (closed
+ * loop), and the latency of a call is the time it took. With a target rate,
+ * calls are scheduled at fixed intervals spread evenly over the callers (open
+ * loop), and the latency of a call is measured from the time it was scheduled
+ * to be sent rather than the time it was sent. A caller held up by a slow call
+ * then sends the calls it is late with at once, and their waiting counts
+ * towards their latency, as it would for independent clients that do not wait
+ * for each other; measuring from the send time instead would hide the stall
+ * (coordinated omission). Both the latency measured from the schedule
+ * (response time) and from the send time (service time) are reported; the
+ * achieved rate falls short of the target when the callers cannot keep up.
+ *
+ * <p>
+ * Calls are {@link IPingServer#ping(int)} calls, or
+ * {@link IPingServer#echo(byte[])} calls carrying a payload of the given size.
+ * Calls made during the warm-up are not measured. Without a host, a skeleton
+ * is started in this process and called over the loopback interface.
+ *
+ * <p>
+ * Usage: <code>java rmi.client.LoadGenerator [-host host] [-port port]
+ * [-threads callers] [-rate calls-per-second] [-payload bytes]
+ * [-duration seconds] [-warmup seconds] [-mode PER_CALL|POOLED|MULTIPLEXED]
+ * [-format BINARY|SERIALIZATION] [-engine BLOCKING|NIO]</code>
+ */
+public class LoadGenerator {
+
+	/**
+	 * The percentiles of the latencies reported.
+	 */
+	private static final double[] percentiles = { 50, 90, 99, 99.9, 99.99, 100 };
+
+	/**
+	 * The host of the skeleton, or {@code null} to start one in this process.
+	 */
+	private String host = null;
+	/**
+	 * The port of the skeleton, or zero to let the in-process skeleton be
+	 * assigned one.
+	 */
+	private int port = 0;
+	/**
+	 * The number of concurrent callers.
+	 */
+	private int threads = 1;
+	/**
+	 * The target number of calls per second, or zero to call in a closed
+	 * loop.
+	 */
+	private double rate = 0;
+	/**
+	 * The size of the payload of each call in bytes, or zero to ping.
+	 */
+	private int payload = 0;
+	/**
+	 * The time the calls are measured for in seconds.
+	 */
+	private double duration = 10;
+	/**
+	 * The time the calls are made for before they are measured in seconds.
+	 */
+	private double warmup = 2;
+	/**
+	 * The way the stub connects to the skeleton.
+	 */
+	private ConnectionMode mode = ConnectionMode.POOLED;
+	/**
+	 * The encoding of the messages on the connections.
+	 */
+	private WireFormat format = WireFormat.BINARY;
+	/**
+	 * The way the in-process skeleton serves its connections.
+	 */
+	private ServerEngine engine = ServerEngine.BLOCKING;
+
+	/**
+	 * The latencies from the scheduled send times, merged from all callers.
+	 */
+	private final LatencyHistogram responseTimes = new LatencyHistogram();
+	/**
+	 * The latencies from the actual send times, merged from all callers.
+	 */
+	private final LatencyHistogram serviceTimes = new LatencyHistogram();
+	/**
+	 * The number of measured calls that failed or returned a wrong result.
+	 */
+	private final AtomicLong errors = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		LoadGenerator generator = new LoadGenerator();
+		try {
+			generator.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java rmi.client.LoadGenerator [-host host] [-port port] [-threads callers]"
+					+ " [-rate calls-per-second] [-payload bytes] [-duration seconds] [-warmup seconds]"
+					+ " [-mode PER_CALL|POOLED|MULTIPLEXED] [-format BINARY|SERIALIZATION]"
+					+ " [-engine BLOCKING|NIO]");
+			System.exit(2);
+		}
+		generator.run();
+	}
+
+	/**
+	 * Reads the options of the run from the command line.
+	 *
+	 * @param args
+	 *            the command line arguments
+	 * @throws IllegalArgumentException
+	 *             if an option is unknown, lacks its value or has an invalid
+	 *             one
+	 */
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value of option " + args[i]);
+			}
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "-host":
+				host = value;
+				break;
+			case "-port":
+				port = Integer.parseInt(value);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "-rate":
+				rate = Double.parseDouble(value);
+				break;
+			case "-payload":
+				payload = Integer.parseInt(value);
+				break;
+			case "-duration":
+				duration = Double.parseDouble(value);
+				break;
+			case "-warmup":
+				warmup = Double.parseDouble(value);
+				break;
+			case "-mode":
+				mode = ConnectionMode.valueOf(value);
+				break;
+			case "-format":
+				format = WireFormat.valueOf(value);
+				break;
+			case "-engine":
+				engine = ServerEngine.valueOf(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (threads < 1 || rate < 0 || payload < 0 || duration <= 0 || warmup < 0) {
+			throw new IllegalArgumentException("Option values out of range");
+		}
+		if (host != null && port == 0) {
+			throw new IllegalArgumentException("The port of the remote skeleton must be given");
+		}
+	}
+
+	/**
+	 * Generates the load, waits for the callers to finish and prints the
+	 * results.
+	 *
+	 * @throws Exception
+	 *             if the in-process skeleton cannot be started
+	 */
+	private void run() throws Exception {
+		Stub.setConnectionMode(mode);
+		Stub.setWireFormat(format);
+		Stub.getConnectionPool().setMaxIdlePerAddress(threads);
+		Stub.getConnectionPool().setMaxConnections(Math.max(threads, ConnectionPool.defaultMaxConnections));
+
+		Skeleton<IPingServer> skeleton = null;
+		IPingServer stub;
+		if (host == null) {
+			IPingServer server = PingServerFactory.makePingServer();
+			if (port == 0) {
+				skeleton = new Skeleton<IPingServer>(IPingServer.class, server);
+			} else {
+				skeleton = new Skeleton<IPingServer>(IPingServer.class, server, new InetSocketAddress(port));
+			}
+			skeleton.setServerEngine(engine);
+			skeleton.start();
+			stub = Stub.create(IPingServer.class, skeleton, "127.0.0.1");
+		} else {
+			stub = Stub.create(IPingServer.class, new InetSocketAddress(host, port));
+		}
+
+		System.out.println(String.format("%s, %d threads, %s, payload %d bytes, %s, %s%s",
+				(host == null) ? "loopback" : host + ":" + port, threads,
+				(rate > 0) ? String.format("target %.0f calls/s", rate) : "closed loop", payload, mode, format,
+				(host == null) ? ", " + engine : ""));
+		System.out.println(String.format("warm-up %.1f s, measured %.1f s", warmup, duration));
+
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		long measureStart = start + (long) (warmup * 1e9);
+		long end = measureStart + (long) (duration * 1e9);
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			int caller = i;
+			Thread thread = new Thread(() -> {
+				try {
+					call(stub, caller, start, measureStart, end);
+				} finally {
+					done.countDown();
+				}
+			}, "load-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		done.await();
+
+		if (skeleton != null) {
+			skeleton.stop();
+		}
+		Stub.getConnectionPool().clear();
+		report();
+	}
+
+	/**
+	 * Makes the calls of one caller and records their latencies.
+	 *
+	 * @param stub
+	 *            the stub to call
+	 * @param caller
+	 *            the number of the caller, from zero
+	 * @param start
+	 *            the time the first calls are scheduled at, in
+	 *            {@link System#nanoTime()} nanoseconds
+	 * @param measureStart
+	 *            the time from which the calls are measured
+	 * @param end
+	 *            the time after which no more calls are made
+	 */
+	private void call(IPingServer stub, int caller, long start, long measureStart, long end) {
+		LatencyHistogram response = new LatencyHistogram();
+		LatencyHistogram service = new LatencyHistogram();
+		long failed = 0;
+		byte[] bytes = new byte[payload];
+		Arrays.fill(bytes, (byte) caller);
+
+		long interval = (rate > 0) ? (long) (threads * 1e9 / rate) : 0;
+		long scheduled = start + interval * caller / threads;
+		int id = caller;
+		while (true) {
+			long now = System.nanoTime();
+			if (interval > 0) {
+				for (; now < scheduled; now = System.nanoTime()) {
+					LockSupport.parkNanos(scheduled - now);
+				}
+			} else {
+				scheduled = now;
+			}
+			if (scheduled >= end) {
+				break;
+			}
+
+			boolean ok;
+			try {
+				if (payload == 0) {
+					ok = ("Pong " + id).equals(stub.ping(id));
+				} else {
+					ok = Arrays.equals(bytes, stub.echo(bytes));
+				}
+			} catch (RMIException e) {
+				ok = false;
+			}
+			long finished = System.nanoTime();
+
+			if (scheduled >= measureStart) {
+				if (ok) {
+					response.record(finished - scheduled);
+					service.record(finished - now);
+				} else {
+					failed++;
+				}
+			}
+			scheduled += interval;
+			id += threads;
+		}
+
+		responseTimes.add(response);
+		serviceTimes.add(service);
+		errors.addAndGet(failed);
+	}
+
+	/**
+	 * Prints the throughput and the latency percentiles of the measured
+	 * calls.
+	 */
+	private void report() {
+		long calls = responseTimes.getCount();
+		System.out.println(String.format("%12s %12s %12s", "calls", "errors", "calls/s"));
+		System.out.println(String.format("%12d %12d %12.0f", calls, errors.get(), calls / duration));
+		System.out.println();
+		System.out.println(String.format("%12s %16s %16s", "percentile", "response (us)", "service (us)"));
+		for (double percentile : percentiles) {
+			System.out.println(String.format("%12s %16.1f %16.1f", (percentile == 100) ? "max" : percentile + "",
+					responseTimes.getValueAtPercentile(percentile) / 1e3,
+					serviceTimes.getValueAtPercentile(percentile) / 1e3));
+		}
+		System.out.println(String.format("%12s %16.1f %16.1f", "mean", responseTimes.getMean() / 1e3,
+				serviceTimes.getMean() / 1e3));
+	}
+
+}
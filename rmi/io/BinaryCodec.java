@@ -0,0 +1,1139 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * The codec writing each message as a length-prefixed binary frame.
+ *
+ * <p>
+ * A frame is a four-byte big-endian payload length followed by the payload.
+ * The payload starts with a message type byte and the variable-length call
+ * identifier. A request then carries its method identifier plus one, and
+ * either the fingerprint of the caller's dispatch table when the identifier is
+ * set or, when it is zero, the interface name, method name and argument type
+ * names in full. A response carries a status byte instead. Both end with their
+ * values.
+ *
+ * <p>
+ * A batch request is a frame of its own message type carrying its call
+ * identifier, a flags byte and the number of calls, followed by each call
+ * encoded as a request payload. A batch response likewise carries the
+ * responses to the calls, in order.
+ *
+ * <p>
+ * A stream request is a frame of its own message type carrying its call
+ * identifier, the stream identifier and the credit, all variable-length. A
+ * chunk is a response whose status byte is followed by the stream identifier,
+ * a flags byte marking the last chunk, and the elements as values.
+ *
+ * <p>
+ * Values are written one tag byte each, followed inline by the value when it
+ * is {@code null}, a boxed primitive, a {@code String} or a {@code byte[]}.
+ * Integers are written as zigzag variable-length quantities, so small numbers
+ * of either sign take a single byte. Every other value is marked with a tag
+ * only; these values are written together, after the tags, as one
+ * Java-serialized array, which keeps references shared between them intact.
+ *
+ * <p>
+ * Bulk values, {@code ByteBuffer} and {@link FileRegion} values and byte
+ * arrays of at least {@link #minSegmentLength} bytes, are written with their
+ * tag and length only. Their bytes follow the payload as segments of a bulk
+ * frame, described in {@link FrameWriter}, and are written from where they
+ * are instead of being copied into the frame: a gathering write sends the
+ * payload and the buffers together, and a file region is transferred from the
+ * file to the connection. A skeleton receives them into buffers leased from
+ * the shared {@link BufferPool}, which the request holds until it is released;
+ * a stub receives them into buffers of their own, as the caller keeps them.
+ * Frames with segments are written out at once, since the segments are read
+ * only when they are written.
+ *
+ * <p>
+ * A binary connection opens with a handshake of the magic number
+ * {@link #magic} and the protocol {@link #protocolVersion}, which the
+ * skeleton echoes. The handshake is sent together with the first frame in
+ * either direction, so it costs no round trip of its own.
+ *
+ * <p>
+ * Frames written without flushing are gathered in the write buffer and
+ * written out together, in a single write, when the codec is flushed or the
+ * buffer exceeds {@link #maxBufferedLength} bytes.
+ */
+public class BinaryCodec implements Codec {
+
+	/**
+	 * The magic number opening a binary connection, the ASCII bytes "RMIB".
+	 */
+	public static final int magic = 0x524D4942;
+	/**
+	 * The version of the binary protocol.
+	 */
+	public static final int protocolVersion = 4;
+	/**
+	 * The largest payload accepted in a frame.
+	 */
+	public static final int maxFrameLength = Integer.MAX_VALUE - 8;
+	/**
+	 * The default largest total length of the segments of a bulk frame
+	 * accepted.
+	 */
+	public static final int defaultMaxBulkLength = 256 * 1024 * 1024;
+	/**
+	 * The number of buffered bytes beyond which frames written without
+	 * flushing are written out anyway.
+	 */
+	public static final int maxBufferedLength = 64 * 1024;
+	/**
+	 * The length from which a byte array is written as a segment rather than
+	 * inline.
+	 */
+	public static final int minSegmentLength = 4 * 1024;
+
+	/**
+	 * The message type byte of a request.
+	 */
+	static final byte requestType = 1;
+	/**
+	 * The message type byte of a response.
+	 */
+	static final byte responseType = 2;
+	/**
+	 * The message type byte of a batch request.
+	 */
+	static final byte batchRequestType = 3;
+	/**
+	 * The message type byte of a batch response.
+	 */
+	static final byte batchResponseType = 4;
+	/**
+	 * The message type byte of a stream request.
+	 */
+	static final byte streamRequestType = 5;
+
+	/**
+	 * The flag of a batch request whose calls are independent of one another.
+	 */
+	static final byte independentFlag = 1;
+	/**
+	 * The flag of a chunk carrying the last elements of its stream.
+	 */
+	static final byte lastChunkFlag = 1;
+
+	/**
+	 * The status byte of a response carrying a return value.
+	 */
+	static final byte valueStatus = 0;
+	/**
+	 * The status byte of a response carrying an exception.
+	 */
+	static final byte exceptionStatus = 1;
+	/**
+	 * The status byte of a response to a compact request the skeleton could
+	 * not resolve.
+	 */
+	static final byte unresolvedStatus = 2;
+	/**
+	 * The status byte of a chunk carrying elements of a stream.
+	 */
+	static final byte chunkStatus = 3;
+
+	/**
+	 * The tag of {@code null}.
+	 */
+	static final byte nullTag = 0;
+	/**
+	 * The tag of {@code Boolean.FALSE}.
+	 */
+	static final byte falseTag = 1;
+	/**
+	 * The tag of {@code Boolean.TRUE}.
+	 */
+	static final byte trueTag = 2;
+	/**
+	 * The tag of a {@code Byte}, written as one byte.
+	 */
+	static final byte byteTag = 3;
+	/**
+	 * The tag of a {@code Short}, written as a zigzag variable-length quantity.
+	 */
+	static final byte shortTag = 4;
+	/**
+	 * The tag of a {@code Character}, written as a variable-length quantity.
+	 */
+	static final byte charTag = 5;
+	/**
+	 * The tag of an {@code Integer}, written as a zigzag variable-length quantity.
+	 */
+	static final byte intTag = 6;
+	/**
+	 * The tag of a {@code Long}, written as a zigzag variable-length quantity.
+	 */
+	static final byte longTag = 7;
+	/**
+	 * The tag of a {@code Float}, written as four bytes.
+	 */
+	static final byte floatTag = 8;
+	/**
+	 * The tag of a {@code Double}, written as eight bytes.
+	 */
+	static final byte doubleTag = 9;
+	/**
+	 * The tag of a {@code String}, written as its UTF-8 length and bytes.
+	 */
+	static final byte stringTag = 10;
+	/**
+	 * The tag of a {@code byte[]}, written as its length and bytes.
+	 */
+	static final byte bytesTag = 11;
+	/**
+	 * The tag of a value carried in the serialized array after the tags.
+	 */
+	static final byte serializedTag = 12;
+	/**
+	 * The tag of a {@code byte[]} written as a segment, written as its length.
+	 */
+	static final byte bulkBytesTag = 13;
+	/**
+	 * The tag of a {@code ByteBuffer}, written as its length and sent as a
+	 * segment.
+	 */
+	static final byte bulkBufferTag = 14;
+	/**
+	 * The tag of a {@link FileRegion}, written as its length and sent as a
+	 * segment.
+	 */
+	static final byte fileRegionTag = 15;
+
+	/**
+	 * The length of the handshake: the magic number and the version byte.
+	 */
+	private static final int handshakeLength = 5;
+	/**
+	 * The size up to which the read buffer is grown in one step. A frame
+	 * announcing more is read in steps, so that a bogus length cannot force a
+	 * large allocation before any data arrives.
+	 */
+	private static final int readChunk = 64 * 1024;
+	/**
+	 * The largest total length of the segments of a bulk frame accepted.
+	 */
+	private static volatile int maxBulkLength = defaultMaxBulkLength;
+
+	/**
+	 * The stream from which frames are read.
+	 */
+	private final InputStream in;
+	/**
+	 * The stream to which frames are written.
+	 */
+	private final OutputStream out;
+	/**
+	 * The buffer into which outgoing frames are encoded.
+	 */
+	private final FrameWriter writer = new FrameWriter();
+	/**
+	 * The buffer into which incoming frames are read.
+	 */
+	private byte[] readBuffer = new byte[256];
+	/**
+	 * The boolean status of whether the handshake has yet to be written in
+	 * front of the first outgoing frame.
+	 */
+	private boolean handshakeToWrite;
+	/**
+	 * The boolean status of whether the peer's handshake has yet to be read in
+	 * front of the first incoming frame.
+	 */
+	private boolean handshakeToRead;
+	/**
+	 * The time the last frame read took to decode in nanoseconds; negative
+	 * if none has been read.
+	 */
+	private long lastDecodeTime = -1;
+
+	/**
+	 * The constructor to create a {@link BinaryCodec} on the given streams.
+	 * 
+	 * @param in
+	 *            the input stream of the connection, preferably buffered
+	 * @param out
+	 *            the output stream of the connection
+	 * @param writeHandshake
+	 *            whether the handshake is to be written in front of the first
+	 *            outgoing frame
+	 * @param readHandshake
+	 *            whether the peer's handshake is to be read in front of the
+	 *            first incoming frame
+	 */
+	public BinaryCodec(InputStream in, OutputStream out, boolean writeHandshake, boolean readHandshake) {
+		this.in = in;
+		this.out = out;
+		this.handshakeToWrite = writeHandshake;
+		this.handshakeToRead = readHandshake;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeRequest(RMIRequest request) throws IOException {
+		writeRequest(request, true);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeRequest(RMIRequest request, boolean flush) throws IOException {
+		int buffered = writer.length();
+		boolean handshake = handshakeToWrite;
+		try {
+			beginWrite();
+			encodeRequest(request, writer);
+		} catch (IOException | RuntimeException e) {
+			// The frames buffered before this one are kept intact, so only
+			// the call of this message fails.
+			writer.truncate(buffered);
+			handshakeToWrite = handshake;
+			throw new EncodingException(e);
+		}
+		endWrite(flush);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RMIRequest readRequest() throws IOException, ClassNotFoundException {
+		FrameReader frame = readFrame(BufferPool.shared());
+		long decodeStart = System.nanoTime();
+		RMIRequest request = decodeRequest(frame);
+		lastDecodeTime = System.nanoTime() - decodeStart;
+		return request;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeResponse(RMIResponse response) throws IOException {
+		writeResponse(response, true);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeResponse(RMIResponse response, boolean flush) throws IOException {
+		int buffered = writer.length();
+		boolean handshake = handshakeToWrite;
+		try {
+			beginWrite();
+			encodeResponse(response, writer);
+		} catch (IOException | RuntimeException e) {
+			// The frames buffered before this one are kept intact, so only
+			// the call of this message fails.
+			writer.truncate(buffered);
+			handshakeToWrite = handshake;
+			throw new EncodingException(e);
+		}
+		endWrite(flush);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (writer.length() > 0) {
+			writer.writeTo(out);
+			writer.reset();
+		}
+		out.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RMIResponse readResponse() throws IOException, ClassNotFoundException {
+		FrameReader frame = readFrame(null);
+		long decodeStart = System.nanoTime();
+		RMIResponse response = decodeResponse(frame);
+		lastDecodeTime = System.nanoTime() - decodeStart;
+		return response;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getLastDecodeTime() {
+		return lastDecodeTime;
+	}
+
+	/**
+	 * Returns the largest total length of the segments of a bulk frame
+	 * accepted by the codecs and by the NIO engine.
+	 *
+	 * @return the bulk length limit in bytes
+	 */
+	public static int getMaxBulkLength() {
+		return maxBulkLength;
+	}
+
+	/**
+	 * Sets the largest total length of the segments of a bulk frame accepted.
+	 * A frame declaring more is rejected as corrupt before any of its
+	 * segments is read, and its connection is closed, so that a peer cannot
+	 * make the other end reserve memory by declaring a length it never sends.
+	 *
+	 * @param maxBulkLength
+	 *            the bulk length limit in bytes, at most
+	 *            {@link #maxFrameLength}
+	 * @throws IllegalArgumentException
+	 *             if the limit is not positive or exceeds
+	 *             {@link #maxFrameLength}
+	 */
+	public static void setMaxBulkLength(int maxBulkLength) {
+		if (maxBulkLength <= 0 || maxBulkLength > maxFrameLength) {
+			throw new IllegalArgumentException("Bulk length limit should be positive and at most " + maxFrameLength
+					+ ".");
+		}
+
+		BinaryCodec.maxBulkLength = maxBulkLength;
+	}
+
+	/**
+	 * Checks the total length of the segments declared by a bulk frame.
+	 *
+	 * @param bulkLength
+	 *            the declared length
+	 * @throws StreamCorruptedException
+	 *             if the length is negative or beyond
+	 *             {@link #getMaxBulkLength()}
+	 */
+	public static void checkBulkLength(int bulkLength) throws StreamCorruptedException {
+		if (bulkLength < 0) {
+			throw new StreamCorruptedException("Invalid bulk length " + bulkLength + ".");
+		}
+		if (bulkLength > maxBulkLength) {
+			throw new StreamCorruptedException("Bulk length " + bulkLength + " exceeds the limit of " + maxBulkLength
+					+ " bytes.");
+		}
+	}
+
+	/**
+	 * Writes the handshake to the given buffer.
+	 * 
+	 * @param writer
+	 *            the buffer
+	 */
+	public static void writeHandshake(FrameWriter writer) {
+		writer.writeInt(magic);
+		writer.writeByte(protocolVersion);
+	}
+
+	/**
+	 * Reads the handshake from the given stream and checks it.
+	 * 
+	 * @param in
+	 *            the input stream of the connection
+	 * @throws EOFException
+	 *             if the connection is closed before the handshake
+	 * @throws StreamCorruptedException
+	 *             if the handshake is not that of this protocol version
+	 * @throws IOException
+	 *             if the handshake cannot be read
+	 */
+	public static void readHandshake(InputStream in) throws IOException {
+		byte[] handshake = new byte[handshakeLength];
+		readFully(in, handshake, 0, handshakeLength, true);
+		FrameReader reader = new FrameReader(handshake, 0, handshakeLength);
+		if (reader.readInt() != magic) {
+			throw new StreamCorruptedException("Not a binary RMI connection.");
+		}
+		int version = reader.readByte() & 0xFF;
+		if (version != protocolVersion) {
+			throw new StreamCorruptedException("Unsupported binary RMI protocol version " + version + ".");
+		}
+	}
+
+	/**
+	 * Encodes a request, without the frame length, into the given buffer.
+	 * 
+	 * @param request
+	 *            the request
+	 * @param writer
+	 *            the buffer
+	 * @throws IOException
+	 *             if an argument cannot be serialized
+	 */
+	public static void encodeRequest(RMIRequest request, FrameWriter writer) throws IOException {
+		if (request.isBatch()) {
+			writer.writeByte(batchRequestType);
+			writer.writeVarLong(request.getCallId());
+			writer.writeByte(request.isIndependent() ? independentFlag : 0);
+			RMIRequest[] calls = request.getCalls();
+			writer.writeVarInt(calls.length);
+			for (RMIRequest call : calls) {
+				encodeCall(call, writer);
+			}
+		} else if (request.isStreamRequest()) {
+			writer.writeByte(streamRequestType);
+			writer.writeVarLong(request.getCallId());
+			writer.writeVarLong(request.getStreamId());
+			writer.writeVarInt(request.getCredit());
+		} else {
+			encodeCall(request, writer);
+		}
+	}
+
+	/**
+	 * Decodes a request from a frame payload.
+	 * 
+	 * @param reader
+	 *            the reader over the payload
+	 * @return the request; a compact request has no interface name, method name
+	 *         or argument type names. Buffers the reader took from a pool for
+	 *         bulk arguments are leased to the request.
+	 * @throws IOException
+	 *             if the payload is not a well-formed request
+	 * @throws ClassNotFoundException
+	 *             if the class of a serialized argument cannot be loaded
+	 */
+	public static RMIRequest decodeRequest(FrameReader reader) throws IOException, ClassNotFoundException {
+		RMIRequest request;
+		byte type = reader.readByte();
+		if (type == requestType) {
+			request = decodeCall(reader);
+		} else if (type == batchRequestType) {
+			long callId = reader.readVarLong();
+			boolean independent = (reader.readByte() & independentFlag) != 0;
+			RMIRequest[] calls = new RMIRequest[readCount(reader)];
+			for (int i = 0; i < calls.length; i++) {
+				expectType(reader, requestType);
+				calls[i] = decodeCall(reader);
+			}
+			request = RMIRequest.batch(callId, calls, independent);
+		} else if (type == streamRequestType) {
+			long callId = reader.readVarLong();
+			long streamId = reader.readVarLong();
+			if (streamId == 0) {
+				throw new StreamCorruptedException("Stream request without a stream.");
+			}
+			request = RMIRequest.stream(callId, streamId, reader.readVarInt());
+		} else {
+			throw new StreamCorruptedException("Unexpected message type " + type + " on connection.");
+		}
+
+		reader.requireSegmentsRead();
+		request.lease(reader.getPool(), reader.getLeases());
+		return request;
+	}
+
+	/**
+	 * Encodes a single call, without the frame length, into the given buffer.
+	 * 
+	 * @param request
+	 *            the request of the call
+	 * @param writer
+	 *            the buffer
+	 * @throws IOException
+	 *             if an argument cannot be serialized
+	 */
+	private static void encodeCall(RMIRequest request, FrameWriter writer) throws IOException {
+		writer.writeByte(requestType);
+		writer.writeVarLong(request.getCallId());
+
+		int methodId = request.getMethodId();
+		writer.writeVarInt(methodId + 1);
+		if (methodId >= 0) {
+			writer.writeLong(request.getInterfaceFingerprint());
+		} else {
+			writer.writeString(request.getClassName());
+			writer.writeString(request.getMethodName());
+			String[] argumentTypes = request.getArgumentTypes();
+			writer.writeVarInt(argumentTypes.length);
+			for (String argumentType : argumentTypes) {
+				writer.writeString(argumentType);
+			}
+		}
+
+		writeValues(request.getArguments(), writer);
+	}
+
+	/**
+	 * Decodes a single call from a payload whose message type byte has been
+	 * read.
+	 * 
+	 * @param reader
+	 *            the reader over the payload
+	 * @return the request of the call
+	 * @throws IOException
+	 *             if the payload is not a well-formed request
+	 * @throws ClassNotFoundException
+	 *             if the class of a serialized argument cannot be loaded
+	 */
+	private static RMIRequest decodeCall(FrameReader reader) throws IOException, ClassNotFoundException {
+		long callId = reader.readVarLong();
+
+		int methodId = reader.readVarInt() - 1;
+		long fingerprint = 0;
+		String className = null;
+		String methodName = null;
+		String[] argumentTypes = null;
+		if (methodId >= 0) {
+			fingerprint = reader.readLong();
+		} else {
+			className = reader.readString();
+			methodName = reader.readString();
+			int count = readCount(reader);
+			argumentTypes = new String[count];
+			for (int i = 0; i < count; i++) {
+				argumentTypes[i] = reader.readString();
+			}
+		}
+
+		Object[] arguments = readValues(reader);
+		return new RMIRequest(callId, className, fingerprint, methodId, methodName, arguments, argumentTypes);
+	}
+
+	/**
+	 * Encodes a response, without the frame length, into the given buffer.
+	 * 
+	 * @param response
+	 *            the response
+	 * @param writer
+	 *            the buffer
+	 * @throws IOException
+	 *             if the return value or exception cannot be serialized
+	 */
+	public static void encodeResponse(RMIResponse response, FrameWriter writer) throws IOException {
+		if (response.isBatch()) {
+			writer.writeByte(batchResponseType);
+			writer.writeVarLong(response.getCallId());
+			RMIResponse[] results = response.getResults();
+			writer.writeVarInt(results.length);
+			for (RMIResponse result : results) {
+				encodeResult(result, writer);
+			}
+		} else {
+			encodeResult(response, writer);
+		}
+	}
+
+	/**
+	 * Decodes a response from a frame payload.
+	 * 
+	 * @param reader
+	 *            the reader over the payload
+	 * @return the response
+	 * @throws IOException
+	 *             if the payload is not a well-formed response
+	 * @throws ClassNotFoundException
+	 *             if the class of the return value or exception cannot be
+	 *             loaded
+	 */
+	public static RMIResponse decodeResponse(FrameReader reader) throws IOException, ClassNotFoundException {
+		RMIResponse response;
+		byte type = reader.readByte();
+		if (type == responseType) {
+			response = decodeResult(reader);
+		} else if (type == batchResponseType) {
+			long callId = reader.readVarLong();
+			RMIResponse[] results = new RMIResponse[readCount(reader)];
+			for (int i = 0; i < results.length; i++) {
+				expectType(reader, responseType);
+				results[i] = decodeResult(reader);
+			}
+			response = RMIResponse.batch(callId, results);
+		} else {
+			throw new StreamCorruptedException("Unexpected message type " + type + " on connection.");
+		}
+
+		reader.requireSegmentsRead();
+		return response;
+	}
+
+	/**
+	 * Encodes the response to a single call, without the frame length, into
+	 * the given buffer.
+	 * 
+	 * @param response
+	 *            the response
+	 * @param writer
+	 *            the buffer
+	 * @throws IOException
+	 *             if the return value or exception cannot be serialized
+	 */
+	private static void encodeResult(RMIResponse response, FrameWriter writer) throws IOException {
+		writer.writeByte(responseType);
+		writer.writeVarLong(response.getCallId());
+
+		if (response.isUnresolved()) {
+			writer.writeByte(unresolvedStatus);
+		} else if (response.isChunk()) {
+			writer.writeByte(chunkStatus);
+			writer.writeVarLong(response.getStreamId());
+			writer.writeByte(response.isLastChunk() ? lastChunkFlag : 0);
+			writeValues(response.getElements(), writer);
+		} else if (response.getException() != null) {
+			writer.writeByte(exceptionStatus);
+			writeValues(new Object[] { response.getException() }, writer);
+		} else {
+			writer.writeByte(valueStatus);
+			writeValues(new Object[] { response.getReturnValue() }, writer);
+		}
+	}
+
+	/**
+	 * Decodes the response to a single call from a payload whose message type
+	 * byte has been read.
+	 * 
+	 * @param reader
+	 *            the reader over the payload
+	 * @return the response
+	 * @throws IOException
+	 *             if the payload is not a well-formed response
+	 * @throws ClassNotFoundException
+	 *             if the class of the return value or exception cannot be
+	 *             loaded
+	 */
+	private static RMIResponse decodeResult(FrameReader reader) throws IOException, ClassNotFoundException {
+		long callId = reader.readVarLong();
+
+		byte status = reader.readByte();
+		switch (status) {
+		case unresolvedStatus:
+			return RMIResponse.unresolved(callId);
+		case exceptionStatus:
+			Object exception = readSingleValue(reader);
+			if (!(exception instanceof Exception)) {
+				throw new StreamCorruptedException("Exception response without an exception.");
+			}
+			return new RMIResponse(callId, (Exception) exception);
+		case valueStatus:
+			return new RMIResponse(callId, readSingleValue(reader));
+		case chunkStatus:
+			long streamId = reader.readVarLong();
+			boolean lastChunk = (reader.readByte() & lastChunkFlag) != 0;
+			return RMIResponse.chunk(callId, streamId, readValues(reader), lastChunk);
+		default:
+			throw new StreamCorruptedException("Unknown response status " + status + ".");
+		}
+	}
+
+	/**
+	 * Starts a new frame in the write buffer, after any frames buffered
+	 * without flushing, placing the handshake in front of the first one.
+	 */
+	private void beginWrite() {
+		if (handshakeToWrite) {
+			writeHandshake(writer);
+			handshakeToWrite = false;
+		}
+		writer.beginFrame();
+	}
+
+	/**
+	 * Completes the frame in the write buffer and, if asked to, if the frame
+	 * has segments or if the buffer has grown too large, writes out the
+	 * buffered frames in one piece.
+	 * 
+	 * @param flush
+	 *            whether the buffered frames are to be flushed
+	 * @throws IOException
+	 *             if the frames cannot be written
+	 */
+	private void endWrite(boolean flush) throws IOException {
+		writer.endFrame();
+		if (flush || writer.hasSegments()) {
+			flush();
+		} else if (writer.length() > maxBufferedLength) {
+			writer.writeTo(out);
+			writer.reset();
+		}
+	}
+
+	/**
+	 * Reads the payload of the next frame, checking the peer's handshake first
+	 * if it has not been read yet. The segments of a bulk frame are left in
+	 * the stream, to be read by the returned reader as the payload is
+	 * decoded.
+	 * 
+	 * @param pool
+	 *            the pool from which buffers for the segments are taken;
+	 *            {@code null} to allocate them
+	 * @return a reader over the frame payload
+	 * @throws EOFException
+	 *             if the connection was closed between frames
+	 * @throws IOException
+	 *             if the frame cannot be read
+	 */
+	private FrameReader readFrame(BufferPool pool) throws IOException {
+		if (handshakeToRead) {
+			readHandshake(in);
+			handshakeToRead = false;
+		}
+
+		readFully(in, readBuffer, 0, 4, true);
+		int length = new FrameReader(readBuffer, 0, 4).readInt();
+		int bulkLength = -1;
+		if ((length & FrameWriter.bulkFrame) != 0) {
+			length &= ~FrameWriter.bulkFrame;
+			readFully(in, readBuffer, 0, 4, false);
+			bulkLength = new FrameReader(readBuffer, 0, 4).readInt();
+			checkBulkLength(bulkLength);
+		}
+		if (length > maxFrameLength) {
+			throw new StreamCorruptedException("Invalid frame length " + length + ".");
+		}
+
+		int read = 0;
+		while (read < length) {
+			if (readBuffer.length == read) {
+				int grown = (int) Math.min(length, Math.max((long) read * 2, readChunk));
+				byte[] larger = new byte[grown];
+				System.arraycopy(readBuffer, 0, larger, 0, read);
+				readBuffer = larger;
+			}
+			int chunk = Math.min(length, readBuffer.length) - read;
+			readFully(in, readBuffer, read, chunk, false);
+			read += chunk;
+		}
+
+		if (bulkLength < 0) {
+			return new FrameReader(readBuffer, 0, length);
+		}
+		return new FrameReader(readBuffer, 0, length, in, bulkLength, pool);
+	}
+
+	/**
+	 * Reads exactly the given number of bytes.
+	 * 
+	 * @param in
+	 *            the input stream
+	 * @param buffer
+	 *            the array into which bytes are read
+	 * @param offset
+	 *            the index of the first byte
+	 * @param length
+	 *            the number of bytes
+	 * @param atBoundary
+	 *            whether the read starts at a message boundary, where the end
+	 *            of the stream is a clean close
+	 * @throws EOFException
+	 *             if the stream ends first
+	 * @throws IOException
+	 *             if the bytes cannot be read
+	 */
+	private static void readFully(InputStream in, byte[] buffer, int offset, int length, boolean atBoundary)
+			throws IOException {
+		int read = 0;
+		while (read < length) {
+			int count = in.read(buffer, offset + read, length - read);
+			if (count < 0) {
+				if (atBoundary && read == 0) {
+					throw new EOFException();
+				}
+				throw new EOFException("Connection closed in the middle of a frame.");
+			}
+			read += count;
+		}
+	}
+
+	/**
+	 * Checks the message type byte at the start of a payload.
+	 * 
+	 * @param reader
+	 *            the reader over the payload
+	 * @param type
+	 *            the expected message type
+	 * @throws StreamCorruptedException
+	 *             if the message is of another type
+	 */
+	private static void expectType(FrameReader reader, byte type) throws StreamCorruptedException {
+		byte actual = reader.readByte();
+		if (actual != type) {
+			throw new StreamCorruptedException("Unexpected message type " + actual + " on connection.");
+		}
+	}
+
+	/**
+	 * Reads an element count, checking that it cannot exceed the payload.
+	 * 
+	 * @param reader
+	 *            the reader over the payload
+	 * @return the count
+	 * @throws StreamCorruptedException
+	 *             if the count is invalid
+	 */
+	private static int readCount(FrameReader reader) throws StreamCorruptedException {
+		int count = reader.readVarInt();
+		// Every element takes at least one byte.
+		if (count < 0 || count > reader.remaining()) {
+			throw new StreamCorruptedException("Invalid element count " + count + ".");
+		}
+
+		return count;
+	}
+
+	/**
+	 * Writes an array of values, tagging each and serializing together those
+	 * without an inline encoding.
+	 * 
+	 * @param values
+	 *            the values
+	 * @param writer
+	 *            the buffer
+	 * @throws IOException
+	 *             if a value cannot be serialized
+	 */
+	private static void writeValues(Object[] values, FrameWriter writer) throws IOException {
+		writer.writeVarInt(values.length);
+
+		ArrayList<Object> serialized = null;
+		for (Object value : values) {
+			if (!writeInline(value, writer)) {
+				if (serialized == null) {
+					serialized = new ArrayList<>();
+				}
+				serialized.add(value);
+				writer.writeByte(serializedTag);
+			}
+		}
+
+		if (serialized != null) {
+			int lengthAt = writer.reserveInt();
+			ObjectOutputStream objectStream = new SerializationCodec.ValueOutputStream(writer.asOutputStream());
+			objectStream.writeObject(serialized.toArray());
+			objectStream.flush();
+			writer.patchInt(lengthAt, writer.length() - lengthAt - 4);
+		}
+	}
+
+	/**
+	 * Writes a value with an inline encoding.
+	 * 
+	 * @param value
+	 *            the value
+	 * @param writer
+	 *            the buffer
+	 * @return {@code true} if the value was written; {@code false} if it has no
+	 *         inline encoding
+	 * @throws IOException
+	 *             if a bulk value would make the segments of the frame too
+	 *             long
+	 */
+	private static boolean writeInline(Object value, FrameWriter writer) throws IOException {
+		if (value == null) {
+			writer.writeByte(nullTag);
+			return true;
+		}
+
+		Class<?> type = value.getClass();
+		if (type == Integer.class) {
+			writer.writeByte(intTag);
+			int i = (Integer) value;
+			writer.writeVarInt((i << 1) ^ (i >> 31));
+		} else if (type == String.class) {
+			writer.writeByte(stringTag);
+			writer.writeString((String) value);
+		} else if (type == Long.class) {
+			writer.writeByte(longTag);
+			long l = (Long) value;
+			writer.writeVarLong((l << 1) ^ (l >> 63));
+		} else if (type == Boolean.class) {
+			writer.writeByte(((Boolean) value) ? trueTag : falseTag);
+		} else if (type == Double.class) {
+			writer.writeByte(doubleTag);
+			writer.writeLong(Double.doubleToRawLongBits((Double) value));
+		} else if (type == Float.class) {
+			writer.writeByte(floatTag);
+			writer.writeInt(Float.floatToRawIntBits((Float) value));
+		} else if (type == byte[].class) {
+			byte[] bytes = (byte[]) value;
+			if (bytes.length >= minSegmentLength) {
+				writeBulkTag(bulkBytesTag, bytes.length, writer);
+				writer.writeSegment(ByteBuffer.wrap(bytes));
+			} else {
+				writer.writeByte(bytesTag);
+				writer.writeVarInt(bytes.length);
+				writer.writeBytes(bytes, 0, bytes.length);
+			}
+		} else if (type == Byte.class) {
+			writer.writeByte(byteTag);
+			writer.writeByte((Byte) value);
+		} else if (type == Short.class) {
+			writer.writeByte(shortTag);
+			short s = (Short) value;
+			writer.writeVarInt((s << 1) ^ (s >> 31));
+		} else if (type == Character.class) {
+			writer.writeByte(charTag);
+			writer.writeVarInt((Character) value);
+		} else if (value instanceof ByteBuffer) {
+			ByteBuffer buffer = (ByteBuffer) value;
+			writeBulkTag(bulkBufferTag, buffer.remaining(), writer);
+			writer.writeSegment(buffer);
+		} else if (type == FileRegion.class) {
+			FileRegion region = (FileRegion) value;
+			writeBulkTag(fileRegionTag, region.length(), writer);
+			writer.writeSegment(region);
+		} else {
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes the tag and length of a bulk value whose bytes are to follow as
+	 * a segment.
+	 * 
+	 * @param tag
+	 *            the tag
+	 * @param length
+	 *            the number of bytes of the value
+	 * @param writer
+	 *            the buffer
+	 * @throws IOException
+	 *             if the value would make the segments of the frame too long
+	 */
+	private static void writeBulkTag(byte tag, int length, FrameWriter writer) throws IOException {
+		if (writer.frameBulkLength() + length > maxFrameLength) {
+			throw new IOException("Bulk values of a frame exceed " + maxFrameLength + " bytes.");
+		}
+
+		writer.writeByte(tag);
+		writer.writeVarInt(length);
+	}
+
+	/**
+	 * Reads an array of values written by {@link #writeValues}.
+	 * 
+	 * @param reader
+	 *            the reader over the payload
+	 * @return the values
+	 * @throws IOException
+	 *             if the values are malformed
+	 * @throws ClassNotFoundException
+	 *             if the class of a serialized value cannot be loaded
+	 */
+	private static Object[] readValues(FrameReader reader) throws IOException, ClassNotFoundException {
+		int count = readCount(reader);
+		Object[] values = new Object[count];
+
+		int[] serializedAt = null;
+		int serializedCount = 0;
+		for (int i = 0; i < count; i++) {
+			byte tag = reader.readByte();
+			switch (tag) {
+			case nullTag:
+				values[i] = null;
+				break;
+			case falseTag:
+				values[i] = Boolean.FALSE;
+				break;
+			case trueTag:
+				values[i] = Boolean.TRUE;
+				break;
+			case byteTag:
+				values[i] = reader.readByte();
+				break;
+			case shortTag:
+				int s = reader.readVarInt();
+				values[i] = (short) ((s >>> 1) ^ -(s & 1));
+				break;
+			case charTag:
+				values[i] = (char) reader.readVarInt();
+				break;
+			case intTag:
+				int n = reader.readVarInt();
+				values[i] = (n >>> 1) ^ -(n & 1);
+				break;
+			case longTag:
+				long l = reader.readVarLong();
+				values[i] = (l >>> 1) ^ -(l & 1);
+				break;
+			case floatTag:
+				values[i] = Float.intBitsToFloat(reader.readInt());
+				break;
+			case doubleTag:
+				values[i] = Double.longBitsToDouble(reader.readLong());
+				break;
+			case stringTag:
+				values[i] = reader.readString();
+				break;
+			case bytesTag:
+				values[i] = reader.readBytes(reader.readLength());
+				break;
+			case bulkBytesTag:
+				values[i] = reader.readSegmentBytes(reader.readVarInt());
+				break;
+			case bulkBufferTag:
+				values[i] = reader.readSegment(reader.readVarInt());
+				break;
+			case fileRegionTag:
+				values[i] = FileRegion.of(reader.readSegment(reader.readVarInt()));
+				break;
+			case serializedTag:
+				if (serializedAt == null) {
+					serializedAt = new int[count];
+				}
+				serializedAt[serializedCount++] = i;
+				break;
+			default:
+				throw new StreamCorruptedException("Unknown value tag " + tag + ".");
+			}
+		}
+
+		if (serializedCount > 0) {
+			int length = reader.readInt();
+			Object serialized;
+			try (ObjectInputStream objectStream = new SerializationCodec.ValueInputStream(reader.asInputStream(length))) {
+				serialized = objectStream.readObject();
+			}
+			if (!(serialized instanceof Object[]) || ((Object[]) serialized).length != serializedCount) {
+				throw new StreamCorruptedException("Serialized values do not match their tags.");
+			}
+			for (int i = 0; i < serializedCount; i++) {
+				values[serializedAt[i]] = ((Object[]) serialized)[i];
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Reads an array of values that must hold exactly one value.
+	 * 
+	 * @param reader
+	 *            the reader over the payload
+	 * @return the value
+	 * @throws IOException
+	 *             if the values are malformed
+	 * @throws ClassNotFoundException
+	 *             if the class of a serialized value cannot be loaded
+	 */
+	private static Object readSingleValue(FrameReader reader) throws IOException, ClassNotFoundException {
+		Object[] values = readValues(reader);
+		if (values.length != 1) {
+			throw new StreamCorruptedException("Expected a single value in response.");
+		}
+
+		return values[0];
+	}
+
+}
@@ -0,0 +1,174 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The pool of direct buffers into which skeletons receive bulk arguments.
+ *
+ * <p>
+ * Buffers come in power-of-two sizes from {@link #minBufferSize} to
+ * {@link #maxPooledSize} bytes, and a request is served by the smallest size
+ * holding it. Larger buffers are allocated for each request and left to the
+ * garbage collector. Released buffers are kept for reuse while the pool
+ * retains no more than {@link #maxRetainedBytes} bytes, so that a burst of
+ * large calls does not pin its memory for good.
+ */
+public final class BufferPool {
+
+	/**
+	 * The size of the smallest pooled buffer.
+	 */
+	public static final int minBufferSize = 4 * 1024;
+	/**
+	 * The size of the largest pooled buffer.
+	 */
+	public static final int maxPooledSize = 16 * 1024 * 1024;
+	/**
+	 * The number of bytes of released buffers the pool keeps at most.
+	 */
+	public static final long maxRetainedBytes = 64L * 1024 * 1024;
+
+	/**
+	 * The base two logarithm of {@link #minBufferSize}.
+	 */
+	private static final int minSizeShift = Integer.numberOfTrailingZeros(minBufferSize);
+	/**
+	 * The pool shared by the skeletons of this JVM.
+	 */
+	private static final BufferPool shared = new BufferPool();
+
+	/**
+	 * The released buffers of each size, smallest first.
+	 */
+	private final List<ConcurrentLinkedQueue<ByteBuffer>> free;
+	/**
+	 * The number of bytes of the released buffers kept.
+	 */
+	private final AtomicLong retainedBytes = new AtomicLong();
+
+	/**
+	 * The constructor to create an empty pool.
+	 */
+	public BufferPool() {
+		int sizes = Integer.numberOfTrailingZeros(maxPooledSize) - minSizeShift + 1;
+		free = new ArrayList<>(sizes);
+		for (int i = 0; i < sizes; i++) {
+			free.add(new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	/**
+	 * Returns the pool shared by the skeletons of this JVM.
+	 *
+	 * @return the shared pool
+	 */
+	public static BufferPool shared() {
+		return shared;
+	}
+
+	/**
+	 * Takes a direct buffer of at least the given size from the pool,
+	 * allocating one if none is free.
+	 *
+	 * @param length
+	 *            the number of bytes needed
+	 * @return the buffer, positioned at zero with its limit at the given
+	 *         length
+	 * @throws IllegalArgumentException
+	 *             if the length is negative
+	 */
+	public ByteBuffer acquire(int length) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Buffer length cannot be negative.");
+		}
+		if (length > maxPooledSize) {
+			return ByteBuffer.allocateDirect(length);
+		}
+
+		int index = indexOf(length);
+		ByteBuffer buffer = free.get(index).poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(minBufferSize << index);
+		} else {
+			retainedBytes.addAndGet(-buffer.capacity());
+		}
+
+		buffer.clear().limit(length);
+		return buffer;
+	}
+
+	/**
+	 * Moves the bytes of a buffer taken with {@link #acquire(int)} into a
+	 * larger one, for a buffer being filled as bytes arrive that turns out to
+	 * need more room, and returns the smaller buffer to the pool.
+	 *
+	 * @param buffer
+	 *            the buffer, holding the bytes before its position
+	 * @param length
+	 *            the number of bytes the larger buffer is to hold
+	 * @return the larger buffer, positioned after the bytes moved, with its
+	 *         limit at the given length
+	 */
+	public ByteBuffer enlarge(ByteBuffer buffer, int length) {
+		ByteBuffer larger = acquire(length);
+		larger.put(buffer.flip());
+		release(buffer);
+		return larger;
+	}
+
+	/**
+	 * Returns a buffer taken with {@link #acquire(int)} to the pool. The
+	 * buffer must no longer be used by its previous holder. Buffers the pool
+	 * did not allocate, and any beyond its retention limit, are dropped.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 */
+	public void release(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		if (!buffer.isDirect() || capacity < minBufferSize || capacity > maxPooledSize
+				|| Integer.bitCount(capacity) != 1) {
+			return;
+		}
+		if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+			retainedBytes.addAndGet(-capacity);
+			return;
+		}
+
+		free.get(indexOf(capacity)).offer(buffer);
+	}
+
+	/**
+	 * Returns the number of bytes of the released buffers kept for reuse.
+	 *
+	 * @return the retained bytes
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes.get();
+	}
+
+	/**
+	 * Returns the index of the smallest buffer size holding the given number
+	 * of bytes.
+	 *
+	 * @param length
+	 *            the number of bytes, at most {@link #maxPooledSize}
+	 * @return the index into {@link #free}
+	 */
+	private static int indexOf(int length) {
+		if (length <= minBufferSize) {
+			return 0;
+		}
+
+		return 32 - Integer.numberOfLeadingZeros(length - 1) - minSizeShift;
+	}
+
+}
@@ -0,0 +1,135 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.io;
+
+import java.io.IOException;
+
+/**
+ * The encoding of {@link RMIRequest} and {@link RMIResponse} messages on one
+ * connection between a stub and a skeleton.
+ *
+ * <p>
+ * A codec is bound to the streams of a single connection and may keep state
+ * across messages. Writes must not be interleaved by concurrent callers; the
+ * owner of the connection serializes them. Reads are expected from a single
+ * thread.
+ *
+ * <p>
+ * A message may also be written without flushing it, so that several
+ * messages reach the connection together in one write once the codec is
+ * flushed. A codec may write buffered messages out before it is flushed, but
+ * never splits a message between two writes of its own accord.
+ *
+ * <p>
+ * A message that cannot be encoded fails with an {@link EncodingException}
+ * if the codec has kept it off the connection, so that the connection can
+ * still carry other calls. Any other {@link IOException} from a write leaves
+ * the connection unusable.
+ */
+public interface Codec {
+
+	/**
+	 * Writes a request and flushes it to the connection.
+	 * 
+	 * @param request
+	 *            the request
+	 * @throws EncodingException
+	 *             if the request cannot be encoded and nothing of it has been
+	 *             written
+	 * @throws IOException
+	 *             if the request cannot be encoded or written
+	 */
+	public void writeRequest(RMIRequest request) throws IOException;
+
+	/**
+	 * Writes a request, flushing it to the connection only if asked to.
+	 * 
+	 * @param request
+	 *            the request
+	 * @param flush
+	 *            whether the request and any messages buffered before it are
+	 *            to be flushed
+	 * @throws EncodingException
+	 *             if the request cannot be encoded and nothing of it has been
+	 *             written
+	 * @throws IOException
+	 *             if the request cannot be encoded or written
+	 */
+	public void writeRequest(RMIRequest request, boolean flush) throws IOException;
+
+	/**
+	 * Reads the next request from the connection.
+	 * 
+	 * @return the request
+	 * @throws java.io.EOFException
+	 *             if the connection was closed between messages
+	 * @throws IOException
+	 *             if the request cannot be read or decoded
+	 * @throws ClassNotFoundException
+	 *             if the class of an argument cannot be loaded
+	 */
+	public RMIRequest readRequest() throws IOException, ClassNotFoundException;
+
+	/**
+	 * Writes a response and flushes it to the connection.
+	 * 
+	 * @param response
+	 *            the response
+	 * @throws EncodingException
+	 *             if the response cannot be encoded and nothing of it has been
+	 *             written
+	 * @throws IOException
+	 *             if the response cannot be encoded or written
+	 */
+	public void writeResponse(RMIResponse response) throws IOException;
+
+	/**
+	 * Writes a response, flushing it to the connection only if asked to.
+	 * 
+	 * @param response
+	 *            the response
+	 * @param flush
+	 *            whether the response and any messages buffered before it are
+	 *            to be flushed
+	 * @throws EncodingException
+	 *             if the response cannot be encoded and nothing of it has been
+	 *             written
+	 * @throws IOException
+	 *             if the response cannot be encoded or written
+	 */
+	public void writeResponse(RMIResponse response, boolean flush) throws IOException;
+
+	/**
+	 * Flushes the messages written without flushing to the connection.
+	 * 
+	 * @throws IOException
+	 *             if the messages cannot be written
+	 */
+	public void flush() throws IOException;
+
+	/**
+	 * Reads the next response from the connection.
+	 * 
+	 * @return the response
+	 * @throws java.io.EOFException
+	 *             if the connection was closed between messages
+	 * @throws IOException
+	 *             if the response cannot be read or decoded
+	 * @throws ClassNotFoundException
+	 *             if the class of the return value or exception cannot be
+	 *             loaded
+	 */
+	public RMIResponse readResponse() throws IOException, ClassNotFoundException;
+
+	/**
+	 * Returns the time the last message read took to decode, not counting the
+	 * time spent waiting for its bytes to arrive.
+	 * 
+	 * @return the time in nanoseconds; negative if no message has been read
+	 *         or if the codec cannot tell decoding from waiting
+	 */
+	public long getLastDecodeTime();
+
+}
@@ -0,0 +1,35 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a codec when a message cannot be encoded, for example because an
+ * argument or a return value is not serializable. Nothing of the message has
+ * reached the connection and the messages buffered before it are kept, so
+ * the codec can still carry the messages of other calls; only the call the
+ * message belongs to fails.
+ *
+ * <p>
+ * A codec whose connection is left in an unknown state by a failed message
+ * throws a plain {@link IOException} instead, and the connection must then be
+ * closed.
+ */
+public class EncodingException extends IOException {
+
+	private static final long serialVersionUID = 6021457830316592741L;
+
+	/**
+	 * The constructor for the failure to encode a message.
+	 *
+	 * @param cause
+	 *            the exception thrown while encoding the message
+	 */
+	public EncodingException(Throwable cause) {
+		super(cause.toString(), cause);
+	}
+
+}
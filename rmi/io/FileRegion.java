@@ -0,0 +1,202 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A region of a file passed to or returned from a remote method without
+ * reading it into memory first.
+ *
+ * <p>
+ * The binary wire format sends the bytes of the region after the frame
+ * carrying the call, with {@link FileChannel#transferTo} where the connection
+ * is a socket channel, so that they go from the page cache to the socket
+ * without being copied through the Java heap. The receiving side gets a region
+ * backed by the bytes received instead of a file; {@link #transferTo} and
+ * {@link #asByteBuffer()} work the same on both.
+ *
+ * <p>
+ * The file channel of a region being sent must stay open until the call has
+ * completed, and a region received as an argument by a skeleton is valid only
+ * until the remote method returns, as its bytes are then reused for later
+ * calls.
+ */
+public final class FileRegion {
+
+	/**
+	 * The channel of the file; {@code null} if the region is backed by
+	 * received bytes.
+	 */
+	private final FileChannel channel;
+	/**
+	 * The position of the region in the file.
+	 */
+	private final long position;
+	/**
+	 * The number of bytes of the region.
+	 */
+	private final int length;
+	/**
+	 * The bytes of the region; {@code null} if the region is backed by a
+	 * file.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The constructor is private. Use {@link #of(FileChannel, long, int)} or
+	 * {@link #of(ByteBuffer)}.
+	 *
+	 * @param channel
+	 *            the channel of the file, or {@code null}
+	 * @param position
+	 *            the position of the region in the file
+	 * @param length
+	 *            the number of bytes of the region
+	 * @param buffer
+	 *            the bytes of the region, or {@code null}
+	 */
+	private FileRegion(FileChannel channel, long position, int length, ByteBuffer buffer) {
+		this.channel = channel;
+		this.position = position;
+		this.length = length;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Returns the region of the given file starting at the given position.
+	 *
+	 * @param channel
+	 *            the channel of the file, open for reading
+	 * @param position
+	 *            the position of the first byte of the region
+	 * @param length
+	 *            the number of bytes of the region
+	 * @return the region
+	 * @throws NullPointerException
+	 *             if the channel is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the position or the length is negative
+	 */
+	public static FileRegion of(FileChannel channel, long position, int length) {
+		if (channel == null) {
+			throw new NullPointerException("Channel cannot be null.");
+		}
+		if (position < 0 || length < 0) {
+			throw new IllegalArgumentException("Position and length cannot be negative.");
+		}
+
+		return new FileRegion(channel, position, length, null);
+	}
+
+	/**
+	 * Returns a region backed by the bytes of the given buffer between its
+	 * position and its limit. The buffer is not copied.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @return the region
+	 * @throws NullPointerException
+	 *             if the buffer is {@code null}
+	 */
+	public static FileRegion of(ByteBuffer buffer) {
+		if (buffer == null) {
+			throw new NullPointerException("Buffer cannot be null.");
+		}
+
+		return new FileRegion(null, 0, buffer.remaining(), buffer.slice());
+	}
+
+	/**
+	 * Returns the channel of the file of the region.
+	 *
+	 * @return the channel; {@code null} if the region is backed by bytes in
+	 *         memory, as received regions are
+	 */
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Returns the position of the region in its file.
+	 *
+	 * @return the position; zero if the region is backed by bytes in memory
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the number of bytes of the region.
+	 *
+	 * @return the length
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Writes the whole region to the given channel, from the file with
+	 * {@link FileChannel#transferTo} or from the bytes in memory.
+	 *
+	 * @param target
+	 *            the channel, in blocking mode
+	 * @return the number of bytes written, the length of the region
+	 * @throws IOException
+	 *             if the region cannot be read or the channel written
+	 */
+	public long transferTo(WritableByteChannel target) throws IOException {
+		if (buffer != null) {
+			ByteBuffer bytes = buffer.duplicate();
+			while (bytes.hasRemaining()) {
+				target.write(bytes);
+			}
+			return length;
+		}
+
+		long transferred = 0;
+		while (transferred < length) {
+			long count = channel.transferTo(position + transferred, length - transferred, target);
+			if (count <= 0 && position + transferred >= channel.size()) {
+				throw new IOException("File ends before the end of the region.");
+			}
+			transferred += count;
+		}
+
+		return transferred;
+	}
+
+	/**
+	 * Returns the bytes of the region as a read-only buffer: the bytes in
+	 * memory, or the file mapped into memory.
+	 *
+	 * @return the buffer, positioned at the first byte of the region
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 */
+	public ByteBuffer asByteBuffer() throws IOException {
+		if (buffer != null) {
+			return buffer.asReadOnlyBuffer();
+		}
+		if (position + length > channel.size()) {
+			throw new IOException("File ends before the end of the region.");
+		}
+
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return (buffer != null) ? "FileRegion[" + length + " bytes in memory]"
+				: "FileRegion[" + length + " bytes at " + position + "]";
+	}
+
+}
@@ -0,0 +1,486 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The reader decoding the payload of a binary frame written by
+ * {@link FrameWriter}.
+ *
+ * <p>
+ * Every read is checked against the end of the frame, so that a malformed
+ * frame is reported as a {@link StreamCorruptedException} instead of reading
+ * past the payload.
+ *
+ * <p>
+ * The segments following the payload of a bulk frame are read either from
+ * the stream the payload was read from, straight into the arrays and buffers
+ * that become the decoded values, or from a buffer already holding them all.
+ * Buffers taken from a {@link BufferPool} for the segments are recorded as
+ * leases, to be released once the decoded values are no longer used.
+ */
+public class FrameReader {
+
+	/**
+	 * The number of bytes of a segment read from the stream at a time, and
+	 * the size of the buffer it is first read into.
+	 */
+	private static final int segmentChunkLength = 64 * 1024;
+
+	/**
+	 * The array holding the payload.
+	 */
+	private final byte[] buffer;
+	/**
+	 * The index of the next byte to be read.
+	 */
+	private int position;
+	/**
+	 * The index just past the end of the payload.
+	 */
+	private final int limit;
+	/**
+	 * The stream from which the segments are read; {@code null} if there are
+	 * none or they are held in {@link #segmentBuffer}.
+	 */
+	private final InputStream segmentStream;
+	/**
+	 * The buffer holding the segments; {@code null} if there are none or they
+	 * are read from {@link #segmentStream}.
+	 */
+	private final ByteBuffer segmentBuffer;
+	/**
+	 * The total length of the segments.
+	 */
+	private final int bulkLength;
+	/**
+	 * The number of bytes of the segments read so far.
+	 */
+	private int bulkRead;
+	/**
+	 * The pool from which buffers for the segments are taken; {@code null} if
+	 * they are allocated for the decoded values alone.
+	 */
+	private final BufferPool pool;
+	/**
+	 * The pooled buffers holding the segments read so far.
+	 */
+	private final List<ByteBuffer> leases = new ArrayList<>();
+
+	/**
+	 * The constructor to create a {@link FrameReader} over a frame payload.
+	 * 
+	 * @param buffer
+	 *            the array holding the payload
+	 * @param offset
+	 *            the index of the first byte of the payload
+	 * @param length
+	 *            the length of the payload
+	 */
+	public FrameReader(byte[] buffer, int offset, int length) {
+		this(buffer, offset, length, null, null, 0, null);
+	}
+
+	/**
+	 * The constructor to create a {@link FrameReader} over the payload of a
+	 * bulk frame whose segments are still to be read from a stream.
+	 * 
+	 * @param buffer
+	 *            the array holding the payload
+	 * @param offset
+	 *            the index of the first byte of the payload
+	 * @param length
+	 *            the length of the payload
+	 * @param segments
+	 *            the stream, positioned at the first segment
+	 * @param bulkLength
+	 *            the total length of the segments
+	 * @param pool
+	 *            the pool from which buffers for the segments are taken;
+	 *            {@code null} to allocate them
+	 */
+	public FrameReader(byte[] buffer, int offset, int length, InputStream segments, int bulkLength,
+			BufferPool pool) {
+		this(buffer, offset, length, segments, null, bulkLength, pool);
+	}
+
+	/**
+	 * The constructor to create a {@link FrameReader} over the payload of a
+	 * bulk frame whose segments are held in a buffer. Decoded buffers are
+	 * slices of it.
+	 * 
+	 * @param buffer
+	 *            the array holding the payload
+	 * @param offset
+	 *            the index of the first byte of the payload
+	 * @param length
+	 *            the length of the payload
+	 * @param segments
+	 *            the buffer holding the segments between its position and
+	 *            its limit; {@code null} if there are none
+	 * @param pool
+	 *            the pool the buffer was taken from, to which it is to be
+	 *            released with the other leases; {@code null} if it was not
+	 */
+	public FrameReader(byte[] buffer, int offset, int length, ByteBuffer segments, BufferPool pool) {
+		this(buffer, offset, length, null, segments, (segments == null) ? 0 : segments.remaining(), pool);
+		if (segments != null && pool != null) {
+			leases.add(segments);
+		}
+	}
+
+	/**
+	 * The constructor to create a {@link FrameReader} with either source of
+	 * segments.
+	 * 
+	 * @param buffer
+	 *            the array holding the payload
+	 * @param offset
+	 *            the index of the first byte of the payload
+	 * @param length
+	 *            the length of the payload
+	 * @param segmentStream
+	 *            the stream holding the segments, or {@code null}
+	 * @param segmentBuffer
+	 *            the buffer holding the segments, or {@code null}
+	 * @param bulkLength
+	 *            the total length of the segments
+	 * @param pool
+	 *            the pool of the buffers of the segments, or {@code null}
+	 */
+	private FrameReader(byte[] buffer, int offset, int length, InputStream segmentStream, ByteBuffer segmentBuffer,
+			int bulkLength, BufferPool pool) {
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+		this.segmentStream = segmentStream;
+		this.segmentBuffer = segmentBuffer;
+		this.bulkLength = bulkLength;
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the number of bytes not yet read.
+	 * 
+	 * @return remaining bytes
+	 */
+	public int remaining() {
+		return limit - position;
+	}
+
+	/**
+	 * Reads a single byte.
+	 * 
+	 * @return the byte
+	 * @throws StreamCorruptedException
+	 *             if the payload is exhausted
+	 */
+	public byte readByte() throws StreamCorruptedException {
+		require(1);
+		return buffer[position++];
+	}
+
+	/**
+	 * Reads a four-byte big-endian integer.
+	 * 
+	 * @return the integer
+	 * @throws StreamCorruptedException
+	 *             if the payload is exhausted
+	 */
+	public int readInt() throws StreamCorruptedException {
+		require(4);
+		int value = ((buffer[position] & 0xFF) << 24) | ((buffer[position + 1] & 0xFF) << 16)
+				| ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+		position += 4;
+		return value;
+	}
+
+	/**
+	 * Reads an eight-byte big-endian integer.
+	 * 
+	 * @return the integer
+	 * @throws StreamCorruptedException
+	 *             if the payload is exhausted
+	 */
+	public long readLong() throws StreamCorruptedException {
+		long high = readInt();
+		return (high << 32) | (readInt() & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Reads an integer written by {@link FrameWriter#writeVarInt(int)}.
+	 * 
+	 * @return the integer
+	 * @throws StreamCorruptedException
+	 *             if the payload is exhausted or the quantity is too long
+	 */
+	public int readVarInt() throws StreamCorruptedException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new StreamCorruptedException("Malformed variable-length integer.");
+	}
+
+	/**
+	 * Reads a long integer written by {@link FrameWriter#writeVarLong(long)}.
+	 * 
+	 * @return the integer
+	 * @throws StreamCorruptedException
+	 *             if the payload is exhausted or the quantity is too long
+	 */
+	public long readVarLong() throws StreamCorruptedException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new StreamCorruptedException("Malformed variable-length integer.");
+	}
+
+	/**
+	 * Reads a string written by {@link FrameWriter#writeString(String)}.
+	 * 
+	 * @return the string
+	 * @throws StreamCorruptedException
+	 *             if the payload is exhausted
+	 */
+	public String readString() throws StreamCorruptedException {
+		int length = readLength();
+		String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+		position += length;
+		return value;
+	}
+
+	/**
+	 * Reads a variable-length byte count and checks that the payload holds
+	 * that many further bytes.
+	 * 
+	 * @return the byte count
+	 * @throws StreamCorruptedException
+	 *             if the payload is exhausted or the count is invalid
+	 */
+	public int readLength() throws StreamCorruptedException {
+		int length = readVarInt();
+		if (length < 0) {
+			throw new StreamCorruptedException("Negative length in frame.");
+		}
+		require(length);
+		return length;
+	}
+
+	/**
+	 * Reads the given number of bytes into a new array.
+	 * 
+	 * @param length
+	 *            the number of bytes
+	 * @return the bytes
+	 * @throws StreamCorruptedException
+	 *             if the payload is exhausted
+	 */
+	public byte[] readBytes(int length) throws StreamCorruptedException {
+		require(length);
+		byte[] bytes = new byte[length];
+		System.arraycopy(buffer, position, bytes, 0, length);
+		position += length;
+		return bytes;
+	}
+
+	/**
+	 * Reads the next segment into a new array.
+	 * 
+	 * @param length
+	 *            the length of the segment
+	 * @return the bytes
+	 * @throws StreamCorruptedException
+	 *             if the frame has no such segment
+	 * @throws IOException
+	 *             if the segment cannot be read from the stream
+	 */
+	public byte[] readSegmentBytes(int length) throws IOException {
+		requireSegment(length);
+		byte[] bytes = new byte[length];
+		if (segmentStream != null) {
+			readFully(bytes, 0, length);
+		} else {
+			segmentBuffer.get(segmentBuffer.position() + bulkRead, bytes, 0, length);
+		}
+		bulkRead += length;
+		return bytes;
+	}
+
+	/**
+	 * Reads the next segment into a direct buffer: a pooled buffer, or a slice
+	 * of the buffer holding the segments. A segment read from the stream is
+	 * read a chunk at a time into a buffer enlarged as the bytes arrive, so
+	 * that a declared length the peer never sends does not cause a large
+	 * allocation.
+	 * 
+	 * @param length
+	 *            the length of the segment
+	 * @return the buffer, positioned at the first byte of the segment with its
+	 *         limit at the last
+	 * @throws StreamCorruptedException
+	 *             if the frame has no such segment
+	 * @throws IOException
+	 *             if the segment cannot be read from the stream
+	 */
+	public ByteBuffer readSegment(int length) throws IOException {
+		requireSegment(length);
+		ByteBuffer bytes;
+		if (segmentStream == null) {
+			bytes = segmentBuffer.slice(segmentBuffer.position() + bulkRead, length);
+		} else {
+			byte[] chunk = new byte[Math.min(length, segmentChunkLength)];
+			bytes = (pool != null) ? pool.acquire(chunk.length) : ByteBuffer.allocateDirect(chunk.length);
+			try {
+				while (bytes.position() < length) {
+					if (!bytes.hasRemaining()) {
+						int larger = (int) Math.min(length, bytes.limit() * 2L);
+						bytes = (pool != null) ? pool.enlarge(bytes, larger)
+								: ByteBuffer.allocateDirect(larger).put(bytes.flip());
+					}
+					int count = Math.min(chunk.length, bytes.remaining());
+					readFully(chunk, 0, count);
+					bytes.put(chunk, 0, count);
+				}
+			} catch (IOException e) {
+				if (pool != null) {
+					pool.release(bytes);
+				}
+				throw e;
+			}
+			if (pool != null) {
+				leases.add(bytes);
+			}
+			bytes.flip();
+		}
+		bulkRead += length;
+		return bytes;
+	}
+
+	/**
+	 * Checks that every segment of the frame has been read.
+	 * 
+	 * @throws StreamCorruptedException
+	 *             if some have not
+	 */
+	public void requireSegmentsRead() throws StreamCorruptedException {
+		if (bulkRead != bulkLength) {
+			throw new StreamCorruptedException("Bulk values do not match the frame.");
+		}
+	}
+
+	/**
+	 * Returns the pool from which buffers for the segments were taken.
+	 * 
+	 * @return the pool; {@code null} if none was
+	 */
+	public BufferPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Returns the pooled buffers holding the segments read so far.
+	 * 
+	 * @return the leased buffers
+	 */
+	public List<ByteBuffer> getLeases() {
+		return leases;
+	}
+
+	/**
+	 * Returns a stream over the given number of bytes of the payload, which
+	 * are then skipped by this reader.
+	 * 
+	 * @param length
+	 *            the number of bytes
+	 * @return the input stream
+	 * @throws StreamCorruptedException
+	 *             if the payload is exhausted
+	 */
+	public InputStream asInputStream(int length) throws StreamCorruptedException {
+		require(length);
+		InputStream stream = new ByteArrayInputStream(buffer, position, length);
+		position += length;
+		return stream;
+	}
+
+	/**
+	 * Checks that the payload holds the given number of further bytes.
+	 * 
+	 * @param length
+	 *            the number of bytes about to be read
+	 * @throws StreamCorruptedException
+	 *             if it does not
+	 */
+	private void require(int length) throws StreamCorruptedException {
+		if (length < 0 || length > limit - position) {
+			throw new StreamCorruptedException("Truncated frame.");
+		}
+	}
+
+	/**
+	 * Checks that the frame has a further segment of the given length.
+	 * 
+	 * @param length
+	 *            the length of the segment about to be read
+	 * @throws StreamCorruptedException
+	 *             if it does not
+	 */
+	private void requireSegment(int length) throws StreamCorruptedException {
+		if (segmentStream == null && segmentBuffer == null) {
+			throw new StreamCorruptedException("Bulk value in a frame without segments.");
+		}
+		if (length < 0 || length > bulkLength - bulkRead) {
+			throw new StreamCorruptedException("Truncated bulk value.");
+		}
+	}
+
+	/**
+	 * Reads exactly the given number of bytes of the segments from the
+	 * stream.
+	 * 
+	 * @param bytes
+	 *            the array into which bytes are read
+	 * @param offset
+	 *            the index of the first byte
+	 * @param length
+	 *            the number of bytes
+	 * @throws EOFException
+	 *             if the stream ends first
+	 * @throws IOException
+	 *             if the bytes cannot be read
+	 */
+	private void readFully(byte[] bytes, int offset, int length) throws IOException {
+		int read = 0;
+		while (read < length) {
+			int count = segmentStream.read(bytes, offset + read, length - read);
+			if (count < 0) {
+				throw new EOFException("Connection closed in the middle of a frame.");
+			}
+			read += count;
+		}
+	}
+
+}
@@ -0,0 +1,537 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * The growable buffer into which binary frames are encoded.
+ *
+ * <p>
+ * A frame starts with its length as a four-byte big-endian integer, which does
+ * not count the length field itself. {@link #beginFrame()} reserves the length
+ * field and {@link #endFrame()} fills it in once the payload is complete. The
+ * buffer is reused from frame to frame, so encoding a frame allocates only
+ * when a frame is larger than any before it.
+ *
+ * <p>
+ * Bulk values are not copied into the buffer but recorded as segments with
+ * {@link #writeSegment(ByteBuffer)} and {@link #writeSegment(FileRegion)}. A
+ * frame with segments starts with its payload length marked with
+ * {@link #bulkFrame}, followed by the total length of its segments as a
+ * four-byte big-endian integer; the segments follow the payload, in the order
+ * in which they were written. {@link #writeTo(OutputStream)} writes them from
+ * where they are, with gathering writes where the stream is a channel.
+ */
+public class FrameWriter {
+
+	/**
+	 * The bit set in the length field of a frame followed by segments.
+	 */
+	public static final int bulkFrame = 0x80000000;
+
+	/**
+	 * The size of the array through which segments in direct buffers are
+	 * copied to a stream that is not a channel.
+	 */
+	private static final int copyChunk = 64 * 1024;
+
+	/**
+	 * The encoded bytes.
+	 */
+	private byte[] buffer;
+	/**
+	 * The number of bytes encoded so far.
+	 */
+	private int position;
+	/**
+	 * The position of the length field of the frame being encoded.
+	 */
+	private int frameStart;
+	/**
+	 * The segments written so far, in order.
+	 */
+	private final ArrayList<Segment> segments = new ArrayList<>();
+	/**
+	 * The index of the first segment of the frame being encoded.
+	 */
+	private int frameSegments;
+	/**
+	 * The total length of the segments of the frame being encoded.
+	 */
+	private long frameBulkLength;
+
+	/**
+	 * The constructor to create an empty {@link FrameWriter} instance.
+	 */
+	public FrameWriter() {
+		this.buffer = new byte[256];
+		this.position = 0;
+	}
+
+	/**
+	 * Discards everything encoded so far.
+	 */
+	public void reset() {
+		position = 0;
+		segments.clear();
+	}
+
+	/**
+	 * Discards everything encoded after the given number of bytes.
+	 * 
+	 * @param length
+	 *            the number of bytes to keep, at most the encoded length
+	 */
+	public void truncate(int length) {
+		position = length;
+		while (!segments.isEmpty()) {
+			int at = segments.get(segments.size() - 1).at;
+			if (at >= 0 && at <= length) {
+				break;
+			}
+			segments.remove(segments.size() - 1);
+		}
+	}
+
+	/**
+	 * Starts a frame after whatever has been encoded so far by reserving its
+	 * length field.
+	 */
+	public void beginFrame() {
+		frameStart = position;
+		frameSegments = segments.size();
+		frameBulkLength = 0;
+		writeInt(0);
+	}
+
+	/**
+	 * Completes the frame started by the last call to {@link #beginFrame()} by
+	 * filling in its length field, and the length of its segments if it has
+	 * any.
+	 */
+	public void endFrame() {
+		if (segments.size() == frameSegments) {
+			patchInt(frameStart, position - frameStart - 4);
+			return;
+		}
+
+		// The payload moves up to make room for the length of the segments,
+		// which is known only now; it is small, as the bulk values are not
+		// in it.
+		ensureCapacity(4);
+		System.arraycopy(buffer, frameStart + 4, buffer, frameStart + 8, position - frameStart - 4);
+		position += 4;
+		patchInt(frameStart, (position - frameStart - 8) | bulkFrame);
+		patchInt(frameStart + 4, (int) frameBulkLength);
+		for (int i = frameSegments; i < segments.size(); i++) {
+			segments.get(i).at = position;
+		}
+	}
+
+	/**
+	 * Returns the array holding the encoded bytes, starting at index zero.
+	 * 
+	 * @return the buffer array
+	 */
+	public byte[] buffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns the number of bytes encoded so far, not counting the segments.
+	 * 
+	 * @return the encoded length
+	 */
+	public int length() {
+		return position;
+	}
+
+	/**
+	 * Returns whether any segments have been written since the buffer was
+	 * last reset.
+	 * 
+	 * @return {@code true} if there are segments
+	 */
+	public boolean hasSegments() {
+		return !segments.isEmpty();
+	}
+
+	/**
+	 * Returns the total length of the segments written since the buffer was
+	 * last reset.
+	 * 
+	 * @return the length of the segments
+	 */
+	public long bulkLength() {
+		long length = 0;
+		for (Segment segment : segments) {
+			length += segment.length;
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the total length of the segments of the frame being encoded.
+	 * 
+	 * @return the length of the segments of the frame
+	 */
+	public long frameBulkLength() {
+		return frameBulkLength;
+	}
+
+	/**
+	 * Records the bytes of a buffer between its position and its limit as a
+	 * segment of the frame being encoded. The bytes are not copied, so they
+	 * must not change until the frame has been written; the position of the
+	 * buffer is not changed.
+	 * 
+	 * @param bytes
+	 *            the buffer
+	 */
+	public void writeSegment(ByteBuffer bytes) {
+		addSegment(bytes.duplicate(), bytes.remaining());
+	}
+
+	/**
+	 * Records a file region as a segment of the frame being encoded. The
+	 * region is read only when the frame is written.
+	 * 
+	 * @param region
+	 *            the region
+	 */
+	public void writeSegment(FileRegion region) {
+		addSegment(region, region.length());
+	}
+
+	/**
+	 * Writes the complete frames encoded so far, segments included, to the
+	 * given stream. A stream that is also a {@link GatheringByteChannel} is
+	 * written with gathering writes, and file regions are transferred to it
+	 * directly; any other stream is written piece by piece.
+	 * 
+	 * @param out
+	 *            the stream
+	 * @throws IOException
+	 *             if the stream cannot be written or a file region read
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		if (segments.isEmpty()) {
+			out.write(buffer, 0, position);
+			return;
+		}
+
+		GatheringByteChannel channel = (out instanceof GatheringByteChannel) ? (GatheringByteChannel) out : null;
+		ArrayList<ByteBuffer> pending = new ArrayList<>();
+		int written = 0;
+		for (Segment segment : segments) {
+			pending.add(ByteBuffer.wrap(buffer, written, segment.at - written));
+			written = segment.at;
+			if (segment.data instanceof ByteBuffer) {
+				pending.add(((ByteBuffer) segment.data).duplicate());
+			} else {
+				drain(pending, out, channel);
+				((FileRegion) segment.data).transferTo((channel != null) ? channel : Channels.newChannel(out));
+			}
+		}
+		pending.add(ByteBuffer.wrap(buffer, written, position - written));
+		drain(pending, out, channel);
+	}
+
+	/**
+	 * Returns the complete frames encoded so far, segments included, as
+	 * buffers to be written in order with gathering writes. File regions are
+	 * mapped into memory.
+	 * 
+	 * @return the buffers, sharing their bytes with this writer and the
+	 *         segments
+	 * @throws IOException
+	 *             if a file region cannot be mapped
+	 */
+	public ByteBuffer[] toBuffers() throws IOException {
+		ArrayList<ByteBuffer> buffers = new ArrayList<>(2 * segments.size() + 1);
+		int written = 0;
+		for (Segment segment : segments) {
+			buffers.add(ByteBuffer.wrap(buffer, written, segment.at - written));
+			written = segment.at;
+			buffers.add((segment.data instanceof ByteBuffer) ? ((ByteBuffer) segment.data).duplicate()
+					: ((FileRegion) segment.data).asByteBuffer());
+		}
+		buffers.add(ByteBuffer.wrap(buffer, written, position - written));
+
+		return buffers.toArray(new ByteBuffer[buffers.size()]);
+	}
+
+	/**
+	 * Copies the bytes of the segments written since the buffer was last
+	 * reset into the given buffer, in order.
+	 * 
+	 * @param target
+	 *            the buffer, with room for {@link #bulkLength()} bytes
+	 * @throws IOException
+	 *             if a file region cannot be read
+	 */
+	public void copySegments(ByteBuffer target) throws IOException {
+		for (Segment segment : segments) {
+			target.put((segment.data instanceof ByteBuffer) ? ((ByteBuffer) segment.data).duplicate()
+					: ((FileRegion) segment.data).asByteBuffer());
+		}
+	}
+
+	/**
+	 * Writes a single byte.
+	 * 
+	 * @param value
+	 *            the byte, in the low eight bits
+	 */
+	public void writeByte(int value) {
+		ensureCapacity(1);
+		buffer[position++] = (byte) value;
+	}
+
+	/**
+	 * Writes a four-byte big-endian integer.
+	 * 
+	 * @param value
+	 *            the integer
+	 */
+	public void writeInt(int value) {
+		ensureCapacity(4);
+		buffer[position++] = (byte) (value >>> 24);
+		buffer[position++] = (byte) (value >>> 16);
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+
+	/**
+	 * Writes an eight-byte big-endian integer.
+	 * 
+	 * @param value
+	 *            the integer
+	 */
+	public void writeLong(long value) {
+		writeInt((int) (value >>> 32));
+		writeInt((int) value);
+	}
+
+	/**
+	 * Writes an integer as an unsigned variable-length quantity of seven bits
+	 * per byte, least significant group first.
+	 * 
+	 * @param value
+	 *            the integer, treated as unsigned
+	 */
+	public void writeVarInt(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	/**
+	 * Writes a long integer as an unsigned variable-length quantity of seven
+	 * bits per byte, least significant group first.
+	 * 
+	 * @param value
+	 *            the integer, treated as unsigned
+	 */
+	public void writeVarLong(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	/**
+	 * Writes a string as its variable-length UTF-8 byte count followed by the
+	 * UTF-8 bytes.
+	 * 
+	 * @param value
+	 *            the string
+	 */
+	public void writeString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length);
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes a range of bytes as they are.
+	 * 
+	 * @param bytes
+	 *            the array holding the bytes
+	 * @param offset
+	 *            the index of the first byte
+	 * @param length
+	 *            the number of bytes
+	 */
+	public void writeBytes(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buffer, position, length);
+		position += length;
+	}
+
+	/**
+	 * Reserves room for a four-byte integer to be filled in later with
+	 * {@link #patchInt(int, int)}.
+	 * 
+	 * @return the position of the reserved integer
+	 */
+	public int reserveInt() {
+		int reserved = position;
+		writeInt(0);
+		return reserved;
+	}
+
+	/**
+	 * Overwrites a four-byte integer written earlier.
+	 * 
+	 * @param at
+	 *            the position of the integer
+	 * @param value
+	 *            the new value
+	 */
+	public void patchInt(int at, int value) {
+		buffer[at] = (byte) (value >>> 24);
+		buffer[at + 1] = (byte) (value >>> 16);
+		buffer[at + 2] = (byte) (value >>> 8);
+		buffer[at + 3] = (byte) value;
+	}
+
+	/**
+	 * Returns a stream appending whatever is written to it to this buffer.
+	 * 
+	 * @return the output stream
+	 */
+	public OutputStream asOutputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) {
+				writeByte(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				writeBytes(b, off, len);
+			}
+		};
+	}
+
+	/**
+	 * Records a segment of the frame being encoded.
+	 * 
+	 * @param data
+	 *            the buffer or file region holding the bytes
+	 * @param length
+	 *            the number of bytes
+	 */
+	private void addSegment(Object data, int length) {
+		segments.add(new Segment(data, length));
+		frameBulkLength += length;
+	}
+
+	/**
+	 * Writes out the given buffers in order and clears the list.
+	 * 
+	 * @param pending
+	 *            the buffers
+	 * @param out
+	 *            the stream
+	 * @param channel
+	 *            the stream as a channel; {@code null} if it is not one
+	 * @throws IOException
+	 *             if the stream cannot be written
+	 */
+	private static void drain(ArrayList<ByteBuffer> pending, OutputStream out, GatheringByteChannel channel)
+			throws IOException {
+		if (channel != null) {
+			ByteBuffer[] buffers = pending.toArray(new ByteBuffer[pending.size()]);
+			long remaining = 0;
+			for (ByteBuffer bytes : buffers) {
+				remaining += bytes.remaining();
+			}
+			while (remaining > 0) {
+				remaining -= channel.write(buffers);
+			}
+		} else {
+			byte[] chunk = null;
+			for (ByteBuffer bytes : pending) {
+				if (bytes.hasArray()) {
+					out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+					continue;
+				}
+				if (chunk == null) {
+					chunk = new byte[copyChunk];
+				}
+				while (bytes.hasRemaining()) {
+					int count = Math.min(chunk.length, bytes.remaining());
+					bytes.get(chunk, 0, count);
+					out.write(chunk, 0, count);
+				}
+			}
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Grows the buffer, if necessary, to hold the given number of further
+	 * bytes.
+	 * 
+	 * @param needed
+	 *            the number of bytes about to be written
+	 */
+	private void ensureCapacity(int needed) {
+		if (position + needed > buffer.length) {
+			byte[] grown = new byte[Math.max(buffer.length * 2, position + needed)];
+			System.arraycopy(buffer, 0, grown, 0, position);
+			buffer = grown;
+		}
+	}
+
+	/**
+	 * A bulk value written after the payload of its frame.
+	 */
+	private static final class Segment {
+
+		/**
+		 * The buffer or file region holding the bytes.
+		 */
+		final Object data;
+		/**
+		 * The number of bytes.
+		 */
+		final int length;
+		/**
+		 * The position in the buffer at which the segment is written, just
+		 * past the payload of its frame; {@code -1} until the frame is
+		 * complete.
+		 */
+		int at = -1;
+
+		/**
+		 * The constructor for a segment of the frame being encoded.
+		 * 
+		 * @param data
+		 *            the buffer or file region holding the bytes
+		 * @param length
+		 *            the number of bytes
+		 */
+		Segment(Object data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+}
@@ -5,15 +5,49 @@
 package rmi.io;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * The {@code Serializable} class representing the remote method call sent from
  * stub to the skeleton.
+ *
+ * <p>
+ * A batch request, created by {@link #batch(long, RMIRequest[], boolean)},
+ * names no method itself but carries several calls, which the skeleton
+ * executes before answering them all with a single batch response.
+ *
+ * <p>
+ * A stream request, created by {@link #stream(long, long, int)}, names no
+ * method either. It grants credit for further elements of a stream a remote
+ * method has returned, which the skeleton answers with a chunk of at most that
+ * many elements, or closes the stream when the credit is zero.
+ *
+ * <p>
+ * A request decoded by a skeleton may hold bulk arguments in buffers leased
+ * from a {@link BufferPool}; {@link #release()} returns them once the response
+ * to the request has been written.
  */
 public class RMIRequest implements Serializable {
 
 	private static final long serialVersionUID = -2462856798587765532L;
 
+	/**
+	 * The call identifier used to match the response to this request on a
+	 * connection carrying more than one call.
+	 */
+	private long callId;
+	/**
+	 * The fingerprint of the dispatch table from which the method identifier
+	 * was taken.
+	 */
+	private long interfaceFingerprint;
+	/**
+	 * The identifier of the remote method in the dispatch table of the remote
+	 * interface; {@code -1} if the method is identified only by name and
+	 * argument types.
+	 */
+	private int methodId = -1;
 	/**
 	 * The remote interface class name on which the remote method is called.
 	 */
@@ -31,6 +65,35 @@ public class RMIRequest implements Serializable {
 	 * method.
 	 */
 	private String[] argumentTypes;
+	/**
+	 * The calls carried by a batch request; {@code null} if this request is a
+	 * single call.
+	 */
+	private RMIRequest[] calls;
+	/**
+	 * The boolean status of whether the calls of a batch request are
+	 * independent of one another, so that they may be executed concurrently.
+	 */
+	private boolean independent;
+	/**
+	 * The identifier of the stream whose elements a stream request asks for;
+	 * {@code 0} if this request is a call.
+	 */
+	private long streamId;
+	/**
+	 * The number of further elements of the stream the stub can take; zero to
+	 * close the stream.
+	 */
+	private int credit;
+	/**
+	 * The pool from which the buffers of the bulk arguments were leased;
+	 * {@code null} if there are none.
+	 */
+	private transient BufferPool pool;
+	/**
+	 * The buffers holding the bulk arguments, leased from {@link #pool}.
+	 */
+	private transient List<ByteBuffer> leases;
 
 	/**
 	 * The constructor to create an instance of {@code RMIRequest}.
@@ -47,6 +110,90 @@ public class RMIRequest implements Serializable {
 		this.argumentTypes = ((argumentTypes == null) ? new String[] {} : argumentTypes);
 	}
 
+	/**
+	 * The constructor to create an instance of {@code RMIRequest} tagged with
+	 * the given call identifier.
+	 * 
+	 * @param callId
+	 * @param className
+	 * @param methodName
+	 * @param arguments
+	 * @param argumentTypes
+	 */
+	public RMIRequest(long callId, String className, String methodName, Object[] arguments, String[] argumentTypes) {
+		this(className, methodName, arguments, argumentTypes);
+		this.callId = callId;
+	}
+
+	/**
+	 * The constructor to create an instance of {@code RMIRequest} tagged with
+	 * the given call identifier and carrying the identifier of the method in
+	 * the dispatch table of the remote interface.
+	 * 
+	 * @param callId
+	 * @param className
+	 * @param interfaceFingerprint
+	 * @param methodId
+	 * @param methodName
+	 * @param arguments
+	 * @param argumentTypes
+	 */
+	public RMIRequest(long callId, String className, long interfaceFingerprint, int methodId, String methodName,
+			Object[] arguments, String[] argumentTypes) {
+		this(callId, className, methodName, arguments, argumentTypes);
+		this.interfaceFingerprint = interfaceFingerprint;
+		this.methodId = methodId;
+	}
+
+	/**
+	 * Returns a batch request carrying the given calls. The call identifiers
+	 * of the calls only need to be distinct within the batch.
+	 * 
+	 * @param callId
+	 *            the call identifier of the batch
+	 * @param calls
+	 *            the calls, none of which may be a batch itself
+	 * @param independent
+	 *            whether the calls may be executed concurrently and in any
+	 *            order; otherwise they are executed one at a time, in order
+	 * @return the batch request
+	 */
+	public static RMIRequest batch(long callId, RMIRequest[] calls, boolean independent) {
+		RMIRequest request = new RMIRequest(callId, null, null, null, null);
+		request.calls = calls;
+		request.independent = independent;
+		return request;
+	}
+
+	/**
+	 * Returns a stream request granting credit for further elements of the
+	 * given stream.
+	 * 
+	 * @param callId
+	 *            the call identifier of the request
+	 * @param streamId
+	 *            the identifier of the stream, as given by the first chunk
+	 * @param credit
+	 *            the number of elements the stub can take; zero to close the
+	 *            stream
+	 * @return the stream request
+	 */
+	public static RMIRequest stream(long callId, long streamId, int credit) {
+		RMIRequest request = new RMIRequest(callId, null, null, null, null);
+		request.streamId = streamId;
+		request.credit = credit;
+		return request;
+	}
+
+	/**
+	 * Returns the call identifier.
+	 * 
+	 * @return call identifier; {@code 0} if the request was not tagged
+	 */
+	public long getCallId() {
+		return callId;
+	}
+
 	/**
 	 * Returns the class name.
 	 * 
@@ -56,6 +203,26 @@ public class RMIRequest implements Serializable {
 		return className;
 	}
 
+	/**
+	 * Returns the fingerprint of the dispatch table the method identifier was
+	 * taken from.
+	 * 
+	 * @return dispatch table fingerprint
+	 */
+	public long getInterfaceFingerprint() {
+		return interfaceFingerprint;
+	}
+
+	/**
+	 * Returns the identifier of the method in the dispatch table of the remote
+	 * interface.
+	 * 
+	 * @return method identifier; {@code -1} if not known
+	 */
+	public int getMethodId() {
+		return methodId;
+	}
+
 	/**
 	 * Returns the method name.
 	 * 
@@ -83,4 +250,93 @@ public class RMIRequest implements Serializable {
 		return argumentTypes;
 	}
 
+	/**
+	 * Returns whether this request is a batch of calls.
+	 * 
+	 * @return {@code true} if the request carries calls rather than naming a
+	 *         method
+	 */
+	public boolean isBatch() {
+		return calls != null;
+	}
+
+	/**
+	 * Returns the calls carried by a batch request.
+	 * 
+	 * @return {@code Array} of calls; {@code null} if this request is a single
+	 *         call
+	 */
+	public RMIRequest[] getCalls() {
+		return calls;
+	}
+
+	/**
+	 * Returns whether the calls of a batch request may be executed
+	 * concurrently.
+	 * 
+	 * @return {@code true} if the calls are independent of one another
+	 */
+	public boolean isIndependent() {
+		return independent;
+	}
+
+	/**
+	 * Returns whether this request asks for further elements of a stream.
+	 * 
+	 * @return {@code true} if the request carries credit for a stream rather
+	 *         than naming a method
+	 */
+	public boolean isStreamRequest() {
+		return streamId != 0;
+	}
+
+	/**
+	 * Returns the identifier of the stream a stream request asks for.
+	 * 
+	 * @return stream identifier; {@code 0} if this request is a call
+	 */
+	public long getStreamId() {
+		return streamId;
+	}
+
+	/**
+	 * Returns the number of further elements a stream request asks for.
+	 * 
+	 * @return credit; zero if the stream is to be closed
+	 */
+	public int getCredit() {
+		return credit;
+	}
+
+	/**
+	 * Returns the buffers holding the bulk arguments to their pool. The
+	 * arguments, and any return value sharing their bytes, must no longer be
+	 * used. Releasing a request again, or one without leased buffers, has no
+	 * effect.
+	 */
+	public void release() {
+		List<ByteBuffer> leased = leases;
+		leases = null;
+		if (leased != null) {
+			for (ByteBuffer buffer : leased) {
+				pool.release(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Records the buffers holding the bulk arguments of a decoded request.
+	 * 
+	 * @param pool
+	 *            the pool the buffers were leased from
+	 * @param leases
+	 *            the buffers
+	 */
+	void lease(BufferPool pool, List<ByteBuffer> leases) {
+		if (pool != null && !leases.isEmpty()) {
+			this.pool = pool;
+			this.leases = leases;
+		}
+	}
+
 }
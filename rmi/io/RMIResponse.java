@@ -9,11 +9,24 @@ import java.io.Serializable;
 /**
  * The {@code Serializable} class representing the remote method call response
  * including the return or exception from the skeleton to the stub.
+ *
+ * <p>
+ * A batch response, created by {@link #batch(long, RMIResponse[])}, answers a
+ * batch request with the responses to its calls, in the order of the calls.
+ *
+ * <p>
+ * A chunk, created by {@link #chunk(long, long, Object[], boolean)}, answers a
+ * call of a remote method returning a stream, or a stream request, with the
+ * next elements of the stream instead of a return value.
  */
 public class RMIResponse implements Serializable {
 
 	private static final long serialVersionUID = -8899349477943341489L;
 
+	/**
+	 * The call identifier of the request this response answers.
+	 */
+	private long callId;
 	/**
 	 * The return value of the remote method call.
 	 */
@@ -22,6 +35,31 @@ public class RMIResponse implements Serializable {
 	 * The exception thrown by the remote method call.
 	 */
 	private Exception exception;
+	/**
+	 * The boolean status of whether the skeleton could not resolve the
+	 * requested method from the compact form of the request.
+	 */
+	private boolean unresolved;
+	/**
+	 * The responses to the calls of a batch request; {@code null} if this
+	 * response answers a single call.
+	 */
+	private RMIResponse[] results;
+	/**
+	 * The identifier of the stream a chunk carries elements of; {@code 0} if
+	 * this response is not a chunk.
+	 */
+	private long streamId;
+	/**
+	 * The elements of the stream carried by a chunk; {@code null} if this
+	 * response is not a chunk.
+	 */
+	private Object[] elements;
+	/**
+	 * The boolean status of whether a chunk carries the last elements of its
+	 * stream.
+	 */
+	private boolean lastChunk;
 
 	/**
 	 * The constructor to create an instance of {@code RMIResponse}.
@@ -45,6 +83,95 @@ public class RMIResponse implements Serializable {
 		this.exception = exception;
 	}
 
+	/**
+	 * The constructor to create an instance of {@code RMIResponse} answering
+	 * the request with the given call identifier.
+	 * 
+	 * @param callId
+	 *            the call identifier of the request
+	 * @param returnValue
+	 *            the return value of the remote method
+	 */
+	public RMIResponse(long callId, Object returnValue) {
+		this(returnValue);
+		this.callId = callId;
+	}
+
+	/**
+	 * The constructor to create an instance of {@code RMIResponse} answering
+	 * the request with the given call identifier.
+	 * 
+	 * @param callId
+	 *            the call identifier of the request
+	 * @param exception
+	 *            the exception thrown by remote method
+	 */
+	public RMIResponse(long callId, Exception exception) {
+		this(exception);
+		this.callId = callId;
+	}
+
+	/**
+	 * Returns a response telling the stub that the compact form of its request
+	 * could not be resolved, and that the call should be retried with the
+	 * method named in full.
+	 * 
+	 * @param callId
+	 *            the call identifier of the request
+	 * @return the response
+	 */
+	public static RMIResponse unresolved(long callId) {
+		RMIResponse response = new RMIResponse(callId, (Object) null);
+		response.unresolved = true;
+		return response;
+	}
+
+	/**
+	 * Returns a batch response carrying the responses to the calls of a batch
+	 * request.
+	 * 
+	 * @param callId
+	 *            the call identifier of the batch request
+	 * @param results
+	 *            the responses, in the order of the calls they answer
+	 * @return the batch response
+	 */
+	public static RMIResponse batch(long callId, RMIResponse[] results) {
+		RMIResponse response = new RMIResponse(callId, (Object) null);
+		response.results = results;
+		return response;
+	}
+
+	/**
+	 * Returns a chunk carrying the next elements of a stream.
+	 * 
+	 * @param callId
+	 *            the call identifier of the request
+	 * @param streamId
+	 *            the identifier of the stream
+	 * @param elements
+	 *            the elements, possibly none
+	 * @param lastChunk
+	 *            whether the stream ends after these elements
+	 * @return the chunk
+	 */
+	public static RMIResponse chunk(long callId, long streamId, Object[] elements, boolean lastChunk) {
+		RMIResponse response = new RMIResponse(callId, (Object) null);
+		response.streamId = streamId;
+		response.elements = elements;
+		response.lastChunk = lastChunk;
+		return response;
+	}
+
+	/**
+	 * Returns the call identifier of the request this response answers.
+	 * 
+	 * @return call identifier
+	 */
+	public long getCallId() {
+		return callId;
+	}
+
 	/**
 	 * Returns the return value object of the remote method.
 	 * 
@@ -63,4 +190,72 @@ public class RMIResponse implements Serializable {
 		return exception;
 	}
 
+	/**
+	 * Returns whether the skeleton could not resolve the compact form of the
+	 * request.
+	 * 
+	 * @return {@code true} if the call should be retried with the method named
+	 *         in full
+	 */
+	public boolean isUnresolved() {
+		return unresolved;
+	}
+
+	/**
+	 * Returns whether this response answers a batch request.
+	 * 
+	 * @return {@code true} if the response carries the responses to the calls
+	 *         of a batch
+	 */
+	public boolean isBatch() {
+		return results != null;
+	}
+
+	/**
+	 * Returns the responses to the calls of a batch request.
+	 * 
+	 * @return {@code Array} of responses, in the order of the calls;
+	 *         {@code null} if this response answers a single call
+	 */
+	public RMIResponse[] getResults() {
+		return results;
+	}
+
+	/**
+	 * Returns whether this response carries elements of a stream.
+	 * 
+	 * @return {@code true} if the response is a chunk
+	 */
+	public boolean isChunk() {
+		return elements != null;
+	}
+
+	/**
+	 * Returns the identifier of the stream a chunk carries elements of.
+	 * 
+	 * @return stream identifier; {@code 0} if this response is not a chunk
+	 */
+	public long getStreamId() {
+		return streamId;
+	}
+
+	/**
+	 * Returns the elements of the stream carried by a chunk.
+	 * 
+	 * @return {@code Array} of elements, in stream order; {@code null} if this
+	 *         response is not a chunk
+	 */
+	public Object[] getElements() {
+		return elements;
+	}
+
+	/**
+	 * Returns whether a chunk carries the last elements of its stream.
+	 * 
+	 * @return {@code true} if the stream has ended
+	 */
+	public boolean isLastChunk() {
+		return lastChunk;
+	}
+
 }
@@ -0,0 +1,293 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.io;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * The codec writing each message as a Java-serialized object on a single
+ * object stream per direction.
+ *
+ * <p>
+ * The output stream is reset before every message after the first, rather than
+ * after every message, so that a peer reading a single message finds no
+ * trailing data on the connection.
+ *
+ * <p>
+ * Messages are decoded as their bytes are read, so the time a message took to
+ * decode is known only if its bytes had started to arrive before it was read,
+ * and then includes reading the rest of them.
+ *
+ * <p>
+ * {@code ByteBuffer} and {@link FileRegion} values are not serializable
+ * themselves; they are written as copies of their bytes and read back as heap
+ * buffers and regions backed by them.
+ */
+public class SerializationCodec implements Codec {
+
+	/**
+	 * The stream on which messages are written.
+	 */
+	private final ObjectOutputStream outStream;
+	/**
+	 * The stream from which messages are read.
+	 */
+	private final ObjectInputStream inStream;
+	/**
+	 * The input stream of the connection underneath the object stream.
+	 */
+	private final InputStream in;
+	/**
+	 * The boolean status of whether any message has been written yet.
+	 */
+	private boolean hasWritten;
+	/**
+	 * The time the last message read took to decode in nanoseconds; negative
+	 * if it cannot be told from waiting for the message.
+	 */
+	private long lastDecodeTime = -1;
+
+	/**
+	 * The constructor exchanges the object stream headers on the given
+	 * streams. The header is written and flushed before the peer's header is
+	 * read, so both ends may construct the codec at the same time.
+	 * 
+	 * @param in
+	 *            the input stream of the connection
+	 * @param out
+	 *            the output stream of the connection
+	 * @throws IOException
+	 *             if the headers cannot be exchanged
+	 */
+	public SerializationCodec(InputStream in, OutputStream out) throws IOException {
+		this.outStream = new ValueOutputStream(new BufferedOutputStream(out));
+		this.outStream.flush();
+		this.inStream = new ValueInputStream(in);
+		this.in = in;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getLastDecodeTime() {
+		return lastDecodeTime;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeRequest(RMIRequest request) throws IOException {
+		write(request, true);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeRequest(RMIRequest request, boolean flush) throws IOException {
+		write(request, flush);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RMIRequest readRequest() throws IOException, ClassNotFoundException {
+		return read(RMIRequest.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeResponse(RMIResponse response) throws IOException {
+		write(response, true);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeResponse(RMIResponse response, boolean flush) throws IOException {
+		write(response, flush);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException {
+		outStream.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RMIResponse readResponse() throws IOException, ClassNotFoundException {
+		return read(RMIResponse.class);
+	}
+
+	/**
+	 * Writes a message object and flushes it if asked to.
+	 * 
+	 * @param message
+	 *            the message
+	 * @param flush
+	 *            whether the message is to be flushed
+	 * @throws IOException
+	 *             if the message cannot be written
+	 */
+	private void write(Object message, boolean flush) throws IOException {
+		if (hasWritten) {
+			outStream.reset();
+		}
+		outStream.writeObject(message);
+		if (flush) {
+			outStream.flush();
+		}
+		hasWritten = true;
+	}
+
+	/**
+	 * Reads a message object of the expected type.
+	 * 
+	 * @param type
+	 *            the expected message class
+	 * @param <M>
+	 *            the expected message type
+	 * @return the message
+	 * @throws IOException
+	 *             if the message cannot be read or is of an unexpected type
+	 * @throws ClassNotFoundException
+	 *             if a class in the message cannot be loaded
+	 */
+	private <M> M read(Class<M> type) throws IOException, ClassNotFoundException {
+		boolean arrived = in.available() > 0;
+		long readStart = System.nanoTime();
+		Object message = inStream.readObject();
+		lastDecodeTime = arrived ? System.nanoTime() - readStart : -1;
+		if (!type.isInstance(message)) {
+			throw new StreamCorruptedException("Unexpected message on connection: "
+					+ ((message == null) ? "null" : message.getClass().getName()));
+		}
+
+		return type.cast(message);
+	}
+
+	/**
+	 * The object stream writing {@code ByteBuffer} and {@link FileRegion}
+	 * values as copies of their bytes, wherever they appear in the objects
+	 * written.
+	 */
+	static final class ValueOutputStream extends ObjectOutputStream {
+
+		/**
+		 * The constructor writes the stream header to the given stream.
+		 * 
+		 * @param out
+		 *            the stream
+		 * @throws IOException
+		 *             if the header cannot be written
+		 */
+		ValueOutputStream(OutputStream out) throws IOException {
+			super(out);
+			enableReplaceObject(true);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected Object replaceObject(Object obj) throws IOException {
+			if (obj instanceof ByteBuffer) {
+				return new SerializedBulk((ByteBuffer) obj, false);
+			} else if (obj instanceof FileRegion) {
+				return new SerializedBulk(((FileRegion) obj).asByteBuffer(), true);
+			}
+
+			return obj;
+		}
+	}
+
+	/**
+	 * The object stream reading back the values written by
+	 * {@link ValueOutputStream}.
+	 */
+	static final class ValueInputStream extends ObjectInputStream {
+
+		/**
+		 * The constructor reads the stream header from the given stream.
+		 * 
+		 * @param in
+		 *            the stream
+		 * @throws IOException
+		 *             if the header cannot be read
+		 */
+		ValueInputStream(InputStream in) throws IOException {
+			super(in);
+			enableResolveObject(true);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected Object resolveObject(Object obj) {
+			if (obj instanceof SerializedBulk) {
+				SerializedBulk bulk = (SerializedBulk) obj;
+				ByteBuffer buffer = ByteBuffer.wrap(bulk.bytes);
+				return bulk.isRegion ? FileRegion.of(buffer) : buffer;
+			}
+
+			return obj;
+		}
+	}
+
+	/**
+	 * The serialized form of a {@code ByteBuffer} or {@link FileRegion}
+	 * value.
+	 */
+	private static final class SerializedBulk implements Serializable {
+
+		private static final long serialVersionUID = 4381026657120331495L;
+
+		/**
+		 * The bytes of the value.
+		 */
+		private final byte[] bytes;
+		/**
+		 * The boolean status of whether the value is a file region rather
+		 * than a buffer.
+		 */
+		private final boolean isRegion;
+
+		/**
+		 * The constructor copies the bytes of a buffer between its position
+		 * and its limit, leaving its position unchanged.
+		 * 
+		 * @param buffer
+		 *            the buffer
+		 * @param isRegion
+		 *            whether the value is a file region
+		 */
+		SerializedBulk(ByteBuffer buffer, boolean isRegion) {
+			this.bytes = new byte[buffer.remaining()];
+			buffer.duplicate().get(bytes);
+			this.isRegion = isRegion;
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.io;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The encodings a stub may use for the messages on its connections.
+ *
+ * <p>
+ * Skeletons accept either encoding on any connection, telling them apart by
+ * the first bytes the stub sends: a Java object stream always opens with the
+ * stream magic {@code 0xACED}, which cannot begin the binary handshake.
+ */
+public enum WireFormat {
+
+	/**
+	 * Every message is a Java-serialized {@link RMIRequest} or
+	 * {@link RMIResponse} object.
+	 */
+	SERIALIZATION {
+		@Override
+		public Codec openClient(InputStream in, OutputStream out) throws IOException {
+			return new SerializationCodec(in, out);
+		}
+	},
+	/**
+	 * Every message is a length-prefixed binary frame written by
+	 * {@link BinaryCodec}, with only the values lacking a compact encoding
+	 * falling back to Java serialization.
+	 */
+	BINARY {
+		@Override
+		public Codec openClient(InputStream in, OutputStream out) throws IOException {
+			return new BinaryCodec(new BufferedInputStream(in), out, true, true);
+		}
+	};
+
+	/**
+	 * The first byte of the Java object stream magic.
+	 */
+	private static final int streamMagicHigh = 0xAC;
+	/**
+	 * The second byte of the Java object stream magic.
+	 */
+	private static final int streamMagicLow = 0xED;
+
+	/**
+	 * Opens the stub end of a connection in this format.
+	 * 
+	 * @param in
+	 *            the input stream of the connection
+	 * @param out
+	 *            the output stream of the connection
+	 * @return the codec for the connection
+	 * @throws IOException
+	 *             if the connection cannot be set up
+	 */
+	public abstract Codec openClient(InputStream in, OutputStream out) throws IOException;
+
+	/**
+	 * Opens the skeleton end of a connection in whichever format the stub
+	 * chose, waiting for the first bytes from the stub to tell.
+	 * 
+	 * @param in
+	 *            the input stream of the connection
+	 * @param out
+	 *            the output stream of the connection
+	 * @return the codec for the connection
+	 * @throws EOFException
+	 *             if the stub closes the connection without sending anything
+	 * @throws IOException
+	 *             if the connection cannot be set up
+	 */
+	public static Codec openServer(InputStream in, OutputStream out) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in);
+		buffered.mark(2);
+		int high = buffered.read();
+		int low = buffered.read();
+		buffered.reset();
+		if (high < 0 || low < 0) {
+			throw new EOFException();
+		}
+
+		if (high == streamMagicHigh && low == streamMagicLow) {
+			return new SerializationCodec(buffered, out);
+		}
+
+		BinaryCodec.readHandshake(buffered);
+		return new BinaryCodec(buffered, out, true, false);
+	}
+
+}
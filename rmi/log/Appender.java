@@ -0,0 +1,26 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.log;
+
+/**
+ * A destination of log events. Appenders are called by every thread that
+ * logs, so they must be thread-safe.
+ */
+public interface Appender {
+
+	/**
+	 * Writes an event, or hands it on to be written.
+	 *
+	 * @param event
+	 *            the event
+	 */
+	public void append(LogEvent event);
+
+	/**
+	 * Waits until the events appended so far have been written.
+	 */
+	public void flush();
+
+}
@@ -0,0 +1,232 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An appender handing events to another appender on a thread of its own, so
+ * that logging threads never wait for the console or for each other.
+ *
+ * <p>
+ * Events are kept in a ring buffer of fixed capacity. A logging thread claims
+ * the next slot of the ring with a single compare-and-set and stores its
+ * event there; the appender's thread takes the events out in the order their
+ * slots were claimed and passes them on. When the ring is full the event is
+ * dropped rather than the logging thread made to wait, and counted by
+ * {@link #getDropped()}.
+ *
+ * <p>
+ * Once the appender is closed, its thread hands on what is left in the ring
+ * and then retires the ring by swapping the next sequence number for
+ * {@link #retired}. A logging thread still racing to claim a slot then fails
+ * its compare-and-set and hands its event on itself, so no event is lost to
+ * the shutdown.
+ */
+public class AsyncAppender implements Appender {
+
+	/**
+	 * The time in nanoseconds the appender's thread sleeps for at most when
+	 * the ring is empty.
+	 */
+	private static final long idleWait = TimeUnit.MILLISECONDS.toNanos(10);
+	/**
+	 * The value the next sequence number takes once the ring is retired.
+	 */
+	private static final long retired = -1;
+
+	/**
+	 * The appender the events are handed to.
+	 */
+	private final Appender target;
+	/**
+	 * The slots of the ring; a slot is {@code null} while it is free.
+	 */
+	private final AtomicReferenceArray<LogEvent> slots;
+	/**
+	 * The mask mapping a sequence number to its slot.
+	 */
+	private final int mask;
+	/**
+	 * The sequence number of the next slot to be claimed, or {@link #retired}
+	 * once the appender's thread has stopped.
+	 */
+	private final AtomicLong claimed = new AtomicLong();
+	/**
+	 * The number of events taken out of the ring and handed on so far; every
+	 * sequence number below it is free to be claimed again.
+	 */
+	private volatile long consumed;
+	/**
+	 * The number of events dropped because the ring was full.
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+	/**
+	 * The thread handing the events on.
+	 */
+	private final Thread drainer;
+	/**
+	 * The boolean status of whether the appender's thread is about to sleep.
+	 */
+	private volatile boolean idle;
+	/**
+	 * The boolean status of whether the appender has been closed.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Creates an appender handing events to the given appender, and starts
+	 * its thread.
+	 *
+	 * @param target
+	 *            the appender the events are handed to
+	 * @param capacity
+	 *            the number of events the ring holds, rounded up to a power
+	 *            of two
+	 * @throws IllegalArgumentException
+	 *             if the capacity is not positive
+	 */
+	public AsyncAppender(Appender target, int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Capacity should be between 1 and 2^30.");
+		}
+
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+
+		this.target = target;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+		this.drainer = new Thread(this::drain, "rmi-log");
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+
+	/**
+	 * Puts the event in the ring, or drops it if the ring is full. Once the
+	 * appender has been closed, events are handed on directly.
+	 *
+	 * @param event
+	 *            the event
+	 */
+	@Override
+	public void append(LogEvent event) {
+		if (closed) {
+			target.append(event);
+			return;
+		}
+
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence == retired) {
+				target.append(event);
+				return;
+			}
+			if (sequence - consumed >= slots.length()) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		slots.set((int) (sequence & mask), event);
+		if (idle) {
+			LockSupport.unpark(drainer);
+		}
+	}
+
+	/**
+	 * Waits until the events put in the ring so far have been handed on, and
+	 * flushes the appender they were handed to.
+	 */
+	@Override
+	public void flush() {
+		long target = claimed.get();
+		while (target != retired && consumed < target && drainer.isAlive()) {
+			LockSupport.unpark(drainer);
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+
+		this.target.flush();
+	}
+
+	/**
+	 * Hands on the events left in the ring and stops the appender's thread.
+	 * Events appended afterwards are handed on directly by the logging
+	 * thread.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(drainer);
+		try {
+			drainer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		target.flush();
+	}
+
+	/**
+	 * Returns the number of events dropped because the ring was full.
+	 *
+	 * @return the number of dropped events
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of events the ring holds.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return slots.length();
+	}
+
+	/**
+	 * Takes the events out of the ring in order and hands them on, until the
+	 * appender is closed and the ring is retired empty. A slot is only given
+	 * back once its event has been handed on, so that {@link #flush()} does
+	 * not return while the last event is still on its way.
+	 */
+	private void drain() {
+		long next = 0;
+		while (true) {
+			int slot = (int) (next & mask);
+			LogEvent event = slots.get(slot);
+			if (event == null) {
+				if (closed && claimed.compareAndSet(next, retired)) {
+					return;
+				}
+
+				// Announce the sleep before looking at the slot again, so a
+				// logging thread either sees the announcement or its event is
+				// seen here.
+				idle = true;
+				if (slots.get(slot) == null) {
+					LockSupport.parkNanos(this, idleWait);
+				}
+				idle = false;
+				continue;
+			}
+
+			try {
+				target.append(event);
+			} catch (RuntimeException e) {
+				// A failing appender must not stop the events behind it.
+			}
+			slots.set(slot, null);
+			consumed = ++next;
+		}
+	}
+
+}
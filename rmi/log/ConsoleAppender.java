@@ -0,0 +1,43 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.log;
+
+import java.io.PrintStream;
+
+/**
+ * An appender writing each event to the console as it is appended: errors
+ * and warnings to standard error, other events to standard output. An event
+ * is written as its message, followed by its cause if it has one.
+ *
+ * <p>
+ * Console streams are synchronized, so threads appending to this appender
+ * directly wait for each other; {@link Log} puts it behind an
+ * {@link AsyncAppender} by default.
+ */
+public class ConsoleAppender implements Appender {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void append(LogEvent event) {
+		PrintStream stream = (event.getLevel().compareTo(Level.WARN) <= 0) ? System.err : System.out;
+		if (event.getThrown() == null) {
+			stream.println(event.getMessage());
+		} else {
+			stream.println(event.getMessage() + " Cause: " + event.getThrown());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() {
+		System.out.flush();
+		System.err.flush();
+	}
+
+}
@@ -0,0 +1,39 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.log;
+
+/**
+ * The severity of a log message, from the most to the least severe. A
+ * message is logged only if its level is at least as severe as the level set
+ * through {@link Log#setLevel(Level)}.
+ */
+public enum Level {
+
+	/**
+	 * A failure that stops a skeleton or leaves it unable to serve calls.
+	 */
+	ERROR,
+
+	/**
+	 * A failure of a single connection or call, or a call turned away.
+	 */
+	WARN,
+
+	/**
+	 * A change in the life of a skeleton, such as it stopping.
+	 */
+	INFO,
+
+	/**
+	 * Detail useful when diagnosing the library.
+	 */
+	DEBUG,
+
+	/**
+	 * Detail of every call, too much to log outside of diagnosis.
+	 */
+	TRACE
+
+}
@@ -0,0 +1,153 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.log;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The logging configuration of this JVM: the level below which messages are
+ * dropped, the appender messages are written to, and the loggers of the
+ * library's classes.
+ *
+ * <p>
+ * The level defaults to {@link Level#INFO}, or to the level named by the
+ * <code>rmi.log.level</code> system property. The appender defaults to an
+ * {@link AsyncAppender} in front of a {@link ConsoleAppender}, so that
+ * threads logging never wait on the console; it is flushed when the JVM
+ * shuts down.
+ */
+public final class Log {
+
+	/**
+	 * The default number of events buffered by the default appender.
+	 */
+	private static final int defaultCapacity = 8192;
+
+	/**
+	 * The ordinal of the least severe level logged; read by every logger
+	 * before it does any work.
+	 */
+	static volatile int threshold = initialLevel().ordinal();
+	/**
+	 * The appender messages are written to.
+	 */
+	private static volatile Appender appender = new AsyncAppender(new ConsoleAppender(), defaultCapacity);
+	/**
+	 * The logger of each class, keyed by class name.
+	 */
+	private static final ConcurrentHashMap<String, Logger> loggers = new ConcurrentHashMap<>();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "rmi-log-flush"));
+	}
+
+	/**
+	 * The configuration is not instantiated.
+	 */
+	private Log() {
+	}
+
+	/**
+	 * Returns the logger of the given class.
+	 *
+	 * @param c
+	 *            the class
+	 * @return the logger
+	 */
+	public static Logger getLogger(Class<?> c) {
+		return loggers.computeIfAbsent(c.getName(), Logger::new);
+	}
+
+	/**
+	 * Returns the least severe level logged.
+	 *
+	 * @return the level
+	 */
+	public static Level getLevel() {
+		return Level.values()[threshold];
+	}
+
+	/**
+	 * Sets the least severe level logged. Messages of less severe levels are
+	 * dropped by the logger before they are built.
+	 *
+	 * @param level
+	 *            the level
+	 * @throws NullPointerException
+	 *             if <code>level</code> is <code>null</code>
+	 */
+	public static void setLevel(Level level) {
+		if (level == null) {
+			throw new NullPointerException("Log level should be non-null.");
+		}
+
+		threshold = level.ordinal();
+	}
+
+	/**
+	 * Returns the appender messages are written to.
+	 *
+	 * @return the appender
+	 */
+	public static Appender getAppender() {
+		return appender;
+	}
+
+	/**
+	 * Sets the appender messages are written to. The previous appender is
+	 * flushed, but not closed.
+	 *
+	 * @param newAppender
+	 *            the appender
+	 * @throws NullPointerException
+	 *             if <code>newAppender</code> is <code>null</code>
+	 */
+	public static void setAppender(Appender newAppender) {
+		if (newAppender == null) {
+			throw new NullPointerException("Appender should be non-null.");
+		}
+
+		Appender previous = appender;
+		appender = newAppender;
+		previous.flush();
+	}
+
+	/**
+	 * Waits until the messages logged so far have been written.
+	 */
+	public static void flush() {
+		appender.flush();
+	}
+
+	/**
+	 * Hands an event to the appender.
+	 *
+	 * @param event
+	 *            the event
+	 */
+	static void append(LogEvent event) {
+		appender.append(event);
+	}
+
+	/**
+	 * Returns the level named by the <code>rmi.log.level</code> system
+	 * property, or {@link Level#INFO} if it names none.
+	 *
+	 * @return the initial level
+	 */
+	private static Level initialLevel() {
+		String name = System.getProperty("rmi.log.level");
+		if (name != null) {
+			try {
+				return Level.valueOf(name.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.err.println("Unknown log level " + name + ", using INFO.");
+			}
+		}
+
+		return Level.INFO;
+	}
+
+}
@@ -0,0 +1,115 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.log;
+
+/**
+ * A message logged at some level, together with where and when it was
+ * logged. The message has been built by the time the event is created, so an
+ * event can be written later from another thread.
+ */
+public class LogEvent {
+
+	/**
+	 * The time the event was logged, in milliseconds since the epoch.
+	 */
+	private final long time;
+	/**
+	 * The level of the event.
+	 */
+	private final Level level;
+	/**
+	 * The name of the logger the event was logged through.
+	 */
+	private final String loggerName;
+	/**
+	 * The name of the thread that logged the event.
+	 */
+	private final String threadName;
+	/**
+	 * The message.
+	 */
+	private final String message;
+	/**
+	 * The cause of the event; {@code null} if there is none.
+	 */
+	private final Throwable thrown;
+
+	/**
+	 * Creates an event logged now by the current thread.
+	 *
+	 * @param level
+	 *            the level of the event
+	 * @param loggerName
+	 *            the name of the logger the event is logged through
+	 * @param message
+	 *            the message
+	 * @param thrown
+	 *            the cause of the event; {@code null} if there is none
+	 */
+	public LogEvent(Level level, String loggerName, String message, Throwable thrown) {
+		this.time = System.currentTimeMillis();
+		this.level = level;
+		this.loggerName = loggerName;
+		this.threadName = Thread.currentThread().getName();
+		this.message = message;
+		this.thrown = thrown;
+	}
+
+	/**
+	 * Returns the time the event was logged.
+	 *
+	 * @return the time in milliseconds since the epoch
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns the level of the event.
+	 *
+	 * @return the level
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Returns the name of the logger the event was logged through, which is
+	 * the name of the class that logged it.
+	 *
+	 * @return the logger name
+	 */
+	public String getLoggerName() {
+		return loggerName;
+	}
+
+	/**
+	 * Returns the name of the thread that logged the event.
+	 *
+	 * @return the thread name
+	 */
+	public String getThreadName() {
+		return threadName;
+	}
+
+	/**
+	 * Returns the message.
+	 *
+	 * @return the message
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns the cause of the event.
+	 *
+	 * @return the cause; {@code null} if there is none
+	 */
+	public Throwable getThrown() {
+		return thrown;
+	}
+
+}
@@ -0,0 +1,205 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.log;
+
+import java.util.function.Supplier;
+
+/**
+ * The logger of one class, obtained through {@link Log#getLogger(Class)}.
+ *
+ * <p>
+ * Every logging method first checks the level of the message against the
+ * level set in {@link Log}, and returns at once if the message is not to be
+ * logged. Messages that are costly to build should be passed as a
+ * {@link Supplier}, which is only called once the message is known to be
+ * logged; on paths taken for every call, the check can also be made
+ * explicitly with {@link #isEnabled(Level)} before building anything.
+ */
+public final class Logger {
+
+	/**
+	 * The name of the logger, which is the name of its class.
+	 */
+	private final String name;
+
+	/**
+	 * Creates the logger of the given name.
+	 *
+	 * @param name
+	 *            the name
+	 */
+	Logger(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the name of the logger.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns whether messages of the given level are logged.
+	 *
+	 * @param level
+	 *            the level
+	 * @return {@code true} if they are logged; {@code false} otherwise
+	 */
+	public boolean isEnabled(Level level) {
+		return level.ordinal() <= Log.threshold;
+	}
+
+	/**
+	 * Logs a message at the given level.
+	 *
+	 * @param level
+	 *            the level
+	 * @param message
+	 *            the message
+	 */
+	public void log(Level level, String message) {
+		if (level.ordinal() <= Log.threshold) {
+			Log.append(new LogEvent(level, name, message, null));
+		}
+	}
+
+	/**
+	 * Logs a message built only if it is logged.
+	 *
+	 * @param level
+	 *            the level
+	 * @param message
+	 *            the supplier of the message
+	 */
+	public void log(Level level, Supplier<String> message) {
+		if (level.ordinal() <= Log.threshold) {
+			Log.append(new LogEvent(level, name, message.get(), null));
+		}
+	}
+
+	/**
+	 * Logs a message built only if it is logged, together with its cause.
+	 *
+	 * @param level
+	 *            the level
+	 * @param message
+	 *            the supplier of the message
+	 * @param thrown
+	 *            the cause
+	 */
+	public void log(Level level, Supplier<String> message, Throwable thrown) {
+		if (level.ordinal() <= Log.threshold) {
+			Log.append(new LogEvent(level, name, message.get(), thrown));
+		}
+	}
+
+	/**
+	 * Logs a message at level {@link Level#ERROR}.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	public void error(String message) {
+		log(Level.ERROR, message);
+	}
+
+	/**
+	 * Logs a message at level {@link Level#ERROR}.
+	 *
+	 * @param message
+	 *            the supplier of the message
+	 */
+	public void error(Supplier<String> message) {
+		log(Level.ERROR, message);
+	}
+
+	/**
+	 * Logs a message at level {@link Level#ERROR}.
+	 *
+	 * @param message
+	 *            the supplier of the message
+	 * @param thrown
+	 *            the cause; {@code null} if there is none
+	 */
+	public void error(Supplier<String> message, Throwable thrown) {
+		log(Level.ERROR, message, thrown);
+	}
+
+	/**
+	 * Logs a message at level {@link Level#WARN}.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	public void warn(String message) {
+		log(Level.WARN, message);
+	}
+
+	/**
+	 * Logs a message at level {@link Level#WARN}.
+	 *
+	 * @param message
+	 *            the supplier of the message
+	 */
+	public void warn(Supplier<String> message) {
+		log(Level.WARN, message);
+	}
+
+	/**
+	 * Logs a message at level {@link Level#WARN}.
+	 *
+	 * @param message
+	 *            the supplier of the message
+	 * @param thrown
+	 *            the cause; {@code null} if there is none
+	 */
+	public void warn(Supplier<String> message, Throwable thrown) {
+		log(Level.WARN, message, thrown);
+	}
+
+	/**
+	 * Logs a message at level {@link Level#INFO}.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	public void info(String message) {
+		log(Level.INFO, message);
+	}
+
+	/**
+	 * Logs a message at level {@link Level#INFO}.
+	 *
+	 * @param message
+	 *            the supplier of the message
+	 */
+	public void info(Supplier<String> message) {
+		log(Level.INFO, message);
+	}
+
+	/**
+	 * Logs a message at level {@link Level#DEBUG}.
+	 *
+	 * @param message
+	 *            the supplier of the message
+	 */
+	public void debug(Supplier<String> message) {
+		log(Level.DEBUG, message);
+	}
+
+	/**
+	 * Logs a message at level {@link Level#TRACE}.
+	 *
+	 * @param message
+	 *            the supplier of the message
+	 */
+	public void trace(Supplier<String> message) {
+		log(Level.TRACE, message);
+	}
+
+}
@@ -0,0 +1,167 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics stubs record for calls of one remote method: the number of
+ * calls, the number that failed in transport or threw on the server, and the
+ * latency of each phase of a call as seen by the caller.
+ *
+ * <p>
+ * The phases are:
+ * <ul>
+ * <li><em>connect</em> - opening a connection to the skeleton, recorded only
+ * for calls that had to open one;</li>
+ * <li><em>write</em> - encoding the request and writing it to the
+ * connection;</li>
+ * <li><em>server wait</em> - from the request having been written until the
+ * response has arrived, which covers the network round trip and the time the
+ * skeleton took to serve the call;</li>
+ * <li><em>read</em> - decoding the response once it has arrived, recorded
+ * only when the connection can tell decoding from waiting.</li>
+ * </ul>
+ * The total time of each call is recorded as well. Comparing the server wait
+ * with the skeleton's own {@link MethodMetrics} tells the network's share of
+ * a slow call from the server's.
+ */
+public class ClientMethodMetrics {
+
+	/**
+	 * The name of the method: its interface and readable signature.
+	 */
+	private final String name;
+	/**
+	 * The number of calls completed, including failed ones.
+	 */
+	private final AtomicLong calls = new AtomicLong();
+	/**
+	 * The number of calls that failed to reach the skeleton or to get its
+	 * response.
+	 */
+	private final AtomicLong transportErrors = new AtomicLong();
+	/**
+	 * The number of calls answered with an exception thrown on the server.
+	 */
+	private final AtomicLong remoteErrors = new AtomicLong();
+	/**
+	 * The times connections took to open.
+	 */
+	private final LatencyHistogram connect = new LatencyHistogram();
+	/**
+	 * The times requests took to encode and write.
+	 */
+	private final LatencyHistogram write = new LatencyHistogram();
+	/**
+	 * The times from writing the requests until their responses arrived.
+	 */
+	private final LatencyHistogram serverWait = new LatencyHistogram();
+	/**
+	 * The times responses took to decode.
+	 */
+	private final LatencyHistogram read = new LatencyHistogram();
+	/**
+	 * The total times of the calls.
+	 */
+	private final LatencyHistogram total = new LatencyHistogram();
+
+	/**
+	 * Creates the metrics of a remote method.
+	 *
+	 * @param name
+	 *            the name of the method
+	 */
+	ClientMethodMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Counts a call as completed and records the times of its phases. A
+	 * negative time leaves the phase out.
+	 *
+	 * @param connectTime
+	 *            the time the connection took to open in nanoseconds
+	 * @param writeTime
+	 *            the time the request took to encode and write
+	 * @param serverWaitTime
+	 *            the time until the response arrived
+	 * @param readTime
+	 *            the time the response took to decode
+	 * @param totalTime
+	 *            the total time of the call
+	 * @param transportError
+	 *            whether the call failed to reach the skeleton or to get its
+	 *            response
+	 * @param remoteError
+	 *            whether the call was answered with an exception thrown on
+	 *            the server
+	 */
+	public void callFinished(long connectTime, long writeTime, long serverWaitTime, long readTime, long totalTime,
+			boolean transportError, boolean remoteError) {
+		calls.incrementAndGet();
+		if (transportError) {
+			transportErrors.incrementAndGet();
+		}
+		if (remoteError) {
+			remoteErrors.incrementAndGet();
+		}
+		recordPhase(connect, connectTime);
+		recordPhase(write, writeTime);
+		recordPhase(serverWait, serverWaitTime);
+		recordPhase(read, readTime);
+		recordPhase(total, totalTime);
+	}
+
+	/**
+	 * Returns the name of the method, such as
+	 * <code>rmi.server.IPingServer.ping(int)</code>.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Takes a snapshot of the metrics.
+	 *
+	 * @return the snapshot
+	 */
+	public ClientMethodSnapshot snapshot() {
+		return new ClientMethodSnapshot(name, calls.get(), transportErrors.get(), remoteErrors.get(),
+				new LatencySnapshot(connect), new LatencySnapshot(write), new LatencySnapshot(serverWait),
+				new LatencySnapshot(read), new LatencySnapshot(total));
+	}
+
+	/**
+	 * Discards the counts and latencies recorded so far.
+	 */
+	public void reset() {
+		calls.set(0);
+		transportErrors.set(0);
+		remoteErrors.set(0);
+		connect.reset();
+		write.reset();
+		serverWait.reset();
+		read.reset();
+		total.reset();
+	}
+
+	/**
+	 * Records the time of a phase, unless it is left out.
+	 *
+	 * @param histogram
+	 *            the histogram of the phase
+	 * @param time
+	 *            the time in nanoseconds, or a negative value
+	 */
+	private static void recordPhase(LatencyHistogram histogram, long time) {
+		if (time >= 0) {
+			histogram.record(time);
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.metrics;
+
+/**
+ * The client-side metrics of one remote method at one moment, as taken by
+ * {@link ClientMethodMetrics#snapshot()}. A snapshot does not change as
+ * further calls are recorded.
+ */
+public class ClientMethodSnapshot {
+
+	/**
+	 * The name of the method.
+	 */
+	private final String name;
+	/**
+	 * The number of calls completed.
+	 */
+	private final long calls;
+	/**
+	 * The number of calls that failed in transport.
+	 */
+	private final long transportErrors;
+	/**
+	 * The number of calls that threw on the server.
+	 */
+	private final long remoteErrors;
+	/**
+	 * The times connections took to open.
+	 */
+	private final LatencySnapshot connect;
+	/**
+	 * The times requests took to encode and write.
+	 */
+	private final LatencySnapshot write;
+	/**
+	 * The times from writing the requests until their responses arrived.
+	 */
+	private final LatencySnapshot serverWait;
+	/**
+	 * The times responses took to decode.
+	 */
+	private final LatencySnapshot read;
+	/**
+	 * The total times of the calls.
+	 */
+	private final LatencySnapshot total;
+
+	/**
+	 * Creates a snapshot of the client-side metrics of a method.
+	 *
+	 * @param name
+	 *            the name of the method
+	 * @param calls
+	 *            the number of calls completed
+	 * @param transportErrors
+	 *            the number of calls that failed in transport
+	 * @param remoteErrors
+	 *            the number of calls that threw on the server
+	 * @param connect
+	 *            the times connections took to open
+	 * @param write
+	 *            the times requests took to encode and write
+	 * @param serverWait
+	 *            the times until the responses arrived
+	 * @param read
+	 *            the times responses took to decode
+	 * @param total
+	 *            the total times of the calls
+	 */
+	public ClientMethodSnapshot(String name, long calls, long transportErrors, long remoteErrors,
+			LatencySnapshot connect, LatencySnapshot write, LatencySnapshot serverWait, LatencySnapshot read,
+			LatencySnapshot total) {
+		this.name = name;
+		this.calls = calls;
+		this.transportErrors = transportErrors;
+		this.remoteErrors = remoteErrors;
+		this.connect = connect;
+		this.write = write;
+		this.serverWait = serverWait;
+		this.read = read;
+		this.total = total;
+	}
+
+	/**
+	 * Returns the name of the method, such as
+	 * <code>rmi.server.IPingServer.ping(int)</code>.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of calls completed, including failed ones.
+	 *
+	 * @return the number of calls
+	 */
+	public long getCalls() {
+		return calls;
+	}
+
+	/**
+	 * Returns the number of calls that failed to reach the skeleton or to get
+	 * its response.
+	 *
+	 * @return the number of transport failures
+	 */
+	public long getTransportErrors() {
+		return transportErrors;
+	}
+
+	/**
+	 * Returns the number of calls answered with an exception thrown on the
+	 * server.
+	 *
+	 * @return the number of remote exceptions
+	 */
+	public long getRemoteErrors() {
+		return remoteErrors;
+	}
+
+	/**
+	 * Returns the times connections took to open, for the calls that opened
+	 * one.
+	 *
+	 * @return the connect latencies
+	 */
+	public LatencySnapshot getConnect() {
+		return connect;
+	}
+
+	/**
+	 * Returns the times requests took to encode and write.
+	 *
+	 * @return the write latencies
+	 */
+	public LatencySnapshot getWrite() {
+		return write;
+	}
+
+	/**
+	 * Returns the times from writing the requests until their responses
+	 * arrived.
+	 *
+	 * @return the server wait latencies
+	 */
+	public LatencySnapshot getServerWait() {
+		return serverWait;
+	}
+
+	/**
+	 * Returns the times responses took to decode.
+	 *
+	 * @return the read latencies
+	 */
+	public LatencySnapshot getRead() {
+		return read;
+	}
+
+	/**
+	 * Returns the total times of the calls.
+	 *
+	 * @return the call latencies
+	 */
+	public LatencySnapshot getTotal() {
+		return total;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return name + ": calls=" + calls + " transportErrors=" + transportErrors + " remoteErrors=" + remoteErrors
+				+ "\n  connect    " + connect + "\n  write      " + write + "\n  serverWait " + serverWait
+				+ "\n  read       " + read + "\n  total      " + total;
+	}
+
+}
@@ -0,0 +1,111 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.metrics;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registry of the client-side call metrics of this JVM, kept per remote
+ * method for all stubs recording metrics, whichever skeleton they call.
+ *
+ * <p>
+ * The metrics are registered by the name of their method, and found from a
+ * {@code Method} through a {@link ClassValue} of its declaring interface, so
+ * that the registry holds no method or class and an interface is unloaded
+ * together with its class loader. An interface loaded again records its calls
+ * in the metrics of the same names.
+ *
+ * @see rmi.Stub#setMetricsEnabled(boolean)
+ */
+public final class ClientMetrics {
+
+	/**
+	 * The metrics of each remote method called so far, keyed by the name of
+	 * the method.
+	 */
+	private static final ConcurrentHashMap<String, ClientMethodMetrics> byName = new ConcurrentHashMap<>();
+	/**
+	 * The metrics of the methods of each interface called so far, keyed by
+	 * the method.
+	 */
+	private static final ClassValue<ConcurrentHashMap<Method, ClientMethodMetrics>> byClass =
+			new ClassValue<ConcurrentHashMap<Method, ClientMethodMetrics>>() {
+		@Override
+		protected ConcurrentHashMap<Method, ClientMethodMetrics> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	/**
+	 * The registry is not instantiated.
+	 */
+	private ClientMetrics() {
+	}
+
+	/**
+	 * Returns the metrics of a remote method, creating them on its first
+	 * call.
+	 *
+	 * @param method
+	 *            the method
+	 * @return the metrics
+	 */
+	public static ClientMethodMetrics forMethod(Method method) {
+		ConcurrentHashMap<Method, ClientMethodMetrics> byMethod = byClass.get(method.getDeclaringClass());
+		ClientMethodMetrics metrics = byMethod.get(method);
+		if (metrics == null) {
+			metrics = byMethod.computeIfAbsent(method, m -> byName.computeIfAbsent(
+					m.getDeclaringClass().getName() + "." + MethodMetrics.signature(m), ClientMethodMetrics::new));
+		}
+
+		return metrics;
+	}
+
+	/**
+	 * Returns a snapshot of the metrics of the remote method of the given
+	 * name.
+	 *
+	 * @param name
+	 *            the name of the method, such as
+	 *            <code>rmi.server.IPingServer.ping(int)</code>
+	 * @return the snapshot; {@code null} if the method has not been called
+	 *         by a stub recording metrics
+	 */
+	public static ClientMethodSnapshot getMethod(String name) {
+		ClientMethodMetrics metrics = byName.get(name);
+		return (metrics == null) ? null : metrics.snapshot();
+	}
+
+	/**
+	 * Returns snapshots of the metrics of every remote method called so far,
+	 * ordered by name.
+	 *
+	 * @return the method snapshots
+	 */
+	public static List<ClientMethodSnapshot> getMethods() {
+		ArrayList<ClientMethodSnapshot> snapshots = new ArrayList<>();
+		for (ClientMethodMetrics metrics : byName.values()) {
+			snapshots.add(metrics.snapshot());
+		}
+		Collections.sort(snapshots, Comparator.comparing(ClientMethodSnapshot::getName));
+
+		return snapshots;
+	}
+
+	/**
+	 * Discards the counts and latencies recorded so far.
+	 */
+	public static void reset() {
+		for (ClientMethodMetrics metrics : byName.values()) {
+			metrics.reset();
+		}
+	}
+
+}
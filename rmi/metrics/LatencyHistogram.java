@@ -0,0 +1,224 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The histogram of latencies in nanoseconds, recording values in constant
+ * space and time with a bounded relative error, in the manner of an HDR
+ * histogram.
+ *
+ * <p>
+ * Values below {@link #subBucketCount} are counted exactly. Larger values are
+ * counted in buckets whose width doubles with every power of two, each power
+ * of two being split into <code>subBucketCount / 2</code> buckets, so that any
+ * value is reported within <code>2 / subBucketCount</code> of its true value.
+ * Values above {@link #maxTrackableValue} are counted as that value.
+ *
+ * <p>
+ * Values may be recorded from several threads at once. The statistics read
+ * while values are being recorded are not a consistent snapshot, so callers
+ * recording from many threads should rather record into a histogram of their
+ * own and {@link #add(LatencyHistogram) add} them together.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The number of values below which values are counted exactly, and the
+	 * number of buckets each power of two is split into, twice over.
+	 */
+	public static final int subBucketCount = 128;
+	/**
+	 * The largest value told apart from larger ones: one hour.
+	 */
+	public static final long maxTrackableValue = TimeUnit.HOURS.toNanos(1);
+
+	/**
+	 * The number of buckets each power of two above {@link #subBucketCount} is
+	 * split into.
+	 */
+	private static final int halfCount = subBucketCount / 2;
+	/**
+	 * The number of bits of the values counted exactly.
+	 */
+	private static final int subBucketBits = Integer.numberOfTrailingZeros(subBucketCount);
+
+	/**
+	 * The number of values recorded in each bucket.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(indexOf(maxTrackableValue) + 1);
+	/**
+	 * The number of values recorded.
+	 */
+	private final AtomicLong totalCount = new AtomicLong();
+	/**
+	 * The sum of the values recorded.
+	 */
+	private final AtomicLong sum = new AtomicLong();
+	/**
+	 * The smallest value recorded, or {@link Long#MAX_VALUE} if there is none.
+	 */
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	/**
+	 * The largest value recorded.
+	 */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values, which a clock stepping backwards may
+	 * produce, are recorded as zero.
+	 *
+	 * @param value
+	 *            the value in nanoseconds
+	 */
+	public void record(long value) {
+		value = Math.min(Math.max(value, 0), maxTrackableValue);
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		sum.addAndGet(value);
+		for (long current = min.get(); value < current && !min.compareAndSet(current, value);) {
+			current = min.get();
+		}
+		for (long current = max.get(); value > current && !max.compareAndSet(current, value);) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Adds the values recorded by another histogram to this one.
+	 *
+	 * @param other
+	 *            the other histogram
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length(); i++) {
+			long count = other.counts.get(i);
+			if (count != 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		sum.addAndGet(other.sum.get());
+		min.accumulateAndGet(other.min.get(), Math::min);
+		max.accumulateAndGet(other.max.get(), Math::max);
+	}
+
+	/**
+	 * Discards all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 *
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Returns the smallest value recorded.
+	 *
+	 * @return the smallest value in nanoseconds, or zero if there is none
+	 */
+	public long getMin() {
+		long value = min.get();
+		return (value == Long.MAX_VALUE) ? 0 : value;
+	}
+
+	/**
+	 * Returns the largest value recorded.
+	 *
+	 * @return the largest value in nanoseconds, or zero if there is none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the mean of the values recorded.
+	 *
+	 * @return the mean in nanoseconds, or zero if there are no values
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		return (count == 0) ? 0 : (double) sum.get() / count;
+	}
+
+	/**
+	 * Returns the value at or below which the given percentage of the
+	 * recorded values lie. The value is the largest of those counted in the
+	 * same bucket, but never more than the largest value recorded.
+	 *
+	 * @param percentile
+	 *            the percentage, from 0 to 100
+	 * @return the value in nanoseconds, or zero if there are no values
+	 * @throws IllegalArgumentException
+	 *             if the percentage is out of range
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile out of range: " + percentile);
+		}
+		long count = totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueAt(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Returns the bucket in which a value is counted.
+	 *
+	 * @param value
+	 *            the value, from zero to {@link #maxTrackableValue}
+	 * @return the index of the bucket
+	 */
+	static int indexOf(long value) {
+		if (value < subBucketCount) {
+			return (int) value;
+		}
+		int shift = 64 - Long.numberOfLeadingZeros(value) - subBucketBits;
+		int mantissa = (int) (value >>> shift);
+		return subBucketCount + (shift - 1) * halfCount + (mantissa - halfCount);
+	}
+
+	/**
+	 * Returns the largest value counted in a bucket.
+	 *
+	 * @param index
+	 *            the index of the bucket
+	 * @return the largest value
+	 */
+	static long highestValueAt(int index) {
+		if (index < subBucketCount) {
+			return index;
+		}
+		int shift = (index - subBucketCount) / halfCount + 1;
+		long mantissa = (index - subBucketCount) % halfCount + halfCount;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,131 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.metrics;
+
+/**
+ * The summary of the values of a {@link LatencyHistogram} at one moment: their
+ * number, mean and the percentiles commonly watched, in nanoseconds. A
+ * snapshot does not change as further values are recorded.
+ */
+public class LatencySnapshot {
+
+	/**
+	 * The number of values recorded.
+	 */
+	private final long count;
+	/**
+	 * The mean of the values.
+	 */
+	private final double mean;
+	/**
+	 * The median of the values.
+	 */
+	private final long p50;
+	/**
+	 * The 90th percentile of the values.
+	 */
+	private final long p90;
+	/**
+	 * The 99th percentile of the values.
+	 */
+	private final long p99;
+	/**
+	 * The 99.9th percentile of the values.
+	 */
+	private final long p999;
+	/**
+	 * The largest value.
+	 */
+	private final long max;
+
+	/**
+	 * Summarizes the values recorded by a histogram so far.
+	 *
+	 * @param histogram
+	 *            the histogram
+	 */
+	public LatencySnapshot(LatencyHistogram histogram) {
+		this.count = histogram.getCount();
+		this.mean = histogram.getMean();
+		this.p50 = histogram.getValueAtPercentile(50);
+		this.p90 = histogram.getValueAtPercentile(90);
+		this.p99 = histogram.getValueAtPercentile(99);
+		this.p999 = histogram.getValueAtPercentile(99.9);
+		this.max = histogram.getMax();
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 *
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean of the values.
+	 *
+	 * @return the mean in nanoseconds, or zero if there are no values
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Returns the median of the values.
+	 *
+	 * @return the median in nanoseconds, or zero if there are no values
+	 */
+	public long getP50() {
+		return p50;
+	}
+
+	/**
+	 * Returns the 90th percentile of the values.
+	 *
+	 * @return the percentile in nanoseconds, or zero if there are no values
+	 */
+	public long getP90() {
+		return p90;
+	}
+
+	/**
+	 * Returns the 99th percentile of the values.
+	 *
+	 * @return the percentile in nanoseconds, or zero if there are no values
+	 */
+	public long getP99() {
+		return p99;
+	}
+
+	/**
+	 * Returns the 99.9th percentile of the values.
+	 *
+	 * @return the percentile in nanoseconds, or zero if there are no values
+	 */
+	public long getP999() {
+		return p999;
+	}
+
+	/**
+	 * Returns the largest value.
+	 *
+	 * @return the largest value in nanoseconds, or zero if there are no values
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d max=%d", count, mean, p50, p90, p99,
+				p999, max);
+	}
+
+}
@@ -0,0 +1,206 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.metrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics a skeleton records for one remote method: the number of calls
+ * completed and failed, the number executing, and the latency of each phase
+ * a call goes through on the server.
+ *
+ * <p>
+ * The phases are:
+ * <ul>
+ * <li><em>queue wait</em> - from the request having been read until a worker
+ * starts executing it;</li>
+ * <li><em>deserialize</em> - decoding the request once its bytes have
+ * arrived;</li>
+ * <li><em>invoke</em> - executing the method on the server object;</li>
+ * <li><em>serialize</em> - encoding the response and handing it to the
+ * connection.</li>
+ * </ul>
+ * A phase the server engine cannot time for a call, such as decoding a
+ * request whose bytes arrived while it was being read, is left out for that
+ * call, so the phases may have recorded different numbers of values.
+ */
+public class MethodMetrics {
+
+	/**
+	 * The readable signature of the method.
+	 */
+	private final String name;
+	/**
+	 * The number of calls completed, including failed ones.
+	 */
+	private final AtomicLong calls = new AtomicLong();
+	/**
+	 * The number of calls that threw an exception or could not be answered.
+	 */
+	private final AtomicLong errors = new AtomicLong();
+	/**
+	 * The number of calls started and not yet completed.
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger();
+	/**
+	 * The times the calls waited for a worker.
+	 */
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	/**
+	 * The times the requests took to decode.
+	 */
+	private final LatencyHistogram deserialize = new LatencyHistogram();
+	/**
+	 * The times the method took to execute.
+	 */
+	private final LatencyHistogram invoke = new LatencyHistogram();
+	/**
+	 * The times the responses took to encode and hand to the connection.
+	 */
+	private final LatencyHistogram serialize = new LatencyHistogram();
+
+	/**
+	 * Creates the metrics of a remote method.
+	 *
+	 * @param method
+	 *            the method
+	 */
+	public MethodMetrics(Method method) {
+		this.name = signature(method);
+	}
+
+	/**
+	 * Counts a call as started.
+	 */
+	public void callStarted() {
+		inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Counts a started call as completed and records the times of its phases.
+	 * A negative time leaves the phase out.
+	 *
+	 * @param queueWaitTime
+	 *            the time the call waited for a worker in nanoseconds
+	 * @param deserializeTime
+	 *            the time the request took to decode
+	 * @param invokeTime
+	 *            the time the method took to execute
+	 * @param serializeTime
+	 *            the time the response took to encode and hand on
+	 * @param failed
+	 *            whether the call threw an exception or could not be answered
+	 */
+	public void callFinished(long queueWaitTime, long deserializeTime, long invokeTime, long serializeTime,
+			boolean failed) {
+		inFlight.decrementAndGet();
+		calls.incrementAndGet();
+		if (failed) {
+			errors.incrementAndGet();
+		}
+		recordPhase(queueWait, queueWaitTime);
+		recordPhase(deserialize, deserializeTime);
+		recordPhase(invoke, invokeTime);
+		recordPhase(serialize, serializeTime);
+	}
+
+	/**
+	 * Returns the readable signature of the method, such as
+	 * <code>ping(int)</code>.
+	 *
+	 * @return the signature
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of calls completed, including failed ones.
+	 *
+	 * @return the number of calls
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * Returns the number of calls that failed.
+	 *
+	 * @return the number of failed calls
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * Returns the number of calls executing.
+	 *
+	 * @return the number of calls started and not yet completed
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Takes a snapshot of the metrics.
+	 *
+	 * @return the snapshot
+	 */
+	public MethodSnapshot snapshot() {
+		return new MethodSnapshot(name, calls.get(), errors.get(), inFlight.get(), new LatencySnapshot(queueWait),
+				new LatencySnapshot(deserialize), new LatencySnapshot(invoke), new LatencySnapshot(serialize));
+	}
+
+	/**
+	 * Discards the counts and latencies recorded so far. The number of calls
+	 * executing is kept.
+	 */
+	public void reset() {
+		calls.set(0);
+		errors.set(0);
+		queueWait.reset();
+		deserialize.reset();
+		invoke.reset();
+		serialize.reset();
+	}
+
+	/**
+	 * Records the time of a phase, unless it is left out.
+	 *
+	 * @param histogram
+	 *            the histogram of the phase
+	 * @param time
+	 *            the time in nanoseconds, or a negative value
+	 */
+	private static void recordPhase(LatencyHistogram histogram, long time) {
+		if (time >= 0) {
+			histogram.record(time);
+		}
+	}
+
+	/**
+	 * Builds the readable signature of a method from its name and the simple
+	 * names of its parameter types.
+	 *
+	 * @param method
+	 *            the method
+	 * @return the signature
+	 */
+	static String signature(Method method) {
+		StringBuilder builder = new StringBuilder(method.getName()).append('(');
+		Class<?>[] types = method.getParameterTypes();
+		for (int i = 0; i < types.length; i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(types[i].getSimpleName());
+		}
+
+		return builder.append(')').toString();
+	}
+
+}
@@ -0,0 +1,164 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.metrics;
+
+/**
+ * The metrics of one remote method at one moment, as taken by
+ * {@link MethodMetrics#snapshot()}. A snapshot does not change as further
+ * calls are recorded.
+ */
+public class MethodSnapshot {
+
+	/**
+	 * The readable signature of the method.
+	 */
+	private final String name;
+	/**
+	 * The number of calls completed.
+	 */
+	private final long calls;
+	/**
+	 * The number of calls that failed.
+	 */
+	private final long errors;
+	/**
+	 * The number of calls executing.
+	 */
+	private final int inFlight;
+	/**
+	 * The times the calls waited for a worker.
+	 */
+	private final LatencySnapshot queueWait;
+	/**
+	 * The times the requests took to decode.
+	 */
+	private final LatencySnapshot deserialize;
+	/**
+	 * The times the method took to execute.
+	 */
+	private final LatencySnapshot invoke;
+	/**
+	 * The times the responses took to encode and hand to the connection.
+	 */
+	private final LatencySnapshot serialize;
+
+	/**
+	 * Creates a snapshot of the metrics of a method.
+	 *
+	 * @param name
+	 *            the readable signature of the method
+	 * @param calls
+	 *            the number of calls completed
+	 * @param errors
+	 *            the number of calls that failed
+	 * @param inFlight
+	 *            the number of calls executing
+	 * @param queueWait
+	 *            the times the calls waited for a worker
+	 * @param deserialize
+	 *            the times the requests took to decode
+	 * @param invoke
+	 *            the times the method took to execute
+	 * @param serialize
+	 *            the times the responses took to encode and hand on
+	 */
+	public MethodSnapshot(String name, long calls, long errors, int inFlight, LatencySnapshot queueWait,
+			LatencySnapshot deserialize, LatencySnapshot invoke, LatencySnapshot serialize) {
+		this.name = name;
+		this.calls = calls;
+		this.errors = errors;
+		this.inFlight = inFlight;
+		this.queueWait = queueWait;
+		this.deserialize = deserialize;
+		this.invoke = invoke;
+		this.serialize = serialize;
+	}
+
+	/**
+	 * Returns the readable signature of the method, such as
+	 * <code>ping(int)</code>.
+	 *
+	 * @return the signature
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of calls completed, including failed ones.
+	 *
+	 * @return the number of calls
+	 */
+	public long getCalls() {
+		return calls;
+	}
+
+	/**
+	 * Returns the number of calls that threw an exception or could not be
+	 * answered.
+	 *
+	 * @return the number of failed calls
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Returns the number of calls that were executing.
+	 *
+	 * @return the number of calls started and not yet completed
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Returns the times the calls waited for a worker.
+	 *
+	 * @return the queue wait latencies
+	 */
+	public LatencySnapshot getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * Returns the times the requests took to decode.
+	 *
+	 * @return the deserialization latencies
+	 */
+	public LatencySnapshot getDeserialize() {
+		return deserialize;
+	}
+
+	/**
+	 * Returns the times the method took to execute.
+	 *
+	 * @return the invocation latencies
+	 */
+	public LatencySnapshot getInvoke() {
+		return invoke;
+	}
+
+	/**
+	 * Returns the times the responses took to encode and hand to the
+	 * connection.
+	 *
+	 * @return the serialization latencies
+	 */
+	public LatencySnapshot getSerialize() {
+		return serialize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return name + ": calls=" + calls + " errors=" + errors + " inFlight=" + inFlight + "\n  queueWait   "
+				+ queueWait + "\n  deserialize " + deserialize + "\n  invoke      " + invoke + "\n  serialize   "
+				+ serialize;
+	}
+
+}
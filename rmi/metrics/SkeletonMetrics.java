@@ -0,0 +1,181 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The call metrics of a skeleton, kept per remote method. The set of methods
+ * is fixed when the metrics are created, so recording a call involves no
+ * locking. Methods of the same signature declared by several interfaces of the
+ * remote interface's hierarchy share their metrics.
+ */
+public class SkeletonMetrics implements SkeletonMetricsMXBean {
+
+	/**
+	 * The metrics of each remote method, keyed by the method.
+	 */
+	private final Map<Method, MethodMetrics> byMethod = new HashMap<>();
+	/**
+	 * The metrics of each remote method, ordered by signature.
+	 */
+	private final TreeMap<String, MethodMetrics> bySignature = new TreeMap<>();
+	/**
+	 * The name under which the metrics are registered with the platform MBean
+	 * server; {@code null} while they are not registered.
+	 */
+	private ObjectName registeredName;
+
+	/**
+	 * Creates the metrics of the given remote methods.
+	 *
+	 * @param methods
+	 *            the methods
+	 */
+	public SkeletonMetrics(Collection<Method> methods) {
+		for (Method method : methods) {
+			MethodMetrics metrics = bySignature.get(MethodMetrics.signature(method));
+			if (metrics == null) {
+				metrics = new MethodMetrics(method);
+				bySignature.put(metrics.getName(), metrics);
+			}
+			byMethod.put(method, metrics);
+		}
+	}
+
+	/**
+	 * Returns the metrics of a remote method.
+	 *
+	 * @param method
+	 *            the method
+	 * @return the metrics; {@code null} if the method is not a remote method
+	 *         of the skeleton
+	 */
+	public MethodMetrics forMethod(Method method) {
+		return byMethod.get(method);
+	}
+
+	/**
+	 * Returns a snapshot of the metrics of the remote method of the given
+	 * signature.
+	 *
+	 * @param name
+	 *            the readable signature of the method, such as
+	 *            <code>ping(int)</code>
+	 * @return the snapshot; {@code null} if there is no such method
+	 */
+	public MethodSnapshot getMethod(String name) {
+		MethodMetrics metrics = bySignature.get(name);
+		return (metrics == null) ? null : metrics.snapshot();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<MethodSnapshot> getMethods() {
+		ArrayList<MethodSnapshot> snapshots = new ArrayList<>(bySignature.size());
+		for (MethodMetrics metrics : bySignature.values()) {
+			snapshots.add(metrics.snapshot());
+		}
+
+		return snapshots;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getCalls() {
+		long calls = 0;
+		for (MethodMetrics metrics : bySignature.values()) {
+			calls += metrics.getCalls();
+		}
+
+		return calls;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getErrors() {
+		long errors = 0;
+		for (MethodMetrics metrics : bySignature.values()) {
+			errors += metrics.getErrors();
+		}
+
+		return errors;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getInFlight() {
+		int inFlight = 0;
+		for (MethodMetrics metrics : bySignature.values()) {
+			inFlight += metrics.getInFlight();
+		}
+
+		return inFlight;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void reset() {
+		for (MethodMetrics metrics : bySignature.values()) {
+			metrics.reset();
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, replacing any
+	 * earlier registration of these metrics.
+	 *
+	 * @param name
+	 *            the object name to register under
+	 * @throws JMException
+	 *             if the name is malformed or already taken
+	 */
+	public synchronized void register(String name) throws JMException {
+		unregister();
+		ObjectName objectName = new ObjectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		registeredName = objectName;
+	}
+
+	/**
+	 * Removes the registration of the metrics from the platform MBean server,
+	 * if they are registered.
+	 */
+	public synchronized void unregister() {
+		if (registeredName == null) {
+			return;
+		}
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(registeredName);
+		} catch (JMException e) {
+			// The registration is gone already.
+		}
+		registeredName = null;
+	}
+
+}
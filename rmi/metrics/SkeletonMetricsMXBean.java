@@ -0,0 +1,52 @@
+/**
+ * @author Dhruv Sharma (dhsharma@cs.ucsd.edu)
+ */
+
+package rmi.metrics;
+
+import java.util.List;
+
+/**
+ * The management interface through which the call metrics of a skeleton are
+ * exposed over JMX. A running skeleton registers its metrics with the
+ * platform MBean server under the name
+ * <code>rmi:type=Skeleton,interface=</code><em>interface</em><code>,port=</code><em>port</em>.
+ * Latencies are given in nanoseconds.
+ */
+public interface SkeletonMetricsMXBean {
+
+	/**
+	 * Returns the number of calls completed by all methods.
+	 *
+	 * @return the number of calls
+	 */
+	public long getCalls();
+
+	/**
+	 * Returns the number of calls of all methods that failed.
+	 *
+	 * @return the number of failed calls
+	 */
+	public long getErrors();
+
+	/**
+	 * Returns the number of calls of all methods executing.
+	 *
+	 * @return the number of calls in flight
+	 */
+	public int getInFlight();
+
+	/**
+	 * Returns snapshots of the metrics of every remote method, ordered by
+	 * signature.
+	 *
+	 * @return the method snapshots
+	 */
+	public List<MethodSnapshot> getMethods();
+
+	/**
+	 * Discards the counts and latencies recorded so far.
+	 */
+	public void reset();
+
+}
@@ -19,7 +19,9 @@
 
     <p>
     The <code>Skeleton</code> class includes a multithreaded server which
-    communicates with stubs over TCP connections. The <code>Stub</code> class
+    communicates with stubs over TCP connections, or over Unix domain sockets
+    or shared memory when stubs and skeleton share a host. The
+    <code>Stub</code> class
     provides methods for creating stubs. Each stub object is given the network
     address of the skeleton with which it is to communicate when it is created.
 
@@ -22,4 +22,16 @@ public interface IPingServer {
 	 */
 	public String ping(int idNumber) throws RMIException;
 
+	/**
+	 * The echo call to the {@code IPingServer} instance, carrying a payload
+	 * both ways.
+	 * 
+	 * @param payload
+	 *            the bytes to send
+	 * @return the same bytes
+	 * @throws RMIException
+	 *             exception throws by the remote echo method call
+	 */
+	public byte[] echo(byte[] payload) throws RMIException;
+
 }
@@ -18,4 +18,11 @@ public class PingServer implements IPingServer {
 		return ("Pong " + idNumber);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public byte[] echo(byte[] payload) throws RMIException {
+		return payload;
+	}
+
 }
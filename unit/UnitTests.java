@@ -8,6 +8,32 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link rmi.SampleUnitTest}</li>
+    <li>{@link rmi.MultiplexedConnectionTest}</li>
+    <li>{@link rmi.ConnectionPoolTest}</li>
+    <li>{@link rmi.DispatchTableTest}</li>
+    <li>{@link rmi.InvokerTest}</li>
+    <li>{@link rmi.BinaryCodecTest}</li>
+    <li>{@link rmi.ExecutorPolicyTest}</li>
+    <li>{@link rmi.NioEngineTest}</li>
+    <li>{@link rmi.AsyncStubTest}</li>
+    <li>{@link rmi.PipeliningTest}</li>
+    <li>{@link rmi.BatchTest}</li>
+    <li>{@link rmi.CoalescingWriterTest}</li>
+    <li>{@link rmi.LatencyHistogramTest}</li>
+    <li>{@link rmi.SkeletonMetricsTest}</li>
+    <li>{@link rmi.StubMetricsTest}</li>
+    <li>{@link rmi.LoggingTest}</li>
+    <li>{@link rmi.StubIdentityTest}</li>
+    <li>{@link rmi.InterfaceMetadataTest}</li>
+    <li>{@link rmi.UnixDomainSocketTest}</li>
+    <li>{@link rmi.LocalCallTest}</li>
+    <li>{@link rmi.SharedMemoryTransportTest}</li>
+    <li>{@link rmi.BulkTransferTest}</li>
+    <li>{@link rmi.BulkLimitTest}</li>
+    <li>{@link rmi.StreamingReturnTest}</li>
+    <li>{@link rmi.StreamIdleTest}</li>
+    <li>{@link rmi.RemoteStreamTest}</li>
+    <li>{@link rmi.EncodingFailureTest}</li>
     </ul>
  */
 public class UnitTests
@@ -21,7 +47,33 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {rmi.SampleUnitTest.class};
+            new Class[] {rmi.SampleUnitTest.class,
+                         rmi.MultiplexedConnectionTest.class,
+                         rmi.ConnectionPoolTest.class,
+                         rmi.DispatchTableTest.class,
+                         rmi.InvokerTest.class,
+                         rmi.BinaryCodecTest.class,
+                         rmi.ExecutorPolicyTest.class,
+                         rmi.NioEngineTest.class,
+                         rmi.AsyncStubTest.class,
+                         rmi.PipeliningTest.class,
+                         rmi.BatchTest.class,
+                         rmi.CoalescingWriterTest.class,
+                         rmi.LatencyHistogramTest.class,
+                         rmi.SkeletonMetricsTest.class,
+                         rmi.StubMetricsTest.class,
+                         rmi.LoggingTest.class,
+                         rmi.StubIdentityTest.class,
+                         rmi.InterfaceMetadataTest.class,
+                         rmi.UnixDomainSocketTest.class,
+                         rmi.LocalCallTest.class,
+                         rmi.SharedMemoryTransportTest.class,
+                         rmi.BulkTransferTest.class,
+                         rmi.BulkLimitTest.class,
+                         rmi.StreamingReturnTest.class,
+                         rmi.StreamIdleTest.class,
+                         rmi.RemoteStreamTest.class,
+                         rmi.EncodingFailureTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
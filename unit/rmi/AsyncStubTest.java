@@ -0,0 +1,200 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import test.*;
+
+/** Checks that the asynchronous view of a stub keeps many calls in flight
+    from one thread, completes each future with its own result, reports
+    remote exceptions through the future, and refuses lambdas that do not
+    call exactly one remote method.
+ */
+public class AsyncStubTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking asynchronous stub calls";
+
+    /** Number of calls kept in flight at once. */
+    private static final int    CALLS = 500;
+
+    /** Skeleton serving the calls. */
+    private Skeleton<AsyncInterface>    skeleton;
+    /** Asynchronous view of a stub connected to the skeleton. */
+    private AsyncStub<AsyncInterface>   async;
+
+    /** Starts the skeleton and creates the asynchronous view.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<AsyncInterface>(AsyncInterface.class,
+                                                new AsyncServer());
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        async = Stub.async(Stub.create(AsyncInterface.class, skeleton));
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("issuing " + CALLS + " calls from one thread");
+
+        List<CompletableFuture<Integer>>    sums = new ArrayList<>(CALLS);
+        for(int i = 0; i < CALLS; ++i)
+        {
+            final int   value = i;
+            sums.add(async.call(s -> s.add(value, 1)));
+        }
+
+        for(int i = 0; i < CALLS; ++i)
+        {
+            if(await(sums.get(i)) != i + 1)
+                throw new TestFailed("future completed with wrong result");
+        }
+
+        task("calling a method returning nothing");
+
+        await(async.run(s -> s.fail(false)));
+
+        task("checking that remote exceptions complete the future");
+
+        try
+        {
+            async.run(s -> s.fail(true)).get(5, TimeUnit.SECONDS);
+            throw new TestFailed("remote exception not reported");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof IllegalStateException))
+                throw new TestFailed("wrong exception reported", e.getCause());
+        }
+        catch(InterruptedException | TimeoutException e)
+        {
+            throw new TestFailed("remote exception not reported", e);
+        }
+
+        task("checking that lambdas must call one remote method");
+
+        try
+        {
+            async.call(s -> 42);
+            throw new TestFailed("lambda without remote call accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        try
+        {
+            async.call(s -> s.add(s.add(1, 2), 3));
+            throw new TestFailed("lambda with two remote calls accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        task("checking that calls fail after the skeleton stops");
+
+        skeleton.stop();
+        try
+        {
+            async.call(s -> s.add(1, 2)).get(5, TimeUnit.SECONDS);
+            throw new TestFailed("call succeeded after skeleton stopped");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof RMIException))
+                throw new TestFailed("failure not reported as RMIException",
+                                     e.getCause());
+        }
+        catch(InterruptedException | TimeoutException e)
+        {
+            throw new TestFailed("failed call not completed", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Waits for a call to complete.
+
+        @param future Future of the call.
+        @return The result of the call.
+        @throws TestFailed If the call fails or does not complete in time.
+     */
+    private <R> R await(CompletableFuture<R> future) throws TestFailed
+    {
+        try
+        {
+            return future.get(5, TimeUnit.SECONDS);
+        }
+        catch(ExecutionException e)
+        {
+            throw new TestFailed("call failed", e.getCause());
+        }
+        catch(InterruptedException | TimeoutException e)
+        {
+            throw new TestFailed("call not completed", e);
+        }
+    }
+
+    /** Remote interface called asynchronously. */
+    public interface AsyncInterface
+    {
+        /** Adds two numbers.
+
+            @param a First number.
+            @param b Second number.
+            @return The sum.
+            @throws RMIException If the call cannot be completed.
+         */
+        public int add(int a, int b) throws RMIException;
+
+        /** Returns, or throws if asked to.
+
+            @param raise Whether to throw.
+            @throws IllegalStateException If <code>raise</code> is
+                                          <code>true</code>.
+            @throws RMIException If the call cannot be completed.
+         */
+        public void fail(boolean raise) throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class AsyncServer implements AsyncInterface
+    {
+        @Override
+        public int add(int a, int b)
+        {
+            return a + b;
+        }
+
+        @Override
+        public void fail(boolean raise)
+        {
+            if(raise)
+                throw new IllegalStateException("asked to fail");
+        }
+    }
+}
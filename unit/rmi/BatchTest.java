@@ -0,0 +1,250 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import rmi.io.WireFormat;
+import test.*;
+
+/** Checks that a batch of calls is executed in order with each result and
+    exception delivered to its own call, that an independent batch is
+    executed concurrently, on both server engines, and that a batch which
+    cannot be sent fails every one of its calls.
+ */
+public class BatchTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking batches of calls";
+
+    /** Number of calls in the ordered batch. */
+    private static final int    CALLS = 100;
+    /** Number of calls that must execute at once to meet at the barrier. */
+    private static final int    PARTIES = 4;
+
+    /** Skeleton serving the calls. */
+    private Skeleton<BatchInterface>    skeleton;
+
+    /** Switches stubs to the binary wire format, which the NIO engine serves
+        itself.
+     */
+    @Override
+    protected void initialize()
+    {
+        Stub.setWireFormat(WireFormat.BINARY);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        for(ServerEngine engine : ServerEngine.values())
+        {
+            task("executing a batch in order, " + engine + " engine");
+
+            BatchServer                 server = new BatchServer();
+            CallBatch<BatchInterface>   batch = start(engine, server);
+
+            List<CompletableFuture<Integer>>    results = new ArrayList<>();
+            for(int i = 0; i < CALLS; ++i)
+            {
+                final int   value = i;
+                results.add(batch.call(s -> s.record(value)));
+            }
+            CompletableFuture<Void>     failed = batch.run(s -> s.fail());
+
+            if(batch.size() != CALLS + 1)
+                throw new TestFailed("batch holds wrong number of calls");
+
+            execute(batch);
+
+            if(batch.size() != 0)
+                throw new TestFailed("batch not emptied by execution");
+
+            for(int i = 0; i < CALLS; ++i)
+            {
+                if(results.get(i).getNow(-1) != i)
+                    throw new TestFailed("call completed with wrong result");
+
+                if(server.recorded.get(i) != i)
+                    throw new TestFailed("calls executed out of order");
+            }
+
+            try
+            {
+                failed.join();
+                throw new TestFailed("remote exception not reported");
+            }
+            catch(CompletionException e)
+            {
+                if(!(e.getCause() instanceof IllegalStateException))
+                    throw new TestFailed("wrong exception reported",
+                                         e.getCause());
+            }
+
+            task("executing an independent batch concurrently, " + engine +
+                 " engine");
+
+            batch.setIndependent(true);
+            List<CompletableFuture<Boolean>>    met = new ArrayList<>();
+            for(int i = 0; i < PARTIES; ++i)
+                met.add(batch.call(s -> s.meet()));
+
+            execute(batch);
+
+            for(CompletableFuture<Boolean> call : met)
+            {
+                if(!call.join())
+                {
+                    throw new TestFailed("independent calls not executed " +
+                                         "concurrently");
+                }
+            }
+
+            skeleton.stop();
+        }
+
+        task("checking that a batch fails when it cannot be sent");
+
+        CallBatch<BatchInterface>   batch =
+            start(ServerEngine.BLOCKING, new BatchServer());
+        CompletableFuture<Integer>  result = batch.call(s -> s.record(1));
+        skeleton.stop();
+
+        try
+        {
+            batch.execute();
+            throw new TestFailed("batch executed after skeleton stopped");
+        }
+        catch(RMIException e) { }
+
+        if(!result.isCompletedExceptionally())
+            throw new TestFailed("call of failed batch not failed");
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Starts a skeleton and returns an empty batch of calls to it.
+
+        @param engine Server engine of the skeleton.
+        @param server Server object.
+        @return The batch.
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    private CallBatch<BatchInterface> start(ServerEngine engine,
+                                            BatchServer server)
+        throws TestFailed
+    {
+        skeleton = new Skeleton<BatchInterface>(BatchInterface.class, server);
+        skeleton.setServerEngine(engine);
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        return Stub.batch(Stub.create(BatchInterface.class, skeleton));
+    }
+
+    /** Executes a batch.
+
+        @param batch The batch.
+        @throws TestFailed If the batch cannot be executed.
+     */
+    private void execute(CallBatch<BatchInterface> batch) throws TestFailed
+    {
+        try
+        {
+            batch.execute();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to execute batch", e);
+        }
+    }
+
+    /** Remote interface called in batches. */
+    public interface BatchInterface
+    {
+        /** Records a value.
+
+            @param value The value.
+            @return The value.
+            @throws RMIException If the call cannot be completed.
+         */
+        public int record(int value) throws RMIException;
+
+        /** Throws an exception.
+
+            @throws IllegalStateException Always.
+            @throws RMIException If the call cannot be completed.
+         */
+        public void fail() throws RMIException;
+
+        /** Waits for the other parties to arrive at the barrier.
+
+            @return <code>true</code> if all parties arrived in time,
+                    <code>false</code> otherwise.
+            @throws RMIException If the call cannot be completed.
+         */
+        public boolean meet() throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class BatchServer implements BatchInterface
+    {
+        /** Values recorded, in the order of the calls. */
+        final List<Integer>         recorded =
+            Collections.synchronizedList(new ArrayList<Integer>());
+        /** Barrier at which the calls to <code>meet</code> wait. */
+        private final CyclicBarrier barrier = new CyclicBarrier(PARTIES);
+
+        @Override
+        public int record(int value)
+        {
+            recorded.add(value);
+            return value;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException("asked to fail");
+        }
+
+        @Override
+        public boolean meet()
+        {
+            try
+            {
+                barrier.await(1, TimeUnit.SECONDS);
+                return true;
+            }
+            catch(InterruptedException | BrokenBarrierException |
+                  TimeoutException e)
+            {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import rmi.io.BinaryCodec;
+import rmi.io.Codec;
+import rmi.io.FrameReader;
+import rmi.io.FrameWriter;
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+import rmi.io.WireFormat;
+import test.*;
+
+/** Checks that <code>BinaryCodec</code> carries requests and responses
+    unchanged, keeps common calls small, rejects malformed input, and that
+    skeletons still recognize Java-serialized connections.
+ */
+public class BinaryCodecTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the binary wire format";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            checkRoundTrips();
+            checkFrameSize();
+            checkMalformedInput();
+            checkSerializationDetected();
+        }
+        catch(IOException | ClassNotFoundException e)
+        {
+            throw new TestFailed("unexpected codec failure", e);
+        }
+
+        task();
+    }
+
+    /** Sends requests and responses in both forms through a binary
+        connection.
+
+        @throws TestFailed If a message is altered in transit.
+        @throws IOException If the codec fails.
+        @throws ClassNotFoundException If the codec fails.
+     */
+    private void checkRoundTrips()
+        throws TestFailed, IOException, ClassNotFoundException
+    {
+        task("sending requests and responses through a binary connection");
+
+        PipedInputStream    toServer = new PipedInputStream(1 << 16);
+        PipedInputStream    toClient = new PipedInputStream(1 << 16);
+        Codec               client =
+            WireFormat.BINARY.openClient(toClient,
+                                         new PipedOutputStream(toServer));
+        PipedOutputStream   serverOut = new PipedOutputStream(toClient);
+
+        ArrayList<String>   shared = new ArrayList<>(Arrays.asList("x", "y"));
+        Object[]            arguments =
+            new Object[] {-12345, Long.MIN_VALUE, "h\u00e9llo \u263a",
+                          new byte[] {1, -2, 3}, null, true, 2.5,
+                          'q', (short) -3, (byte) 9, 1.5f, shared, shared};
+
+        client.writeRequest(new RMIRequest(41, null, 0x1234abcd5678ef90L, 3,
+                                           null, arguments, null));
+        Codec               server = WireFormat.openServer(toServer,
+                                                           serverOut);
+        RMIRequest          compact = server.readRequest();
+
+        if(compact.getCallId() != 41 || compact.getMethodId() != 3 ||
+           compact.getInterfaceFingerprint() != 0x1234abcd5678ef90L ||
+           compact.getClassName() != null)
+        {
+            throw new TestFailed("compact request header altered");
+        }
+
+        checkArguments(arguments, compact.getArguments());
+
+        client.writeRequest(new RMIRequest(42, "a.B", "call",
+                                           new Object[] {},
+                                           new String[] {"int", "a.C"}));
+        RMIRequest          named = server.readRequest();
+
+        if(named.getMethodId() != -1 || !"a.B".equals(named.getClassName()) ||
+           !"call".equals(named.getMethodName()) ||
+           !Arrays.equals(new String[] {"int", "a.C"},
+                          named.getArgumentTypes()) ||
+           named.getArguments().length != 0)
+        {
+            throw new TestFailed("named request altered");
+        }
+
+        server.writeResponse(new RMIResponse(41, "done"));
+        server.writeResponse(new RMIResponse(42,
+            new IllegalStateException("failure")));
+        server.writeResponse(RMIResponse.unresolved(43));
+
+        RMIResponse         value = client.readResponse();
+        if(value.getCallId() != 41 || !"done".equals(value.getReturnValue()) ||
+           value.getException() != null || value.isUnresolved())
+        {
+            throw new TestFailed("value response altered");
+        }
+
+        RMIResponse         exception = client.readResponse();
+        if(exception.getCallId() != 42 ||
+           !(exception.getException() instanceof IllegalStateException) ||
+           !"failure".equals(exception.getException().getMessage()))
+        {
+            throw new TestFailed("exception response altered");
+        }
+
+        if(!client.readResponse().isUnresolved())
+            throw new TestFailed("unresolved response altered");
+    }
+
+    /** Checks decoded arguments against those sent.
+
+        @param sent Arguments sent.
+        @param received Arguments decoded.
+        @throws TestFailed If the arguments differ.
+     */
+    private void checkArguments(Object[] sent, Object[] received)
+        throws TestFailed
+    {
+        if(received.length != sent.length)
+            throw new TestFailed("argument count altered");
+
+        for(int i = 0; i < sent.length; ++i)
+        {
+            if(sent[i] instanceof byte[])
+            {
+                if(!Arrays.equals((byte[])sent[i], (byte[])received[i]))
+                    throw new TestFailed("byte array argument altered");
+            }
+            else if(sent[i] == null ? received[i] != null
+                                    : !sent[i].equals(received[i]) ||
+                                      sent[i].getClass() !=
+                                          received[i].getClass())
+            {
+                throw new TestFailed("argument " + i + " altered");
+            }
+        }
+
+        if(received[11] != received[12])
+            throw new TestFailed("shared reference not preserved");
+    }
+
+    /** Checks that a compact call with a small integer argument fits in a
+        few bytes.
+
+        @throws TestFailed If the frame is too large.
+        @throws IOException If the codec fails.
+     */
+    private void checkFrameSize() throws TestFailed, IOException
+    {
+        task("checking the size of a compact request");
+
+        FrameWriter         writer = new FrameWriter();
+        writer.beginFrame();
+        BinaryCodec.encodeRequest(new RMIRequest(1, null, -1, 0, null,
+                                                 new Object[] {7}, null),
+                                  writer);
+        writer.endFrame();
+
+        if(writer.length() > 20)
+        {
+            throw new TestFailed("compact request takes " + writer.length() +
+                                 " bytes");
+        }
+    }
+
+    /** Checks that truncated frames and foreign handshakes are rejected.
+
+        @throws TestFailed If malformed input is accepted.
+        @throws IOException If the codec fails unexpectedly.
+        @throws ClassNotFoundException If the codec fails unexpectedly.
+     */
+    private void checkMalformedInput()
+        throws TestFailed, IOException, ClassNotFoundException
+    {
+        task("checking that malformed input is rejected");
+
+        FrameWriter         writer = new FrameWriter();
+        BinaryCodec.encodeRequest(new RMIRequest(1, "a.B", "call",
+                                                 new Object[] {"text"},
+                                                 new String[] {"a.C"}),
+                                  writer);
+
+        try
+        {
+            BinaryCodec.decodeRequest(new FrameReader(writer.buffer(), 0,
+                                                      writer.length() - 1));
+            throw new TestFailed("truncated request accepted");
+        }
+        catch(StreamCorruptedException e) { }
+
+        byte[]              foreign = "GET / HTTP/1.1\r\n".getBytes("US-ASCII");
+        try
+        {
+            WireFormat.openServer(new ByteArrayInputStream(foreign),
+                                  new ByteArrayOutputStream());
+            throw new TestFailed("foreign handshake accepted");
+        }
+        catch(StreamCorruptedException e) { }
+    }
+
+    /** Checks that a skeleton recognizes a Java-serialized connection.
+
+        @throws TestFailed If the request is not read back.
+        @throws IOException If the codec fails.
+        @throws ClassNotFoundException If the codec fails.
+     */
+    private void checkSerializationDetected()
+        throws TestFailed, IOException, ClassNotFoundException
+    {
+        task("checking that serialized connections are still accepted");
+
+        ByteArrayOutputStream   toServer = new ByteArrayOutputStream();
+        Codec                   client =
+            WireFormat.SERIALIZATION.openClient(
+                new ByteArrayInputStream(serializedHeader()), toServer);
+        client.writeRequest(new RMIRequest(5, "a.B", "call",
+                                           new Object[] {7},
+                                           new String[] {"int"}));
+
+        Codec                   server =
+            WireFormat.openServer(
+                new ByteArrayInputStream(toServer.toByteArray()),
+                new ByteArrayOutputStream());
+        RMIRequest              request = server.readRequest();
+
+        if(request.getCallId() != 5 || !"call".equals(request.getMethodName()) ||
+           !Integer.valueOf(7).equals(request.getArguments()[0]))
+        {
+            throw new TestFailed("serialized request altered");
+        }
+    }
+
+    /** Returns the header a Java object stream starts with.
+
+        @return The stream header.
+        @throws IOException If the header cannot be produced.
+     */
+    private static byte[] serializedHeader() throws IOException
+    {
+        ByteArrayOutputStream   header = new ByteArrayOutputStream();
+        new ObjectOutputStream(header).flush();
+        return header.toByteArray();
+    }
+}
@@ -0,0 +1,227 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import rmi.io.BinaryCodec;
+import rmi.io.FileRegion;
+import rmi.io.FrameWriter;
+import rmi.io.RMIRequest;
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+import test.*;
+
+/** Checks that both server engines reject a bulk frame declaring segments
+    beyond the bulk length limit, and that neither a rejected frame nor one
+    whose segments never arrive keeps the skeleton from serving other
+    clients.
+ */
+public class BulkLimitTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the bulk length limit";
+
+    /** Time in milliseconds the skeleton is given to close a connection. */
+    private static final int    CLOSE_TIMEOUT = 5000;
+
+    /** Empty file the bulk value of the frames sent is said to be taken
+        from; none of its bytes are ever sent. */
+    private Path                    file;
+    /** Channel of the file. */
+    private FileChannel             channel;
+    /** Skeleton serving the calls. */
+    private Skeleton<IPingServer>   skeleton;
+    /** Connections opened by the test. */
+    private Socket[]                sockets = new Socket[2];
+
+    /** Creates the file.
+
+        @throws TestFailed If the file cannot be created.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            file = Files.createTempFile("rmi", ".bulk");
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create file", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("setting an invalid bulk length limit");
+
+        try
+        {
+            BinaryCodec.setMaxBulkLength(0);
+            throw new TestFailed("non-positive limit accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        for(ServerEngine engine : ServerEngine.values())
+        {
+            skeleton = new Skeleton<IPingServer>(IPingServer.class,
+                                                 new PingServer());
+            skeleton.setServerEngine(engine);
+            try
+            {
+                skeleton.start();
+            }
+            catch(RMIException e)
+            {
+                throw new TestFailed("unable to start skeleton", e);
+            }
+
+            IPingServer     stub = Stub.create(IPingServer.class, skeleton);
+
+            task("declaring a huge bulk length, " + engine + " engine");
+
+            sockets[0] = sendBulkHeader(Integer.MAX_VALUE - 16);
+            checkClosed(sockets[0]);
+            ping(stub, 1);
+
+            task("declaring bulk values that never arrive, " + engine +
+                 " engine");
+
+            sockets[1] = sendBulkHeader(BinaryCodec.getMaxBulkLength());
+            ping(stub, 2);
+
+            closeSockets();
+            skeleton.stop();
+        }
+
+        task();
+    }
+
+    /** Closes the connections, stops the skeleton and removes the file. */
+    @Override
+    protected void clean()
+    {
+        closeSockets();
+
+        if(skeleton != null)
+            skeleton.stop();
+
+        try
+        {
+            if(channel != null)
+                channel.close();
+            if(file != null)
+                Files.deleteIfExists(file);
+        }
+        catch(IOException e) { }
+    }
+
+    /** Opens a connection to the skeleton and sends the handshake and the
+        header and payload of a request whose argument is a bulk value of the
+        given length, without sending the value.
+
+        @param bulkLength Declared length of the segments.
+        @return The connection.
+        @throws TestFailed If the connection cannot be opened or written.
+     */
+    private Socket sendBulkHeader(int bulkLength) throws TestFailed
+    {
+        InetSocketAddress   address =
+            new InetSocketAddress("127.0.0.1",
+                                  skeleton.getBindAddress().getPort());
+        try
+        {
+            Socket              socket = new Socket(address.getAddress(),
+                                                    address.getPort());
+            FrameWriter         writer = new FrameWriter();
+            BinaryCodec.writeHandshake(writer);
+            writer.beginFrame();
+            BinaryCodec.encodeRequest(
+                new RMIRequest(1, null, -1, 0, null,
+                               new Object[] {FileRegion.of(channel, 0,
+                                                           bulkLength)},
+                               null),
+                writer);
+            writer.endFrame();
+
+            OutputStream        out = socket.getOutputStream();
+            out.write(writer.buffer(), 0, writer.length());
+            out.flush();
+            return socket;
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to send bulk frame header", e);
+        }
+    }
+
+    /** Checks that the skeleton closes a connection.
+
+        @param socket The connection.
+        @throws TestFailed If the connection stays open.
+     */
+    private void checkClosed(Socket socket) throws TestFailed
+    {
+        try
+        {
+            socket.setSoTimeout(CLOSE_TIMEOUT);
+            while(socket.getInputStream().read() != -1);
+        }
+        catch(SocketTimeoutException e)
+        {
+            throw new TestFailed("connection with a huge bulk length not " +
+                                 "closed");
+        }
+        catch(IOException e)
+        {
+            // The skeleton has reset the connection.
+        }
+    }
+
+    /** Makes a call through the stub and checks its response.
+
+        @param stub Stub to call.
+        @param id Ping identifier.
+        @throws TestFailed If the call fails or returns the wrong response.
+     */
+    private void ping(IPingServer stub, int id) throws TestFailed
+    {
+        try
+        {
+            if(!("Pong " + id).equals(stub.ping(id)))
+                throw new TestFailed("incorrect response");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("skeleton did not serve another client", e);
+        }
+    }
+
+    /** Closes the connections opened by the test. */
+    private void closeSockets()
+    {
+        for(int i = 0; i < sockets.length; ++i)
+        {
+            try
+            {
+                if(sockets[i] != null)
+                    sockets[i].close();
+            }
+            catch(IOException e) { }
+            sockets[i] = null;
+        }
+    }
+}
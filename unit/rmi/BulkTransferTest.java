@@ -0,0 +1,432 @@
+package rmi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import rmi.io.BinaryCodec;
+import rmi.io.BufferPool;
+import rmi.io.FileRegion;
+import rmi.io.FrameWriter;
+import rmi.io.RMIRequest;
+import rmi.io.WireFormat;
+import test.*;
+
+/** Checks that <code>ByteBuffer</code>, <code>FileRegion</code> and large
+    <code>byte[]</code> arguments and return values reach the other side
+    unchanged with every server engine, connection mode and wire format,
+    that the binary format keeps them out of the frame and delivers them to
+    the server in direct buffers returned to the shared pool, and that local
+    calls copy them.
+ */
+public class BulkTransferTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking bulk arguments and return values";
+
+    /** Length of the file regions are taken from. */
+    private static final int    FILE_LENGTH = 256 * 1024;
+    /** Length of the buffers sent. */
+    private static final int    BUFFER_LENGTH = 1 << 20;
+
+    /** File the regions are taken from. */
+    private Path                    file;
+    /** Channel through which the client reads the file. */
+    private FileChannel             clientFile;
+    /** Server shared by both skeletons. */
+    private BulkServer              server;
+    /** Skeleton served by the blocking engine. */
+    private Skeleton<BulkInterface> blocking;
+    /** Skeleton served by the NIO engine. */
+    private Skeleton<BulkInterface> nio;
+
+    /** Creates the file and starts the skeletons.
+
+        @throws TestFailed If the file cannot be written or a skeleton
+                           cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            file = Files.createTempFile("rmi", ".bulk");
+            Files.write(file, pattern(FILE_LENGTH, 7));
+            clientFile = FileChannel.open(file, StandardOpenOption.READ);
+            server = new BulkServer(FileChannel.open(file,
+                                                     StandardOpenOption.READ));
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create file", e);
+        }
+
+        blocking = new Skeleton<BulkInterface>(BulkInterface.class, server);
+        blocking.setServerEngine(ServerEngine.BLOCKING);
+        nio = new Skeleton<BulkInterface>(BulkInterface.class, server);
+        nio.setServerEngine(ServerEngine.NIO);
+
+        try
+        {
+            blocking.start();
+            nio.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        checkFrameSize();
+
+        ConnectionMode[]    modes =
+            {ConnectionMode.PER_CALL, ConnectionMode.POOLED};
+        for(Skeleton<BulkInterface> skeleton : Arrays.asList(blocking, nio))
+        {
+            BulkInterface   stub = Stub.create(BulkInterface.class, skeleton);
+
+            for(WireFormat format : WireFormat.values())
+            {
+                for(ConnectionMode mode : modes)
+                {
+                    task("sending bulk values to the " +
+                         skeleton.getServerEngine() + " engine in " + mode +
+                         " mode with " + format + " messages");
+
+                    Stub.setConnectionMode(mode);
+                    Stub.setWireFormat(format);
+                    exchange(stub, format == WireFormat.BINARY);
+                    Stub.getConnectionPool().clear();
+                }
+            }
+
+            // A multiplexed connection keeps the wire format it was opened
+            // with, so it is tried with binary messages only.
+            task("sending bulk values to the " + skeleton.getServerEngine() +
+                 " engine in MULTIPLEXED mode");
+
+            Stub.setWireFormat(WireFormat.BINARY);
+            Stub.setConnectionMode(ConnectionMode.MULTIPLEXED);
+            exchange(stub, true);
+        }
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+
+        task("returning leased buffers to the pool");
+
+        checkPoolRefilled();
+
+        task("copying bulk values in local calls");
+
+        Stub.setLocalCallMode(LocalCallMode.COPY);
+        BulkInterface       local = Stub.create(BulkInterface.class, nio);
+        ByteBuffer          buffer = ByteBuffer.wrap(pattern(1000, 3));
+
+        try
+        {
+            ByteBuffer      echoed = local.echoBuffer(buffer);
+            if(echoed == buffer || !echoed.equals(buffer) ||
+               server.lastBuffer == buffer)
+            {
+                throw new TestFailed("buffer shared by local call");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to call locally", e);
+        }
+        exchange(local, true);
+        Stub.setLocalCallMode(LocalCallMode.DISABLED);
+
+        task();
+    }
+
+    /** Stops the skeletons, restores the default stub settings and removes
+        the file. */
+    @Override
+    protected void clean()
+    {
+        Stub.setLocalCallMode(LocalCallMode.DISABLED);
+        Stub.getConnectionPool().clear();
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+        Stub.setWireFormat(WireFormat.BINARY);
+
+        if(blocking != null)
+            blocking.stop();
+        if(nio != null)
+            nio.stop();
+
+        try
+        {
+            if(clientFile != null)
+                clientFile.close();
+            if(server != null)
+                server.file.close();
+            if(file != null)
+                Files.deleteIfExists(file);
+        }
+        catch(IOException e) { }
+    }
+
+    /** Checks that bulk values are recorded as segments instead of being
+        copied into the frame.
+
+        @throws TestFailed If a bulk value is copied into the frame.
+     */
+    private void checkFrameSize() throws TestFailed
+    {
+        task("keeping bulk values out of the frame");
+
+        FrameWriter         writer = new FrameWriter();
+        Object[]            arguments =
+            {new byte[BUFFER_LENGTH], ByteBuffer.allocateDirect(BUFFER_LENGTH),
+             FileRegion.of(clientFile, 0, FILE_LENGTH), new byte[16]};
+
+        try
+        {
+            writer.beginFrame();
+            BinaryCodec.encodeRequest(new RMIRequest(1, null, -1, 0, null,
+                                                     arguments, null),
+                                      writer);
+            writer.endFrame();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to encode request", e);
+        }
+
+        if(writer.length() > 64 ||
+           writer.bulkLength() != 2 * BUFFER_LENGTH + FILE_LENGTH)
+        {
+            throw new TestFailed("bulk values copied into the frame");
+        }
+    }
+
+    /** Sends and receives bulk values of every kind through the stub.
+
+        @param stub Stub to call.
+        @param binary Whether the server receives buffers in direct buffers.
+        @throws TestFailed If a call fails or a value is altered.
+     */
+    private void exchange(BulkInterface stub, boolean binary)
+        throws TestFailed
+    {
+        ByteBuffer          direct = ByteBuffer.allocateDirect(BUFFER_LENGTH);
+        direct.put(pattern(BUFFER_LENGTH, 1)).position(3);
+        byte[]              large = pattern(300000, 2);
+        byte[]              small = pattern(10, 4);
+        ByteBuffer          expectedFile = ByteBuffer.wrap(pattern(FILE_LENGTH,
+                                                                   7));
+
+        try
+        {
+            ByteBuffer      echoed = stub.echoBuffer(direct);
+            if(!echoed.equals(direct) || direct.position() != 3)
+                throw new TestFailed("buffer altered");
+            if(binary && !server.lastDirect)
+                throw new TestFailed("buffer not received in direct memory");
+
+            if(!Arrays.equals(large, stub.echoBytes(large)) ||
+               !Arrays.equals(small, stub.echoBytes(small)))
+            {
+                throw new TestFailed("byte array altered");
+            }
+
+            FileRegion      sent = FileRegion.of(clientFile, 1000, 150000);
+            if(stub.sum(sent) != sum(expectedFile.slice(1000, 150000)))
+                throw new TestFailed("file region argument altered");
+
+            FileRegion      read = stub.read(5000, 100000);
+            if(read.length() != 100000 ||
+               !read.asByteBuffer().equals(expectedFile.slice(5000, 100000)))
+            {
+                throw new TestFailed("file region return value altered");
+            }
+
+            String          expected = "label/" + sum(direct) + "/" +
+                sum(ByteBuffer.wrap(large)) + "/" +
+                sum(expectedFile.slice(0, 20000));
+            if(!expected.equals(stub.describe(direct, "label", large,
+                                    FileRegion.of(clientFile, 0, 20000))))
+            {
+                throw new TestFailed("mixed arguments altered");
+            }
+        }
+        catch(IOException | RMIException e)
+        {
+            throw new TestFailed("bulk call failed", e);
+        }
+    }
+
+    /** Waits for the skeletons to return the buffers they leased to the
+        shared pool, which they do once their responses have been written.
+
+        @throws TestFailed If no buffer is returned.
+     */
+    private void checkPoolRefilled() throws TestFailed
+    {
+        for(int i = 0; i < 100; ++i)
+        {
+            if(BufferPool.shared().getRetainedBytes() >= BUFFER_LENGTH)
+                return;
+
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                break;
+            }
+        }
+
+        throw new TestFailed("leased buffers not returned to the pool");
+    }
+
+    /** Returns bytes following a simple pattern.
+
+        @param length Number of bytes.
+        @param seed Value the pattern starts from.
+        @return The bytes.
+     */
+    private static byte[] pattern(int length, int seed)
+    {
+        byte[]              bytes = new byte[length];
+        for(int i = 0; i < length; ++i)
+            bytes[i] = (byte)(seed + i * 31);
+        return bytes;
+    }
+
+    /** Returns the sum of the bytes of a buffer between its position and its
+        limit.
+
+        @param buffer The buffer; its position is not changed.
+        @return The sum.
+     */
+    private static long sum(ByteBuffer buffer)
+    {
+        long                sum = 0;
+        for(int i = buffer.position(); i < buffer.limit(); ++i)
+            sum += buffer.get(i);
+        return sum;
+    }
+
+    /** Remote interface passing bulk values. */
+    public interface BulkInterface
+    {
+        /** Returns the given buffer.
+
+            @param buffer The buffer.
+            @return The same bytes.
+            @throws RMIException If the call cannot be completed.
+         */
+        public ByteBuffer echoBuffer(ByteBuffer buffer) throws RMIException;
+
+        /** Returns the given array.
+
+            @param bytes The array.
+            @return The same bytes.
+            @throws RMIException If the call cannot be completed.
+         */
+        public byte[] echoBytes(byte[] bytes) throws RMIException;
+
+        /** Returns the sum of the bytes of a file region.
+
+            @param region The region.
+            @return The sum of its bytes.
+            @throws IOException If the region cannot be read.
+            @throws RMIException If the call cannot be completed.
+         */
+        public long sum(FileRegion region) throws IOException, RMIException;
+
+        /** Returns a region of the server's file.
+
+            @param position Position of the region.
+            @param length Length of the region.
+            @return The region.
+            @throws RMIException If the call cannot be completed.
+         */
+        public FileRegion read(long position, int length) throws RMIException;
+
+        /** Describes bulk values given together with an ordinary one.
+
+            @param first A buffer.
+            @param label A string.
+            @param second A byte array.
+            @param third A file region.
+            @return The label followed by the sums of the bytes of the bulk
+                    values.
+            @throws IOException If the region cannot be read.
+            @throws RMIException If the call cannot be completed.
+         */
+        public String describe(ByteBuffer first, String label, byte[] second,
+                               FileRegion third)
+            throws IOException, RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class BulkServer implements BulkInterface
+    {
+        /** Channel through which the server reads the file. */
+        final FileChannel       file;
+        /** The buffer last given to <code>echoBuffer</code>. */
+        volatile ByteBuffer     lastBuffer;
+        /** Whether that buffer was a direct buffer. */
+        volatile boolean        lastDirect;
+
+        /** Creates a server returning regions of the given file.
+
+            @param file Channel of the file.
+         */
+        BulkServer(FileChannel file)
+        {
+            this.file = file;
+        }
+
+        @Override
+        public ByteBuffer echoBuffer(ByteBuffer buffer)
+        {
+            lastBuffer = buffer;
+            lastDirect = buffer.isDirect();
+            return buffer;
+        }
+
+        @Override
+        public byte[] echoBytes(byte[] bytes)
+        {
+            return bytes;
+        }
+
+        @Override
+        public long sum(FileRegion region) throws IOException
+        {
+            return BulkTransferTest.sum(region.asByteBuffer());
+        }
+
+        @Override
+        public FileRegion read(long position, int length)
+        {
+            return FileRegion.of(file, position, length);
+        }
+
+        @Override
+        public String describe(ByteBuffer first, String label, byte[] second,
+                               FileRegion third)
+            throws IOException
+        {
+            return label + "/" + BulkTransferTest.sum(first) + "/" +
+                BulkTransferTest.sum(ByteBuffer.wrap(second)) + "/" +
+                BulkTransferTest.sum(third.asByteBuffer());
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rmi.io.Codec;
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+import test.*;
+
+/** Checks that the coalescing writer flushes every message of a lone writer
+    at once, and that messages written concurrently by many threads reach the
+    connection in far fewer, bounded flushes without any being left behind,
+    each writer being told when its message was flushed, and that a writer
+    whose message fails to encode still flushes the messages left for it.
+ */
+public class CoalescingWriterTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking write coalescing";
+
+    /** Number of threads writing concurrently. */
+    private static final int    THREADS = 8;
+    /** Number of messages written by each thread. */
+    private static final int    MESSAGES = 100;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("writing from a single thread");
+
+        CountingCodec       codec = new CountingCodec();
+        CoalescingWriter    writer = new CoalescingWriter(codec);
+        for(int i = 0; i < MESSAGES; ++i)
+        {
+            write(writer, i);
+            if(codec.buffered != 0)
+                throw new TestFailed("lone message left unflushed");
+        }
+
+        if(writer.getFlushCount() != MESSAGES)
+            throw new TestFailed("lone messages not flushed one by one");
+
+        task("writing from " + THREADS + " threads");
+
+        codec = new CountingCodec();
+        final CoalescingWriter  shared = new CoalescingWriter(codec);
+        Thread[]                threads = new Thread[THREADS];
+        final Throwable[]       failure = new Throwable[1];
+        for(int t = 0; t < THREADS; ++t)
+        {
+            threads[t] = new Thread(() ->
+            {
+                try
+                {
+                    for(int i = 0; i < MESSAGES; ++i)
+                        write(shared, i);
+                }
+                catch(Throwable e)
+                {
+                    failure[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+
+        for(Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while writing", e);
+            }
+        }
+
+        if(failure[0] != null)
+            throw new TestFailed("concurrent write failed", failure[0]);
+
+        if(codec.flushed != THREADS * MESSAGES || codec.buffered != 0)
+            throw new TestFailed("messages left unflushed");
+
+        if(shared.getMessageCount() != THREADS * MESSAGES)
+            throw new TestFailed("messages not counted");
+
+        if(shared.getFlushCount() > THREADS * MESSAGES / 4)
+        {
+            throw new TestFailed(shared.getFlushCount() + " flushes for " +
+                                 THREADS * MESSAGES + " messages");
+        }
+
+        if(codec.largestFlush > CoalescingWriter.maxCoalescedMessages)
+            throw new TestFailed("flush exceeded coalescing bound");
+
+        task("telling concurrent writers when their requests are flushed");
+
+        codec = new CountingCodec();
+        final CoalescingWriter  timed = new CoalescingWriter(codec);
+        final AtomicInteger     told = new AtomicInteger();
+        for(int t = 0; t < THREADS; ++t)
+        {
+            threads[t] = new Thread(() ->
+            {
+                try
+                {
+                    for(int i = 0; i < MESSAGES; ++i)
+                    {
+                        timed.writeRequest(RMIRequest.stream(i, 1, 1),
+                                           time -> told.incrementAndGet());
+                    }
+                }
+                catch(Throwable e)
+                {
+                    failure[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+
+        for(Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while writing", e);
+            }
+        }
+
+        if(failure[0] != null)
+            throw new TestFailed("concurrent write failed", failure[0]);
+
+        if(told.get() != THREADS * MESSAGES)
+        {
+            throw new TestFailed(told.get() + " writers told of the flush " +
+                                 "of " + THREADS * MESSAGES + " requests");
+        }
+
+        task("failing to encode a message left to be flushed with others");
+
+        FailingCodec        failing = new FailingCodec();
+        failing.writer = new CoalescingWriter(failing);
+        write(failing.writer, 1);
+
+        try
+        {
+            failing.second.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while writing", e);
+        }
+
+        if(!(failing.secondFailure instanceof NotSerializableException))
+        {
+            throw new TestFailed("encoding failure not reported",
+                                 failing.secondFailure);
+        }
+
+        if(failing.flushed != 1 || failing.buffered != 0)
+            throw new TestFailed("message left unflushed after failure");
+
+        task();
+    }
+
+    /** Writes a response through the writer.
+
+        @param writer The writer.
+        @param value The return value of the response.
+        @throws TestFailed If the response cannot be written.
+     */
+    private static void write(CoalescingWriter writer, int value)
+        throws TestFailed
+    {
+        try
+        {
+            writer.writeResponse(new RMIResponse(value, (Object)value));
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to write response", e);
+        }
+    }
+
+    /** Codec counting the messages buffered and flushed, with a flush that
+        takes as long as a slow system call.
+     */
+    private static class CountingCodec implements Codec
+    {
+        /** Number of messages written and not yet flushed. */
+        int     buffered;
+        /** Number of messages flushed. */
+        int     flushed;
+        /** Largest number of messages flushed at once. */
+        int     largestFlush;
+
+        @Override
+        public void writeRequest(RMIRequest request) throws IOException
+        {
+            writeRequest(request, true);
+        }
+
+        @Override
+        public void writeRequest(RMIRequest request, boolean flush)
+            throws IOException
+        {
+            buffered++;
+            if(flush)
+                flush();
+        }
+
+        @Override
+        public RMIRequest readRequest()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void writeResponse(RMIResponse response) throws IOException
+        {
+            writeResponse(response, true);
+        }
+
+        @Override
+        public void writeResponse(RMIResponse response, boolean flush)
+            throws IOException
+        {
+            buffered++;
+            if(flush)
+                flush();
+        }
+
+        @Override
+        public RMIResponse readResponse()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getLastDecodeTime()
+        {
+            return -1;
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            largestFlush = Math.max(largestFlush, buffered);
+            flushed += buffered;
+            buffered = 0;
+            try
+            {
+                Thread.sleep(1);
+            }
+            catch(InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /** Codec starting a second writer while encoding its first message, so
+        that the first is left in the buffer for the second to flush, and
+        failing to encode the message of the second.
+     */
+    private static class FailingCodec extends CountingCodec
+    {
+        /** Writer sharing the codec. */
+        CoalescingWriter    writer;
+        /** Thread writing the second message. */
+        Thread              second;
+        /** Exception the second write failed with. */
+        volatile Throwable  secondFailure;
+
+        @Override
+        public void writeResponse(RMIResponse response, boolean flush)
+            throws IOException
+        {
+            if(second != null)
+                throw new NotSerializableException();
+
+            super.writeResponse(response, flush);
+            second = new Thread(() ->
+            {
+                try
+                {
+                    writer.writeResponse(new RMIResponse(2, (Object)2));
+                }
+                catch(IOException e)
+                {
+                    secondFailure = e;
+                }
+            });
+            second.start();
+
+            // The second writer waits for the lock held by the first.
+            while(second.getState() != Thread.State.WAITING)
+                Thread.onSpinWait();
+        }
+    }
+}
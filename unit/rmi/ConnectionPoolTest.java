@@ -0,0 +1,340 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+import test.*;
+
+/** Checks that stubs in pooled mode reuse idle connections, replace
+    connections closed by a restarted skeleton, evict idle connections at the
+    current idle timeout, and bound the connections open at once.
+ */
+public class ConnectionPoolTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the stub connection pool";
+
+    /** Skeleton serving the calls. */
+    private Skeleton<IPingServer>   skeleton;
+    /** Stub connected to the skeleton. */
+    private IPingServer             stub;
+    /** Skeleton whose pings with a negative identifier wait for
+        <code>release</code>. */
+    private Skeleton<IPingServer>   slowSkeleton;
+    /** Stub connected to the slow skeleton. */
+    private IPingServer             slowStub;
+    /** Counted down once a slow ping has reached the slow skeleton. */
+    private volatile CountDownLatch entered;
+    /** Counted down to let slow pings return. */
+    private volatile CountDownLatch release;
+
+    /** Starts the skeleton and switches stubs to pooled mode.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        Stub.setConnectionMode(ConnectionMode.POOLED);
+
+        skeleton = new Skeleton<IPingServer>(IPingServer.class,
+                                             new PingServer());
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(IPingServer.class, skeleton);
+
+        slowSkeleton = new Skeleton<IPingServer>(IPingServer.class,
+                                                 new SlowPingServer());
+        try
+        {
+            slowSkeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start slow skeleton", e);
+        }
+
+        slowStub = Stub.create(IPingServer.class, slowSkeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ConnectionPool      pool = Stub.getConnectionPool();
+        InetSocketAddress   address = skeleton.getBindAddress();
+        long                hits = pool.getHits();
+        long                misses = pool.getMisses();
+
+        task("making sequential calls through the pool");
+
+        for(int i = 0; i < 10; ++i)
+            ping(i);
+
+        if(pool.getMisses() - misses != 1 || pool.getHits() - hits != 9)
+            throw new TestFailed("sequential calls did not reuse connection");
+
+        if(pool.getIdleCount(address) != 1)
+            throw new TestFailed("connection not returned to the pool");
+
+        task("restarting the skeleton");
+
+        skeleton.stop();
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to restart skeleton", e);
+        }
+
+        task("checking that the stale connection is replaced");
+
+        long                evictions = pool.getEvictions();
+        ping(10);
+
+        if(pool.getEvictions() - evictions != 1)
+            throw new TestFailed("stale connection was not evicted");
+
+        task("shortening the idle timeout of a running evictor");
+
+        pool.setIdleTimeout(100);
+        sleep(500);
+
+        if(pool.getIdleCount(address) != 0)
+            throw new TestFailed("idle connection outlived the new timeout");
+
+        pool.setIdleTimeout(ConnectionPool.defaultIdleTimeout);
+
+        task("bounding the connections open at once");
+
+        pool.clear();
+        pool.setMaxConnections(1);
+        pool.setAcquireTimeout(200);
+
+        ping(11);
+        slowPing(12);
+
+        if(pool.getOpenCount() != 1 || pool.getIdleCount(address) != 0)
+        {
+            throw new TestFailed("idle connection to another address not " +
+                                 "closed to make room");
+        }
+
+        task("failing a call while every connection is busy");
+
+        Thread          busy = startSlowPing();
+        try
+        {
+            stub.ping(13);
+            throw new TestFailed("call succeeded beyond the connection " +
+                                 "bound");
+        }
+        catch(RMIException e) { }
+        finishSlowPing(busy);
+
+        task("waiting for a busy connection to be returned");
+
+        pool.setAcquireTimeout(5000);
+        busy = startSlowPing();
+
+        final Throwable[]   failure = new Throwable[1];
+        Thread              waiting = new Thread(() ->
+        {
+            try
+            {
+                ping(14);
+            }
+            catch(Throwable t)
+            {
+                failure[0] = t;
+            }
+        });
+        waiting.start();
+
+        sleep(200);
+        finishSlowPing(busy);
+        join(waiting);
+
+        if(failure[0] != null)
+            throw new TestFailed("waiting call failed", failure[0]);
+
+        if(pool.getOpenCount() != 1)
+            throw new TestFailed("connection bound exceeded");
+
+        task();
+    }
+
+    /** Stops the skeleton, empties the pool and restores the default
+        connection mode. */
+    @Override
+    protected void clean()
+    {
+        if(release != null)
+            release.countDown();
+
+        if(skeleton != null)
+            skeleton.stop();
+
+        if(slowSkeleton != null)
+            slowSkeleton.stop();
+
+        ConnectionPool  pool = Stub.getConnectionPool();
+        pool.clear();
+        pool.setIdleTimeout(ConnectionPool.defaultIdleTimeout);
+        pool.setMaxConnections(ConnectionPool.defaultMaxConnections);
+        pool.setAcquireTimeout(ConnectionPool.defaultAcquireTimeout);
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+    }
+
+    /** Makes a call through the stub and checks its response.
+
+        @param id Ping identifier.
+        @throws TestFailed If the call fails or returns the wrong response.
+     */
+    private void ping(int id) throws TestFailed
+    {
+        try
+        {
+            if(!("Pong " + id).equals(stub.ping(id)))
+                throw new TestFailed("incorrect response");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+    }
+
+    /** Makes a call through the slow stub that returns at once.
+
+        @param id Ping identifier.
+        @throws TestFailed If the call fails or returns the wrong response.
+     */
+    private void slowPing(int id) throws TestFailed
+    {
+        try
+        {
+            if(!("Pong " + id).equals(slowStub.ping(id)))
+                throw new TestFailed("incorrect response");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+    }
+
+    /** Starts a thread making a slow ping, and waits until the ping has
+        reached the slow skeleton and so holds its connection.
+
+        @return The thread.
+        @throws TestFailed If the ping does not reach the skeleton.
+     */
+    private Thread startSlowPing() throws TestFailed
+    {
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+
+        Thread  thread = new Thread(() ->
+        {
+            try
+            {
+                slowStub.ping(-1);
+            }
+            catch(RMIException e) { }
+        });
+        thread.start();
+
+        try
+        {
+            if(!entered.await(5, TimeUnit.SECONDS))
+                throw new TestFailed("slow ping did not reach the skeleton");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for slow ping");
+        }
+
+        return thread;
+    }
+
+    /** Lets the slow ping return and waits for its thread to finish.
+
+        @param thread The thread making the slow ping.
+        @throws TestFailed If the thread cannot be joined.
+     */
+    private void finishSlowPing(Thread thread) throws TestFailed
+    {
+        release.countDown();
+        join(thread);
+    }
+
+    /** Waits for a thread to finish.
+
+        @param thread The thread.
+        @throws TestFailed If interrupted while waiting.
+     */
+    private static void join(Thread thread) throws TestFailed
+    {
+        try
+        {
+            thread.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for call");
+        }
+    }
+
+    /** Sleeps for the given time.
+
+        @param millis Time to sleep in milliseconds.
+        @throws TestFailed If interrupted while sleeping.
+     */
+    private static void sleep(long millis) throws TestFailed
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while sleeping");
+        }
+    }
+
+    /** Ping server whose pings with a negative identifier wait until the
+        test releases them. */
+    private class SlowPingServer extends PingServer
+    {
+        /** {@inheritDoc} */
+        @Override
+        public String ping(int idNumber) throws RMIException
+        {
+            if(idNumber < 0)
+            {
+                entered.countDown();
+                try
+                {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch(InterruptedException e) { }
+            }
+
+            return super.ping(idNumber);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package rmi;
+
+import java.lang.reflect.Method;
+
+import test.*;
+
+/** Checks the method identifiers and lookups of <code>DispatchTable</code>.
+ */
+public class DispatchTableTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking remote dispatch tables";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        DispatchTable   base = DispatchTable.forInterface(BaseInterface.class);
+        DispatchTable   derived =
+            DispatchTable.forInterface(DerivedInterface.class);
+
+        task("checking that tables are built once per interface");
+
+        if(DispatchTable.forInterface(DerivedInterface.class) != derived)
+            throw new TestFailed("table rebuilt for the same interface");
+
+        task("checking that methods are numbered by sorted signature");
+
+        Method          shadowed = method(BaseInterface.class, "shared");
+        Method          shadowing = method(DerivedInterface.class, "shared");
+        Method          inherited = method(BaseInterface.class, "inherited");
+        Method          declared = method(DerivedInterface.class, "declared",
+                                          int.class);
+
+        if(derived.getMethodId(declared) != 0 ||
+           derived.getMethodId(inherited) != 1 ||
+           derived.getMethodId(shadowing) != 2)
+        {
+            throw new TestFailed("unexpected method identifiers");
+        }
+
+        if(derived.getMethodId(shadowed) != derived.getMethodId(shadowing))
+            throw new TestFailed("shadowed method has its own identifier");
+
+        if(!shadowing.equals(derived.getMethod(derived.getFingerprint(), 2)))
+            throw new TestFailed("identifier does not resolve to the " +
+                                 "shadowing method");
+
+        task("checking that mismatched fingerprints are rejected");
+
+        if(derived.getMethod(base.getFingerprint(), 0) != null)
+            throw new TestFailed("method resolved with wrong fingerprint");
+
+        if(derived.getMethod(derived.getFingerprint(), 3) != null)
+            throw new TestFailed("out of range identifier resolved");
+
+        task("checking lookup by name and argument types");
+
+        if(!declared.equals(derived.getMethod("declared",
+                                              new String[] {"int"})))
+            throw new TestFailed("lookup by signature failed");
+
+        if(derived.getMethod("declared", new String[] {"long"}) != null)
+            throw new TestFailed("lookup matched wrong argument types");
+
+        task("checking ancestor tables");
+
+        if(derived.getAncestorTable(BaseInterface.class.getName()) != base)
+            throw new TestFailed("superinterface table not found");
+
+        if(base.getAncestorTable(DerivedInterface.class.getName()) != null)
+            throw new TestFailed("subinterface reported as ancestor");
+
+        if(derived.getAncestorTable(base.getFingerprint()) != base ||
+           derived.getAncestorTable(derived.getFingerprint()) != derived)
+        {
+            throw new TestFailed("table not found by fingerprint");
+        }
+
+        task();
+    }
+
+    /** Looks up a declared method.
+
+        @param c Declaring interface.
+        @param name Method name.
+        @param parameterTypes Method parameter types.
+        @return The method.
+        @throws TestFailed If there is no such method.
+     */
+    private Method method(Class<?> c, String name, Class<?>... parameterTypes)
+        throws TestFailed
+    {
+        try
+        {
+            return c.getDeclaredMethod(name, parameterTypes);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("test interface lacks method " + name, e);
+        }
+    }
+
+    /** Base remote interface. */
+    private interface BaseInterface
+    {
+        void shared() throws RMIException;
+        void inherited() throws RMIException;
+    }
+
+    /** Derived remote interface shadowing one base method. */
+    private interface DerivedInterface extends BaseInterface
+    {
+        void shared() throws RMIException;
+        void declared(int value) throws RMIException;
+    }
+}
@@ -0,0 +1,277 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import rmi.log.Appender;
+import rmi.log.Log;
+import rmi.log.LogEvent;
+import test.*;
+
+/** Checks that a call whose request or response cannot be encoded fails
+    alone, without failing the other calls in flight on the same multiplexed
+    connection, and that the skeleton's warning names the call.
+ */
+public class EncodingFailureTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking that encoding failures fail only their call";
+
+    /** Time in milliseconds the slow remote method takes. */
+    private static final long   SLOW_TIME = 200;
+
+    /** Server implementing the remote interface. */
+    private EncodingServer              server;
+    /** Skeleton serving the calls. */
+    private Skeleton<EncodingInterface> skeleton;
+
+    /** Creates the server and switches stubs to multiplexed mode. */
+    @Override
+    protected void initialize()
+    {
+        Stub.setConnectionMode(ConnectionMode.MULTIPLEXED);
+
+        server = new EncodingServer();
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        for(ServerEngine engine : ServerEngine.values())
+        {
+            skeleton = new Skeleton<EncodingInterface>(
+                EncodingInterface.class, server);
+            skeleton.setServerEngine(engine);
+            try
+            {
+                skeleton.start();
+            }
+            catch(RMIException e)
+            {
+                throw new TestFailed("unable to start skeleton", e);
+            }
+
+            EncodingInterface   stub =
+                Stub.create(EncodingInterface.class, skeleton);
+
+            task("passing an argument that cannot be encoded, " + engine +
+                 " engine");
+
+            checkAlongside(stub, () ->
+            {
+                try
+                {
+                    stub.take(new Object());
+                    throw new TestFailed("unencodable argument accepted");
+                }
+                catch(RMIException e) { }
+            });
+
+            task("returning a value that cannot be encoded, " + engine +
+                 " engine");
+
+            List<String>    warnings = new ArrayList<>();
+            Appender        saved = Log.getAppender();
+            Log.setAppender(new Appender()
+            {
+                @Override
+                public void append(LogEvent event)
+                {
+                    synchronized(warnings)
+                    {
+                        warnings.add(event.getMessage());
+                    }
+                }
+
+                @Override
+                public void flush()
+                {
+                }
+            });
+
+            try
+            {
+                checkAlongside(stub, () ->
+                {
+                    try
+                    {
+                        stub.unencodable();
+                        throw new TestFailed("unencodable return value " +
+                                             "accepted");
+                    }
+                    catch(RMIException e) { }
+                });
+            }
+            finally
+            {
+                Log.setAppender(saved);
+            }
+
+            checkWarning(warnings);
+
+            skeleton.stop();
+            skeleton = null;
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton and restores the default connection mode. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+    }
+
+    /** Makes a failing call while a slow call is in flight on the same
+        connection, and checks that the slow call still completes.
+
+        @param stub Stub to make the slow call through.
+        @param failing The failing call.
+        @throws TestFailed If the failing call succeeds or the slow call
+                           fails.
+     */
+    private void checkAlongside(EncodingInterface stub, Call failing)
+        throws TestFailed
+    {
+        server.started = new CountDownLatch(1);
+        final int[]         result = new int[1];
+        final Throwable[]   failure = new Throwable[1];
+        Thread              slow = new Thread(() ->
+        {
+            try
+            {
+                result[0] = stub.slow(42);
+            }
+            catch(Throwable t)
+            {
+                failure[0] = t;
+            }
+        });
+        slow.start();
+
+        try
+        {
+            if(!server.started.await(SLOW_TIME * 5, TimeUnit.MILLISECONDS))
+                throw new TestFailed("slow call not started");
+
+            failing.call();
+            slow.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while calling", e);
+        }
+
+        if(failure[0] != null)
+            throw new TestFailed("concurrent call failed", failure[0]);
+        if(result[0] != 42)
+            throw new TestFailed("concurrent call returned wrong value");
+    }
+
+    /** Checks that the skeleton's warning about the response it could not
+        encode names the method called.
+
+        @param warnings Messages logged during the call.
+        @throws TestFailed If the warning is missing or does not name the
+                           method.
+     */
+    private void checkWarning(List<String> warnings) throws TestFailed
+    {
+        synchronized(warnings)
+        {
+            for(String warning : warnings)
+            {
+                if(warning.startsWith("Failed to encode response"))
+                {
+                    if(!warning.contains("Method: unencodable"))
+                        throw new TestFailed("warning does not name method: " +
+                                             warning);
+                    return;
+                }
+            }
+        }
+
+        throw new TestFailed("no warning about response logged");
+    }
+
+    /** Call expected to fail. */
+    @FunctionalInterface
+    private interface Call
+    {
+        /** Makes the call and checks that it fails.
+
+            @throws TestFailed If the call succeeds.
+         */
+        void call() throws TestFailed;
+    }
+
+    /** Remote interface with a slow method and methods whose arguments or
+        results may not be encodable. */
+    public interface EncodingInterface
+    {
+        /** Returns the given value after {@link #SLOW_TIME} milliseconds.
+
+            @param value Value to return.
+            @return The value.
+            @throws RMIException If the call cannot be completed.
+         */
+        public int slow(int value) throws RMIException;
+
+        /** Accepts any argument.
+
+            @param value The argument.
+            @return Zero.
+            @throws RMIException If the call cannot be completed.
+         */
+        public int take(Object value) throws RMIException;
+
+        /** Returns a value that cannot be serialized.
+
+            @return The value.
+            @throws RMIException If the call cannot be completed.
+         */
+        public Object unencodable() throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class EncodingServer implements EncodingInterface
+    {
+        /** Latch counted down when the slow method starts. */
+        volatile CountDownLatch     started = new CountDownLatch(1);
+
+        @Override
+        public int slow(int value)
+        {
+            started.countDown();
+            try
+            {
+                Thread.sleep(SLOW_TIME);
+            }
+            catch(InterruptedException e) { }
+            return value;
+        }
+
+        @Override
+        public int take(Object value)
+        {
+            return 0;
+        }
+
+        @Override
+        public Object unencodable()
+        {
+            return new Object();
+        }
+    }
+}
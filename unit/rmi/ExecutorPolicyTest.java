@@ -0,0 +1,302 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import test.*;
+
+/** Checks that a skeleton bounded by an <code>ExecutorPolicy</code> queues
+    connections once every worker is busy, turns clients away with a busy
+    error once the queue is full without letting silent clients hold up the
+    others, and reports its worker metrics.
+ */
+public class ExecutorPolicyTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking bounded skeleton workers";
+
+    /** Released to let blocked calls return. */
+    private final CountDownLatch    release = new CountDownLatch(1);
+    /** Released once the first call is being served. */
+    private final CountDownLatch    entered = new CountDownLatch(1);
+    /** Skeleton serving the calls. */
+    private Skeleton<BlockingInterface> skeleton;
+    /** Stub connected to the skeleton. */
+    private BlockingInterface       stub;
+
+    /** Starts a skeleton with a single worker and a single queue slot.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<BlockingInterface>(BlockingInterface.class,
+                                                   new BlockingServer());
+        skeleton.setExecutorPolicy(new ExecutorPolicy(1, 1, 1, 1000));
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(BlockingInterface.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("checking that invalid policies are refused");
+
+        try
+        {
+            new ExecutorPolicy(4, 2, 0, 0);
+            throw new TestFailed("maximum below core accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        task("occupying the only worker");
+
+        Thread      first = caller();
+        try
+        {
+            if(!entered.await(5, TimeUnit.SECONDS))
+                throw new TestFailed("first call was not served");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for first call");
+        }
+
+        if(skeleton.getActiveWorkers() != 1)
+            throw new TestFailed("busy worker not reported");
+
+        task("queueing a second connection");
+
+        Thread      second = caller();
+        long        deadline = System.currentTimeMillis() + 5000;
+        while(skeleton.getQueueDepth() != 1)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("second connection not queued");
+            Thread.yield();
+        }
+
+        task("checking that a third connection is turned away");
+
+        try
+        {
+            stub.block();
+            throw new TestFailed("call accepted with full queue");
+        }
+        catch(RMIException e)
+        {
+            if(e.getMessage() == null || !e.getMessage().contains("busy"))
+                throw new TestFailed("call failed without busy error", e);
+        }
+
+        if(skeleton.getRejectedConnections() != 1)
+            throw new TestFailed("rejected connection not counted");
+
+        task("checking that silent clients do not hold up rejections");
+
+        checkSilentClients();
+
+        task("releasing the blocked calls");
+
+        release.countDown();
+        try
+        {
+            first.join();
+            second.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for callers");
+        }
+
+        if(skeleton.getQueueDepth() != 0)
+            throw new TestFailed("queue not drained");
+
+        checkVirtualThreads();
+
+        task();
+    }
+
+    /** Opens connections that never send a request while the queue is full,
+        then checks that a call is still turned away at once rather than
+        after the rejected clients have been given up on.
+
+        @throws TestFailed If the call is not turned away promptly.
+     */
+    private void checkSilentClients() throws TestFailed
+    {
+        Socket[]    silent = new Socket[2];
+        try
+        {
+            for(int i = 0; i < silent.length; ++i)
+            {
+                silent[i] = new Socket("127.0.0.1",
+                                       skeleton.getBindAddress().getPort());
+            }
+
+            long    start = System.currentTimeMillis();
+            try
+            {
+                stub.block();
+                throw new TestFailed("call accepted with full queue");
+            }
+            catch(RMIException e)
+            {
+                if(e.getMessage() == null || !e.getMessage().contains("busy"))
+                    throw new TestFailed("call failed without busy error", e);
+            }
+
+            if(System.currentTimeMillis() - start >=
+               MethodInvocationTask.rejectTimeout)
+            {
+                throw new TestFailed("rejection held up by silent clients");
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to connect to skeleton", e);
+        }
+        finally
+        {
+            for(Socket socket : silent)
+            {
+                try
+                {
+                    if(socket != null)
+                        socket.close();
+                }
+                catch(IOException e) { }
+            }
+        }
+    }
+
+    /** Checks that a virtual thread policy serves calls on virtual threads
+        where the runtime supports them, and is refused where it does not.
+
+        @throws TestFailed If the policy misbehaves.
+     */
+    private void checkVirtualThreads() throws TestFailed
+    {
+        task("checking the virtual thread policy");
+
+        BlockingServer              server = new BlockingServer();
+        Skeleton<BlockingInterface> virtual =
+            new Skeleton<BlockingInterface>(BlockingInterface.class, server);
+        virtual.setExecutorPolicy(ExecutorPolicy.virtualThreads());
+
+        try
+        {
+            virtual.start();
+        }
+        catch(RMIException e)
+        {
+            if(ExecutorPolicy.isVirtualThreadSupported())
+                throw new TestFailed("unable to start skeleton", e);
+            return;
+        }
+
+        try
+        {
+            if(!ExecutorPolicy.isVirtualThreadSupported())
+                throw new TestFailed("virtual threads used without support");
+
+            Stub.create(BlockingInterface.class, virtual).block();
+
+            boolean     isVirtual;
+            try
+            {
+                isVirtual = (Boolean)Thread.class.getMethod("isVirtual")
+                                                 .invoke(server.servedOn);
+            }
+            catch(ReflectiveOperationException e)
+            {
+                throw new TestFailed("unable to inspect worker thread", e);
+            }
+
+            if(!isVirtual)
+                throw new TestFailed("call not served on a virtual thread");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+        finally
+        {
+            virtual.stop();
+        }
+    }
+
+    /** Stops the skeleton and releases any blocked call. */
+    @Override
+    protected void clean()
+    {
+        release.countDown();
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Starts a thread making one blocking call through the stub.
+
+        @return The thread.
+     */
+    private Thread caller()
+    {
+        Thread      thread = new Thread(() ->
+        {
+            try
+            {
+                stub.block();
+            }
+            catch(Throwable t)
+            {
+                failure(new TestFailed("blocked call failed", t));
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /** Remote interface with a single method that blocks. */
+    public interface BlockingInterface
+    {
+        /** Blocks until the test releases it.
+
+            @throws RMIException If the call cannot be completed.
+         */
+        public void block() throws RMIException;
+    }
+
+    /** Server whose calls block until the test releases them. */
+    private class BlockingServer implements BlockingInterface
+    {
+        /** Thread that served the last call. */
+        volatile Thread     servedOn;
+
+        @Override
+        public void block()
+        {
+            servedOn = Thread.currentThread();
+            entered.countDown();
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+}
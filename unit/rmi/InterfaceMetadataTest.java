@@ -0,0 +1,157 @@
+package rmi;
+
+import java.lang.reflect.Method;
+
+import test.*;
+
+/** Checks that interface metadata is computed once per interface, agrees
+    with the dispatch table, describes each method well enough to build
+    requests from, and classifies interfaces as <code>RemotePattern</code>
+    always has.
+ */
+public class InterfaceMetadataTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking cached interface metadata";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("computing metadata once per interface");
+
+        InterfaceMetadata   metadata = InterfaceMetadata.of(RemoteBase.class);
+
+        if(InterfaceMetadata.of(RemoteBase.class) != metadata)
+            throw new TestFailed("metadata computed twice for an interface");
+
+        if(metadata.getDispatchTable() !=
+           DispatchTable.forInterface(RemoteBase.class))
+        {
+            throw new TestFailed("dispatch table not taken from metadata");
+        }
+
+        task("describing methods");
+
+        Method              call = method(RemoteBase.class, "call", int.class,
+                                          String.class);
+        InterfaceMetadata.MethodMetadata    described =
+            InterfaceMetadata.of(call);
+
+        if(!described.isRemote())
+            throw new TestFailed("remote method not recognized");
+
+        if(described.getMethodId() !=
+           metadata.getDispatchTable().getMethodId(call))
+        {
+            throw new TestFailed("method identifier differs from table");
+        }
+
+        if(InterfaceMetadata.of(call) != described ||
+           described.getArgumentTypes() !=
+               InterfaceMetadata.of(call).getArgumentTypes())
+        {
+            throw new TestFailed("method metadata not shared");
+        }
+
+        String[]            types = described.getArgumentTypes();
+        if(types.length != 2 || !"int".equals(types[0]) ||
+           !String.class.getName().equals(types[1]))
+        {
+            throw new TestFailed("wrong argument types");
+        }
+
+        if(!RemoteBase.class.getName().equals(described.getInterfaceName()) ||
+           !"call".equals(described.getMethodName()) ||
+           !"call(int,java.lang.String)".equals(described.getSignature()) ||
+           described.getFingerprint() !=
+               metadata.getDispatchTable().getFingerprint())
+        {
+            throw new TestFailed("wrong call descriptor");
+        }
+
+        task("building requests from the descriptor");
+
+        rmi.io.RMIRequest   request = Stub.newRequest(call, null);
+
+        if(!described.getInterfaceName().equals(request.getClassName()) ||
+           request.getMethodId() != described.getMethodId() ||
+           request.getArgumentTypes() != described.getArgumentTypes())
+        {
+            throw new TestFailed("request not built from the descriptor");
+        }
+
+        if(InterfaceMetadata.of(method(LocalInterface.class, "local"))
+               .isRemote())
+        {
+            throw new TestFailed("local method taken as remote");
+        }
+
+        task("classifying interfaces");
+
+        if(!RemotePattern.isRemoteInterface(RemoteBase.class) ||
+           !RemotePattern.isRemoteInterface(EmptyDerived.class) ||
+           !RemotePattern.isRemoteInterface(MixedDerived.class))
+        {
+            throw new TestFailed("remote interface not recognized");
+        }
+
+        if(RemotePattern.isRemoteInterface(LocalInterface.class) ||
+           RemotePattern.isRemoteInterface(String.class))
+        {
+            throw new TestFailed("non-remote type taken as remote");
+        }
+
+        if(DispatchTable.forInterface(String.class) != null)
+            throw new TestFailed("dispatch table built for a class");
+    }
+
+    /** Looks up a method, failing the test if it does not exist.
+
+        @param c Class declaring the method.
+        @param name Method name.
+        @param parameterTypes Method parameter types.
+        @return The method.
+        @throws TestFailed If there is no such method.
+     */
+    private Method method(Class<?> c, String name, Class<?>... parameterTypes)
+        throws TestFailed
+    {
+        try
+        {
+            return c.getDeclaredMethod(name, parameterTypes);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("no method " + name, e);
+        }
+    }
+
+    /** Remote interface declaring remote methods only. */
+    private interface RemoteBase
+    {
+        int call(int value, String name) throws RMIException;
+        void other() throws RMIException;
+    }
+
+    /** Empty interface extending a remote interface. */
+    private interface EmptyDerived extends RemoteBase
+    {
+    }
+
+    /** Interface declaring a local method but extending a remote interface.
+     */
+    private interface MixedDerived extends RemoteBase
+    {
+        void local();
+    }
+
+    /** Interface declaring a local method only. */
+    private interface LocalInterface
+    {
+        void local();
+    }
+}
@@ -0,0 +1,134 @@
+package rmi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+import test.*;
+
+/** Checks that both invocation strategies call remote methods with the same
+    results and report failures in the same way.
+ */
+public class InvokerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking remote method invokers";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Method      ping;
+        try
+        {
+            ping = IPingServer.class.getMethod("ping", int.class);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("ping method not found", e);
+        }
+
+        task("checking that method handles are used when accessible");
+
+        if(!(Invoker.create(ping, new PingServer(),
+                            InvocationStrategy.METHOD_HANDLE)
+             instanceof MethodHandleInvoker))
+        {
+            throw new TestFailed("method handle invoker not built");
+        }
+
+        for(InvocationStrategy strategy : InvocationStrategy.values())
+        {
+            task("checking the " + strategy + " strategy");
+            check(Invoker.create(ping, new PingServer(), strategy));
+            check(Invoker.create(ping, new FailingServer(), strategy),
+                  FailingServer.failure);
+        }
+
+        task();
+    }
+
+    /** Checks that an invoker returns the right value and rejects
+        mismatched arguments.
+
+        @param invoker Invoker bound to a <code>PingServer</code>.
+        @throws TestFailed If the invoker misbehaves.
+     */
+    private void check(Invoker invoker) throws TestFailed
+    {
+        try
+        {
+            if(!"Pong 7".equals(invoker.invoke(new Object[] {7})))
+                throw new TestFailed("incorrect return value");
+        }
+        catch(InvocationTargetException | IllegalAccessException e)
+        {
+            throw new TestFailed("invocation failed", e);
+        }
+
+        Object[][]  mismatched =
+            new Object[][] {{}, {null}, {"7"}, {7, 8}};
+        for(Object[] arguments : mismatched)
+        {
+            try
+            {
+                invoker.invoke(arguments);
+                throw new TestFailed("mismatched arguments accepted");
+            }
+            catch(IllegalArgumentException e) { }
+            catch(InvocationTargetException | IllegalAccessException e)
+            {
+                throw new TestFailed("mismatched arguments reported as " +
+                                     "method failure", e);
+            }
+        }
+    }
+
+    /** Checks that an invoker reports an exception thrown by the method as
+        the target of an <code>InvocationTargetException</code>.
+
+        @param invoker Invoker bound to a <code>FailingServer</code>.
+        @param expected Exception the method throws.
+        @throws TestFailed If the exception is not reported correctly.
+     */
+    private void check(Invoker invoker, Exception expected) throws TestFailed
+    {
+        try
+        {
+            invoker.invoke(new Object[] {1});
+            throw new TestFailed("exception not reported");
+        }
+        catch(InvocationTargetException e)
+        {
+            if(e.getTargetException() != expected)
+                throw new TestFailed("wrong target exception", e);
+        }
+        catch(IllegalAccessException e)
+        {
+            throw new TestFailed("invocation failed", e);
+        }
+    }
+
+    /** Server whose ping method always fails. */
+    private static class FailingServer implements IPingServer
+    {
+        /** Exception thrown by every call. */
+        static final RMIException   failure = new RMIException("failure");
+
+        @Override
+        public String ping(int idNumber) throws RMIException
+        {
+            throw failure;
+        }
+
+        @Override
+        public byte[] echo(byte[] payload) throws RMIException
+        {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package rmi;
+
+import rmi.metrics.LatencyHistogram;
+import test.*;
+
+/** Checks that <code>LatencyHistogram</code> reports counts exactly and
+    percentiles within its relative error, and that histograms add up.
+ */
+public class LatencyHistogramTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking latency histograms";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        LatencyHistogram    histogram = new LatencyHistogram();
+
+        task("checking an empty histogram");
+
+        if(histogram.getCount() != 0 || histogram.getMax() != 0 ||
+           histogram.getMin() != 0 || histogram.getMean() != 0 ||
+           histogram.getValueAtPercentile(99) != 0)
+        {
+            throw new TestFailed("empty histogram reports values");
+        }
+
+        task("checking that small values are counted exactly");
+
+        for(long value = 1; value <= 100; value++)
+            histogram.record(value);
+
+        if(histogram.getCount() != 100 || histogram.getMin() != 1 ||
+           histogram.getMax() != 100 || histogram.getMean() != 50.5)
+        {
+            throw new TestFailed("wrong count or extremes of small values");
+        }
+
+        if(histogram.getValueAtPercentile(50) != 50 ||
+           histogram.getValueAtPercentile(99) != 99 ||
+           histogram.getValueAtPercentile(100) != 100 ||
+           histogram.getValueAtPercentile(0) != 1)
+        {
+            throw new TestFailed("wrong percentiles of small values");
+        }
+
+        task("checking the relative error of large values");
+
+        histogram.reset();
+        for(long value = 1000; value <= 1000000000L; value += value / 10)
+        {
+            histogram.reset();
+            histogram.record(value);
+            histogram.record(2 * value);
+
+            long    reported = histogram.getValueAtPercentile(50);
+
+            if(reported < value ||
+               reported - value > value * 2 / LatencyHistogram.subBucketCount)
+            {
+                throw new TestFailed("value " + value + " reported as " +
+                                     reported);
+            }
+        }
+
+        task("checking that values out of range are clamped");
+
+        histogram.reset();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        if(histogram.getMin() != 0 ||
+           histogram.getMax() != LatencyHistogram.maxTrackableValue ||
+           histogram.getValueAtPercentile(100) !=
+                LatencyHistogram.maxTrackableValue)
+        {
+            throw new TestFailed("values out of range not clamped");
+        }
+
+        task("checking that histograms add up");
+
+        LatencyHistogram    low = new LatencyHistogram();
+        LatencyHistogram    high = new LatencyHistogram();
+
+        for(int i = 0; i < 900; i++)
+            low.record(10);
+        for(int i = 0; i < 100; i++)
+            high.record(5000);
+
+        low.add(high);
+
+        if(low.getCount() != 1000 || low.getMin() != 10 ||
+           low.getMax() != 5000)
+        {
+            throw new TestFailed("wrong count or extremes after adding");
+        }
+
+        if(low.getValueAtPercentile(90) != 10 ||
+           low.getValueAtPercentile(90.1) != 5000)
+        {
+            throw new TestFailed("wrong percentiles after adding");
+        }
+
+        task();
+    }
+}
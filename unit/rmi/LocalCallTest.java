@@ -0,0 +1,246 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import test.*;
+
+/** Checks that a stub created from a skeleton in the same JVM calls it
+    directly once local calls are enabled: arguments and results are copied
+    in <code>COPY</code> mode, immutable ones are shared in
+    <code>SHARE_IMMUTABLE</code> mode, server exceptions and stopped
+    skeletons are reported as over the network, and the calls are recorded in
+    the skeleton metrics.
+ */
+public class LocalCallTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking in-process calls";
+
+    /** Server recording the arguments it is given. */
+    private LocalServer                 server;
+    /** Skeleton serving the calls. */
+    private Skeleton<LocalInterface>    skeleton;
+
+    /** Starts the skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        server = new LocalServer();
+        skeleton = new Skeleton<LocalInterface>(LocalInterface.class, server);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        LocalInterface      stub = Stub.create(LocalInterface.class, skeleton);
+        String              text = new String("shared?");
+        int[]               values = {1, 2, 3};
+
+        task("copying arguments in COPY mode");
+
+        Stub.setLocalCallMode(LocalCallMode.COPY);
+        long                calls = skeleton.getMetrics().getCalls();
+
+        try
+        {
+            if(!stub.keep(text).equals(text) || server.kept == text)
+                throw new TestFailed("string argument not copied");
+
+            if(stub.increment(values) != 9 ||
+               values[0] != 1 || values[2] != 3)
+            {
+                throw new TestFailed("server changed caller's array");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to call locally", e);
+        }
+
+        // Local calls are recorded before they return.
+        if(skeleton.getMetrics().getCalls() != calls + 2)
+            throw new TestFailed("local calls not recorded in metrics");
+
+        task("sharing immutable arguments in SHARE_IMMUTABLE mode");
+
+        Stub.setLocalCallMode(LocalCallMode.SHARE_IMMUTABLE);
+
+        try
+        {
+            if(stub.keep(text) != text || server.kept != text)
+                throw new TestFailed("string argument not shared");
+
+            stub.increment(values);
+            if(values[0] != 1)
+                throw new TestFailed("mutable argument shared");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to call locally", e);
+        }
+
+        task("reporting server exceptions");
+
+        try
+        {
+            stub.fail();
+            throw new TestFailed("server exception not reported");
+        }
+        catch(IllegalStateException e)
+        {
+            if(!"asked to fail".equals(e.getMessage()))
+                throw new TestFailed("wrong exception message", e);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("server exception reported as " +
+                                 "RMIException", e);
+        }
+
+        task("calling remotely through a serialized stub");
+
+        LocalInterface      copy = copy(stub);
+        text = new String("remote");
+
+        try
+        {
+            copy.keep(text);
+            if(server.kept == text)
+                throw new TestFailed("serialized stub called locally");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to call remotely", e);
+        }
+
+        task("calling a stopped skeleton");
+
+        skeleton.stop();
+        skeleton = null;
+
+        try
+        {
+            stub.keep(text);
+            throw new TestFailed("stopped skeleton called");
+        }
+        catch(RMIException e) { }
+
+        task();
+    }
+
+    /** Stops the skeleton and disables local calls. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        Stub.setLocalCallMode(LocalCallMode.DISABLED);
+    }
+
+    /** Copies a stub by serializing and deserializing it.
+
+        @param stub The stub.
+        @return The copy.
+        @throws TestFailed If the stub cannot be copied.
+     */
+    private LocalInterface copy(LocalInterface stub) throws TestFailed
+    {
+        try
+        {
+            ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+            ObjectOutputStream      out = new ObjectOutputStream(bytes);
+
+            out.writeObject(stub);
+            out.close();
+
+            ObjectInputStream       in =
+                new ObjectInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()));
+
+            return (LocalInterface)in.readObject();
+        }
+        catch(IOException | ClassNotFoundException e)
+        {
+            throw new TestFailed("unable to copy stub", e);
+        }
+    }
+
+    /** Remote interface called in process. */
+    public interface LocalInterface
+    {
+        /** Keeps a string and returns it.
+
+            @param text The string.
+            @return The same string.
+            @throws RMIException If the call cannot be completed.
+         */
+        public String keep(String text) throws RMIException;
+
+        /** Increments every element of an array and returns their new sum.
+
+            @param values The array.
+            @return The sum of the incremented elements.
+            @throws RMIException If the call cannot be completed.
+         */
+        public int increment(int[] values) throws RMIException;
+
+        /** Always throws.
+
+            @throws IllegalStateException Always.
+            @throws RMIException If the call cannot be completed.
+         */
+        public void fail() throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class LocalServer implements LocalInterface
+    {
+        /** The string last given to <code>keep</code>. */
+        volatile String     kept;
+
+        @Override
+        public String keep(String text)
+        {
+            kept = text;
+            return text;
+        }
+
+        @Override
+        public int increment(int[] values)
+        {
+            int             sum = 0;
+
+            for(int i = 0; i < values.length; ++i)
+                sum += ++values[i];
+
+            return sum;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException("asked to fail");
+        }
+    }
+}
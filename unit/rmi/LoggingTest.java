@@ -0,0 +1,384 @@
+package rmi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import rmi.log.Appender;
+import rmi.log.AsyncAppender;
+import rmi.log.Level;
+import rmi.log.Log;
+import rmi.log.LogEvent;
+import rmi.log.Logger;
+import rmi.server.IPingServer;
+import test.*;
+
+/** Checks that loggers build no message below the configured level, that
+    the asynchronous appender hands on events in order, drops them rather
+    than block when full and loses none to a flush or a close, and that stubs
+    do not print when converted to strings.
+ */
+public class LoggingTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the logging facade";
+
+    /** Number of events logged by each thread. */
+    private static final int    EVENTS = 200;
+    /** Number of threads logging at once. */
+    private static final int    THREADS = 4;
+
+    /** Logger under test. */
+    private final Logger        log = Log.getLogger(LoggingTest.class);
+    /** Level in force before the test. */
+    private Level               savedLevel;
+    /** Appender in force before the test. */
+    private Appender            savedAppender;
+    /** Asynchronous appender created by the test. */
+    private AsyncAppender       async;
+
+    /** Saves the logging configuration. */
+    @Override
+    protected void initialize()
+    {
+        savedLevel = Log.getLevel();
+        savedAppender = Log.getAppender();
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        checkLevels();
+        checkOrdering();
+        checkDropping();
+        checkFlushing();
+        checkClosing();
+        checkStubString();
+    }
+
+    /** Checks that messages below the level are not built.
+
+        @throws TestFailed If the test fails.
+     */
+    private void checkLevels() throws TestFailed
+    {
+        task("filtering messages by level");
+
+        CollectingAppender  collected = new CollectingAppender(null);
+        boolean[]           built = new boolean[1];
+
+        Log.setAppender(collected);
+        Log.setLevel(Level.WARN);
+
+        log.info(() -> { built[0] = true; return "hidden"; });
+        log.warn(() -> "shown");
+
+        if(built[0])
+            throw new TestFailed("message below the level was built");
+
+        if(log.isEnabled(Level.INFO) || !log.isEnabled(Level.ERROR))
+            throw new TestFailed("wrong levels reported as enabled");
+
+        if(collected.events.size() != 1 ||
+           !"shown".equals(collected.events.get(0).getMessage()) ||
+           collected.events.get(0).getLevel() != Level.WARN ||
+           !LoggingTest.class.getName().equals(
+               collected.events.get(0).getLoggerName()))
+        {
+            throw new TestFailed("wrong events appended");
+        }
+    }
+
+    /** Checks that the asynchronous appender hands on every event, in the
+        order each thread logged them.
+
+        @throws TestFailed If the test fails.
+     */
+    private void checkOrdering() throws TestFailed
+    {
+        task("handing on events from several threads in order");
+
+        CollectingAppender  collected = new CollectingAppender(null);
+        Thread[]            threads = new Thread[THREADS];
+
+        async = new AsyncAppender(collected, THREADS * EVENTS);
+        Log.setAppender(async);
+        Log.setLevel(Level.INFO);
+
+        for(int t = 0; t < THREADS; ++t)
+        {
+            String          name = "t" + t;
+            threads[t] = new Thread(() -> {
+                for(int i = 0; i < EVENTS; ++i)
+                    log.info(name + " " + i);
+            });
+            threads[t].start();
+        }
+
+        try
+        {
+            for(Thread thread : threads)
+                thread.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        Log.flush();
+
+        if(collected.size() != THREADS * EVENTS || async.getDropped() != 0)
+            throw new TestFailed("events lost: " + collected.size());
+
+        int[]               next = new int[THREADS];
+        for(LogEvent event : collected.snapshot())
+        {
+            String[]        parts = event.getMessage().split(" ");
+            int             thread = Integer.parseInt(parts[0].substring(1));
+
+            if(Integer.parseInt(parts[1]) != next[thread]++)
+                throw new TestFailed("events of a thread out of order");
+        }
+
+        async.close();
+        async = null;
+    }
+
+    /** Checks that a full appender drops events instead of blocking.
+
+        @throws TestFailed If the test fails.
+     */
+    private void checkDropping() throws TestFailed
+    {
+        task("dropping events when the ring is full");
+
+        CountDownLatch      release = new CountDownLatch(1);
+        CollectingAppender  collected = new CollectingAppender(release);
+        int                 total = 64;
+
+        async = new AsyncAppender(collected, 8);
+        Log.setAppender(async);
+
+        for(int i = 0; i < total; ++i)
+            log.info("event " + i);
+
+        if(async.getDropped() == 0)
+            throw new TestFailed("no events dropped by full appender");
+
+        release.countDown();
+        Log.flush();
+
+        if(collected.size() + async.getDropped() != total)
+        {
+            throw new TestFailed("events neither handed on nor dropped: " +
+                                 collected.size() + " handed on, " +
+                                 async.getDropped() + " dropped");
+        }
+
+        if(!"event 0".equals(collected.snapshot().get(0).getMessage()))
+            throw new TestFailed("first event not handed on first");
+
+        async.close();
+        async = null;
+    }
+
+    /** Checks that flushing waits for an event the appender's thread is
+        still handing on.
+
+        @throws TestFailed If the test fails.
+     */
+    private void checkFlushing() throws TestFailed
+    {
+        task("flushing an event still being handed on");
+
+        CountDownLatch      release = new CountDownLatch(1);
+        CollectingAppender  collected = new CollectingAppender(release);
+
+        async = new AsyncAppender(collected, 8);
+        Log.setAppender(async);
+
+        log.info("event");
+
+        Thread              releaser = new Thread(() -> {
+            try
+            {
+                Thread.sleep(50);
+            }
+            catch(InterruptedException e) { }
+            release.countDown();
+        });
+        releaser.start();
+
+        Log.flush();
+
+        if(collected.size() != 1)
+            throw new TestFailed("flush returned before event was handed on");
+
+        async.close();
+        async = null;
+    }
+
+    /** Checks that no event is lost when the appender is closed while
+        threads are logging.
+
+        @throws TestFailed If the test fails.
+     */
+    private void checkClosing() throws TestFailed
+    {
+        task("closing the appender while threads are logging");
+
+        CollectingAppender  collected = new CollectingAppender(null);
+        Thread[]            threads = new Thread[THREADS];
+        CountDownLatch      started = new CountDownLatch(THREADS);
+
+        async = new AsyncAppender(collected, THREADS * EVENTS);
+        Log.setAppender(async);
+
+        for(int t = 0; t < THREADS; ++t)
+        {
+            threads[t] = new Thread(() -> {
+                started.countDown();
+                for(int i = 0; i < EVENTS; ++i)
+                    log.info("event " + i);
+            });
+            threads[t].start();
+        }
+
+        try
+        {
+            started.await();
+            async.close();
+
+            for(Thread thread : threads)
+                thread.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        if(collected.size() + async.getDropped() != THREADS * EVENTS)
+            throw new TestFailed("events lost: " + collected.size());
+
+        async = null;
+    }
+
+    /** Checks that converting a stub to a string prints nothing.
+
+        @throws TestFailed If the test fails.
+     */
+    private void checkStubString() throws TestFailed
+    {
+        task("converting a stub to a string silently");
+
+        IPingServer         stub =
+            Stub.create(IPingServer.class,
+                        new InetSocketAddress("127.0.0.1", 7000));
+        ByteArrayOutputStream   printed = new ByteArrayOutputStream();
+        PrintStream         savedErr = System.err;
+        PrintStream         savedOut = System.out;
+
+        System.setErr(new PrintStream(printed, true));
+        System.setOut(new PrintStream(printed, true));
+        try
+        {
+            stub.toString();
+            stub.hashCode();
+        }
+        finally
+        {
+            System.setErr(savedErr);
+            System.setOut(savedOut);
+        }
+
+        if(printed.size() != 0)
+            throw new TestFailed("stub printed: " + printed);
+    }
+
+    /** Restores the logging configuration. */
+    @Override
+    protected void clean()
+    {
+        Log.setLevel(savedLevel);
+        Log.setAppender(savedAppender);
+
+        if(async != null)
+            async.close();
+    }
+
+    /** Appender collecting events, optionally waiting to be released before
+        collecting each one.
+     */
+    private static class CollectingAppender implements Appender
+    {
+        /** Events collected. */
+        final List<LogEvent>    events = new ArrayList<>();
+        /** Released once events may be collected; <code>null</code> if they
+            are collected at once. */
+        private final CountDownLatch    release;
+
+        /** Creates the appender.
+
+            @param release Latch released once events may be collected, or
+                           <code>null</code>.
+         */
+        CollectingAppender(CountDownLatch release)
+        {
+            this.release = release;
+        }
+
+        @Override
+        public void append(LogEvent event)
+        {
+            if(release != null)
+            {
+                try
+                {
+                    release.await();
+                }
+                catch(InterruptedException e) { }
+            }
+
+            synchronized(events)
+            {
+                events.add(event);
+            }
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        /** Returns the number of events collected.
+
+            @return The number of events.
+         */
+        int size()
+        {
+            synchronized(events)
+            {
+                return events.size();
+            }
+        }
+
+        /** Returns a copy of the events collected.
+
+            @return The events.
+         */
+        List<LogEvent> snapshot()
+        {
+            synchronized(events)
+            {
+                return new ArrayList<>(events);
+            }
+        }
+    }
+}
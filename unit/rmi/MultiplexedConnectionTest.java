@@ -0,0 +1,322 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+
+import rmi.io.Codec;
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+import rmi.io.WireFormat;
+
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+import test.*;
+
+/** Checks that stubs in multiplexed mode share one connection per skeleton
+    address and fail cleanly once the skeleton stops, or once the server
+    answers a call that was never made, and that the late response to a call
+    whose caller was interrupted is dropped without failing the connection.
+ */
+public class MultiplexedConnectionTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking multiplexed stub connections";
+
+    /** Number of threads calling through the stub concurrently. */
+    private static final int    THREADS = 8;
+    /** Number of calls made by each thread. */
+    private static final int    CALLS = 200;
+
+    /** Skeleton serving the calls. */
+    private Skeleton<IPingServer>   skeleton;
+    /** Stub connected to the skeleton. */
+    private IPingServer             stub;
+
+    /** Starts the skeleton and switches stubs to multiplexed mode.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        Stub.setConnectionMode(ConnectionMode.MULTIPLEXED);
+
+        skeleton = new Skeleton<IPingServer>(IPingServer.class,
+                                             new PingServer());
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(IPingServer.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("calling the skeleton from several threads");
+
+        Thread[]        threads = new Thread[THREADS];
+        for(int t = 0; t < THREADS; ++t)
+        {
+            final int   offset = t * CALLS;
+            threads[t] = new Thread(() -> callRange(offset));
+            threads[t].start();
+        }
+
+        for(Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while waiting for callers");
+            }
+        }
+
+        task("checking that calls share a single connection");
+
+        InetSocketAddress   address = skeleton.getBindAddress();
+        try
+        {
+            if(MultiplexedConnection.get(address) !=
+               MultiplexedConnection.get(address))
+            {
+                throw new TestFailed("calls to the same address use " +
+                                     "different connections");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to look up connection", e);
+        }
+
+        task("checking that calls fail after the skeleton stops");
+
+        skeleton.stop();
+
+        try
+        {
+            stub.ping(0);
+            throw new TestFailed("call succeeded after skeleton stopped");
+        }
+        catch(RMIException e) { }
+
+        task("checking that a response to an unknown call fails the call");
+
+        checkUnknownCall();
+
+        task("checking that a late response to an interrupted call is " +
+             "dropped");
+
+        checkAbandonedCall();
+
+        task();
+    }
+
+    /** Calls a server that answers every request with a response tagged
+        with a different call identifier, and checks that the call fails
+        instead of waiting forever.
+
+        @throws TestFailed If the call does not fail.
+     */
+    private void checkUnknownCall() throws TestFailed
+    {
+        try(ServerSocket server = new ServerSocket(0))
+        {
+            Thread  answering = new Thread(() -> answerWrongCall(server));
+            answering.setDaemon(true);
+            answering.start();
+
+            IPingServer     misdirected =
+                Stub.create(IPingServer.class,
+                            new InetSocketAddress("127.0.0.1",
+                                                  server.getLocalPort()));
+
+            try
+            {
+                misdirected.ping(0);
+                throw new TestFailed("call answered with a response to " +
+                                     "another call succeeded");
+            }
+            catch(RMIException e) { }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to open server socket", e);
+        }
+    }
+
+    /** Accepts one connection and answers its first request with a response
+        to a call that was never made, leaving the connection open.
+
+        @param server Server socket to accept the connection on.
+     */
+    private void answerWrongCall(ServerSocket server)
+    {
+        try(Socket socket = server.accept())
+        {
+            Codec       codec = WireFormat.openServer(socket.getInputStream(),
+                                                      socket.getOutputStream());
+            RMIRequest  request = codec.readRequest();
+            codec.writeResponse(new RMIResponse(request.getCallId() + 1,
+                                                "Pong"));
+
+            // Keep the connection open until the stub closes it.
+            while(socket.getInputStream().read() != -1);
+        }
+        catch(Throwable t) { }
+    }
+
+    /** Interrupts a call before the server answers it, then checks that the
+        connection still carries the next call once the late response has
+        arrived.
+
+        @throws TestFailed If the interrupted call succeeds or the next call
+                           fails.
+     */
+    private void checkAbandonedCall() throws TestFailed
+    {
+        CountDownLatch  received = new CountDownLatch(1);
+        CountDownLatch  abandoned = new CountDownLatch(1);
+        try(ServerSocket server = new ServerSocket(0))
+        {
+            Thread  answering =
+                new Thread(() -> answerLate(server, received, abandoned));
+            answering.setDaemon(true);
+            answering.start();
+
+            IPingServer     late =
+                Stub.create(IPingServer.class,
+                            new InetSocketAddress("127.0.0.1",
+                                                  server.getLocalPort()));
+
+            final boolean[] answered = new boolean[1];
+            Thread          calling = new Thread(() ->
+            {
+                try
+                {
+                    late.ping(1);
+                    answered[0] = true;
+                }
+                catch(RMIException e) { }
+            });
+            calling.start();
+
+            try
+            {
+                received.await();
+                // An interrupt while the request is still being written
+                // would close the channel, so the caller is interrupted
+                // only once it waits for the response.
+                while(calling.getState() != Thread.State.WAITING)
+                    Thread.sleep(1);
+                calling.interrupt();
+                calling.join();
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while calling", e);
+            }
+            abandoned.countDown();
+
+            if(answered[0])
+                throw new TestFailed("interrupted call succeeded");
+
+            try
+            {
+                if(!"Pong 2".equals(late.ping(2)))
+                    throw new TestFailed("incorrect response");
+            }
+            catch(RMIException e)
+            {
+                throw new TestFailed("late response failed the connection",
+                                     e);
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to open server socket", e);
+        }
+    }
+
+    /** Accepts one connection and answers its first request only once the
+        call has been abandoned, then answers the next request at once.
+
+        @param server Server socket to accept the connection on.
+        @param received Latch counted down once the first request is read.
+        @param abandoned Latch counted down once the first call has been
+                         abandoned.
+     */
+    private void answerLate(ServerSocket server, CountDownLatch received,
+                            CountDownLatch abandoned)
+    {
+        try(Socket socket = server.accept())
+        {
+            Codec       codec = WireFormat.openServer(socket.getInputStream(),
+                                                      socket.getOutputStream());
+            for(int i = 0; i < 2; ++i)
+            {
+                RMIRequest  request = codec.readRequest();
+                if(i == 0)
+                {
+                    received.countDown();
+                    abandoned.await();
+                }
+                codec.writeResponse(new RMIResponse(request.getCallId(),
+                    (Object)("Pong " + request.getArguments()[0])));
+            }
+
+            // Keep the connection open until the stub closes it.
+            while(socket.getInputStream().read() != -1);
+        }
+        catch(Throwable t) { }
+    }
+
+    /** Stops the skeleton and restores the default connection mode. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+    }
+
+    /** Makes a run of calls through the stub, checking each response.
+
+        @param offset Identifier of the first call in the run.
+     */
+    private void callRange(int offset)
+    {
+        try
+        {
+            for(int i = offset; i < offset + CALLS; ++i)
+            {
+                if(!("Pong " + i).equals(stub.ping(i)))
+                {
+                    failure(new TestFailed("response matched to wrong call"));
+                    return;
+                }
+            }
+        }
+        catch(Throwable t)
+        {
+            failure(new TestFailed("call failed", t));
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import rmi.io.BinaryCodec;
+import rmi.io.FrameWriter;
+import rmi.io.WireFormat;
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+import test.*;
+
+/** Checks that a skeleton running the NIO server engine serves calls in
+    every connection mode and wire format, holds idle connections without
+    occupying workers, and can be stopped and restarted.
+ */
+public class NioEngineTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the NIO server engine";
+
+    /** Number of threads calling through the stub concurrently. */
+    private static final int    THREADS = 4;
+    /** Number of calls made by each thread. */
+    private static final int    CALLS = 100;
+    /** Number of idle connections held open. */
+    private static final int    IDLE = 200;
+
+    /** Skeleton serving the calls. */
+    private Skeleton<IPingServer>   skeleton;
+    /** Stub connected to the skeleton. */
+    private IPingServer             stub;
+    /** Idle connections held open to the skeleton. */
+    private final Socket[]          idle = new Socket[IDLE];
+
+    /** Starts the skeleton on the NIO engine and switches stubs to the
+        binary wire format.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        Stub.setWireFormat(WireFormat.BINARY);
+
+        skeleton = new Skeleton<IPingServer>(IPingServer.class,
+                                             new PingServer());
+        skeleton.setServerEngine(ServerEngine.NIO);
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(IPingServer.class, skeleton);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        for(ConnectionMode mode : ConnectionMode.values())
+        {
+            task("calling in " + mode + " mode");
+            Stub.setConnectionMode(mode);
+            callConcurrently();
+        }
+
+        task("calling with the serialization wire format");
+
+        Stub.setConnectionMode(ConnectionMode.POOLED);
+        Stub.setWireFormat(WireFormat.SERIALIZATION);
+        callConcurrently();
+        Stub.setWireFormat(WireFormat.BINARY);
+        Stub.getConnectionPool().clear();
+
+        task("holding " + IDLE + " idle connections");
+
+        openIdleConnections();
+        callConcurrently();
+        long        deadline = System.currentTimeMillis() + 5000;
+        while(skeleton.getActiveWorkers() != 0)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("idle connections occupy workers");
+            Thread.yield();
+        }
+
+        task("stopping the skeleton");
+
+        InetSocketAddress   address = skeleton.getBindAddress();
+        skeleton.stop();
+        for(Socket socket : idle)
+        {
+            try
+            {
+                socket.setSoTimeout(5000);
+                if(socket.getInputStream().read() != -1)
+                    throw new TestFailed("unexpected data on idle connection");
+            }
+            catch(IOException e) { }
+        }
+
+        Stub.getConnectionPool().clear();
+        try
+        {
+            stub.ping(0);
+            throw new TestFailed("call succeeded after skeleton stopped");
+        }
+        catch(RMIException e) { }
+
+        task("restarting the skeleton");
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to restart skeleton", e);
+        }
+
+        if(!address.equals(skeleton.getBindAddress()))
+            throw new TestFailed("skeleton restarted on another address");
+
+        callConcurrently();
+
+        task();
+    }
+
+    /** Stops the skeleton, closes the idle connections and restores the
+        default stub settings. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        for(Socket socket : idle)
+        {
+            try
+            {
+                if(socket != null)
+                    socket.close();
+            }
+            catch(IOException e) { }
+        }
+
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+        Stub.setWireFormat(WireFormat.BINARY);
+        Stub.getConnectionPool().clear();
+    }
+
+    /** Opens binary connections that complete the handshake and then send
+        nothing. The connections are opened in batches that fit the listen
+        backlog, so that no connection attempt is dropped and retried.
+
+        @throws TestFailed If a connection cannot be opened or its handshake
+                           is not answered.
+     */
+    private void openIdleConnections() throws TestFailed
+    {
+        FrameWriter     handshake = new FrameWriter();
+        BinaryCodec.writeHandshake(handshake);
+        int             batch = Skeleton.maxQueueLength / 2;
+
+        try
+        {
+            for(int first = 0; first < IDLE; first += batch)
+            {
+                int     last = Math.min(IDLE, first + batch);
+                for(int i = first; i < last; ++i)
+                {
+                    idle[i] = new Socket();
+                    idle[i].connect(skeleton.getBindAddress());
+                    idle[i].getOutputStream().write(handshake.buffer(), 0,
+                                                    handshake.length());
+                }
+
+                for(int i = first; i < last; ++i)
+                {
+                    idle[i].setSoTimeout(5000);
+                    BinaryCodec.readHandshake(idle[i].getInputStream());
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to open idle connection", e);
+        }
+    }
+
+    /** Calls the skeleton from several threads, checking every response.
+
+        @throws TestFailed If a call fails.
+     */
+    private void callConcurrently() throws TestFailed
+    {
+        Thread[]        threads = new Thread[THREADS];
+        for(int t = 0; t < THREADS; ++t)
+        {
+            final int   offset = t * CALLS;
+            threads[t] = new Thread(() -> callRange(offset));
+            threads[t].start();
+        }
+
+        for(Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while waiting for callers");
+            }
+        }
+    }
+
+    /** Makes a run of calls through the stub, checking each response.
+
+        @param offset Identifier of the first call in the run.
+     */
+    private void callRange(int offset)
+    {
+        try
+        {
+            for(int i = offset; i < offset + CALLS; ++i)
+            {
+                if(!("Pong " + i).equals(stub.ping(i)))
+                {
+                    failure(new TestFailed("response matched to wrong call"));
+                    return;
+                }
+            }
+        }
+        catch(Throwable t)
+        {
+            failure(new TestFailed("call failed", t));
+        }
+    }
+}
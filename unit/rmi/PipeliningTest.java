@@ -0,0 +1,221 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rmi.io.WireFormat;
+import test.*;
+
+/** Checks that both server engines execute the calls pipelined on a single
+    connection concurrently, from the first calls on a new connection, and
+    that they never execute more of them at once than the pipelined call bound
+    of the executor policy allows.
+ */
+public class PipeliningTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking pipelined call execution";
+
+    /** Number of calls that must execute at once to meet at the barrier. */
+    private static final int    PARTIES = 4;
+    /** Number of calls issued against the pipelined call bound. */
+    private static final int    CALLS = 10;
+    /** Pipelined call bound of the restricted policy. */
+    private static final int    BOUND = 2;
+
+    /** Skeleton serving the calls. */
+    private Skeleton<PipelineInterface> skeleton;
+
+    /** Switches stubs to the binary wire format, which the NIO engine serves
+        itself.
+     */
+    @Override
+    protected void initialize()
+    {
+        Stub.setWireFormat(WireFormat.BINARY);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        for(ServerEngine engine : ServerEngine.values())
+        {
+            task("meeting at a barrier over a new connection, " + engine +
+                 " engine");
+
+            PipelineServer  server = new PipelineServer();
+            AsyncStub<PipelineInterface>    async =
+                start(engine, new ExecutorPolicy(), server);
+
+            List<CompletableFuture<Boolean>>    met =
+                new ArrayList<>(PARTIES);
+            for(int i = 0; i < PARTIES; ++i)
+                met.add(async.call(s -> s.meet()));
+
+            for(CompletableFuture<Boolean> future : met)
+            {
+                if(!await(future))
+                    throw new TestFailed("pipelined calls not executed " +
+                                         "concurrently");
+            }
+
+            skeleton.stop();
+
+            task("respecting the pipelined call bound, " + engine +
+                 " engine");
+
+            server = new PipelineServer();
+            async = start(engine,
+                          new ExecutorPolicy().withMaxPipelinedCalls(BOUND),
+                          server);
+
+            List<CompletableFuture<Void>>   slept = new ArrayList<>(CALLS);
+            for(int i = 0; i < CALLS; ++i)
+                slept.add(async.run(s -> s.sleep(20)));
+
+            for(CompletableFuture<Void> future : slept)
+                await(future);
+
+            if(server.maxConcurrent.get() > BOUND)
+            {
+                throw new TestFailed(server.maxConcurrent.get() + " calls " +
+                                     "executed at once, bound is " + BOUND);
+            }
+
+            skeleton.stop();
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Starts a skeleton and returns an asynchronous view of a stub for it.
+
+        @param engine Server engine of the skeleton.
+        @param policy Executor policy of the skeleton.
+        @param server Server object.
+        @return The asynchronous view.
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    private AsyncStub<PipelineInterface> start(ServerEngine engine,
+                                               ExecutorPolicy policy,
+                                               PipelineServer server)
+        throws TestFailed
+    {
+        skeleton = new Skeleton<PipelineInterface>(PipelineInterface.class,
+                                                   server);
+        skeleton.setServerEngine(engine);
+        skeleton.setExecutorPolicy(policy);
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        return Stub.async(Stub.create(PipelineInterface.class, skeleton));
+    }
+
+    /** Waits for a call to complete.
+
+        @param future Future of the call.
+        @return The result of the call.
+        @throws TestFailed If the call fails or does not complete in time.
+     */
+    private <R> R await(CompletableFuture<R> future) throws TestFailed
+    {
+        try
+        {
+            return future.get(2, TimeUnit.SECONDS);
+        }
+        catch(ExecutionException e)
+        {
+            throw new TestFailed("call failed", e.getCause());
+        }
+        catch(InterruptedException | TimeoutException e)
+        {
+            throw new TestFailed("call not completed", e);
+        }
+    }
+
+    /** Remote interface whose calls wait for one another. */
+    public interface PipelineInterface
+    {
+        /** Waits for the other parties to arrive at the barrier.
+
+            @return <code>true</code> if all parties arrived in time,
+                    <code>false</code> otherwise.
+            @throws RMIException If the call cannot be completed.
+         */
+        public boolean meet() throws RMIException;
+
+        /** Sleeps for the given time.
+
+            @param millis Time to sleep in milliseconds.
+            @throws RMIException If the call cannot be completed.
+         */
+        public void sleep(long millis) throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class PipelineServer implements PipelineInterface
+    {
+        /** Barrier at which the calls to <code>meet</code> wait. */
+        private final CyclicBarrier barrier = new CyclicBarrier(PARTIES);
+        /** Number of calls to <code>sleep</code> executing. */
+        private final AtomicInteger concurrent = new AtomicInteger();
+        /** Largest number of calls to <code>sleep</code> executing at once. */
+        final AtomicInteger         maxConcurrent = new AtomicInteger();
+
+        @Override
+        public boolean meet()
+        {
+            try
+            {
+                barrier.await(1, TimeUnit.SECONDS);
+                return true;
+            }
+            catch(InterruptedException | BrokenBarrierException |
+                  TimeoutException e)
+            {
+                return false;
+            }
+        }
+
+        @Override
+        public void sleep(long millis)
+        {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(),
+                                           Math::max);
+            try
+            {
+                Thread.sleep(millis);
+            }
+            catch(InterruptedException e) { }
+            finally
+            {
+                concurrent.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package rmi;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rmi.io.RMIRequest;
+import rmi.io.RMIResponse;
+import test.*;
+
+/** Checks that closing a remote stream does not wait for a chunk being
+    fetched by the thread consuming it, and that the consuming thread finds
+    the stream ended once the chunk arrives.
+ */
+public class RemoteStreamTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking that remote streams close without waiting";
+
+    /** Identifier of the stream at the fake skeleton. */
+    private static final long   STREAM_ID = 7;
+    /** Time in milliseconds closing the stream may take. */
+    private static final long   CLOSE_TIME = 500;
+
+    /** Latch counted down once a chunk is being fetched. */
+    private final CountDownLatch    fetching = new CountDownLatch(1);
+    /** Latch released to answer the chunk being fetched. */
+    private final CountDownLatch    release = new CountDownLatch(1);
+    /** Number of requests asking to close the stream. */
+    private final AtomicInteger     closeRequests = new AtomicInteger();
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("closing a stream while a chunk is being fetched");
+
+        Iterator<?>         stream = (Iterator<?>)RemoteStream.open(
+            Iterator.class,
+            RMIResponse.chunk(1, STREAM_ID, new Object[] {1}, false),
+            this::exchange);
+
+        final Object[]      more = new Object[1];
+        final Throwable[]   failure = new Throwable[1];
+        Thread              consumer = new Thread(() ->
+        {
+            try
+            {
+                stream.next();
+                more[0] = stream.hasNext();
+            }
+            catch(Throwable t)
+            {
+                failure[0] = t;
+            }
+        });
+        consumer.start();
+
+        Thread              closer = new Thread(() ->
+            ((RemoteStream)stream).close());
+        try
+        {
+            if(!fetching.await(CLOSE_TIME, TimeUnit.MILLISECONDS))
+                throw new TestFailed("chunk not fetched");
+
+            closer.start();
+            closer.join(CLOSE_TIME);
+            if(closer.isAlive())
+                throw new TestFailed("close waited for chunk being fetched");
+            if(closeRequests.get() != 1)
+                throw new TestFailed("skeleton not told to close stream");
+
+            release.countDown();
+            consumer.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while closing", e);
+        }
+        finally
+        {
+            release.countDown();
+        }
+
+        if(failure[0] != null)
+            throw new TestFailed("consuming closed stream failed", failure[0]);
+        if(!Boolean.FALSE.equals(more[0]))
+            throw new TestFailed("closed stream has further elements");
+
+        task();
+    }
+
+    /** Answers the stream requests as a skeleton would, holding the answer
+        to a request for a chunk until released.
+
+        @param request The stream request.
+        @return The response.
+     */
+    private RMIResponse exchange(RMIRequest request)
+    {
+        if(request.getCredit() == 0)
+        {
+            closeRequests.incrementAndGet();
+            return RMIResponse.chunk(request.getCallId(), STREAM_ID,
+                                     new Object[0], true);
+        }
+
+        fetching.countDown();
+        try
+        {
+            release.await();
+        }
+        catch(InterruptedException e) { }
+
+        return RMIResponse.chunk(request.getCallId(), STREAM_ID,
+                                 new Object[] {2}, false);
+    }
+}
@@ -0,0 +1,329 @@
+package rmi;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import rmi.io.WireFormat;
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+import test.*;
+
+/** Checks that a skeleton given a shared-memory address serves stubs in every
+    connection mode, wire format and wait strategy, carries payloads larger
+    than its rings, leaves no ring files behind, and lets pooled connections
+    notice that it has been restarted.
+ */
+public class SharedMemoryTransportTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the shared-memory transport";
+
+    /** Number of threads calling through one multiplexed connection. */
+    private static final int    THREADS = 4;
+    /** Number of calls made by each thread. */
+    private static final int    CALLS = 200;
+
+    /** Directory holding the socket and ring files. */
+    private Path                    directory;
+    /** Address of the skeleton. */
+    private SharedMemoryAddress     address;
+    /** Skeleton serving the calls. */
+    private Skeleton<IPingServer>   skeleton;
+
+    /** Starts the skeleton on a socket file in a fresh directory.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("rmi");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create socket directory", e);
+        }
+
+        address = SharedMemoryAddress.of(directory.resolve("ping.sock"));
+        skeleton = new Skeleton<IPingServer>(IPingServer.class,
+                                             new PingServer(), address);
+        start();
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("choosing the transport from the address");
+
+        if(skeleton.getTransport() != Transport.SHARED_MEMORY ||
+           skeleton.getBindAddress() != null ||
+           !Files.exists(address.getPath()))
+        {
+            throw new TestFailed("skeleton not listening on the socket file");
+        }
+
+        IPingServer         fromSkeleton =
+            Stub.create(IPingServer.class, skeleton);
+        IPingServer         fromAddress = Stub.create(IPingServer.class, address);
+
+        if(!fromSkeleton.equals(fromAddress) ||
+           !fromSkeleton.toString().contains(address.getPath().toString()))
+        {
+            throw new TestFailed("stubs for the socket file differ");
+        }
+
+        ConnectionMode[]    modes =
+            {ConnectionMode.PER_CALL, ConnectionMode.POOLED};
+        for(WaitStrategy strategy : WaitStrategy.values())
+        {
+            Stub.setWaitStrategy(strategy);
+            for(WireFormat format : WireFormat.values())
+            {
+                for(ConnectionMode mode : modes)
+                {
+                    task("calling in " + mode + " mode with " + format +
+                         " messages, waiting with " + strategy);
+
+                    Stub.setConnectionMode(mode);
+                    Stub.setWireFormat(format);
+                    ping(fromAddress, mode.ordinal() * 10 + format.ordinal());
+                    echo(fromSkeleton);
+                    Stub.getConnectionPool().clear();
+                }
+            }
+        }
+        Stub.setWaitStrategy(WaitStrategy.PARK);
+
+        task("calling concurrently in MULTIPLEXED mode");
+
+        Stub.setWireFormat(WireFormat.BINARY);
+        Stub.setConnectionMode(ConnectionMode.MULTIPLEXED);
+        callConcurrently(fromAddress);
+        echo(fromSkeleton);
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+
+        task("removing the ring files");
+
+        checkRingFiles();
+
+        task("reconnecting pooled connections after a restart");
+
+        Stub.setConnectionMode(ConnectionMode.POOLED);
+        ping(fromAddress, 100);
+        restart(WaitStrategy.BUSY_SPIN);
+        ping(fromAddress, 101);
+        Stub.getConnectionPool().clear();
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+
+        task("restarting the skeleton");
+
+        restart(WaitStrategy.PARK);
+        ping(fromAddress, 102);
+
+        task();
+    }
+
+    /** Stops the skeleton, restores the default stub settings and removes the
+        socket directory. */
+    @Override
+    protected void clean()
+    {
+        Stub.getConnectionPool().clear();
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+        Stub.setWireFormat(WireFormat.BINARY);
+        Stub.setWaitStrategy(WaitStrategy.PARK);
+
+        if(skeleton != null)
+        {
+            skeleton.stop();
+            waitForStop();
+        }
+
+        if(directory != null)
+        {
+            try(DirectoryStream<Path> files =
+                    Files.newDirectoryStream(directory))
+            {
+                for(Path file : files)
+                    Files.deleteIfExists(file);
+            }
+            catch(IOException e) { }
+
+            try
+            {
+                Files.deleteIfExists(directory);
+            }
+            catch(IOException e) { }
+        }
+    }
+
+    /** Starts the skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    private void start() throws TestFailed
+    {
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Stops the skeleton and starts it again with the given wait strategy.
+
+        @param strategy Wait strategy of the restarted skeleton.
+        @throws TestFailed If the socket file is left behind or the skeleton
+                           cannot be started.
+     */
+    private void restart(WaitStrategy strategy) throws TestFailed
+    {
+        skeleton.stop();
+        waitForStop();
+
+        if(Files.exists(address.getPath()))
+            throw new TestFailed("socket file left behind by stopped skeleton");
+
+        skeleton.setWaitStrategy(strategy);
+        start();
+    }
+
+    /** Waits for the stopped skeleton to release its socket file. */
+    private void waitForStop()
+    {
+        for(int i = 0; i < 100 && Files.exists(address.getPath()); ++i)
+        {
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+        }
+    }
+
+    /** Checks that only the socket file is left in the directory.
+
+        @throws TestFailed If a ring file is left behind.
+     */
+    private void checkRingFiles() throws TestFailed
+    {
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory))
+        {
+            for(Path file : files)
+            {
+                if(!file.equals(address.getPath()))
+                    throw new TestFailed("ring file left behind: " + file);
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to list socket directory", e);
+        }
+    }
+
+    /** Makes calls through the stub from several threads at once.
+
+        @param stub Stub to call.
+        @throws TestFailed If a call fails or returns the wrong response.
+     */
+    private void callConcurrently(IPingServer stub) throws TestFailed
+    {
+        List<Thread>        threads = new ArrayList<>();
+        List<Throwable>     failures =
+            Collections.synchronizedList(new ArrayList<>());
+
+        for(int t = 0; t < THREADS; ++t)
+        {
+            int             base = t * CALLS;
+            Thread          thread = new Thread(() ->
+            {
+                try
+                {
+                    for(int i = 0; i < CALLS; ++i)
+                        ping(stub, base + i);
+                }
+                catch(Throwable e)
+                {
+                    failures.add(e);
+                }
+            });
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        for(Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+        }
+
+        if(!failures.isEmpty())
+            throw new TestFailed("concurrent call failed", failures.get(0));
+    }
+
+    /** Makes a call through the stub and checks its response.
+
+        @param stub Stub to call.
+        @param id Ping identifier.
+        @throws TestFailed If the call fails or returns the wrong response.
+     */
+    private void ping(IPingServer stub, int id) throws TestFailed
+    {
+        try
+        {
+            if(!("Pong " + id).equals(stub.ping(id)))
+                throw new TestFailed("incorrect response");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+    }
+
+    /** Sends a payload many times larger than a ring both ways.
+
+        @param stub Stub to call.
+        @throws TestFailed If the call fails or returns the wrong payload.
+     */
+    private void echo(IPingServer stub) throws TestFailed
+    {
+        byte[]              payload = new byte[1 << 20];
+        for(int i = 0; i < payload.length; ++i)
+            payload[i] = (byte)i;
+
+        try
+        {
+            if(!Arrays.equals(payload, stub.echo(payload)))
+                throw new TestFailed("payload corrupted");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("echo failed", e);
+        }
+    }
+}
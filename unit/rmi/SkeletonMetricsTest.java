@@ -0,0 +1,326 @@
+package rmi;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import rmi.io.WireFormat;
+import rmi.metrics.MethodSnapshot;
+import rmi.metrics.SkeletonMetrics;
+import test.*;
+
+/** Checks that skeletons count the calls and failures of each remote method,
+    track the calls in flight, time the phases of every call, and expose the
+    metrics over JMX while running, with both server engines.
+ */
+public class SkeletonMetricsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking skeleton call metrics";
+
+    /** Number of successful calls made to each skeleton. */
+    private static final int    CALLS = 5;
+    /** Time in milliseconds the blocking call is held. */
+    private static final int    HOLD = 30;
+
+    /** Skeleton under test. */
+    private Skeleton<MetricsInterface>  skeleton;
+
+    /** Sets the wire format, so that decoding can be timed with both
+        engines. */
+    @Override
+    protected void initialize()
+    {
+        Stub.setWireFormat(WireFormat.BINARY);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        for(ServerEngine engine : ServerEngine.values())
+            check(engine);
+
+        task();
+    }
+
+    /** Checks the metrics of a skeleton served by the given engine.
+
+        @param engine The server engine.
+        @throws TestFailed If the test fails.
+     */
+    private void check(ServerEngine engine) throws TestFailed
+    {
+        MetricsServer       server = new MetricsServer();
+
+        skeleton = new Skeleton<MetricsInterface>(MetricsInterface.class,
+                                                  server);
+        skeleton.setServerEngine(engine);
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        MetricsInterface    stub = Stub.create(MetricsInterface.class,
+                                               skeleton);
+        SkeletonMetrics     metrics = skeleton.getMetrics();
+
+        task("counting calls and failures with " + engine);
+
+        try
+        {
+            for(int i = 0; i < CALLS; ++i)
+            {
+                if(stub.square(i) != i * i)
+                    throw new TestFailed("wrong result");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        for(int i = 0; i < 2; ++i)
+        {
+            try
+            {
+                stub.fail();
+                throw new TestFailed("remote exception not reported");
+            }
+            catch(IllegalStateException e) { }
+            catch(RMIException e)
+            {
+                throw new TestFailed("call failed", e);
+            }
+        }
+
+        awaitCalls(metrics, CALLS + 2);
+
+        MethodSnapshot      square = metrics.getMethod("square(int)");
+        MethodSnapshot      fail = metrics.getMethod("fail()");
+
+        if(square == null || fail == null)
+            throw new TestFailed("method metrics missing");
+
+        if(square.getCalls() != CALLS || square.getErrors() != 0 ||
+           fail.getCalls() != 2 || fail.getErrors() != 2)
+        {
+            throw new TestFailed("wrong call or error counts: " + square +
+                                 "\n" + fail);
+        }
+
+        if(metrics.getCalls() != CALLS + 2 || metrics.getErrors() != 2)
+            throw new TestFailed("wrong total counts");
+
+        task("checking that every phase is timed with " + engine);
+
+        if(square.getQueueWait().getCount() != CALLS ||
+           square.getDeserialize().getCount() != CALLS ||
+           square.getInvoke().getCount() != CALLS ||
+           square.getSerialize().getCount() != CALLS)
+        {
+            throw new TestFailed("phases not timed for every call: " +
+                                 square);
+        }
+
+        task("tracking the calls in flight with " + engine);
+
+        Thread              caller = new Thread(() -> {
+            try
+            {
+                stub.block();
+            }
+            catch(RMIException e) { }
+        });
+        caller.start();
+
+        try
+        {
+            long            deadline = System.currentTimeMillis() + 1000;
+            while(metrics.getInFlight() != 1)
+            {
+                if(System.currentTimeMillis() > deadline)
+                    throw new TestFailed("call in flight not counted");
+                Thread.sleep(1);
+            }
+
+            Thread.sleep(HOLD);
+            server.release.countDown();
+            caller.join(1000);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        awaitCalls(metrics, CALLS + 3);
+
+        MethodSnapshot      block = metrics.getMethod("block()");
+
+        if(metrics.getInFlight() != 0 || block.getCalls() != 1)
+            throw new TestFailed("completed call still in flight");
+
+        if(block.getInvoke().getMax() < HOLD * 1000000L)
+            throw new TestFailed("invocation time too short: " + block);
+
+        task("reading the metrics over JMX with " + engine);
+
+        MBeanServer         mbeans =
+            ManagementFactory.getPlatformMBeanServer();
+        ObjectName          name;
+
+        try
+        {
+            name = new ObjectName("rmi:type=Skeleton,interface=" +
+                                  MetricsInterface.class.getName() +
+                                  ",port=" +
+                                  skeleton.getBindAddress().getPort());
+
+            if(!Long.valueOf(CALLS + 3).equals(
+                    mbeans.getAttribute(name, "Calls")))
+            {
+                throw new TestFailed("wrong call count over JMX");
+            }
+
+            CompositeData[] methods =
+                (CompositeData[])mbeans.getAttribute(name, "Methods");
+
+            if(methods.length != 3 ||
+               !"block()".equals(methods[0].get("name")) ||
+               !Long.valueOf(2).equals(methods[1].get("errors")))
+            {
+                throw new TestFailed("wrong method metrics over JMX");
+            }
+
+            CompositeData   invoke = (CompositeData)methods[0].get("invoke");
+
+            if(((Long)invoke.get("max")) < HOLD * 1000000L)
+                throw new TestFailed("wrong latencies over JMX");
+        }
+        catch(JMException e)
+        {
+            throw new TestFailed("metrics not readable over JMX", e);
+        }
+
+        task("unregistering the metrics when stopped with " + engine);
+
+        skeleton.stop();
+        try
+        {
+            long            deadline = System.currentTimeMillis() + 1000;
+            while(mbeans.isRegistered(name))
+            {
+                if(System.currentTimeMillis() > deadline)
+                    throw new TestFailed("metrics still registered");
+                Thread.sleep(1);
+            }
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        skeleton = null;
+    }
+
+    /** Waits for the skeleton to record the given number of calls. A call is
+        recorded only once its response has been handed to the connection,
+        so the caller may see the response first.
+
+        @param metrics The metrics of the skeleton.
+        @param calls The number of calls.
+        @throws TestFailed If the calls are not recorded in time.
+     */
+    private void awaitCalls(SkeletonMetrics metrics, long calls)
+        throws TestFailed
+    {
+        long                deadline = System.currentTimeMillis() + 1000;
+
+        try
+        {
+            while(metrics.getCalls() < calls)
+            {
+                if(System.currentTimeMillis() > deadline)
+                    throw new TestFailed("calls not recorded");
+                Thread.sleep(1);
+            }
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Remote interface whose calls are measured. */
+    public interface MetricsInterface
+    {
+        /** Squares a number.
+
+            @param value The number.
+            @return The square.
+            @throws RMIException If the call cannot be completed.
+         */
+        public int square(int value) throws RMIException;
+
+        /** Always throws.
+
+            @throws IllegalStateException Always.
+            @throws RMIException If the call cannot be completed.
+         */
+        public void fail() throws RMIException;
+
+        /** Blocks until the server is released.
+
+            @throws RMIException If the call cannot be completed.
+         */
+        public void block() throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class MetricsServer implements MetricsInterface
+    {
+        /** Released once the blocking call is to return. */
+        final CountDownLatch    release = new CountDownLatch(1);
+
+        @Override
+        public int square(int value)
+        {
+            return value * value;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException("asked to fail");
+        }
+
+        @Override
+        public void block()
+        {
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+}
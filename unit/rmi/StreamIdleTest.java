@@ -0,0 +1,129 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import test.*;
+
+/** Checks that the skeleton closes a stream its stub abandons without
+    closing it once the stream has been left idle, without waiting for
+    another stream to be opened.
+ */
+public class StreamIdleTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking that idle streams are closed";
+
+    /** Idle timeout in milliseconds set on the skeleton. */
+    private static final long   IDLE_TIMEOUT = 100;
+
+    /** Server returning the streams. */
+    private WordServer              server;
+    /** Skeleton serving the calls. */
+    private Skeleton<WordInterface> skeleton;
+
+    /** Starts the skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        server = new WordServer();
+        skeleton = new Skeleton<WordInterface>(WordInterface.class, server);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("setting an invalid idle timeout");
+
+        try
+        {
+            skeleton.getStreams().setIdleTimeout(0);
+            throw new TestFailed("non-positive idle timeout accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        task("abandoning a stream");
+
+        skeleton.getStreams().setIdleTimeout(IDLE_TIMEOUT);
+        WordInterface       stub = Stub.create(WordInterface.class, skeleton);
+        try
+        {
+            if(!"w0".equals(stub.words(1000).findFirst().orElse(null)))
+                throw new TestFailed("stream element wrong");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        long                deadline = System.currentTimeMillis() +
+                                       IDLE_TIMEOUT * 10;
+        while(server.closed.get() == 0 || skeleton.getStreams().size() != 0)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("abandoned stream not closed");
+
+            try
+            {
+                Thread.sleep(IDLE_TIMEOUT / 4);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while waiting", e);
+            }
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Remote interface returning a stream. */
+    public interface WordInterface
+    {
+        /** Returns the words <code>w0</code>, <code>w1</code> and so on.
+
+            @param count Number of words.
+            @return The words.
+            @throws RMIException If the call cannot be completed.
+         */
+        public Stream<String> words(int count) throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class WordServer implements WordInterface
+    {
+        /** Number of word streams closed. */
+        final AtomicInteger     closed = new AtomicInteger();
+
+        @Override
+        public Stream<String> words(int count)
+        {
+            return IntStream.range(0, count).mapToObj(i -> "w" + i)
+                            .onClose(closed::incrementAndGet);
+        }
+    }
+}
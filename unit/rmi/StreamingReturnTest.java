@@ -0,0 +1,641 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import rmi.io.WireFormat;
+import test.*;
+
+/** Checks that remote methods returning an <code>Iterator</code>, a
+    <code>Stream</code> or a <code>Flow.Publisher</code> deliver every
+    element in order with every server engine, connection mode and wire
+    format, that the skeleton takes elements from the result only as the stub
+    grants credit, and that streams closed early, failing or ended leave no
+    open stream behind.
+ */
+public class StreamingReturnTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking streaming return values";
+
+    /** Number of elements in the streams consumed in full. */
+    private static final int    LENGTH = 1000;
+    /** Credit granted while checking flow control. */
+    private static final int    CREDIT = 10;
+
+    /** Server shared by both skeletons. */
+    private StreamServer                server;
+    /** Skeleton served by the blocking engine. */
+    private Skeleton<StreamInterface>   blocking;
+    /** Skeleton served by the NIO engine. */
+    private Skeleton<StreamInterface>   nio;
+
+    /** Starts the skeletons.
+
+        @throws TestFailed If a skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        server = new StreamServer();
+        blocking = new Skeleton<StreamInterface>(StreamInterface.class, server);
+        blocking.setServerEngine(ServerEngine.BLOCKING);
+        nio = new Skeleton<StreamInterface>(StreamInterface.class, server);
+        nio.setServerEngine(ServerEngine.NIO);
+
+        try
+        {
+            blocking.start();
+            nio.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ConnectionMode[]    modes =
+            {ConnectionMode.PER_CALL, ConnectionMode.POOLED};
+        for(Skeleton<StreamInterface> skeleton : Arrays.asList(blocking, nio))
+        {
+            StreamInterface stub = Stub.create(StreamInterface.class, skeleton);
+
+            for(WireFormat format : WireFormat.values())
+            {
+                for(ConnectionMode mode : modes)
+                {
+                    task("streaming from the " + skeleton.getServerEngine() +
+                         " engine in " + mode + " mode with " + format +
+                         " messages");
+
+                    Stub.setConnectionMode(mode);
+                    Stub.setWireFormat(format);
+                    consume(stub, skeleton);
+                    Stub.getConnectionPool().clear();
+                }
+            }
+
+            // A multiplexed connection keeps the wire format it was opened
+            // with, so it is tried with binary messages only.
+            task("streaming from the " + skeleton.getServerEngine() +
+                 " engine in MULTIPLEXED mode");
+
+            Stub.setWireFormat(WireFormat.BINARY);
+            Stub.setConnectionMode(ConnectionMode.MULTIPLEXED);
+            consume(stub, skeleton);
+        }
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+
+        StreamInterface     stub = Stub.create(StreamInterface.class, nio);
+
+        task("taking elements only as credit is granted");
+
+        checkCredit(stub);
+
+        task("requesting no more of a publisher than its subscriber");
+
+        checkDemand(stub);
+
+        task("closing streams early");
+
+        checkClose(stub);
+
+        task("reporting a failing stream");
+
+        checkFailure(stub);
+
+        task("streaming through asynchronous and local calls");
+
+        checkAsync(stub);
+        Stub.setLocalCallMode(LocalCallMode.COPY);
+        consume(Stub.create(StreamInterface.class, nio), nio);
+        Stub.setLocalCallMode(LocalCallMode.DISABLED);
+
+        task();
+    }
+
+    /** Stops the skeletons and restores the default stub settings. */
+    @Override
+    protected void clean()
+    {
+        Stub.setLocalCallMode(LocalCallMode.DISABLED);
+        Stub.getConnectionPool().clear();
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+        Stub.setWireFormat(WireFormat.BINARY);
+        Stub.setStreamCredit(256);
+
+        if(blocking != null)
+            blocking.stop();
+        if(nio != null)
+            nio.stop();
+    }
+
+    /** Consumes every kind of stream in full and checks that the skeleton
+        keeps none of them open afterwards.
+
+        @param stub Stub to call.
+        @param skeleton Skeleton the stub calls.
+        @throws TestFailed If a stream is incomplete or left open.
+     */
+    private void consume(StreamInterface stub, Skeleton<StreamInterface> skeleton)
+        throws TestFailed
+    {
+        try
+        {
+            Iterator<Integer>   iterator = stub.count(LENGTH);
+            for(int i = 0; i < LENGTH; ++i)
+            {
+                if(!iterator.hasNext() || iterator.next() != i)
+                    throw new TestFailed("iterator element " + i + " wrong");
+            }
+            if(iterator.hasNext())
+                throw new TestFailed("iterator does not end");
+
+            List<String>        words;
+            try(Stream<String> stream = stub.words(LENGTH))
+            {
+                words = stream.collect(Collectors.toList());
+            }
+            if(words.size() != LENGTH || !words.get(LENGTH - 1).equals("w999"))
+                throw new TestFailed("stream incomplete");
+
+            CollectingSubscriber subscriber = new CollectingSubscriber(7, -1);
+            stub.publish(LENGTH).subscribe(subscriber);
+            subscriber.check(LENGTH);
+
+            if(stub.count(0).hasNext() || stub.nothing() != null)
+                throw new TestFailed("empty results not returned as such");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        checkNoneOpen(skeleton);
+    }
+
+    /** Checks that the skeleton advances an iterator no further than the
+        first chunk and the credit granted since.
+
+        @param stub Stub to call.
+        @throws TestFailed If more elements are taken than granted.
+     */
+    private void checkCredit(StreamInterface stub) throws TestFailed
+    {
+        Stub.setStreamCredit(CREDIT);
+        try
+        {
+            Iterator<Integer>   iterator = stub.count(LENGTH);
+            if(server.produced.get() > StreamTable.initialCredit)
+                throw new TestFailed("more than the first chunk produced");
+
+            for(int i = 0; i <= StreamTable.initialCredit; ++i)
+                iterator.next();
+            if(server.produced.get() > StreamTable.initialCredit + CREDIT)
+                throw new TestFailed("more produced than credit granted");
+
+            ((AutoCloseable)iterator).close();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to read stream", e);
+        }
+        finally
+        {
+            Stub.setStreamCredit(256);
+        }
+
+        if(!server.countClosed)
+            throw new TestFailed("iterator not closed");
+        checkNoneOpen(nio);
+    }
+
+    /** Checks that a subscriber requesting a few elements at a time is sent
+        them all, and that the publisher is requested no more than the first
+        chunk and the subscriber's demand.
+
+        @param stub Stub to call.
+        @throws TestFailed If the publisher is requested too much.
+     */
+    private void checkDemand(StreamInterface stub) throws TestFailed
+    {
+        CollectingSubscriber    subscriber = new CollectingSubscriber(3, 100);
+        try
+        {
+            stub.publish(LENGTH).subscribe(subscriber);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        subscriber.check(100);
+        RangePublisher          publisher = server.publisher;
+        if(!publisher.cancelled)
+            throw new TestFailed("publisher not cancelled");
+        if(publisher.requested.get() > StreamTable.initialCredit + 100)
+            throw new TestFailed("publisher requested beyond the demand");
+        checkNoneOpen(nio);
+    }
+
+    /** Checks that closing a stream before its end closes its source.
+
+        @param stub Stub to call.
+        @throws TestFailed If the source is not closed.
+     */
+    private void checkClose(StreamInterface stub) throws TestFailed
+    {
+        server.wordsClosed.set(0);
+        try(Stream<String> stream = stub.words(LENGTH))
+        {
+            if(stream.skip(100).findFirst().map("w100"::equals).orElse(false)
+               != true)
+            {
+                throw new TestFailed("stream element wrong");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        if(server.wordsClosed.get() != 1)
+            throw new TestFailed("stream not closed");
+        checkNoneOpen(nio);
+    }
+
+    /** Checks that an exception thrown by the source reaches the stub after
+        the elements before it.
+
+        @param stub Stub to call.
+        @throws TestFailed If the exception is not reported.
+     */
+    private void checkFailure(StreamInterface stub) throws TestFailed
+    {
+        int                 read = 0;
+        try
+        {
+            Iterator<Integer>   iterator = stub.failing(100);
+            while(iterator.hasNext())
+            {
+                iterator.next();
+                ++read;
+            }
+            throw new TestFailed("failure not reported");
+        }
+        catch(IllegalStateException e)
+        {
+            if(read != 100 || !"broken".equals(e.getMessage()))
+                throw new TestFailed("failure reported at the wrong element");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        checkNoneOpen(nio);
+    }
+
+    /** Checks that a stream returned through an asynchronous call is read
+        like one returned directly.
+
+        @param stub Stub to call.
+        @throws TestFailed If the stream is incomplete.
+     */
+    private void checkAsync(StreamInterface stub) throws TestFailed
+    {
+        try
+        {
+            Iterator<Integer>   iterator =
+                Stub.async(stub).call(s -> s.count(LENGTH)).get();
+            int                 sum = 0;
+            while(iterator.hasNext())
+                sum += iterator.next();
+            if(sum != LENGTH * (LENGTH - 1) / 2)
+                throw new TestFailed("asynchronous stream incomplete");
+        }
+        catch(InterruptedException | ExecutionException e)
+        {
+            throw new TestFailed("asynchronous call failed", e);
+        }
+
+        checkNoneOpen(nio);
+    }
+
+    /** Checks that the skeleton keeps no stream open.
+
+        @param skeleton Skeleton to check.
+        @throws TestFailed If a stream is open.
+     */
+    private void checkNoneOpen(Skeleton<StreamInterface> skeleton)
+        throws TestFailed
+    {
+        if(skeleton.getStreams().size() != 0)
+            throw new TestFailed("stream left open at the skeleton");
+    }
+
+    /** Subscriber collecting the integers it is sent, requesting a few at a
+        time and optionally cancelling after some number of them. */
+    private static class CollectingSubscriber
+        implements Flow.Subscriber<Integer>
+    {
+        /** Number of elements requested at a time. */
+        private final int           batch;
+        /** Number of elements after which to cancel; negative for none. */
+        private final int           cancelAfter;
+        /** Elements received. */
+        private final List<Integer> received = new ArrayList<>();
+        /** Subscription. */
+        private Flow.Subscription   subscription;
+        /** Number of elements still requested. */
+        private int                 outstanding;
+        /** Whether the stream completed. */
+        private boolean             completed;
+        /** Failure received, if any. */
+        private Throwable           failure;
+
+        /** Creates the subscriber.
+
+            @param batch Number of elements requested at a time.
+            @param cancelAfter Number of elements after which to cancel, or
+                               a negative number to read the stream in full.
+         */
+        CollectingSubscriber(int batch, int cancelAfter)
+        {
+            this.batch = batch;
+            this.cancelAfter = cancelAfter;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            outstanding = batch;
+            subscription.request(batch);
+        }
+
+        @Override
+        public void onNext(Integer item)
+        {
+            received.add(item);
+            if(received.size() == cancelAfter)
+            {
+                subscription.cancel();
+                return;
+            }
+            if(--outstanding == 0)
+            {
+                outstanding = batch;
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            failure = throwable;
+        }
+
+        @Override
+        public void onComplete()
+        {
+            completed = true;
+        }
+
+        /** Checks that the subscriber received the given number of elements
+            in order, and completed unless it cancelled.
+
+            @param count Number of elements expected.
+            @throws TestFailed If the elements are wrong or the subscriber
+                               failed.
+         */
+        void check(int count) throws TestFailed
+        {
+            if(failure != null)
+                throw new TestFailed("subscriber failed", failure);
+            if(completed == (cancelAfter >= 0))
+                throw new TestFailed("subscriber completed wrongly");
+            if(!received.equals(IntStream.range(0, count).boxed()
+                                         .collect(Collectors.toList())))
+            {
+                throw new TestFailed("subscriber received wrong elements");
+            }
+        }
+    }
+
+    /** Remote interface returning streams. */
+    public interface StreamInterface
+    {
+        /** Returns the integers from zero up to the given count.
+
+            @param count Number of integers.
+            @return The integers.
+            @throws RMIException If the call cannot be completed.
+         */
+        public Iterator<Integer> count(int count) throws RMIException;
+
+        /** Returns the words <code>w0</code>, <code>w1</code> and so on.
+
+            @param count Number of words.
+            @return The words.
+            @throws RMIException If the call cannot be completed.
+         */
+        public Stream<String> words(int count) throws RMIException;
+
+        /** Publishes the integers from zero up to the given count.
+
+            @param count Number of integers.
+            @return The publisher.
+            @throws RMIException If the call cannot be completed.
+         */
+        public Flow.Publisher<Integer> publish(int count) throws RMIException;
+
+        /** Returns integers, failing after the given count of them.
+
+            @param count Number of integers before the failure.
+            @return The integers.
+            @throws RMIException If the call cannot be completed.
+         */
+        public Iterator<Integer> failing(int count) throws RMIException;
+
+        /** Returns no stream at all.
+
+            @return <code>null</code>.
+            @throws RMIException If the call cannot be completed.
+         */
+        public Iterator<Integer> nothing() throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class StreamServer implements StreamInterface
+    {
+        /** Number of integers produced by the last counting iterator. */
+        final AtomicInteger     produced = new AtomicInteger();
+        /** Whether the last counting iterator was closed. */
+        volatile boolean        countClosed;
+        /** Number of word streams closed. */
+        final AtomicInteger     wordsClosed = new AtomicInteger();
+        /** The publisher last returned. */
+        volatile RangePublisher publisher;
+
+        @Override
+        public Iterator<Integer> count(int count)
+        {
+            produced.set(0);
+            countClosed = false;
+            return new CountingIterator(count, -1);
+        }
+
+        @Override
+        public Stream<String> words(int count)
+        {
+            return IntStream.range(0, count).mapToObj(i -> "w" + i)
+                            .onClose(wordsClosed::incrementAndGet);
+        }
+
+        @Override
+        public Flow.Publisher<Integer> publish(int count)
+        {
+            publisher = new RangePublisher(count);
+            return publisher;
+        }
+
+        @Override
+        public Iterator<Integer> failing(int count)
+        {
+            return new CountingIterator(count + 1, count);
+        }
+
+        @Override
+        public Iterator<Integer> nothing()
+        {
+            return null;
+        }
+
+        /** Iterator over integers recording how many it has produced and
+            whether it has been closed. */
+        private class CountingIterator implements Iterator<Integer>,
+                                                  AutoCloseable
+        {
+            /** Number of integers. */
+            private final int   count;
+            /** Integer at which to fail; negative for none. */
+            private final int   failAt;
+            /** Next integer. */
+            private int         next;
+
+            /** Creates the iterator.
+
+                @param count Number of integers.
+                @param failAt Integer at which to fail, or a negative number.
+             */
+            CountingIterator(int count, int failAt)
+            {
+                this.count = count;
+                this.failAt = failAt;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < count;
+            }
+
+            @Override
+            public Integer next()
+            {
+                if(next == failAt)
+                    throw new IllegalStateException("broken");
+                produced.incrementAndGet();
+                return next++;
+            }
+
+            @Override
+            public void close()
+            {
+                countClosed = true;
+            }
+        }
+    }
+
+    /** Publisher of a range of integers, emitting them as they are requested
+        and recording how many have been requested. */
+    private static class RangePublisher implements Flow.Publisher<Integer>
+    {
+        /** Number of integers. */
+        private final int       count;
+        /** Number of integers requested. */
+        final AtomicLong        requested = new AtomicLong();
+        /** Whether the subscription was cancelled. */
+        volatile boolean        cancelled;
+
+        /** Creates the publisher.
+
+            @param count Number of integers.
+         */
+        RangePublisher(int count)
+        {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Integer> subscriber)
+        {
+            subscriber.onSubscribe(new Flow.Subscription()
+            {
+                /** Next integer. */
+                private int     next;
+                /** Number of integers requested and not yet emitted. */
+                private long    demand;
+                /** Whether the publisher is emitting. */
+                private boolean emitting;
+                /** Whether the subscriber has been completed. */
+                private boolean completed;
+
+                @Override
+                public synchronized void request(long n)
+                {
+                    requested.addAndGet(n);
+                    demand += n;
+                    if(emitting)
+                        return;
+
+                    emitting = true;
+                    while(demand > 0 && next < count && !cancelled)
+                    {
+                        --demand;
+                        subscriber.onNext(next++);
+                    }
+                    if(next == count && !cancelled && !completed)
+                    {
+                        completed = true;
+                        subscriber.onComplete();
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel()
+                {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+
+import rmi.server.IPingServer;
+import test.*;
+
+/** Checks that stub identity is fixed when the stub is created: stubs for the
+    same skeleton are equal whatever host name they were given, their hash
+    codes and strings are computed without allocating or looking up host
+    names, and the identity survives serialization.
+ */
+public class StubIdentityTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking cached stub identity";
+
+    /** Port the stubs are created for; nothing needs to listen on it. */
+    private static final int    PORT = 7000;
+    /** Number of calls made when measuring allocation. */
+    private static final int    CALLS = 100000;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        InetAddress         loopback;
+        InetAddress         named;
+
+        try
+        {
+            loopback = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+            named = InetAddress.getByAddress("some.host.invalid",
+                                             new byte[] {127, 0, 0, 1});
+        }
+        catch(UnknownHostException e)
+        {
+            throw new TestFailed("unable to create addresses", e);
+        }
+
+        IPingServer         plain =
+            Stub.create(IPingServer.class,
+                        new InetSocketAddress(loopback, PORT));
+        IPingServer         withName =
+            Stub.create(IPingServer.class, new InetSocketAddress(named, PORT));
+
+        task("comparing stubs created with and without a host name");
+
+        if(!plain.equals(withName) || plain.hashCode() != withName.hashCode())
+            throw new TestFailed("stubs for the same skeleton differ");
+
+        if(!withName.toString().contains("some.host.invalid") ||
+           !plain.toString().contains("127.0.0.1"))
+        {
+            throw new TestFailed("stub not named by the address it was " +
+                                 "given: " + withName);
+        }
+
+        IPingServer         otherPort =
+            Stub.create(IPingServer.class,
+                        new InetSocketAddress(loopback, PORT + 1));
+
+        if(plain.equals(otherPort))
+            throw new TestFailed("stubs for different skeletons equal");
+
+        task("using stubs as hash map keys");
+
+        HashMap<IPingServer, Integer>   map = new HashMap<>();
+        map.put(plain, 1);
+
+        if(map.get(withName) == null || map.get(otherPort) != null)
+            throw new TestFailed("stub lookup in hash map failed");
+
+        task("computing identity without allocating");
+
+        checkAllocation(plain);
+
+        task("keeping identity through serialization");
+
+        IPingServer         copy = copy(withName);
+
+        if(!copy.equals(plain) || copy.hashCode() != plain.hashCode() ||
+           !copy.toString().equals(withName.toString()))
+        {
+            throw new TestFailed("identity lost in serialization");
+        }
+    }
+
+    /** Checks that hash codes and strings of a stub do not allocate once
+        warmed up. The check is skipped if the JVM cannot measure allocation.
+
+        @param stub The stub.
+        @throws TestFailed If calls allocate.
+     */
+    private void checkAllocation(IPingServer stub) throws TestFailed
+    {
+        if(!(ManagementFactory.getThreadMXBean() instanceof
+             com.sun.management.ThreadMXBean))
+        {
+            return;
+        }
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+
+        if(!threads.isThreadAllocatedMemorySupported() ||
+           !threads.isThreadAllocatedMemoryEnabled())
+        {
+            return;
+        }
+
+        long                thread = Thread.currentThread().getId();
+        int                 sink = 0;
+
+        for(int i = 0; i < CALLS; ++i)
+            sink += stub.hashCode() + stub.toString().length();
+
+        long                before = threads.getThreadAllocatedBytes(thread);
+
+        for(int i = 0; i < CALLS; ++i)
+            sink += stub.hashCode() + stub.toString().length();
+
+        long                allocated =
+            threads.getThreadAllocatedBytes(thread) - before;
+
+        // Any allocation per call would take at least 16 bytes a call.
+        if(allocated > CALLS)
+        {
+            throw new TestFailed("identity calls allocated " + allocated +
+                                 " bytes (" + sink + ")");
+        }
+    }
+
+    /** Copies a stub by serializing and deserializing it.
+
+        @param stub The stub.
+        @return The copy.
+        @throws TestFailed If the stub cannot be copied.
+     */
+    private IPingServer copy(IPingServer stub) throws TestFailed
+    {
+        try
+        {
+            ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+            ObjectOutputStream      out = new ObjectOutputStream(bytes);
+
+            out.writeObject(stub);
+            out.close();
+
+            ObjectInputStream       in =
+                new ObjectInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()));
+
+            return (IPingServer)in.readObject();
+        }
+        catch(IOException | ClassNotFoundException e)
+        {
+            throw new TestFailed("unable to copy stub", e);
+        }
+    }
+}
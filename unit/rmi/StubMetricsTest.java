@@ -0,0 +1,351 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import rmi.io.WireFormat;
+import rmi.metrics.ClientMethodSnapshot;
+import rmi.metrics.ClientMetrics;
+import test.*;
+
+/** Checks that stubs created with metrics enabled count the calls and
+    failures of each remote method and time the phases of every call, in all
+    connection modes, that other stubs record nothing, and that the metrics
+    do not keep the class loaders of the interfaces called alive.
+ */
+public class StubMetricsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking stub call metrics";
+
+    /** Number of successful calls made in each connection mode. */
+    private static final int    CALLS = 5;
+    /** Time in milliseconds the slow call takes on the server. */
+    private static final int    HOLD = 30;
+
+    /** Skeleton under test. */
+    private Skeleton<MeteredInterface>  skeleton;
+
+    /** Sets the wire format, so that decoding can be timed. */
+    @Override
+    protected void initialize()
+    {
+        Stub.setWireFormat(WireFormat.BINARY);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        for(ConnectionMode mode : ConnectionMode.values())
+            check(mode);
+
+        checkDisabled();
+        checkUnloading();
+        task();
+    }
+
+    /** Checks the metrics of a stub in the given connection mode.
+
+        @param mode The connection mode.
+        @throws TestFailed If the test fails.
+     */
+    private void check(ConnectionMode mode) throws TestFailed
+    {
+        Stub.setConnectionMode(mode);
+        ClientMetrics.reset();
+        startSkeleton();
+
+        Stub.setMetricsEnabled(true);
+        MeteredInterface    stub = Stub.create(MeteredInterface.class,
+                                               skeleton);
+        Stub.setMetricsEnabled(false);
+
+        task("counting calls and remote failures in " + mode + " mode");
+
+        try
+        {
+            for(int i = 0; i < CALLS; ++i)
+            {
+                if(stub.square(i) != i * i)
+                    throw new TestFailed("wrong result");
+            }
+
+            try
+            {
+                stub.fail();
+                throw new TestFailed("remote exception not reported");
+            }
+            catch(IllegalStateException e) { }
+
+            stub.slow();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        ClientMethodSnapshot    square = method("square(int)");
+        ClientMethodSnapshot    fail = method("fail()");
+
+        if(square.getCalls() != CALLS || square.getRemoteErrors() != 0 ||
+           square.getTransportErrors() != 0 || fail.getCalls() != 1 ||
+           fail.getRemoteErrors() != 1 || fail.getTransportErrors() != 0)
+        {
+            throw new TestFailed("wrong call or error counts: " + square +
+                                 "\n" + fail);
+        }
+
+        task("timing the phases of calls in " + mode + " mode");
+
+        if(square.getWrite().getCount() != CALLS ||
+           square.getServerWait().getCount() != CALLS ||
+           square.getTotal().getCount() != CALLS)
+        {
+            throw new TestFailed("phases not timed for every call: " +
+                                 square);
+        }
+
+        long                connects = square.getConnect().getCount() +
+                                       fail.getConnect().getCount() +
+                                       method("slow()").getConnect()
+                                           .getCount();
+        long                expected = (mode == ConnectionMode.PER_CALL) ?
+                                       CALLS + 2 : 1;
+
+        if(connects != expected)
+        {
+            throw new TestFailed("wrong number of connections timed: " +
+                                 connects);
+        }
+
+        long                reads = square.getRead().getCount();
+
+        if(mode == ConnectionMode.MULTIPLEXED ? reads != 0 : reads != CALLS)
+            throw new TestFailed("response decoding not timed: " + square);
+
+        ClientMethodSnapshot    slow = method("slow()");
+
+        // The server may start the call before the client has timed the end
+        // of its write, when the server thread it woke runs first, so only
+        // writing and waiting together surely cover the server time.
+        if(slow.getWrite().getMax() + slow.getServerWait().getMax() <
+               HOLD * 1000000L ||
+           slow.getTotal().getMax() < slow.getServerWait().getMax())
+        {
+            throw new TestFailed("server time not counted as waiting: " +
+                                 slow);
+        }
+
+        task("counting transport failures in " + mode + " mode");
+
+        skeleton.stop();
+        skeleton = null;
+
+        try
+        {
+            stub.square(1);
+            throw new TestFailed("call to stopped skeleton succeeded");
+        }
+        catch(RMIException e) { }
+
+        if(method("square(int)").getTransportErrors() != 1)
+            throw new TestFailed("transport failure not counted");
+
+        Stub.getConnectionPool().clear();
+    }
+
+    /** Checks that stubs created while metrics are disabled record nothing.
+
+        @throws TestFailed If the test fails.
+     */
+    private void checkDisabled() throws TestFailed
+    {
+        task("checking that other stubs record nothing");
+
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+        ClientMetrics.reset();
+        startSkeleton();
+
+        MeteredInterface    stub = Stub.create(MeteredInterface.class,
+                                               skeleton);
+
+        try
+        {
+            stub.square(2);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        if(method("square(int)").getCalls() != 0)
+            throw new TestFailed("call recorded by stub without metrics");
+    }
+
+    /** Checks that recording the metrics of a method does not keep the class
+        loader of its interface from being collected.
+
+        @throws TestFailed If the test fails.
+     */
+    private void checkUnloading() throws TestFailed
+    {
+        task("releasing the class loaders of the interfaces called");
+
+        WeakReference<ClassLoader>  loader = recordInLoader();
+        for(int i = 0; i < 50 && loader.get() != null; ++i)
+        {
+            System.gc();
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while collecting", e);
+            }
+        }
+
+        if(loader.get() != null)
+            throw new TestFailed("class loader kept alive by metrics");
+    }
+
+    /** Loads the remote interface through a class loader of its own and
+        records a call of one of its methods.
+
+        @return A weak reference to the class loader.
+        @throws TestFailed If the interface cannot be loaded.
+     */
+    private WeakReference<ClassLoader> recordInLoader() throws TestFailed
+    {
+        URL[]               path = new URL[] {
+            StubMetricsTest.class.getProtectionDomain().getCodeSource()
+                .getLocation(),
+            RMIException.class.getProtectionDomain().getCodeSource()
+                .getLocation()};
+
+        try
+        {
+            URLClassLoader  loader = new URLClassLoader(path, null);
+            Class<?>        loaded =
+                loader.loadClass(MeteredInterface.class.getName());
+            if(loaded == MeteredInterface.class)
+                throw new TestFailed("interface not loaded again");
+
+            Method          square = loaded.getMethod("square", int.class);
+            ClientMetrics.forMethod(square).callFinished(1, 1, 1, 1, 1, false,
+                                                        false);
+
+            loader.close();
+            return new WeakReference<>(loader);
+        }
+        catch(ReflectiveOperationException | IOException e)
+        {
+            throw new TestFailed("unable to load interface", e);
+        }
+    }
+
+    /** Starts a new skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    private void startSkeleton() throws TestFailed
+    {
+        skeleton = new Skeleton<MeteredInterface>(MeteredInterface.class,
+                                                  new MeteredServer());
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Returns the metrics of a method of the remote interface.
+
+        @param signature The signature of the method.
+        @return The metrics.
+        @throws TestFailed If the method has no metrics.
+     */
+    private ClientMethodSnapshot method(String signature) throws TestFailed
+    {
+        ClientMethodSnapshot    snapshot = ClientMetrics.getMethod(
+            MeteredInterface.class.getName() + "." + signature);
+
+        if(snapshot == null)
+            throw new TestFailed("metrics of " + signature + " missing");
+
+        return snapshot;
+    }
+
+    /** Stops the skeleton and restores the stub settings. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        Stub.setMetricsEnabled(false);
+        Stub.getConnectionPool().clear();
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+    }
+
+    /** Remote interface whose calls are measured. */
+    public interface MeteredInterface
+    {
+        /** Squares a number.
+
+            @param value The number.
+            @return The square.
+            @throws RMIException If the call cannot be completed.
+         */
+        public int square(int value) throws RMIException;
+
+        /** Always throws.
+
+            @throws IllegalStateException Always.
+            @throws RMIException If the call cannot be completed.
+         */
+        public void fail() throws RMIException;
+
+        /** Takes some time to return.
+
+            @throws RMIException If the call cannot be completed.
+         */
+        public void slow() throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class MeteredServer implements MeteredInterface
+    {
+        @Override
+        public int square(int value)
+        {
+            return value * value;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException("asked to fail");
+        }
+
+        @Override
+        public void slow()
+        {
+            try
+            {
+                Thread.sleep(HOLD);
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import rmi.io.WireFormat;
+import rmi.server.IPingServer;
+import rmi.server.PingServer;
+import test.*;
+
+/** Checks that a skeleton given a Unix domain socket address serves stubs in
+    every connection mode and wire format, and frees its socket file when it
+    stops so that it can be restarted.
+ */
+public class UnixDomainSocketTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the Unix domain transport";
+
+    /** Directory holding the socket file. */
+    private Path                    directory;
+    /** Address of the skeleton. */
+    private UnixDomainSocketAddress address;
+    /** Skeleton serving the calls. */
+    private Skeleton<IPingServer>   skeleton;
+
+    /** Starts the skeleton on a socket file in a fresh directory.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = Files.createTempDirectory("rmi");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create socket directory", e);
+        }
+
+        address = UnixDomainSocketAddress.of(directory.resolve("ping.sock"));
+        skeleton = new Skeleton<IPingServer>(IPingServer.class,
+                                             new PingServer(), address);
+        start();
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("choosing the transport from the address");
+
+        if(skeleton.getTransport() != Transport.UNIX_DOMAIN ||
+           skeleton.getBindAddress() != null ||
+           !Files.exists(address.getPath()))
+        {
+            throw new TestFailed("skeleton not listening on the socket file");
+        }
+
+        IPingServer         fromSkeleton =
+            Stub.create(IPingServer.class, skeleton);
+        IPingServer         fromAddress = Stub.create(IPingServer.class, address);
+
+        if(!fromSkeleton.equals(fromAddress) ||
+           !fromSkeleton.toString().contains(address.getPath().toString()))
+        {
+            throw new TestFailed("stubs for the socket file differ");
+        }
+
+        // A multiplexed connection keeps the wire format it was opened with,
+        // so only the per-call and pooled modes are tried with both.
+        ConnectionMode[]    modes =
+            {ConnectionMode.PER_CALL, ConnectionMode.POOLED};
+        for(WireFormat format : WireFormat.values())
+        {
+            for(ConnectionMode mode : modes)
+            {
+                task("calling in " + mode + " mode with " + format +
+                     " messages");
+
+                Stub.setConnectionMode(mode);
+                Stub.setWireFormat(format);
+                ping(fromAddress, mode.ordinal() * 10 + format.ordinal());
+                echo(fromSkeleton);
+                Stub.getConnectionPool().clear();
+            }
+        }
+
+        task("calling in MULTIPLEXED mode");
+
+        Stub.setWireFormat(WireFormat.BINARY);
+        Stub.setConnectionMode(ConnectionMode.MULTIPLEXED);
+        ping(fromAddress, 50);
+        echo(fromSkeleton);
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+
+        task("restarting the skeleton");
+
+        skeleton.stop();
+        waitForStop();
+
+        if(Files.exists(address.getPath()))
+            throw new TestFailed("socket file left behind by stopped skeleton");
+
+        start();
+        ping(fromAddress, 100);
+
+        task();
+    }
+
+    /** Stops the skeleton, restores the default stub settings and removes the
+        socket directory. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+        {
+            skeleton.stop();
+            waitForStop();
+        }
+
+        Stub.getConnectionPool().clear();
+        Stub.setConnectionMode(ConnectionMode.PER_CALL);
+        Stub.setWireFormat(WireFormat.BINARY);
+
+        if(directory != null)
+        {
+            try
+            {
+                Files.deleteIfExists(address.getPath());
+                Files.deleteIfExists(directory);
+            }
+            catch(IOException e) { }
+        }
+    }
+
+    /** Starts the skeleton.
+
+        @throws TestFailed If the skeleton cannot be started.
+     */
+    private void start() throws TestFailed
+    {
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Waits for the stopped skeleton to release its socket file. */
+    private void waitForStop()
+    {
+        for(int i = 0; i < 100 && Files.exists(address.getPath()); ++i)
+        {
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+        }
+    }
+
+    /** Makes a call through the stub and checks its response.
+
+        @param stub Stub to call.
+        @param id Ping identifier.
+        @throws TestFailed If the call fails or returns the wrong response.
+     */
+    private void ping(IPingServer stub, int id) throws TestFailed
+    {
+        try
+        {
+            if(!("Pong " + id).equals(stub.ping(id)))
+                throw new TestFailed("incorrect response");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+    }
+
+    /** Sends a payload larger than a socket buffer both ways.
+
+        @param stub Stub to call.
+        @throws TestFailed If the call fails or returns the wrong payload.
+     */
+    private void echo(IPingServer stub) throws TestFailed
+    {
+        byte[]              payload = new byte[1 << 20];
+        for(int i = 0; i < payload.length; ++i)
+            payload[i] = (byte)i;
+
+        try
+        {
+            if(!Arrays.equals(payload, stub.echo(payload)))
+                throw new TestFailed("payload corrupted");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("echo failed", e);
+        }
+    }
+}